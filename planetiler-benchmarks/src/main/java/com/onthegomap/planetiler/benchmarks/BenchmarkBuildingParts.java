@@ -0,0 +1,117 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import com.onthegomap.planetiler.FeatureMerge;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.stats.Timer;
+import com.onthegomap.planetiler.util.Format;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Compares removing building outlines covered by building parts with a pairwise envelope scan + chained
+ * {@link Geometry#difference(Geometry)} against {@link FeatureMerge#removeCoveredPolygons}.
+ * <p>
+ * Generates a synthetic dense z16 downtown tile where every block has an outline split into parts, similar to the
+ * building layer of Manhattan or Tokyo tiles.
+ */
+public class BenchmarkBuildingParts {
+
+  public static void main(String[] args) throws GeometryException {
+    Arguments arguments = Arguments.fromArgs(args);
+    int blocks = arguments.getInteger("blocks", "number of blocks along each side of the tile", 40);
+    int parts = arguments.getInteger("parts", "number of building parts per outline", 6);
+    int iterations = arguments.getInteger("iterations", "number of times to process the tile", 50);
+    List<VectorTile.Feature> features = generateTile(blocks, parts);
+    var format = Format.defaultInstance();
+
+    for (int i = 0; i < 5; i++) {
+      var timer = Timer.start();
+      int kept = 0;
+      for (int j = 0; j < iterations; j++) {
+        kept += pairwise(features).size();
+      }
+      var pairwise = timer.stop().elapsed().wall();
+
+      timer = Timer.start();
+      int kept2 = 0;
+      for (int j = 0; j < iterations; j++) {
+        kept2 += FeatureMerge.removeCoveredPolygons(features, BenchmarkBuildingParts::isPart, 0.1).size();
+      }
+      var indexed = timer.stop().elapsed().wall();
+
+      if (kept != kept2) {
+        System.err.println("Mismatch: " + kept + " != " + kept2);
+      }
+      System.err.println(
+        features.size() + " features pairwise: " + format.duration(pairwise.dividedBy(iterations)) +
+          " indexed: " + format.duration(indexed.dividedBy(iterations)) + " per tile"
+      );
+    }
+  }
+
+  private static boolean isPart(VectorTile.Feature feature) {
+    return (boolean) feature.tags().get("isPart");
+  }
+
+  private static List<VectorTile.Feature> generateTile(int blocks, int parts) {
+    Random random = new Random(0);
+    List<VectorTile.Feature> result = new ArrayList<>();
+    double size = 256d / blocks;
+    long id = 0;
+    for (int x = 0; x < blocks; x++) {
+      for (int y = 0; y < blocks; y++) {
+        double minX = x * size + size * 0.1;
+        double minY = y * size + size * 0.1;
+        double maxX = minX + size * 0.8;
+        double maxY = minY + size * 0.8;
+        result.add(new VectorTile.Feature("buildings", ++id,
+          VectorTile.encodeGeometry(GeoUtils.JTS_FACTORY.toGeometry(new Envelope(minX, maxX, minY, maxY))),
+          Map.of("isPart", false)));
+        // leave some outlines only partially covered by their parts
+        int numParts = random.nextInt(4) == 0 ? parts / 2 : parts;
+        double partHeight = (maxY - minY) / parts;
+        for (int p = 0; p < numParts; p++) {
+          result.add(new VectorTile.Feature("buildings", ++id,
+            VectorTile.encodeGeometry(GeoUtils.JTS_FACTORY.toGeometry(
+              new Envelope(minX, maxX, minY + p * partHeight, minY + (p + 1) * partHeight))),
+            Map.of("isPart", true)));
+        }
+      }
+    }
+    return result;
+  }
+
+  /** The approach that {@code StreetsProfile} used before {@link FeatureMerge#removeCoveredPolygons}. */
+  private static List<VectorTile.Feature> pairwise(List<VectorTile.Feature> items) throws GeometryException {
+    List<VectorTile.Feature> result = new ArrayList<>(items);
+    List<Geometry> parts = new ArrayList<>();
+    List<VectorTile.Feature> outlines = new ArrayList<>();
+    for (var item : items) {
+      if (isPart(item)) {
+        parts.add(item.geometry().decode());
+      } else {
+        outlines.add(item);
+      }
+    }
+    for (var outline : outlines) {
+      Geometry geometry = outline.geometry().decode();
+      Geometry remaining = geometry.copy();
+      for (Geometry part : parts) {
+        if (geometry.getEnvelopeInternal().intersects(part.getEnvelopeInternal())) {
+          remaining = remaining.difference(part);
+        }
+      }
+      if (remaining.getArea() / geometry.getArea() < 0.1) {
+        result.remove(outline);
+      }
+    }
+    return result;
+  }
+}
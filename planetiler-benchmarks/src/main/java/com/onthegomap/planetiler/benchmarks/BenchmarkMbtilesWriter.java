@@ -1,6 +1,8 @@
 package com.onthegomap.planetiler.benchmarks;
 
 import com.google.common.base.Stopwatch;
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.archive.WriteableTileArchive.TileWriter;
 import com.onthegomap.planetiler.config.Arguments;
@@ -11,18 +13,22 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.DoubleSummaryStatistics;
+import java.util.List;
 import java.util.OptionalLong;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class BenchmarkMbtilesWriter {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(BenchmarkMbtilesWriter.class);
+  private static final int TILES_PER_BATCH = 1_000;
 
-  public static void main(String[] args) throws IOException {
+  public static void main(String[] args) throws IOException, InterruptedException {
 
     Arguments arguments = Arguments.fromArgs(args);
 
@@ -55,6 +61,11 @@ public class BenchmarkMbtilesWriter {
      * => ~0.17% (Australia)
      */
     int dupeSpreadInPercent = arguments.getInteger("bench_dupe_spread", "dupe spread in percent", 10);
+    /*
+     * each writer gets its own mbtiles shard that is merged into the output on finish, run with 1, 2, 4, ... to see
+     * how writing scales
+     */
+    int writers = arguments.getInteger("bench_writers", "number of concurrent tile writers", 1);
 
     byte[] distinctTileData = createFilledByteArray(distinctTileDataSize);
     byte[] dupeTileData = createFilledByteArray(dupeTileDataSize);
@@ -62,26 +73,37 @@ public class BenchmarkMbtilesWriter {
     PlanetilerConfig config = PlanetilerConfig.from(arguments);
 
     DoubleSummaryStatistics tileWritesPerSecondsStats = new DoubleSummaryStatistics();
+    DoubleSummaryStatistics mergeSecondsStats = new DoubleSummaryStatistics();
 
     for (int repetition = 0; repetition < repetitions; repetition++) {
 
       Path outputPath = getTempOutputPath();
       try (var mbtiles = Mbtiles.newWriteToFileDatabase(outputPath, config.arguments())) {
 
-        if (mbtiles.skipIndexCreation()) {
-          mbtiles.createTablesWithoutIndexes();
-        } else {
-          mbtiles.createTablesWithIndexes();
-        }
+        mbtiles.initialize();
 
-        try (var writer = mbtiles.newTileWriter()) {
-          Stopwatch sw = Stopwatch.createStarted();
-          writeTiles(writer, tilesToWrite, distinctTilesInPercent, distinctTileData, dupeTileData, dupeSpreadInPercent);
-          sw.stop();
-          double secondsFractional = sw.elapsed(TimeUnit.NANOSECONDS) / 1E9;
-          double tileWritesPerSecond = tilesToWrite / secondsFractional;
-          tileWritesPerSecondsStats.accept(tileWritesPerSecond);
+        List<TileWriter> tileWriters = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+          tileWriters.add(mbtiles.newTileWriter());
         }
+        Stopwatch sw = Stopwatch.createStarted();
+        var threads = IntStream.range(0, writers).mapToObj(i -> Thread.ofPlatform().start(() -> {
+          try (var writer = tileWriters.get(i)) {
+            writeTiles(writer, i, writers, tilesToWrite, distinctTilesInPercent, distinctTileData, dupeTileData,
+              dupeSpreadInPercent);
+          }
+        })).toList();
+        for (var thread : threads) {
+          thread.join();
+        }
+        sw.stop();
+        double secondsFractional = sw.elapsed(TimeUnit.NANOSECONDS) / 1E9;
+        double tileWritesPerSecond = tilesToWrite / secondsFractional;
+        tileWritesPerSecondsStats.accept(tileWritesPerSecond);
+
+        Stopwatch mergeSw = Stopwatch.createStarted();
+        mbtiles.finish(new TileArchiveMetadata(new Profile.NullProfile(), config));
+        mergeSecondsStats.accept(mergeSw.stop().elapsed(TimeUnit.NANOSECONDS) / 1E9);
 
       } finally {
         Files.delete(outputPath);
@@ -89,11 +111,16 @@ public class BenchmarkMbtilesWriter {
     }
 
     LOGGER.info("tileWritesPerSecondsStats: {}", tileWritesPerSecondsStats);
+    LOGGER.info("mergeSecondsStats: {}", mergeSecondsStats);
   }
 
 
-  private static void writeTiles(TileWriter writer, int tilesToWrite, int distinctTilesInPercent,
-    byte[] distinctTileData, byte[] dupeTileData, int dupeSpreadInPercent) {
+  /**
+   * Writes the tiles that belong to {@code writerIndex} when handing out consecutive batches of
+   * {@link #TILES_PER_BATCH} tiles to {@code writers} round-robin, like the archive writer queue does.
+   */
+  private static void writeTiles(TileWriter writer, int writerIndex, int writers, int tilesToWrite,
+    int distinctTilesInPercent, byte[] distinctTileData, byte[] dupeTileData, int dupeSpreadInPercent) {
 
     int dupesToWrite = (int) Math.round(tilesToWrite * (100 - distinctTilesInPercent) / 100.0);
     int dupeHashMod = (int) Math.round(dupesToWrite * dupeSpreadInPercent / 100.0);
@@ -114,7 +141,9 @@ public class BenchmarkMbtilesWriter {
             toWrite = new TileEncodingResult(coord, dupeTileData, OptionalLong.of(hash));
           }
 
-          writer.write(toWrite);
+          if ((tilesWritten / TILES_PER_BATCH) % writers == writerIndex) {
+            writer.write(toWrite);
+          }
 
           if (++tilesWritten >= tilesToWrite) {
             return;
@@ -1,5 +1,7 @@
 package com.onthegomap.planetiler.benchmarks;
 
+import static io.prometheus.client.Collector.NANOSECONDS_PER_SECOND;
+
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.collection.LongLongMap;
 import com.onthegomap.planetiler.collection.LongLongMultimap;
@@ -9,8 +11,11 @@ import com.onthegomap.planetiler.reader.osm.OsmInputFile;
 import com.onthegomap.planetiler.reader.osm.OsmReader;
 import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.stats.Timer;
+import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.worker.WorkerPipeline;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
 
 public class BenchmarkOsmRead {
 
@@ -20,8 +25,31 @@ public class BenchmarkOsmRead {
     var parsedArgs = Arguments.fromArgsOrConfigFile(args);
     var config = PlanetilerConfig.from(parsedArgs);
     var path = parsedArgs.inputFile("osm_path", "path to osm file", Path.of("data/sources/northeast.osm.pbf"));
+    boolean decodeOnly = parsedArgs.getBoolean("decode_only", "only time decoding blocks, without running pass 1",
+      false);
     OsmInputFile file = new OsmInputFile(path, config.osmLazyReads());
 
+    while (decodeOnly) {
+      Timer timer = Timer.start();
+      LongAdder elements = new LongAdder();
+      try (var blocks = file.get()) {
+        var pipeline = WorkerPipeline.start("decode", stats)
+          .fromGenerator("read", blocks::forEachBlock)
+          .addBuffer("blocks", 1_000)
+          .sinkToConsumer("decode", config.threads(), block -> {
+            long count = 0;
+            for (var ignored : block.decodeElements()) {
+              count++;
+            }
+            elements.add(count);
+          });
+        pipeline.await();
+      }
+      timer.stop();
+      System.err.println(timer + " " + Format.defaultInstance().numeric(
+        elements.sum() * NANOSECONDS_PER_SECOND / timer.elapsed().wall().toNanos()) + " elements/s");
+    }
+
     while (true) {
       Timer timer = Timer.start();
       try (
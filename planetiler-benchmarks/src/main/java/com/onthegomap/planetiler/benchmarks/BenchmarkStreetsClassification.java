@@ -0,0 +1,112 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.examples.StreetsProfile;
+import com.onthegomap.planetiler.expression.MultiExpression;
+import com.onthegomap.planetiler.reader.WithTags;
+import com.onthegomap.planetiler.stats.Timer;
+import com.onthegomap.planetiler.util.Format;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares classifying elements with the {@link StreetsProfile} rules by evaluating each rule in order, like the
+ * if-chains the profile used to have, against looking them up through {@link MultiExpression#index()}.
+ * <p>
+ * Generates a synthetic tag corpus with roughly the mix of tags on OSM elements in a city: mostly buildings and roads,
+ * some landuse and POIs, and a long tail of elements that no rule matches.
+ */
+public class BenchmarkStreetsClassification {
+
+  public static void main(String[] args) {
+    Arguments arguments = Arguments.fromArgs(args);
+    int count = arguments.getInteger("elements", "number of elements in the tag corpus", 1_000_000);
+    List<WithTags> corpus = generateCorpus(count);
+    var rules = new StreetsProfile().classificationRules().values().stream().toList();
+    var indexes = rules.stream().map(MultiExpression::index).toList();
+    var format = Format.defaultInstance();
+
+    for (int i = 0; i < 5; i++) {
+      var timer = Timer.start();
+      long linearMatches = 0;
+      for (WithTags element : corpus) {
+        for (var ruleSet : rules) {
+          for (var rule : ruleSet.expressions()) {
+            if (rule.expression().evaluate(element)) {
+              linearMatches++;
+              break;
+            }
+          }
+        }
+      }
+      var linear = timer.stop().elapsed().wall();
+
+      timer = Timer.start();
+      long indexedMatches = 0;
+      for (WithTags element : corpus) {
+        for (var index : indexes) {
+          if (!index.getMatchesWithTriggers(element).isEmpty()) {
+            indexedMatches++;
+          }
+        }
+      }
+      var indexed = timer.stop().elapsed().wall();
+
+      if (linearMatches != indexedMatches) {
+        System.err.println("Mismatch: " + linearMatches + " != " + indexedMatches);
+      }
+      System.err.println(
+        count + " elements linear: " + format.duration(linear) +
+          " (" + format.numeric(count / (linear.toNanos() / 1e9)) + "/s)" +
+          " indexed: " + format.duration(indexed) +
+          " (" + format.numeric(count / (indexed.toNanos() / 1e9)) + "/s)"
+      );
+    }
+  }
+
+  private static List<WithTags> generateCorpus(int count) {
+    Random random = new Random(0);
+    List<WithTags> result = new ArrayList<>(count);
+    String[] highways = {"residential", "service", "footway", "primary", "track", "path"};
+    String[] landuses = {"grass", "residential", "farmland", "forest", "retail"};
+    String[] amenities = {"restaurant", "bench", "parking", "cafe", "school"};
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> tags = new HashMap<>();
+      int kind = random.nextInt(100);
+      if (kind < 40) {
+        tags.put("building", random.nextInt(4) == 0 ? "house" : "yes");
+        tags.put("addr:housenumber", Integer.toString(random.nextInt(200)));
+        tags.put("addr:street", "Main Street");
+        if (random.nextBoolean()) {
+          tags.put("building:levels", Integer.toString(1 + random.nextInt(8)));
+        }
+      } else if (kind < 60) {
+        tags.put("highway", highways[random.nextInt(highways.length)]);
+        tags.put("name", "Road " + random.nextInt(1000));
+        tags.put("surface", "asphalt");
+        tags.put("maxspeed", "50");
+      } else if (kind < 70) {
+        tags.put("landuse", landuses[random.nextInt(landuses.length)]);
+      } else if (kind < 78) {
+        tags.put("amenity", amenities[random.nextInt(amenities.length)]);
+        tags.put("name", "Place " + random.nextInt(1000));
+        tags.put("opening_hours", "Mo-Fr 08:00-18:00");
+      } else if (kind < 82) {
+        tags.put("natural", "tree");
+        tags.put("leaf_type", "broadleaved");
+      } else {
+        // route relation members, address nodes, boundaries, etc.
+        tags.put("source", "survey");
+        tags.put(random.nextBoolean() ? "addr:housenumber" : "boundary", Integer.toString(random.nextInt(200)));
+        if (random.nextBoolean()) {
+          tags.put("created_by", "JOSM");
+        }
+      }
+      result.add(WithTags.from(tags));
+    }
+    return result;
+  }
+}
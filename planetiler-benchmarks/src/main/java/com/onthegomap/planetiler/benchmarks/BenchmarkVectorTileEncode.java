@@ -0,0 +1,88 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.stats.Timer;
+import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.util.TileSizeStats;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Compares serializing a vector tile through the protobuf builders with {@link VectorTile#toProto()} against writing
+ * it directly with {@link VectorTile#encode(List)}.
+ * <p>
+ * Generates a synthetic z16 building tile where each feature has many numeric attributes, similar to the output of
+ * {@code StreetsProfile}.
+ */
+public class BenchmarkVectorTileEncode {
+
+  public static void main(String[] args) {
+    Arguments arguments = Arguments.fromArgs(args);
+    int features = arguments.getInteger("features", "number of features in the tile", 5_000);
+    int attrs = arguments.getInteger("attrs", "number of numeric attributes per feature", 20);
+    int iterations = arguments.getInteger("iterations", "number of times to encode the tile", 200);
+    VectorTile tile = generateTile(features, attrs);
+    var format = Format.defaultInstance();
+
+    byte[] expected = tile.toProto().toByteArray();
+    if (!Arrays.equals(expected, tile.encode())) {
+      throw new IllegalStateException("Encoders produced different output");
+    }
+
+    for (int i = 0; i < 5; i++) {
+      var timer = Timer.start();
+      long bytes = 0;
+      for (int j = 0; j < iterations; j++) {
+        var proto = tile.toProto();
+        bytes += proto.toByteArray().length;
+        bytes += TileSizeStats.computeTileStats(proto).size();
+      }
+      var protobuf = timer.stop().elapsed().wall();
+
+      timer = Timer.start();
+      long bytes2 = 0;
+      for (int j = 0; j < iterations; j++) {
+        List<TileSizeStats.LayerStats> stats = new ArrayList<>();
+        bytes2 += tile.encode(stats).length;
+        bytes2 += stats.size();
+      }
+      var direct = timer.stop().elapsed().wall();
+
+      if (bytes != bytes2) {
+        System.err.println("Mismatch: " + bytes + " != " + bytes2);
+      }
+      System.err.println(
+        format.storage(expected.length) + " tile protobuf: " +
+          format.numeric(iterations * 1e9 / protobuf.toNanos()) + " direct: " +
+          format.numeric(iterations * 1e9 / direct.toNanos()) + " tiles/s"
+      );
+    }
+  }
+
+  private static VectorTile generateTile(int features, int attrs) {
+    Random random = new Random(0);
+    List<VectorTile.Feature> result = new ArrayList<>();
+    for (int i = 0; i < features; i++) {
+      double x = random.nextDouble() * 250, y = random.nextDouble() * 250;
+      Map<String, Object> tags = new TreeMap<>();
+      tags.put("type", "building");
+      tags.put("buildingType", random.nextBoolean() ? "yes" : "house");
+      tags.put("levels", random.nextInt(20));
+      for (int a = 0; a < attrs; a++) {
+        tags.put("attr" + a, x + y * a);
+      }
+      result.add(new VectorTile.Feature("buildings", i + 1L,
+        VectorTile.encodeGeometry(GeoUtils.JTS_FACTORY.toGeometry(new Envelope(x, x + 1 + random.nextDouble() * 5,
+          y, y + 1 + random.nextDouble() * 5))),
+        tags));
+    }
+    return new VectorTile().addLayerFeatures("buildings", result);
+  }
+}
@@ -18,7 +18,7 @@ import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Performance tests for {@link ExternalMergeSort}. Times how long it takes to write temp features, sort, then read them
- * back with different parameters.
+ * back with different parameters, including the object-per-feature sort compared to the packed sort.
  * <p>
  * Usage: {@code BenchmarkExternalMergeSort &lt;number of GB of features to write&gt;}
  */
@@ -29,6 +29,7 @@ public class BenchmarkExternalMergeSort {
   private static final int ITEM_DATA_BYTES = ITEM_SIZE_BYTES - DISK_OVERHEAD_BYTES;
   private static final int MEMORY_OVERHEAD_BYTES = 8 + 16 + 8 + 8 + 24;
   private static final int ITEM_MEMORY_BYTES = MEMORY_OVERHEAD_BYTES + ITEM_DATA_BYTES;
+  private static final int PACKED_ITEM_MEMORY_BYTES = ITEM_SIZE_BYTES + 2 * (Long.BYTES + Integer.BYTES);
   private static final byte[] TEST_DATA = new byte[ITEM_DATA_BYTES];
   static {
     ThreadLocalRandom.current().nextBytes(TEST_DATA);
@@ -46,12 +47,16 @@ public class BenchmarkExternalMergeSort {
       for (int chunks : List.of(100, 200, 500)) {
         for (int readThreads : List.of(1, 2, 3, 4)) {
           for (boolean mmap : List.of(false, true)) {
-            results.add(run(path, 1, readThreads, number, chunks, mmap, true, true, config));
+            for (boolean packed : List.of(false, true)) {
+              results.add(run(path, 1, readThreads, number, chunks, mmap, true, packed, true, config));
+            }
           }
         }
       }
+      System.err.println("chunks\treaders\tmmap\tpacked\tsort\tread");
       for (var result : results) {
-        System.err.println(result.chunks + "\t" + result.readThreads + "\t" + result.mmap + "\t" + result.read);
+        System.err.println(result.chunks + "\t" + result.readThreads + "\t" + result.mmap + "\t" + result.packed +
+          "\t" + result.sort + "\t" + result.read);
       }
     } finally {
       FileUtils.delete(path);
@@ -63,12 +68,12 @@ public class BenchmarkExternalMergeSort {
     int chunks,
     int writeWorkers, int readThreads,
     long items, int chunkSizeLimit, boolean gzip, boolean mmap, boolean parallelSort,
-    boolean madvise
+    boolean packed, boolean madvise
   ) {}
 
   private static Results run(Path tmpDir, int writeWorkers, int readThreads, long items, int numChunks,
-    boolean mmap, boolean parallelSort, boolean madvise, PlanetilerConfig config) {
-    long chunkSizeLimit = items * ITEM_MEMORY_BYTES / numChunks;
+    boolean mmap, boolean parallelSort, boolean packed, boolean madvise, PlanetilerConfig config) {
+    long chunkSizeLimit = items * (packed ? PACKED_ITEM_MEMORY_BYTES : ITEM_MEMORY_BYTES) / numChunks;
     if (chunkSizeLimit > Integer.MAX_VALUE) {
       throw new IllegalStateException("Chunk size too big: " + chunkSizeLimit);
     }
@@ -76,7 +81,7 @@ public class BenchmarkExternalMergeSort {
     int sortWorkers = Runtime.getRuntime().availableProcessors();
     FileUtils.delete(tmpDir);
     var sorter =
-      new ExternalMergeSort(tmpDir, sortWorkers, (int) chunkSizeLimit, gzip, mmap, parallelSort, madvise, config,
+      new ExternalMergeSort(tmpDir, sortWorkers, (int) chunkSizeLimit, gzip, mmap, parallelSort, packed, madvise, config,
         Stats.inMemory());
 
     var writeTimer = Timer.start();
@@ -103,6 +108,7 @@ public class BenchmarkExternalMergeSort {
       gzip,
       mmap,
       parallelSort,
+      packed,
       madvise
     );
   }
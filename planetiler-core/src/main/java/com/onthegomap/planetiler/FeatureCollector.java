@@ -1,5 +1,6 @@
 package com.onthegomap.planetiler;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
@@ -10,6 +11,7 @@ import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.reader.Struct;
 import com.onthegomap.planetiler.render.FeatureRenderer;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.AttributeMap;
 import com.onthegomap.planetiler.util.CacheByZoom;
 import com.onthegomap.planetiler.util.MapUtil;
 import com.onthegomap.planetiler.util.MergingRangeMap;
@@ -18,7 +20,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import org.locationtech.jts.algorithm.construct.MaximumInscribedCircle;
 import org.locationtech.jts.geom.Geometry;
 
@@ -56,6 +57,11 @@ public class FeatureCollector implements Iterable<FeatureCollector.Feature> {
     return output.iterator();
   }
 
+  /** Returns a view of the layer of each feature emitted so far, in the order they were emitted. */
+  public List<String> layers() {
+    return Lists.transform(output, Feature::getLayer);
+  }
+
   /**
    * Starts building a new map feature with an explicit JTS {@code geometry} that overrides the source geometry.
    *
@@ -440,7 +446,7 @@ public class FeatureCollector implements Iterable<FeatureCollector.Feature> {
 
     private final String layer;
     private final Geometry geom;
-    private final Map<String, Object> attrs = new TreeMap<>();
+    private final AttributeMap attrs = new AttributeMap();
     private final GeometryType geometryType;
     private long id;
 
@@ -860,11 +866,15 @@ public class FeatureCollector implements Iterable<FeatureCollector.Feature> {
 
     // could be expensive, so cache results
     private Map<String, Object> computeAttrsAtZoom(int zoom) {
-      Map<String, Object> result = new TreeMap<>();
-      for (var entry : attrs.entrySet()) {
-        Object value = unwrap(entry.getValue(), zoom);
-        if (value != null && !"".equals(value)) {
-          result.put(entry.getKey(), value);
+      AttributeMap result = new AttributeMap(attrs.size());
+      for (int i = 0; i < attrs.size(); i++) {
+        if (attrs.isIntegralAt(i) || attrs.isFloatingAt(i)) {
+          result.putFrom(attrs, i);
+        } else {
+          Object value = unwrap(attrs.valueAt(i), zoom);
+          if (value != null && !"".equals(value)) {
+            result.put(attrs.keyAt(i), value);
+          }
         }
       }
       return result;
@@ -906,6 +916,35 @@ public class FeatureCollector implements Iterable<FeatureCollector.Feature> {
       return this;
     }
 
+    /**
+     * Sets a numeric attribute on the output feature without boxing it.
+     * <p>
+     * The value stays unboxed through {@link FeatureRenderer} and {@link FeatureGroup} until it gets written to a
+     * vector tile.
+     */
+    public Feature setAttr(String key, double value) {
+      attrs.putDouble(key, value);
+      return this;
+    }
+
+    /** Sets a numeric attribute on the output feature without boxing it. */
+    public Feature setAttr(String key, float value) {
+      attrs.putFloat(key, value);
+      return this;
+    }
+
+    /** Sets a numeric attribute on the output feature without boxing it. */
+    public Feature setAttr(String key, long value) {
+      attrs.putLong(key, value);
+      return this;
+    }
+
+    /** Sets a numeric attribute on the output feature without boxing it. */
+    public Feature setAttr(String key, int value) {
+      attrs.putInt(key, value);
+      return this;
+    }
+
     @Override
     public Feature putAttrs(Map<String, Object> attrs) {
       for (Object value : attrs.values()) {
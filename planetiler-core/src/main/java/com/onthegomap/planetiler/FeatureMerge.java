@@ -19,6 +19,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import org.locationtech.jts.algorithm.Area;
 import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Envelope;
@@ -34,6 +35,7 @@ import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.operation.buffer.BufferOp;
 import org.locationtech.jts.operation.buffer.BufferParameters;
 import org.locationtech.jts.operation.linemerge.LineMerger;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -560,6 +562,91 @@ public class FeatureMerge {
     }
   }
 
+  /**
+   * Removes polygons that are mostly covered by other "covering" polygons in the same layer, for example building
+   * outlines that are already represented by more detailed building parts.
+   * <p>
+   * Covering polygons are indexed in an {@link STRtree} so each candidate only gets compared against the covers that
+   * overlap its envelope, and the covers that do overlap are combined with a single cascaded union before subtracting
+   * them from the candidate.
+   * <p>
+   * Covering polygons and non-polygons are passed through to the output unaltered.
+   *
+   * @param features          all features in a layer
+   * @param isCover           returns true for features that can cover other polygons
+   * @param minUncoveredRatio remove a polygon when the fraction of its area that is not covered falls below this
+   * @param stats             for counting data errors
+   * @return a new list containing all features that were not removed in their original order
+   */
+  public static List<VectorTile.Feature> removeCoveredPolygons(List<VectorTile.Feature> features,
+    Predicate<VectorTile.Feature> isCover, double minUncoveredRatio, Stats stats) {
+    List<VectorTile.VectorGeometry> covers = new ArrayList<>();
+    STRtree coverIndex = new STRtree();
+    for (var feature : features) {
+      if (feature != null && feature.geometry().geomType() == GeometryType.POLYGON && isCover.test(feature)) {
+        // index by the envelope of the encoded geometry so covers that never overlap a candidate don't get decoded
+        coverIndex.insert(feature.geometry().envelope(), covers.size());
+        covers.add(feature.geometry());
+      }
+    }
+    if (covers.isEmpty()) {
+      return features;
+    }
+
+    List<VectorTile.Feature> result = new ArrayList<>(features.size());
+    List<Geometry> overlapping = new ArrayList<>();
+    for (var feature : features) {
+      if (feature == null) {
+        // ignore
+      } else if (feature.geometry().geomType() != GeometryType.POLYGON || isCover.test(feature)) {
+        result.add(feature);
+      } else {
+        try {
+          overlapping.clear();
+          for (Object item : coverIndex.query(feature.geometry().envelope())) {
+            if (item instanceof Integer i) {
+              overlapping.add(covers.get(i).decode());
+            }
+          }
+          if (overlapping.isEmpty() || !isMostlyCovered(feature.geometry().decode(), overlapping, minUncoveredRatio)) {
+            result.add(feature);
+          }
+        } catch (GeometryException e) {
+          e.log("Error decoding vector tile feature for covered polygon removal: " + feature);
+          result.add(feature);
+        } catch (TopologyException e) {
+          stats.dataError("remove_covered_polygons_difference_failed");
+          result.add(feature);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes polygons mostly covered by other polygons as
+   * {@link #removeCoveredPolygons(List, Predicate, double, Stats)} using the default stats instance.
+   */
+  public static List<VectorTile.Feature> removeCoveredPolygons(List<VectorTile.Feature> features,
+    Predicate<VectorTile.Feature> isCover, double minUncoveredRatio) {
+    return removeCoveredPolygons(features, isCover, minUncoveredRatio, DefaultStats.get());
+  }
+
+  private static boolean isMostlyCovered(Geometry geometry, List<Geometry> covers, double minUncoveredRatio) {
+    double area = geometry.getArea();
+    double maxCoveredArea = area * (1 - minUncoveredRatio);
+    // the covers can't overlap more than their total area, so skip the union when they could never cover enough
+    double coverArea = 0;
+    for (Geometry cover : covers) {
+      coverArea += cover.getArea();
+    }
+    if (coverArea <= maxCoveredArea) {
+      return false;
+    }
+    Geometry union = covers.size() == 1 ? covers.getFirst() : UnaryUnionOp.union(covers);
+    return geometry.difference(union).getArea() < area * minUncoveredRatio;
+  }
+
   /**
    * Returns a new list of features with points that are more than {@code buffer} pixels outside the tile boundary
    * removed, assuming a 256x256px tile.
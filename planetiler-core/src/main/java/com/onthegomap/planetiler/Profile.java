@@ -223,6 +223,21 @@ public interface Profile extends FeatureProcessor<SourceFeature> {
     return true;
   }
 
+  /**
+   * Returns true if the features this profile renders from an input source can be reused by later runs when
+   * {@code source_cache_dir} is set and the source files have not changed.
+   * <p>
+   * Only opt in for sources whose features depend on nothing but their own elements, since a cached source skips
+   * {@link #processFeature(SourceFeature, FeatureCollector)} and {@link #finish(String, FeatureCollector.Factory,
+   * Consumer)} entirely. The default implementation returns false.
+   *
+   * @param name the input source name
+   * @return {@code true} if rendered features from that source may be cached between runs
+   */
+  default boolean cacheSource(String name) {
+    return false;
+  }
+
   /**
    * Returns an estimate for how many bytes of disk this profile will use for intermediate feature storage to warn when
    * running with insufficient disk space.
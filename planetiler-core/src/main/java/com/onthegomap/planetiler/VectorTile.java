@@ -29,8 +29,11 @@ import com.onthegomap.planetiler.geo.MutableCoordinateSequence;
 import com.onthegomap.planetiler.reader.WithTags;
 import com.onthegomap.planetiler.util.Hilbert;
 import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.TileSizeStats;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -38,6 +41,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -45,6 +49,7 @@ import org.locationtech.jts.algorithm.Orientation;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.CoordinateXY;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
@@ -445,19 +450,26 @@ public class VectorTile {
    * Returns the number of internal geometries in this feature including points/lines/polygons inside multigeometries.
    */
   public static int countGeometries(VectorTileProto.Tile.Feature feature) {
+    return countGeometries(feature::getGeometry, feature.getGeometryCount());
+  }
+
+  private static int countGeometries(int[] commands) {
+    return countGeometries(i -> commands[i], commands.length);
+  }
+
+  private static int countGeometries(IntUnaryOperator commands, int length) {
     int result = 0;
     int idx = 0;
-    int geomCount = feature.getGeometryCount();
-    while (idx < geomCount) {
-      int length = feature.getGeometry(idx);
-      int command = length & ((1 << 3) - 1);
-      length = length >> 3;
+    while (idx < length) {
+      int commandLength = commands.applyAsInt(idx);
+      int command = commandLength & ((1 << 3) - 1);
+      commandLength = commandLength >> 3;
       if (command == Command.MOVE_TO.value) {
-        result += length;
+        result += commandLength;
       }
       idx += 1;
       if (command != Command.CLOSE_PATH.value) {
-        idx += length * 2;
+        idx += commandLength * 2;
       }
     }
     return result;
@@ -555,7 +567,41 @@ public class VectorTile {
    * Does not compress the result.
    */
   public byte[] encode() {
-    return toProto().toByteArray();
+    return encode(null);
+  }
+
+  /**
+   * Serializes all features in this tile to vector tile protobuf bytes, and if {@code layerStats} is not null then
+   * adds the same stats for each layer that {@link TileSizeStats#computeTileStats(VectorTileProto.Tile)} would.
+   * <p>
+   * Produces identical bytes to {@code toProto().toByteArray()}, but writes fields directly instead of building the
+   * intermediate protobuf object graph. A first pass computes the size of every nested message so the output can be
+   * written in a single pass into an array allocated at its exact final size.
+   * <p>
+   * Does not compress the result.
+   */
+  public byte[] encode(List<TileSizeStats.LayerStats> layerStats) {
+    LayerEncoding[] encodings = new LayerEncoding[layers.size()];
+    int size = 0;
+    int i = 0;
+    for (var entry : layers.entrySet()) {
+      LayerEncoding encoding = new LayerEncoding(entry.getKey(), entry.getValue());
+      encodings[i++] = encoding;
+      size += 1 + ProtoWriter.varintSize(encoding.size) + encoding.size;
+    }
+    ProtoWriter writer = new ProtoWriter(new byte[size]);
+    for (LayerEncoding encoding : encodings) {
+      writer.writeTag(3, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+      writer.writeVarint(encoding.size);
+      encoding.write(writer);
+      if (layerStats != null) {
+        layerStats.add(encoding.stats());
+      }
+    }
+    if (layerStats != null) {
+      layerStats.sort(Comparator.naturalOrder());
+    }
+    return writer.buffer;
   }
 
   /**
@@ -713,8 +759,12 @@ public class VectorTile {
    * to a tile extent of {@code EXTENT * 2^scale}, so when the {@code scale == 0} the extent is {@link #EXTENT} and when
    * {@code scale == 2} the extent is 4x{@link #EXTENT}. Geometries must be scaled back to 0 using {@link #unscale()}
    * before outputting to the archive.
+   * <p>
+   * The decoded JTS geometry and envelope are computed lazily and memoized, so post-processing steps that inspect the
+   * same feature more than once only pay to decode it once. Callers must not modify the geometry returned from
+   * {@link #decode()}.
    */
-  public record VectorGeometry(int[] commands, GeometryType geomType, int scale) {
+  public static final class VectorGeometry {
 
     private static final int LEFT = 1;
     private static final int RIGHT = 1 << 1;
@@ -724,10 +774,32 @@ public class VectorTile {
     private static final int ALL = TOP | LEFT | RIGHT | BOTTOM;
     private static final VectorGeometry EMPTY_POINT = new VectorGeometry(new int[0], GeometryType.POINT, 0);
 
-    public VectorGeometry {
+    private final int[] commands;
+    private final GeometryType geomType;
+    private final int scale;
+    // lazily computed, benign race if computed twice from different threads
+    private Geometry decoded;
+    private Envelope envelope;
+
+    public VectorGeometry(int[] commands, GeometryType geomType, int scale) {
       if (scale < 0) {
         throw new IllegalArgumentException("scale can not be less than 0, got: " + scale);
       }
+      this.commands = commands;
+      this.geomType = geomType;
+      this.scale = scale;
+    }
+
+    public int[] commands() {
+      return commands;
+    }
+
+    public GeometryType geomType() {
+      return geomType;
+    }
+
+    public int scale() {
+      return scale;
     }
 
     private static int getSide(int x, int y, int extent) {
@@ -774,9 +846,61 @@ public class VectorTile {
       }
     }
 
-    /** Converts an encoded geometry back to a JTS geometry. */
+    /** Converts an encoded geometry back to a JTS geometry, or returns the geometry decoded by a previous call. */
     public Geometry decode() throws GeometryException {
-      return decodeCommands(geomType, commands, scale);
+      Geometry result = decoded;
+      if (result == null) {
+        decoded = result = decodeCommands(geomType, commands, scale);
+      }
+      return result;
+    }
+
+    /**
+     * Returns the bounding box of this geometry in tile pixel coordinates from (0,0) at the top left to (256,256) at
+     * the bottom right, computed directly from the command stream without decoding a JTS geometry.
+     */
+    public Envelope envelope() {
+      Envelope result = envelope;
+      if (result == null) {
+        envelope = result = decodeEnvelope();
+      }
+      return result;
+    }
+
+    private Envelope decodeEnvelope() {
+      if (commands.length < 3) {
+        return new Envelope();
+      }
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+      int x = 0;
+      int y = 0;
+
+      int geometryCount = commands.length;
+      int length = 0;
+      int command = 0;
+      int i = 0;
+      while (i < geometryCount) {
+        if (length <= 0) {
+          length = commands[i++];
+          command = length & ((1 << 3) - 1);
+          length = length >> 3;
+        }
+
+        if (length > 0) {
+          length--;
+          if (command != Command.CLOSE_PATH.value) {
+            x += zigZagDecode(commands[i++]);
+            y += zigZagDecode(commands[i++]);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+          }
+        }
+      }
+      double factor = (EXTENT << scale) / SIZE;
+      return new Envelope(minX / factor, maxX / factor, minY / factor, maxY / factor);
     }
 
     /** Returns this encoded geometry, scaled back to 0, so it is safe to emit to archive output. */
@@ -1217,6 +1341,249 @@ public class VectorTile {
     }
   }
 
+  /**
+   * Sizes of all the nested messages in a layer computed before writing it with {@link #write(ProtoWriter)}.
+   */
+  private static final class LayerEncoding {
+
+    private static final int VERSION = 2;
+
+    final byte[] name;
+    final Layer layer;
+    final byte[][] keys;
+    final Object[] values;
+    final byte[][] stringValues;
+    final int[] valueSizes;
+    final int[] featureSizes;
+    final int[] tagsSizes;
+    final int[] geometrySizes;
+    final int size;
+    int attrSize = 0;
+    int geomCount = 0;
+
+    LayerEncoding(String name, Layer layer) {
+      this.name = name.getBytes(StandardCharsets.UTF_8);
+      this.layer = layer;
+      int result = 1 + ProtoWriter.varintSize(this.name.length) + this.name.length;
+
+      keys = new byte[layer.keys.size()][];
+      int i = 0;
+      for (String key : layer.keys.keySet()) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        keys[i++] = bytes;
+        attrSize += bytes.length;
+        result += 1 + ProtoWriter.varintSize(bytes.length) + bytes.length;
+      }
+
+      values = layer.values.keySet().toArray();
+      stringValues = new byte[values.length][];
+      valueSizes = new int[values.length];
+      for (i = 0; i < values.length; i++) {
+        int valueSize = switch (values[i]) {
+          case Integer intValue -> 1 + ProtoWriter.varintSize(ProtoWriter.zigZag(intValue));
+          case Long longValue -> 1 + ProtoWriter.varintSize(ProtoWriter.zigZag(longValue));
+          case Float ignored -> 1 + Float.BYTES;
+          case Double ignored -> 1 + Double.BYTES;
+          case Boolean ignored -> 2;
+          case Object other -> {
+            byte[] bytes = other.toString().getBytes(StandardCharsets.UTF_8);
+            stringValues[i] = bytes;
+            yield 1 + ProtoWriter.varintSize(bytes.length) + bytes.length;
+          }
+        };
+        valueSizes[i] = valueSize;
+        attrSize += valueSize;
+        result += 1 + ProtoWriter.varintSize(valueSize) + valueSize;
+      }
+
+      int numFeatures = layer.encodedFeatures.size();
+      featureSizes = new int[numFeatures];
+      tagsSizes = new int[numFeatures];
+      geometrySizes = new int[numFeatures];
+      for (i = 0; i < numFeatures; i++) {
+        EncodedFeature feature = layer.encodedFeatures.get(i);
+        int featureSize = 0;
+        if (feature.id != NO_FEATURE_ID) {
+          featureSize += 1 + ProtoWriter.varintSize(feature.id);
+        }
+        int tagsSize = 0;
+        for (int j = 0; j < feature.tags.elementsCount; j++) {
+          tagsSize += ProtoWriter.uint32Size(feature.tags.buffer[j]);
+        }
+        if (tagsSize > 0) {
+          featureSize += 1 + ProtoWriter.varintSize(tagsSize) + tagsSize;
+        }
+        featureSize += 1 + ProtoWriter.varintSize(feature.geometry.geomType().asProtobufType().getNumber());
+        int[] commands = feature.geometry.commands();
+        int geometrySize = 0;
+        for (int command : commands) {
+          geometrySize += ProtoWriter.uint32Size(command);
+        }
+        if (geometrySize > 0) {
+          featureSize += 1 + ProtoWriter.varintSize(geometrySize) + geometrySize;
+        }
+        geomCount += countGeometries(commands);
+        tagsSizes[i] = tagsSize;
+        geometrySizes[i] = geometrySize;
+        featureSizes[i] = featureSize;
+        result += 1 + ProtoWriter.varintSize(featureSize) + featureSize;
+      }
+
+      result += 1 + ProtoWriter.varintSize(EXTENT);
+      result += 1 + ProtoWriter.varintSize(VERSION);
+      size = result;
+    }
+
+    /** Writes fields in field number order, like protobuf-generated serializers do. */
+    void write(ProtoWriter writer) {
+      writer.writeTag(1, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+      writer.writeBytes(name);
+
+      for (int i = 0; i < featureSizes.length; i++) {
+        EncodedFeature feature = layer.encodedFeatures.get(i);
+        writer.writeTag(2, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+        writer.writeVarint(featureSizes[i]);
+        if (feature.id != NO_FEATURE_ID) {
+          writer.writeTag(1, ProtoWriter.WIRETYPE_VARINT);
+          writer.writeVarint(feature.id);
+        }
+        if (tagsSizes[i] > 0) {
+          writer.writeTag(2, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+          writer.writeVarint(tagsSizes[i]);
+          for (int j = 0; j < feature.tags.elementsCount; j++) {
+            writer.writeUInt32(feature.tags.buffer[j]);
+          }
+        }
+        writer.writeTag(3, ProtoWriter.WIRETYPE_VARINT);
+        writer.writeVarint(feature.geometry.geomType().asProtobufType().getNumber());
+        if (geometrySizes[i] > 0) {
+          writer.writeTag(4, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+          writer.writeVarint(geometrySizes[i]);
+          for (int command : feature.geometry.commands()) {
+            writer.writeUInt32(command);
+          }
+        }
+      }
+
+      for (byte[] key : keys) {
+        writer.writeTag(3, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+        writer.writeBytes(key);
+      }
+
+      for (int i = 0; i < values.length; i++) {
+        writer.writeTag(4, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+        writer.writeVarint(valueSizes[i]);
+        switch (values[i]) {
+          case Integer intValue -> {
+            writer.writeTag(6, ProtoWriter.WIRETYPE_VARINT);
+            writer.writeVarint(ProtoWriter.zigZag(intValue));
+          }
+          case Long longValue -> {
+            writer.writeTag(6, ProtoWriter.WIRETYPE_VARINT);
+            writer.writeVarint(ProtoWriter.zigZag(longValue));
+          }
+          case Float floatValue -> {
+            writer.writeTag(2, ProtoWriter.WIRETYPE_FIXED32);
+            writer.writeFixed32(Float.floatToRawIntBits(floatValue));
+          }
+          case Double doubleValue -> {
+            writer.writeTag(3, ProtoWriter.WIRETYPE_FIXED64);
+            writer.writeFixed64(Double.doubleToRawLongBits(doubleValue));
+          }
+          case Boolean booleanValue -> {
+            writer.writeTag(7, ProtoWriter.WIRETYPE_VARINT);
+            writer.writeVarint(booleanValue ? 1 : 0);
+          }
+          case Object ignored -> {
+            writer.writeTag(1, ProtoWriter.WIRETYPE_LENGTH_DELIMITED);
+            writer.writeBytes(stringValues[i]);
+          }
+        }
+      }
+
+      writer.writeTag(5, ProtoWriter.WIRETYPE_VARINT);
+      writer.writeVarint(EXTENT);
+      writer.writeTag(15, ProtoWriter.WIRETYPE_VARINT);
+      writer.writeVarint(VERSION);
+    }
+
+    TileSizeStats.LayerStats stats() {
+      return new TileSizeStats.LayerStats(
+        new String(name, StandardCharsets.UTF_8),
+        size,
+        featureSizes.length,
+        geomCount,
+        attrSize,
+        keys.length,
+        values.length
+      );
+    }
+  }
+
+  /** Minimal protobuf wire format writer into a pre-sized array. */
+  private static final class ProtoWriter {
+
+    static final int WIRETYPE_VARINT = 0;
+    static final int WIRETYPE_FIXED64 = 1;
+    static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    static final int WIRETYPE_FIXED32 = 5;
+
+    final byte[] buffer;
+    int position = 0;
+
+    ProtoWriter(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    static long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+
+    static int varintSize(long value) {
+      // 1 byte per 7 bits, with at least 1 byte for 0
+      return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    /** uint32 fields are stored in signed java ints, so treat negative values as unsigned. */
+    static int uint32Size(int value) {
+      return varintSize(Integer.toUnsignedLong(value));
+    }
+
+    void writeTag(int field, int wireType) {
+      writeVarint(((long) field << 3) | wireType);
+    }
+
+    void writeUInt32(int value) {
+      writeVarint(Integer.toUnsignedLong(value));
+    }
+
+    void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    void writeFixed32(int value) {
+      buffer[position++] = (byte) value;
+      buffer[position++] = (byte) (value >> 8);
+      buffer[position++] = (byte) (value >> 16);
+      buffer[position++] = (byte) (value >> 24);
+    }
+
+    void writeFixed64(long value) {
+      writeFixed32((int) value);
+      writeFixed32((int) (value >> 32));
+    }
+
+    void writeBytes(byte[] bytes) {
+      writeVarint(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+  }
+
   private record EncodedFeature(IntArrayList tags, long id, VectorGeometry geometry) {
 
     EncodedFeature(Feature in) {
@@ -0,0 +1,242 @@
+package com.onthegomap.planetiler.archive;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.onthegomap.planetiler.stats.Counter;
+import com.onthegomap.planetiler.util.ByteBufferUtil;
+import com.onthegomap.planetiler.util.FileUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link TileDedupIndex} backed by an open-addressing hash table stored outside the java heap.
+ * <p>
+ * The table lives in direct {@link ByteBuffer ByteBuffers} until it outgrows its share of {@code memoryBytes}, then
+ * new segments get memory-mapped from a temporary file instead. Most tiles at high zoom levels are unique, so once the
+ * table outgrows memory a bloom filter keeps hashes out of it until they have been seen once before. That limits the
+ * table to contents that actually repeat, at the cost of writing the second copy of each one.
+ */
+@NotThreadSafe
+final class OffHeapTileDedupIndex implements TileDedupIndex {
+
+  static final int DEFAULT_SEGMENT_BITS = 26; // 64MB
+  private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapTileDedupIndex.class);
+  // each slot holds an 8-byte hash, 8-byte check, and 8-byte value + 1, so that 0 marks an empty slot
+  private static final int SLOT_BYTES = 24;
+  private static final long MIN_CAPACITY = 1 << 12;
+  private static final int PREFILTER_HASHES = 3;
+  private static final long MAX_PREFILTER_BYTES = 1 << 30;
+
+  private final Path dir;
+  private final long tableMemoryBytes;
+  private final long prefilterBytes;
+  private final int segmentBits;
+  private final Counter prefilterSkips;
+  private final Counter spilledBytes;
+  private Table table;
+  private ByteBuffer prefilterBuffer = null;
+  private LongBuffer prefilter = null;
+  private long size = 0;
+
+  OffHeapTileDedupIndex(Path dir, long memoryBytes, int segmentBits, Counter prefilterSkips, Counter spilledBytes) {
+    if (memoryBytes <= 0) {
+      throw new IllegalArgumentException("Dedup index memory must be > 0, was " + memoryBytes);
+    }
+    this.dir = dir;
+    this.prefilterBytes = Math.clamp(Long.highestOneBit(memoryBytes / 4), Long.BYTES, MAX_PREFILTER_BYTES);
+    this.tableMemoryBytes = Math.max(0, memoryBytes - prefilterBytes);
+    this.segmentBits = segmentBits;
+    this.prefilterSkips = prefilterSkips;
+    this.spilledBytes = spilledBytes;
+    this.table = new Table(MIN_CAPACITY);
+  }
+
+  @Override
+  public long get(long hash, long check) {
+    Table t = table;
+    for (long slot = BitMixer.mix64(hash) & t.mask;; slot = (slot + 1) & t.mask) {
+      long value = t.value(slot);
+      if (value == 0) {
+        return MISSING;
+      } else if (t.hash(slot) == hash) {
+        return t.check(slot) == check ? value - 1 : MISSING;
+      }
+    }
+  }
+
+  @Override
+  public void put(long hash, long check, long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Value must be >= 0, was " + value);
+    }
+    Table t = table;
+    long slot = BitMixer.mix64(hash) & t.mask;
+    while (t.value(slot) != 0) {
+      if (t.hash(slot) == hash) {
+        t.set(slot, hash, check, value + 1);
+        return;
+      }
+      slot = (slot + 1) & t.mask;
+    }
+    if (prefilter != null && !prefilterContainsAndAdd(hash)) {
+      prefilterSkips.inc();
+      return;
+    }
+    t.set(slot, hash, check, value + 1);
+    if (++size > t.capacity / 2) {
+      grow();
+    }
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  private void grow() {
+    Table old = table;
+    if (prefilter == null && old.capacity * 2 * SLOT_BYTES > tableMemoryBytes) {
+      LOGGER.debug("Dedup index outgrew memory at {} hashes, only indexing repeated hashes from now on", size);
+      prefilterBuffer = ByteBuffer.allocateDirect((int) prefilterBytes);
+      prefilter = prefilterBuffer.asLongBuffer();
+    }
+    Table grown = new Table(old.capacity * 2);
+    for (long slot = 0; slot < old.capacity; slot++) {
+      long value = old.value(slot);
+      if (value != 0) {
+        long hash = old.hash(slot);
+        long newSlot = BitMixer.mix64(hash) & grown.mask;
+        while (grown.value(newSlot) != 0) {
+          newSlot = (newSlot + 1) & grown.mask;
+        }
+        grown.set(newSlot, hash, old.check(slot), value);
+      }
+    }
+    table = grown;
+    old.close();
+  }
+
+  /** Adds {@code hash} to the bloom filter and returns true if it was there already. */
+  private boolean prefilterContainsAndAdd(long hash) {
+    long mixed = BitMixer.mix64(~hash);
+    long h1 = mixed;
+    long h2 = (mixed >>> 32) | 1;
+    long bitMask = prefilterBytes * 8 - 1;
+    boolean present = true;
+    for (int i = 0; i < PREFILTER_HASHES; i++) {
+      long bit = (h1 + i * h2) & bitMask;
+      int word = (int) (bit >>> 6);
+      long current = prefilter.get(word);
+      long updated = current | (1L << bit);
+      if (current != updated) {
+        present = false;
+        prefilter.put(word, updated);
+      }
+    }
+    return present;
+  }
+
+  @Override
+  public void close() {
+    table.close();
+    if (prefilterBuffer != null) {
+      try {
+        ByteBufferUtil.free(prefilterBuffer);
+      } catch (IOException e) {
+        LOGGER.info("Unable to free dedup prefilter {}", e.toString());
+      }
+      prefilterBuffer = null;
+      prefilter = null;
+    }
+  }
+
+  /** Fixed-capacity table of slots split into direct or memory-mapped segments. */
+  private class Table {
+
+    final long capacity;
+    final long mask;
+    final ByteBuffer[] segments;
+    final int slotSegmentBits;
+    final long slotSegmentMask;
+    FileChannel channel = null;
+    Path file = null;
+
+    Table(long capacity) {
+      this.capacity = capacity;
+      this.mask = capacity - 1;
+      // slots don't divide evenly into power-of-2 byte sizes, so use a power-of-2 number of slots per segment instead
+      long slotsPerSegment = Math.min(capacity, Long.highestOneBit((1L << segmentBits) / SLOT_BYTES));
+      long segmentBytes = slotsPerSegment * SLOT_BYTES;
+      int numSegments = (int) (capacity / slotsPerSegment);
+      slotSegmentBits = Long.numberOfTrailingZeros(slotsPerSegment);
+      slotSegmentMask = slotsPerSegment - 1;
+      segments = new ByteBuffer[numSegments];
+      long directBytes = 0;
+      try {
+        for (int i = 0; i < numSegments; i++) {
+          if (directBytes + segmentBytes <= tableMemoryBytes) {
+            segments[i] = ByteBuffer.allocateDirect((int) segmentBytes);
+            directBytes += segmentBytes;
+          } else {
+            if (channel == null) {
+              FileUtils.createDirectory(dir);
+              file = Files.createTempFile(dir, "dedup", ".bin");
+              channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, segmentBytes);
+            spilledBytes.incBy(segmentBytes);
+          }
+        }
+      } catch (IOException e) {
+        close();
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    long hash(long slot) {
+      return segments[(int) (slot >>> slotSegmentBits)].getLong((int) ((slot & slotSegmentMask) * SLOT_BYTES));
+    }
+
+    long check(long slot) {
+      return segments[(int) (slot >>> slotSegmentBits)].getLong((int) ((slot & slotSegmentMask) * SLOT_BYTES + 8));
+    }
+
+    long value(long slot) {
+      return segments[(int) (slot >>> slotSegmentBits)].getLong((int) ((slot & slotSegmentMask) * SLOT_BYTES + 16));
+    }
+
+    void set(long slot, long hash, long check, long value) {
+      ByteBuffer segment = segments[(int) (slot >>> slotSegmentBits)];
+      int offset = (int) ((slot & slotSegmentMask) * SLOT_BYTES);
+      segment.putLong(offset, hash);
+      segment.putLong(offset + 8, check);
+      segment.putLong(offset + 16, value);
+    }
+
+    void close() {
+      try {
+        ByteBufferUtil.free(segments);
+      } catch (IOException e) {
+        LOGGER.info("Unable to free dedup index segments {}", e.toString());
+      }
+      Arrays.fill(segments, null);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          LOGGER.info("Unable to close dedup index file {}", e.toString());
+        }
+        FileUtils.delete(file);
+      }
+    }
+  }
+}
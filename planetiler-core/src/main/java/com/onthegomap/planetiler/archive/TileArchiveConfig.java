@@ -223,7 +223,7 @@ public record TileArchiveConfig(
 
   public Path getPathForMultiThreadedWriter(int index) {
     return switch (format) {
-      case CSV, TSV, JSON, PROTO, PBF -> StreamArchiveUtils.constructIndexedPath(getLocalPath(), index);
+      case MBTILES, CSV, TSV, JSON, PROTO, PBF -> StreamArchiveUtils.constructIndexedPath(getLocalPath(), index);
       case FILES -> getLocalPath();
       default -> throw new UnsupportedOperationException("not supported by " + format);
     };
@@ -232,7 +232,7 @@ public record TileArchiveConfig(
   public enum Format {
     MBTILES("mbtiles",
       false /* TODO mbtiles could support append in the future by using insert statements with an "on conflict"-clause (i.e. upsert) and by creating tables only if they don't exist, yet */,
-      false, TileOrder.TMS),
+      true, TileOrder.TMS),
     PMTILES("pmtiles", false, false, TileOrder.HILBERT),
 
     // should be before PBF in order to avoid collisions
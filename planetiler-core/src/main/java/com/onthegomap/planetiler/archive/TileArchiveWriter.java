@@ -1,6 +1,5 @@
 package com.onthegomap.planetiler.archive;
 
-import static com.onthegomap.planetiler.util.Gzip.gzip;
 import static com.onthegomap.planetiler.worker.Worker.joinFutures;
 
 import com.onthegomap.planetiler.VectorTile;
@@ -8,6 +7,7 @@ import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.stats.Counter;
+import com.onthegomap.planetiler.stats.LayerTimers;
 import com.onthegomap.planetiler.stats.ProcessInfo;
 import com.onthegomap.planetiler.stats.ProgressLoggers;
 import com.onthegomap.planetiler.stats.Stats;
@@ -34,6 +34,7 @@ import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.LongSupplier;
@@ -51,22 +52,25 @@ public class TileArchiveWriter {
   private static final Logger LOGGER = LoggerFactory.getLogger(TileArchiveWriter.class);
   private static final long MAX_FEATURES_PER_BATCH = 10_000;
   private static final long MAX_TILES_PER_BATCH = 1_000;
+  // split into more ranges than read threads so a thread that finishes a sparse range early picks up another one
+  private static final int TILE_RANGES_PER_READ_THREAD = 4;
   private final Counter.Readable featuresProcessed;
   private final Counter memoizedTiles;
   private final WriteableTileArchive archive;
   private final PlanetilerConfig config;
   private final Stats stats;
   private final Counter.Readable[] tilesByZoom;
-  private final Iterable<FeatureGroup.TileFeatures> inputTiles;
+  private final List<Iterable<FeatureGroup.TileFeatures>> inputTileRanges;
+  private final AtomicInteger nextTileRange = new AtomicInteger(0);
   private final AtomicReference<TileCoord> lastTileWritten = new AtomicReference<>();
   private final TileArchiveMetadata tileArchiveMetadata;
   private final TilesetSummaryStatistics tileStats;
   private final LayerAttrStats layerAttrStats = new LayerAttrStats();
 
-  private TileArchiveWriter(Iterable<FeatureGroup.TileFeatures> inputTiles, WriteableTileArchive archive,
+  private TileArchiveWriter(List<Iterable<FeatureGroup.TileFeatures>> inputTileRanges, WriteableTileArchive archive,
     PlanetilerConfig config, TileArchiveMetadata tileArchiveMetadata, Stats stats) {
     this.tileStats = new TilesetSummaryStatistics(TileWeights.readFromFile(config.tileWeights()));
-    this.inputTiles = inputTiles;
+    this.inputTileRanges = inputTileRanges;
     this.archive = archive;
     this.config = config;
     this.tileArchiveMetadata = tileArchiveMetadata;
@@ -96,20 +100,27 @@ public class TileArchiveWriter {
 
     // when using more than 1 read thread: (N read threads) -> (1 merge thread) -> ...
     // when using 1 read thread we just have: (1 read & merge thread) -> ...
+    // when the archive accepts tiles in any order and temp storage can seek to a tile range:
+    // (N threads that each read & merge a disjoint tile range) -> ...
     Worker readWorker = null;
-    Iterable<FeatureGroup.TileFeatures> inputTiles;
+    List<Iterable<FeatureGroup.TileFeatures>> inputTileRanges;
     String secondStageName;
+    int secondStageThreads = 1;
     if (readThreads == 1) {
       secondStageName = "read";
-      inputTiles = features;
+      inputTileRanges = List.of(features);
+    } else if (output.acceptsUnorderedWrites() && features.canReadTileRanges()) {
+      secondStageName = "read";
+      inputTileRanges = features.tileRanges(readThreads * TILE_RANGES_PER_READ_THREAD);
+      secondStageThreads = Math.min(readThreads, inputTileRanges.size());
     } else {
       secondStageName = "merge";
       var reader = features.parallelIterator(readThreads);
-      inputTiles = reader.result();
+      inputTileRanges = List.of(reader.result());
       readWorker = reader.readWorker();
     }
 
-    TileArchiveWriter writer = new TileArchiveWriter(inputTiles, output, config, tileArchiveMetadata, stats);
+    TileArchiveWriter writer = new TileArchiveWriter(inputTileRanges, output, config, tileArchiveMetadata, stats);
 
     var pipeline = WorkerPipeline.start("archive", stats);
 
@@ -127,15 +138,15 @@ public class TileArchiveWriter {
      * One batch might take a long time to process, so make the queues very big to avoid idle encoding CPUs.
      *
      * Note:
-     * In the future emitting tiles out order might be especially interesting when tileWriteThreads>1,
-     * since when multiple threads/files are included there's no order that needs to be preserved.
-     * So some of the restrictions could be lifted then.
+     * Archives that accept tiles in any order skip the single merged stream entirely: each read thread merges a
+     * disjoint tile range from all sorted chunks, so batches from different ranges reach the writer interleaved.
      */
     WorkQueue<TileBatch> writerQueue = new WorkQueue<>("archive_writer_queue", queueSize, 1, stats);
     WorkQueue<TileBatch> layerStatsQueue = new WorkQueue<>("archive_layerstats_queue", queueSize, 1, stats);
+    AtomicInteger activeReaders = new AtomicInteger(secondStageThreads);
     WorkerPipeline<TileBatch> encodeBranch = pipeline
       .<TileBatch>fromGenerator(secondStageName, next -> {
-        try (writerQueue; layerStatsQueue) {
+        try {
           var writerEnqueuer = writerQueue.threadLocalWriter();
           var statsEnqueuer = layerStatsQueue.threadLocalWriter();
           writer.readFeaturesAndBatch(batch -> {
@@ -145,13 +156,22 @@ public class TileArchiveWriter {
               statsEnqueuer.accept(batch);
             }
           });
+        } finally {
+          // the last reader to finish closes the queues
+          if (activeReaders.decrementAndGet() == 0) {
+            writerQueue.close();
+            layerStatsQueue.close();
+          }
         }
-        // use only 1 thread since readFeaturesAndBatch needs to be single-threaded
-      }, 1)
+        // each thread reads a whole tile range at a time since grouping features into tiles is single-threaded
+      }, secondStageThreads)
       .addBuffer("reader_queue", queueSize)
       .sinkTo("encode", processThreads, writer::tileEncoderSink);
 
     // ensure to initialize the archive BEFORE starting to write any tiles
+    if (output.deduplicates()) {
+      output.setDedupIndex(TileDedupIndex.factory(config, stats));
+    }
     output.initialize();
 
     // the tile writer will wait on the result of each batch to ensure tiles are written in order
@@ -228,6 +248,13 @@ public class TileArchiveWriter {
   }
 
   private void readFeaturesAndBatch(Consumer<TileBatch> next) {
+    int range;
+    while ((range = nextTileRange.getAndIncrement()) < inputTileRanges.size()) {
+      readFeaturesAndBatch(inputTileRanges.get(range), next);
+    }
+  }
+
+  private void readFeaturesAndBatch(Iterable<FeatureGroup.TileFeatures> inputTiles, Consumer<TileBatch> next) {
     int currentZoom = Integer.MIN_VALUE;
     TileBatch batch = new TileBatch();
     long featuresInThisBatch = 0;
@@ -266,76 +293,95 @@ public class TileArchiveWriter {
     boolean lastIsFill = false;
     List<TileSizeStats.LayerStats> lastLayerStats = null;
     boolean skipFilled = config.skipFilledTiles();
+    boolean dedupAll = config.tileDedupAll();
     var layerStatsSerializer = TileSizeStats.newThreadLocalSerializer();
 
     var tileStatsUpdater = tileStats.threadLocalUpdater();
     var layerAttrStatsUpdater = layerAttrStats.handlerForThread();
-    for (TileBatch batch : prev) {
-      List<TileEncodingResult> result = new ArrayList<>(batch.size());
-      FeatureGroup.TileFeatures last = null;
-      // each batch contains tile ordered by tile-order ID ascending
-      for (int i = 0; i < batch.in.size(); i++) {
-        FeatureGroup.TileFeatures tileFeatures = batch.in.get(i);
-        featuresProcessed.incBy(tileFeatures.getNumFeaturesProcessed());
-        byte[] bytes, encoded;
-        List<TileSizeStats.LayerStats> layerStats;
-        Long tileDataHash;
-        if (tileFeatures.hasSameContents(last)) {
-          bytes = lastBytes;
-          encoded = lastEncoded;
-          tileDataHash = lastTileDataHash;
-          layerStats = lastLayerStats;
-          memoizedTiles.inc();
-        } else {
-          VectorTile tile = tileFeatures.getVectorTile(layerAttrStatsUpdater);
-          if (skipFilled && (lastIsFill = tile.containsOnlyFills())) {
-            encoded = null;
-            layerStats = null;
-            bytes = null;
+    var layerTimers = stats.layerTimers().forThread();
+    try (var compressor = TileCompressor.create(config.tileCompression())) {
+      for (TileBatch batch : prev) {
+        List<TileEncodingResult> result = new ArrayList<>(batch.size());
+        FeatureGroup.TileFeatures last = null;
+        // each batch contains tile ordered by tile-order ID ascending
+        for (int i = 0; i < batch.in.size(); i++) {
+          FeatureGroup.TileFeatures tileFeatures = batch.in.get(i);
+          featuresProcessed.incBy(tileFeatures.getNumFeaturesProcessed());
+          byte[] bytes, encoded;
+          List<TileSizeStats.LayerStats> layerStats;
+          Long tileDataHash;
+          if (tileFeatures.hasSameContents(last)) {
+            bytes = lastBytes;
+            encoded = lastEncoded;
+            tileDataHash = lastTileDataHash;
+            layerStats = lastLayerStats;
+            memoizedTiles.inc();
           } else {
-            var proto = tile.toProto();
-            encoded = proto.toByteArray();
-            bytes = switch (config.tileCompression()) {
-              case GZIP -> gzip(encoded);
-              case NONE -> encoded;
-              case UNKNOWN -> throw new IllegalArgumentException("cannot compress \"UNKNOWN\"");
-            };
-            layerStats = TileSizeStats.computeTileStats(proto);
-            if (encoded.length > config.tileWarningSizeBytes()) {
-              LOGGER.warn("{} {}kb uncompressed",
-                tileFeatures.tileCoord(),
-                encoded.length / 1024);
+            VectorTile tile = tileFeatures.getVectorTile(layerAttrStatsUpdater);
+            if (skipFilled && (lastIsFill = tile.containsOnlyFills())) {
+              encoded = null;
+              layerStats = null;
+              bytes = null;
+            } else {
+              layerStats = new ArrayList<>();
+              long start = System.nanoTime();
+              encoded = tile.encode(layerStats);
+              long encodeEnd = System.nanoTime();
+              bytes = compressor.compress(encoded);
+              recordByLayerSize(layerTimers, LayerTimers.Stage.ENCODE, layerStats, encodeEnd - start);
+              recordByLayerSize(layerTimers, LayerTimers.Stage.COMPRESS, layerStats, System.nanoTime() - encodeEnd);
+              if (encoded.length > config.tileWarningSizeBytes()) {
+                LOGGER.warn("{} {}kb uncompressed",
+                  tileFeatures.tileCoord(),
+                  encoded.length / 1024);
+              }
+            }
+            lastLayerStats = layerStats;
+            lastEncoded = encoded;
+            lastBytes = bytes;
+            last = tileFeatures;
+            if (archive.deduplicates() && (dedupAll || tile.likelyToBeDuplicated()) && bytes != null) {
+              tileDataHash = generateContentHash(bytes);
+            } else {
+              tileDataHash = null;
             }
+            lastTileDataHash = tileDataHash;
           }
-          lastLayerStats = layerStats;
-          lastEncoded = encoded;
-          lastBytes = bytes;
-          last = tileFeatures;
-          if (archive.deduplicates() && tile.likelyToBeDuplicated() && bytes != null) {
-            tileDataHash = generateContentHash(bytes);
-          } else {
-            tileDataHash = null;
+          if ((!skipFilled || !lastIsFill) && bytes != null) {
+            tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, layerStats);
+            List<String> layerStatsRows = config.outputLayerStats() ?
+              layerStatsSerializer.formatOutputRows(tileFeatures.tileCoord(), bytes.length, layerStats) :
+              List.of();
+            result.add(
+              new TileEncodingResult(
+                tileFeatures.tileCoord(),
+                bytes,
+                encoded.length,
+                tileDataHash == null ? OptionalLong.empty() : OptionalLong.of(tileDataHash),
+                layerStatsRows
+              )
+            );
           }
-          lastTileDataHash = tileDataHash;
-        }
-        if ((!skipFilled || !lastIsFill) && bytes != null) {
-          tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, layerStats);
-          List<String> layerStatsRows = config.outputLayerStats() ?
-            layerStatsSerializer.formatOutputRows(tileFeatures.tileCoord(), bytes.length, layerStats) :
-            List.of();
-          result.add(
-            new TileEncodingResult(
-              tileFeatures.tileCoord(),
-              bytes,
-              encoded.length,
-              tileDataHash == null ? OptionalLong.empty() : OptionalLong.of(tileDataHash),
-              layerStatsRows
-            )
-          );
         }
+        // hand result off to writer
+        batch.out.complete(result);
+      }
+    }
+  }
+
+  /** Splits time spent on a whole tile between its layers in proportion to their encoded size. */
+  private static void recordByLayerSize(LayerTimers.ForThread layerTimers, LayerTimers.Stage stage,
+    List<TileSizeStats.LayerStats> layerStats, long nanos) {
+    long total = 0;
+    for (var layer : layerStats) {
+      total += layer.layerBytes();
+    }
+    if (total == 0) {
+      layerTimers.record(stage, LayerTimers.NO_LAYER, nanos);
+    } else {
+      for (var layer : layerStats) {
+        layerTimers.record(stage, layer.layer(), nanos * layer.layerBytes() / total);
       }
-      // hand result off to writer
-      batch.out.complete(result);
     }
   }
 
@@ -349,6 +395,8 @@ public class TileArchiveWriter {
     f.setMaximumFractionDigits(5);
 
     var order = archive.tileOrder();
+    // tile ranges read in parallel reach the writer interleaved
+    boolean ordered = inputTileRanges.size() == 1;
 
     TileCoord lastTile = null;
     Timer time = null;
@@ -357,7 +405,7 @@ public class TileArchiveWriter {
       for (TileBatch batch : tileBatches) {
         for (var encodedTile : batch.out.get()) {
           TileCoord tileCoord = encodedTile.coord();
-          assert lastTile == null ||
+          assert !ordered || lastTile == null ||
             order.encode(tileCoord) > order.encode(lastTile) : "Tiles out of order %s before %s"
               .formatted(lastTile, tileCoord);
           lastTile = encodedTile.coord();
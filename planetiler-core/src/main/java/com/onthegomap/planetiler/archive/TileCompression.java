@@ -5,6 +5,8 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.github.luben.zstd.Zstd;
+import com.onthegomap.planetiler.util.Gzip;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
@@ -19,6 +21,8 @@ public enum TileCompression {
   NONE("none"),
   @JsonProperty("gzip")
   GZIP("gzip"),
+  @JsonProperty("zstd")
+  ZSTD("zstd"),
   @JsonProperty("unknown")
   UNKNOWN("unknown");
 
@@ -49,6 +53,22 @@ public enum TileCompression {
     return id;
   }
 
+  /** Returns the uncompressed contents of a tile that was compressed with this compression. */
+  public byte[] decompress(byte[] bytes) throws IOException {
+    return switch (this) {
+      case NONE -> bytes;
+      case GZIP -> Gzip.gunzip(bytes);
+      case ZSTD -> {
+        long size = Zstd.getFrameContentSize(bytes);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+          throw new IOException("Unable to determine decompressed zstd tile size: " + size);
+        }
+        yield Zstd.decompress(bytes, (int) size);
+      }
+      case UNKNOWN -> throw new IllegalArgumentException("cannot decompress \"UNKNOWN\"");
+    };
+  }
+
   static class Deserializer extends JsonDeserializer<TileCompression> {
     @Override
     public TileCompression deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
@@ -0,0 +1,117 @@
+package com.onthegomap.planetiler.archive;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Compresses encoded tiles using a {@link TileCompression}, reusing the same native compression context and output
+ * buffer for every tile.
+ * <p>
+ * Creating a {@link java.util.zip.GZIPOutputStream} per tile allocates a new native {@link Deflater} and several
+ * intermediate buffers each time, which adds up over hundreds of millions of tiles. Each tile encoder thread should
+ * create its own instance with {@link #create(TileCompression)} and {@link #close()} it when done.
+ * <p>
+ * Gzip output is byte-for-byte identical to {@link com.onthegomap.planetiler.util.Gzip#gzip(byte[])}.
+ */
+@NotThreadSafe
+public abstract sealed class TileCompressor implements AutoCloseable {
+
+  private TileCompressor() {}
+
+  /** Returns a new compressor for {@code compression} that must only be used from a single thread. */
+  public static TileCompressor create(TileCompression compression) {
+    return switch (compression) {
+      case NONE -> new None();
+      case GZIP -> new Gzip();
+      case ZSTD -> new Zstd();
+      case UNKNOWN -> throw new IllegalArgumentException("cannot compress \"UNKNOWN\"");
+    };
+  }
+
+  /** Returns the compressed bytes of {@code encoded}. */
+  public abstract byte[] compress(byte[] encoded);
+
+  @Override
+  public void close() {}
+
+  private static final class None extends TileCompressor {
+
+    @Override
+    public byte[] compress(byte[] encoded) {
+      return encoded;
+    }
+  }
+
+  private static final class Gzip extends TileCompressor {
+
+    private static final byte[] HEADER = {
+      0x1f, (byte) 0x8b, // magic number
+      Deflater.DEFLATED, // compression method
+      0, // flags
+      0, 0, 0, 0, // modification time
+      0, // extra flags
+      (byte) 0xff // operating system: unknown
+    };
+    private static final int TRAILER_SIZE = 8;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private byte[] buffer = new byte[64 * 1024];
+
+    @Override
+    public byte[] compress(byte[] encoded) {
+      System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+      int length = HEADER.length;
+      deflater.reset();
+      deflater.setInput(encoded);
+      deflater.finish();
+      while (!deflater.finished()) {
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      crc.reset();
+      crc.update(encoded);
+      if (buffer.length - length < TRAILER_SIZE) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      length = writeIntLE(buffer, length, (int) crc.getValue());
+      length = writeIntLE(buffer, length, encoded.length);
+      return Arrays.copyOf(buffer, length);
+    }
+
+    private static int writeIntLE(byte[] buffer, int offset, int value) {
+      buffer[offset] = (byte) value;
+      buffer[offset + 1] = (byte) (value >> 8);
+      buffer[offset + 2] = (byte) (value >> 16);
+      buffer[offset + 3] = (byte) (value >> 24);
+      return offset + 4;
+    }
+
+    @Override
+    public void close() {
+      deflater.end();
+    }
+  }
+
+  private static final class Zstd extends TileCompressor {
+
+    private final ZstdCompressCtx context = new ZstdCompressCtx()
+      .setLevel(com.github.luben.zstd.Zstd.defaultCompressionLevel())
+      .setContentSize(true);
+
+    @Override
+    public byte[] compress(byte[] encoded) {
+      return context.compress(encoded);
+    }
+
+    @Override
+    public void close() {
+      context.close();
+    }
+  }
+}
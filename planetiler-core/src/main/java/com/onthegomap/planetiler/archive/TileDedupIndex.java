@@ -0,0 +1,145 @@
+package com.onthegomap.planetiler.archive;
+
+import com.carrotsearch.hppc.LongLongHashMap;
+import com.onthegomap.planetiler.collection.Hppc;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.stats.Counter;
+import com.onthegomap.planetiler.stats.Stats;
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An index from tile content hashes to where an archive wrote that content, which lets archives that
+ * {@linkplain WriteableTileArchive#deduplicates() deduplicate} tiles point repeated tiles at content they already
+ * wrote.
+ * <p>
+ * Entries are keyed by the 64-bit content hash {@link TileArchiveWriter} computes along with a 64-bit
+ * {@linkplain #contentCheck(byte[]) check} of the same content, and lookups only return a value when both match. That
+ * way tiles whose hashes collide don't get pointed at each other's content, even when every tile gets hashed.
+ * <p>
+ * Implementations may forget hashes to bound memory usage, so a repeated tile can occasionally get written more than
+ * once, but a hash never maps to the wrong value.
+ */
+@NotThreadSafe
+public interface TileDedupIndex extends Closeable {
+
+  /** Value {@link #get(long)} returns for hashes that are not in the index. */
+  long MISSING = -1;
+
+  /**
+   * Returns the value stored for {@code hash}, or {@link #MISSING} if it is not in the index or was stored with a
+   * different {@code check}.
+   */
+  long get(long hash, long check);
+
+  /** Stores {@code value} for {@code hash} and {@code check}, where {@code value} must be {@code >= 0}. */
+  void put(long hash, long check, long value);
+
+  /** Returns the number of hashes the index holds. */
+  long size();
+
+  @Override
+  default void close() {}
+
+  /**
+   * Returns the check to store alongside the content hash of {@code data}: its CRC-32C in the upper 32 bits and length
+   * in the lower 32 bits.
+   */
+  static long contentCheck(byte[] data) {
+    CRC32C crc = new CRC32C();
+    crc.update(data);
+    return (crc.getValue() << 32) | (data.length & 0xffffffffL);
+  }
+
+  /** Returns an index backed by an in-heap hash map that remembers every hash. */
+  static TileDedupIndex inMemory() {
+    return new InMemory();
+  }
+
+  /**
+   * Returns an index backed by an off-heap hash table that uses up to {@code memoryBytes} of direct memory then spills
+   * to memory-mapped files in {@code dir}.
+   */
+  static TileDedupIndex offHeap(Path dir, long memoryBytes) {
+    return new OffHeapTileDedupIndex(dir, memoryBytes, OffHeapTileDedupIndex.DEFAULT_SEGMENT_BITS,
+      Counter.newSingleThreadCounter(), Counter.newSingleThreadCounter());
+  }
+
+  /**
+   * Returns a factory for the index that {@code config} selects, which tile writers call from their own thread to get
+   * an index for the tiles they write.
+   */
+  static Supplier<TileDedupIndex> factory(PlanetilerConfig config, Stats stats) {
+    var lookups = stats.longCounter("archive_dedup_lookups");
+    var hits = stats.longCounter("archive_dedup_hits");
+    var prefilterSkips = stats.longCounter("archive_dedup_prefilter_skips");
+    var spilledBytes = stats.longCounter("archive_dedup_spilled_bytes");
+    return () -> {
+      TileDedupIndex index = switch (config.tileDedupIndex()) {
+        case "ram" -> inMemory();
+        case "offheap" -> new OffHeapTileDedupIndex(config.tmpDir().resolve("dedup"), config.tileDedupMemoryBytes(),
+          OffHeapTileDedupIndex.DEFAULT_SEGMENT_BITS, prefilterSkips.counterForThread(), spilledBytes.counterForThread());
+        default -> throw new IllegalArgumentException("Unrecognized tile dedup index: " + config.tileDedupIndex());
+      };
+      return new Counting(index, lookups.counterForThread(), hits.counterForThread());
+    };
+  }
+
+  /** Index that stores every hash in in-heap {@link LongLongHashMap LongLongHashMaps}. */
+  class InMemory implements TileDedupIndex {
+
+    private final LongLongHashMap values = Hppc.newLongLongHashMap();
+    private final LongLongHashMap checks = Hppc.newLongLongHashMap();
+
+    private InMemory() {}
+
+    @Override
+    public long get(long hash, long check) {
+      long value = values.getOrDefault(hash, MISSING);
+      return value != MISSING && checks.get(hash) == check ? value : MISSING;
+    }
+
+    @Override
+    public void put(long hash, long check, long value) {
+      values.put(hash, value);
+      checks.put(hash, check);
+    }
+
+    @Override
+    public long size() {
+      return values.size();
+    }
+  }
+
+  /** Wrapper that counts lookups into another index and how many of them found a hash. */
+  record Counting(TileDedupIndex delegate, Counter lookups, Counter hits) implements TileDedupIndex {
+
+    @Override
+    public long get(long hash, long check) {
+      lookups.inc();
+      long result = delegate.get(hash, check);
+      if (result != MISSING) {
+        hits.inc();
+      }
+      return result;
+    }
+
+    @Override
+    public void put(long hash, long check, long value) {
+      delegate.put(hash, check, value);
+    }
+
+    @Override
+    public long size() {
+      return delegate.size();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+}
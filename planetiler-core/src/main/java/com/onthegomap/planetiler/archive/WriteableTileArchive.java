@@ -3,6 +3,7 @@ package com.onthegomap.planetiler.archive;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileOrder;
 import java.io.Closeable;
+import java.util.function.Supplier;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -26,6 +27,21 @@ public interface WriteableTileArchive extends Closeable {
    */
   TileOrder tileOrder();
 
+  /**
+   * Returns true if this archive can accept tiles in any order, which lets disjoint tile ranges be read, encoded, and
+   * written in parallel.
+   */
+  default boolean acceptsUnorderedWrites() {
+    return false;
+  }
+
+  /**
+   * Sets the factory that tile writers of an archive that {@link #deduplicates()} call to get the index they use to find
+   * tiles with content they already wrote. Called before {@link #initialize()}, archives should default to
+   * {@link TileDedupIndex#inMemory()} when it is not called.
+   */
+  default void setDedupIndex(Supplier<TileDedupIndex> indexFactory) {}
+
   /**
    * Called before any tiles are written into {@link TileWriter}. Implementations of TileArchive should set up any
    * required state here.
@@ -55,6 +55,14 @@ import org.xerial.snappy.SnappyOutputStream;
  * chunk. The sort process sorts the chunks, limiting the number of parallel threads by CPU cores and available RAM.
  * Reads do a k-way merge of the sorted chunks using a priority queue of minimum values from each.
  * <p>
+ * In "packed" mode, the sort step reads the raw records of each chunk into a single byte array, radix sorts parallel
+ * arrays of keys and record offsets, then writes records straight from that array - without allocating an object per
+ * feature - so chunks can hold more features for the same amount of memory.
+ * <p>
+ * When writing each sorted chunk, the sort step also samples the key and file offset of every
+ * {@value #INDEX_INTERVAL}th record so that {@link #iterator(long, long)} can seek straight to a key range and
+ * {@link #splitKeys(int)} can pick range boundaries that divide features evenly between parallel readers.
+ * <p>
  * Only supports single-threaded writes and reads.
  */
 @NotThreadSafe
@@ -62,6 +70,9 @@ class ExternalMergeSort implements FeatureSort {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ExternalMergeSort.class);
   private static final long MAX_CHUNK_SIZE = 2_000_000_000; // 2GB
+  private static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+  private static final int INDEX_INTERVAL = 4_096;
   private final Path dir;
   private final Stats stats;
   private final int chunkSizeLimit;
@@ -75,6 +86,7 @@ class ExternalMergeSort implements FeatureSort {
   private final int writerLimit;
   private final boolean mmapIO;
   private final boolean parallelSort;
+  private final boolean packed;
   private final boolean madvise;
   private final AtomicBoolean madviseFailed = new AtomicBoolean(false);
   private volatile boolean sorted = false;
@@ -90,6 +102,7 @@ class ExternalMergeSort implements FeatureSort {
       config.compressTempStorage(),
       config.mmapTempStorage(),
       true,
+      config.sortPacked(),
       true,
       config,
       stats
@@ -97,12 +110,13 @@ class ExternalMergeSort implements FeatureSort {
   }
 
   ExternalMergeSort(Path dir, int workers, int chunkSizeLimit, boolean compress, boolean mmap, boolean parallelSort,
-    boolean madvise, PlanetilerConfig config, Stats stats) {
+    boolean packed, boolean madvise, PlanetilerConfig config, Stats stats) {
     this.config = config;
     this.madvise = madvise;
     this.dir = dir;
     this.stats = stats;
     this.parallelSort = parallelSort;
+    this.packed = packed;
     this.chunkSizeLimit = chunkSizeLimit;
     if (compress && mmap) {
       LOGGER.warn("--compress-temp option not supported with --mmap-temp, falling back to --mmap-temp=false");
@@ -118,7 +132,8 @@ class ExternalMergeSort implements FeatureSort {
     this.workers = Math.min(workers, maxWorkersBasedOnMemory);
     this.readerLimit = Math.max(1, config.sortMaxReaders());
     this.writerLimit = Math.max(1, config.sortMaxWriters());
-    LOGGER.info("Using merge sort feature map, chunk size={}mb max workers={}", chunkSizeLimit / 1_000_000, workers);
+    LOGGER.info("Using merge sort feature map, chunk size={}mb max workers={} packed={}", chunkSizeLimit / 1_000_000,
+      workers, packed);
     try {
       FileUtils.deleteDirectory(dir);
       Files.createDirectories(dir);
@@ -256,6 +271,44 @@ class ExternalMergeSort implements FeatureSort {
     return LongMerger.mergeIterators(iterators, SortableFeature.COMPARE_BYTES);
   }
 
+  @Override
+  public Iterator<SortableFeature> iterator(long fromKey, long toKey) {
+    assert sorted;
+    List<Reader> iterators = new ArrayList<>();
+    for (var chunk : chunks) {
+      if (chunk.itemCount > 0) {
+        var reader = chunk.newReader(fromKey, toKey);
+        if (reader.hasNext()) {
+          iterators.add(reader);
+        }
+      }
+    }
+    return LongMerger.mergeIterators(iterators, SortableFeature.COMPARE_BYTES);
+  }
+
+  @Override
+  public boolean canSeekToKey() {
+    // compressed chunks can only be read from the start
+    return !compress;
+  }
+
+  @Override
+  public List<Long> splitKeys(int parts) {
+    assert sorted;
+    long[] samples = chunks.stream()
+      .flatMapToLong(chunk -> Arrays.stream(chunk.indexKeys))
+      .sorted()
+      .toArray();
+    List<Long> result = new ArrayList<>();
+    for (int i = 1; i < parts && samples.length > 0; i++) {
+      long key = samples[(int) ((long) i * samples.length / parts)];
+      if (result.isEmpty() || result.getLast() < key) {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
   @Override
   public int chunksToRead() {
     return chunks.size();
@@ -278,6 +331,9 @@ class ExternalMergeSort implements FeatureSort {
   private interface Writer extends Closeable {
 
     void write(SortableFeature feature) throws IOException;
+
+    /** Writes an already-encoded record of {@code length} bytes starting at {@code offset} in {@code bytes}. */
+    void writeRecord(byte[] bytes, int offset, int length) throws IOException;
   }
 
   private interface Reader extends Closeable, Iterator<SortableFeature> {
@@ -294,9 +350,17 @@ class ExternalMergeSort implements FeatureSort {
     private int read = 0;
 
     ReaderBuffered(Path path, int count, boolean compress) {
+      this(path, 0, count, compress);
+    }
+
+    ReaderBuffered(Path path, long offset, int count, boolean compress) {
       this.count = count;
       try {
-        InputStream inputStream = new BufferedInputStream(Files.newInputStream(path));
+        InputStream rawInputStream = Files.newInputStream(path);
+        if (offset > 0) {
+          rawInputStream.skipNBytes(offset);
+        }
+        InputStream inputStream = new BufferedInputStream(rawInputStream);
         if (compress) {
           inputStream = new SnappyInputStream(inputStream);
         }
@@ -362,6 +426,11 @@ class ExternalMergeSort implements FeatureSort {
       out.writeInt(feature.value().length);
       out.write(feature.value());
     }
+
+    @Override
+    public void writeRecord(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
   }
 
   /** Common functionality between {@link ReaderMmap} and {@link ReaderBuffered}. */
@@ -389,6 +458,45 @@ class ExternalMergeSort implements FeatureSort {
     abstract SortableFeature readNextFeature();
   }
 
+  /** Wraps a reader positioned at or before {@code fromKey} to only emit features with keys in a range. */
+  private static class RangeReader extends BaseReader {
+
+    private final Reader delegate;
+    private final long toKey;
+
+    RangeReader(Reader delegate, long fromKey, long toKey) {
+      this.delegate = delegate;
+      this.toKey = toKey;
+      SortableFeature first = null;
+      while (delegate.hasNext() && (first = delegate.next()).key() < fromKey) {
+        first = null;
+      }
+      next = first != null && first.key() < toKey ? first : null;
+      if (next == null) {
+        close();
+      }
+    }
+
+    @Override
+    SortableFeature readNextFeature() {
+      if (delegate.hasNext()) {
+        SortableFeature feature = delegate.next();
+        if (feature.key() < toKey) {
+          return feature;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close() {
+      // the delegate closes itself once it runs out of features
+      if (delegate.hasNext()) {
+        delegate.close();
+      }
+    }
+  }
+
   /** Writer that a single thread can use to write features independent of writers used in other threads. */
   @NotThreadSafe
   private class ThreadLocalWriter implements CloseableConsumer<SortableFeature> {
@@ -468,6 +576,11 @@ class ExternalMergeSort implements FeatureSort {
       buffer.putInt(feature.value().length);
       buffer.put(feature.value());
     }
+
+    @Override
+    public void writeRecord(byte[] bytes, int offset, int length) {
+      buffer.put(bytes, offset, length);
+    }
   }
 
   /**
@@ -480,6 +593,11 @@ class ExternalMergeSort implements FeatureSort {
     // estimate how much RAM it would take to sort this chunk
     private int bytesInMemory = 0;
     private int itemCount = 0;
+    // exact size of the records in the chunk file, before compression
+    private long recordBytes = 0;
+    // key and file offset of every INDEX_INTERVAL-th record, filled in when the sorted chunk is written
+    private long[] indexKeys = new long[0];
+    private long[] indexOffsets = new long[0];
 
     private Chunk(Path path) {
       this.path = path;
@@ -488,17 +606,29 @@ class ExternalMergeSort implements FeatureSort {
 
     public void add(SortableFeature entry) throws IOException {
       writer.write(entry);
-      bytesInMemory +=
-        // pointer to feature
-        8 +
-          // Feature class overhead
-          16 +
-          // long sort member of feature
-          8 +
-          // byte array pointer
+      int recordSize = RECORD_HEADER_BYTES + entry.value().length;
+      recordBytes += recordSize;
+      if (packed) {
+        bytesInMemory +=
+          // key, length, and value in the packed buffer
+          recordSize +
+            // key and offset in the index
+            Long.BYTES + Integer.BYTES +
+            // scratch key and offset for the radix sort
+            Long.BYTES + Integer.BYTES;
+      } else {
+        bytesInMemory +=
+          // pointer to feature
           8 +
-          // byte array size
-          24 + entry.value().length;
+            // Feature class overhead
+            16 +
+            // long sort member of feature
+            8 +
+            // byte array pointer
+            8 +
+            // byte array size
+            24 + entry.value().length;
+      }
       itemCount++;
     }
 
@@ -506,6 +636,7 @@ class ExternalMergeSort implements FeatureSort {
       // first, grow this chunk
       int newItems = itemCount;
       int newBytes = bytesInMemory;
+      long newRecordBytes = recordBytes;
       for (var other : others) {
         if (Integer.MAX_VALUE - newItems < other.itemCount) {
           throw new IllegalStateException("Too many items in merged chunk: " + itemCount + "+" +
@@ -517,12 +648,14 @@ class ExternalMergeSort implements FeatureSort {
         }
         newItems += other.itemCount;
         newBytes += other.bytesInMemory;
+        newRecordBytes += other.recordBytes;
       }
       // then read items from all chunks into memory
-      SortableChunk result = new SortableChunk(newItems);
+      SortableChunk result = packed ? new PackedChunk(newItems, newRecordBytes) : new ObjectChunk(newItems);
       result.readAll(this);
       itemCount = newItems;
       bytesInMemory = newBytes;
+      recordBytes = newRecordBytes;
       for (var other : others) {
         result.readAll(other);
       }
@@ -540,6 +673,45 @@ class ExternalMergeSort implements FeatureSort {
       return mmapIO ? new ReaderMmap(path, itemCount) : new ReaderBuffered(path, itemCount, compress);
     }
 
+    private Reader newReader(long fromKey, long toKey) {
+      int skipItems = 0;
+      long offset = 0;
+      // compressed chunks can't seek, so they scan from the start
+      if (!compress) {
+        // start from the last sampled record with a key below the range, every record before it is below too
+        int lo = 0, hi = indexKeys.length;
+        while (lo < hi) {
+          int mid = (lo + hi) >>> 1;
+          if (indexKeys[mid] < fromKey) {
+            lo = mid + 1;
+          } else {
+            hi = mid;
+          }
+        }
+        int idx = lo - 1;
+        if (idx >= 0) {
+          skipItems = idx * INDEX_INTERVAL;
+          offset = indexOffsets[idx];
+        }
+      }
+      int count = itemCount - skipItems;
+      Reader reader = mmapIO ? new ReaderMmap(path, offset, count) : new ReaderBuffered(path, offset, count, compress);
+      return new RangeReader(reader, fromKey, toKey);
+    }
+
+    private void startIndex(int items) {
+      int size = (items + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+      indexKeys = new long[size];
+      indexOffsets = new long[size];
+    }
+
+    private void addToIndex(int item, long key, long offset) {
+      if (item % INDEX_INTERVAL == 0) {
+        indexKeys[item / INDEX_INTERVAL] = key;
+        indexOffsets[item / INDEX_INTERVAL] = offset;
+      }
+    }
+
     @Override
     public void close() throws IOException {
       writer.close();
@@ -553,15 +725,27 @@ class ExternalMergeSort implements FeatureSort {
     /**
      * A container for all features in a chunk read into memory for sorting.
      */
-    private class SortableChunk {
+    private abstract class SortableChunk {
+
+      int i = 0;
+
+      abstract void readAll(Chunk chunk);
+
+      abstract SortableChunk sort();
+
+      abstract SortableChunk flush();
+    }
+
+    /** Holds each feature in memory as a {@link SortableFeature} and sorts them with {@link Arrays#sort}. */
+    private class ObjectChunk extends SortableChunk {
 
       private SortableFeature[] featuresToSort;
-      private int i = 0;
 
-      private SortableChunk(int itemCount) {
+      private ObjectChunk(int itemCount) {
         this.featuresToSort = new SortableFeature[itemCount];
       }
 
+      @Override
       public SortableChunk sort() {
         if (parallelSort) {
           Arrays.parallelSort(featuresToSort);
@@ -571,10 +755,16 @@ class ExternalMergeSort implements FeatureSort {
         return this;
       }
 
+      @Override
       public SortableChunk flush() {
         try (Writer out = newWriter(path)) {
-          for (SortableFeature feature : featuresToSort) {
+          startIndex(featuresToSort.length);
+          long offset = 0;
+          for (int j = 0; j < featuresToSort.length; j++) {
+            SortableFeature feature = featuresToSort[j];
+            addToIndex(j, feature.key(), offset);
             out.write(feature);
+            offset += RECORD_HEADER_BYTES + feature.value().length;
           }
           featuresToSort = null;
           return this;
@@ -583,7 +773,8 @@ class ExternalMergeSort implements FeatureSort {
         }
       }
 
-      private void readAll(Chunk chunk) {
+      @Override
+      void readAll(Chunk chunk) {
         try (var iterator = chunk.newReader()) {
           while (iterator.hasNext()) {
             featuresToSort[i++] = iterator.next();
@@ -591,6 +782,165 @@ class ExternalMergeSort implements FeatureSort {
         }
       }
     }
+
+    /**
+     * Copies the raw records from each chunk file into one byte array, then sorts parallel arrays of keys and record
+     * offsets with an LSD radix sort on the key, falling back to a merge sort on unsigned value bytes within runs of
+     * equal keys.
+     */
+    private class PackedChunk extends SortableChunk {
+
+      private byte[] records;
+      private ByteBuffer view;
+      private long[] keys;
+      private int[] offsets;
+      private long[] scratchKeys;
+      private int[] scratchOffsets;
+      private int position = 0;
+
+      private PackedChunk(int itemCount, long recordBytes) {
+        if (recordBytes > Integer.MAX_VALUE - 8) {
+          throw new IllegalStateException("Too big packed chunk: " + recordBytes + " bytes");
+        }
+        this.records = new byte[(int) recordBytes];
+        this.view = ByteBuffer.wrap(records);
+        this.keys = new long[itemCount];
+        this.offsets = new int[itemCount];
+        this.scratchKeys = new long[itemCount];
+        this.scratchOffsets = new int[itemCount];
+      }
+
+      @Override
+      void readAll(Chunk chunk) {
+        int length = (int) chunk.recordBytes;
+        try (
+          InputStream raw = Files.newInputStream(chunk.path);
+          InputStream input = compress ? new SnappyInputStream(raw) : raw
+        ) {
+          int read = input.readNBytes(records, position, length);
+          if (read != length) {
+            throw new IllegalStateException("Expected " + length + " bytes in " + chunk.path + " got " + read);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        int end = position + length;
+        while (position < end) {
+          keys[i] = view.getLong(position);
+          offsets[i++] = position;
+          position += RECORD_HEADER_BYTES + view.getInt(position + Long.BYTES);
+        }
+      }
+
+      @Override
+      public SortableChunk sort() {
+        int n = i;
+        int[] counts = new int[256];
+        for (int shift = 0; shift < Long.SIZE && n > 0; shift += 8) {
+          // flip the sign bit on the most significant byte so negative keys sort first
+          int flip = shift == Long.SIZE - 8 ? 0x80 : 0;
+          Arrays.fill(counts, 0);
+          for (int j = 0; j < n; j++) {
+            counts[(((int) (keys[j] >>> shift)) & 0xff) ^ flip]++;
+          }
+          if (counts[(((int) (keys[0] >>> shift)) & 0xff) ^ flip] == n) {
+            // every key has the same digit, so this pass would not move anything
+            continue;
+          }
+          for (int digit = 0, sum = 0; digit < counts.length; digit++) {
+            int count = counts[digit];
+            counts[digit] = sum;
+            sum += count;
+          }
+          for (int j = 0; j < n; j++) {
+            long key = keys[j];
+            int dest = counts[(((int) (key >>> shift)) & 0xff) ^ flip]++;
+            scratchKeys[dest] = key;
+            scratchOffsets[dest] = offsets[j];
+          }
+          long[] tmpKeys = keys;
+          keys = scratchKeys;
+          scratchKeys = tmpKeys;
+          int[] tmpOffsets = offsets;
+          offsets = scratchOffsets;
+          scratchOffsets = tmpOffsets;
+        }
+        scratchKeys = null;
+        // break ties between equal keys by comparing values, same as SortableFeature#compareTo
+        for (int start = 0, end; start < n; start = end) {
+          long key = keys[start];
+          end = start + 1;
+          while (end < n && keys[end] == key) {
+            end++;
+          }
+          if (end - start > 1) {
+            sortByValue(start, end);
+          }
+        }
+        scratchOffsets = null;
+        keys = null;
+        return this;
+      }
+
+      private int compareValues(int a, int b) {
+        int aStart = a + RECORD_HEADER_BYTES;
+        int bStart = b + RECORD_HEADER_BYTES;
+        return Arrays.compareUnsigned(
+          records, aStart, aStart + view.getInt(a + Long.BYTES),
+          records, bStart, bStart + view.getInt(b + Long.BYTES)
+        );
+      }
+
+      private void sortByValue(int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+          for (int j = from + 1; j < to; j++) {
+            int offset = offsets[j];
+            int k = j - 1;
+            while (k >= from && compareValues(offsets[k], offset) > 0) {
+              offsets[k + 1] = offsets[k];
+              k--;
+            }
+            offsets[k + 1] = offset;
+          }
+          return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByValue(from, mid);
+        sortByValue(mid, to);
+        if (compareValues(offsets[mid - 1], offsets[mid]) <= 0) {
+          return;
+        }
+        System.arraycopy(offsets, from, scratchOffsets, from, to - from);
+        for (int j = from, left = from, right = mid; j < to; j++) {
+          if (right >= to || (left < mid && compareValues(scratchOffsets[left], scratchOffsets[right]) <= 0)) {
+            offsets[j] = scratchOffsets[left++];
+          } else {
+            offsets[j] = scratchOffsets[right++];
+          }
+        }
+      }
+
+      @Override
+      public SortableChunk flush() {
+        try (Writer out = newWriter(path)) {
+          startIndex(i);
+          long written = 0;
+          for (int j = 0; j < i; j++) {
+            int offset = offsets[j];
+            int length = RECORD_HEADER_BYTES + view.getInt(offset + Long.BYTES);
+            addToIndex(j, view.getLong(offset), written);
+            out.writeRecord(records, offset, length);
+            written += length;
+          }
+          records = null;
+          view = null;
+          offsets = null;
+          return this;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
   }
 
   /** Memory-map the chunk file, then iterate through all features in it. */
@@ -602,10 +952,14 @@ class ExternalMergeSort implements FeatureSort {
     private int read = 0;
 
     ReaderMmap(Path path, int count) {
+      this(path, 0, count);
+    }
+
+    ReaderMmap(Path path, long offset, int count) {
       this.count = count;
       try {
         channel = FileChannel.open(path, StandardOpenOption.READ);
-        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset);
         if (madvise) {
           // give the OS a hint that pages will be read sequentially so it can read-ahead and drop as soon as we're done
           tryMadviseSequential(buffer);
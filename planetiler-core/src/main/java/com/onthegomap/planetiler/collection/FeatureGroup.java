@@ -11,14 +11,15 @@ import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.stats.LayerTimers;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.AttributeMap;
 import com.onthegomap.planetiler.util.CloseableConsumer;
 import com.onthegomap.planetiler.util.CommonStringEncoder;
 import com.onthegomap.planetiler.util.DiskBacked;
 import com.onthegomap.planetiler.util.LayerAttrStats;
 import com.onthegomap.planetiler.worker.Worker;
 import java.io.Closeable;
-import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,12 +32,8 @@ import java.util.Objects;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import javax.annotation.concurrent.NotThreadSafe;
-import org.msgpack.core.MessageBufferPacker;
-import org.msgpack.core.MessagePack;
-import org.msgpack.core.MessageUnpacker;
-import org.msgpack.value.Value;
-import org.msgpack.value.ValueFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,8 +42,14 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Only support single-threaded writes and reads.
  * <p>
- * Limitation: layer name and attribute key strings get compressed into a single byte, so only 250 unique values are
- * supported (see {@link CommonStringEncoder})
+ * Layer names and attribute keys get replaced by IDs from a {@link CommonStringEncoder} shared by all threads. Attribute
+ * key IDs are stored as varints so there is no limit on the number of unique keys, and the dictionaries are exposed
+ * through {@link #layerStrings()} and {@link #valueStrings()} so they can be persisted alongside the features.
+ * <p>
+ * Features are sorted by a 63-bit key made of the tile ID, layer ID, sort key, and a group flag. The tile ID needs more
+ * bits at higher zoom levels, so the number of bits left for the layer ID depends on the max zoom level: 256 layers
+ * through z15, 64 at z16 and 16 at z17. Writing a feature with a layer ID that does not fit fails instead of colliding
+ * with another layer.
  */
 @NotThreadSafe
 public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>, DiskBacked {
@@ -55,15 +58,19 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public static final int SORT_KEY_MAX = (1 << (SORT_KEY_BITS - 1)) - 1;
   public static final int SORT_KEY_MIN = -(1 << (SORT_KEY_BITS - 1));
   private static final int SORT_KEY_MASK = (1 << SORT_KEY_BITS) - 1;
+  /** Layer IDs come from {@link CommonStringEncoder.AsByte} so never need more than 8 bits. */
+  static final int MAX_LAYER_BITS = 8;
+  private static final int KEY_BITS = 63;
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureGroup.class);
   private final FeatureSort sorter;
   private final Profile profile;
   private final CommonStringEncoder.AsByte commonLayerStrings = new CommonStringEncoder.AsByte();
-  private final CommonStringEncoder commonValueStrings = new CommonStringEncoder(100_000);
+  private final CommonStringEncoder commonValueStrings = new CommonStringEncoder();
   private final Stats stats;
   private final PlanetilerConfig config;
   private volatile boolean prepared = false;
   private final TileOrder tileOrder;
+  private final int layerBits;
 
 
   FeatureGroup(FeatureSort sorter, TileOrder tileOrder, Profile profile, PlanetilerConfig config, Stats stats) {
@@ -72,6 +79,7 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     this.profile = profile;
     this.config = config;
     this.stats = stats;
+    this.layerBits = layerBitsForMaxZoom(Math.max(config.maxzoom(), config.maxzoomForRendering()));
   }
 
   /** Returns a feature grouper that stores all feature in-memory. Only suitable for toy use-cases like unit tests. */
@@ -93,12 +101,30 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     );
   }
 
+  /**
+   * Returns the number of bits available for the layer ID in keys of features up to {@code maxzoom}, after reserving
+   * enough bits for every tile ID through that zoom.
+   *
+   * @throws IllegalArgumentException if tile IDs at {@code maxzoom} leave no room for a layer ID
+   */
+  static int layerBitsForMaxZoom(int maxzoom) {
+    long maxTileId = ((1L << (2 * (maxzoom + 1))) - 1) / 3 - 1;
+    int tileBits = 64 - Long.numberOfLeadingZeros(maxTileId);
+    int layerBits = Math.min(MAX_LAYER_BITS, KEY_BITS - tileBits - SORT_KEY_BITS - 1);
+    if (layerBits < 1) {
+      throw new IllegalArgumentException("Tile IDs at z" + maxzoom + " do not fit in a feature sort key");
+    }
+    return layerBits;
+  }
+
   /**
    * Encode key by {@code tile} asc, {@code layer} asc, {@code sortKey} asc with an extra bit to indicate whether the
-   * value contains grouping information.
+   * value contains grouping information, using {@code layerBits} bits for the layer.
    */
-  static long encodeKey(long tile, byte layer, int sortKey, boolean hasGroup) {
-    return ((long) tile << 29L) | ((long) (layer & 31) << 24L) | (((sortKey - SORT_KEY_MIN) & SORT_KEY_MASK) << 1L) |
+  static long encodeKey(long tile, byte layer, int sortKey, boolean hasGroup, int layerBits) {
+    return (tile << (layerBits + SORT_KEY_BITS + 1)) |
+      ((long) (layer & ((1 << layerBits) - 1)) << (SORT_KEY_BITS + 1)) |
+      (((sortKey - SORT_KEY_MIN) & SORT_KEY_MASK) << 1L) |
       (hasGroup ? 1 : 0);
   }
 
@@ -106,12 +132,12 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     return (key & 1) == 1;
   }
 
-  static long extractTileFromKey(long key) {
-    return (key >> 29L);
+  static long extractTileFromKey(long key, int layerBits) {
+    return (key >> (layerBits + SORT_KEY_BITS + 1));
   }
 
-  static byte extractLayerIdFromKey(long key) {
-    return (byte) ((key >> 24) & 31);
+  static byte extractLayerIdFromKey(long key, int layerBits) {
+    return (byte) ((key >> (SORT_KEY_BITS + 1)) & ((1 << layerBits) - 1));
   }
 
   static int extractSortKeyFromKey(long key) {
@@ -119,13 +145,10 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   }
 
   private static RenderedFeature.Group peekAtGroupInfo(byte[] encoded) {
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(encoded)) {
-      long group = unpacker.unpackLong();
-      int limit = unpacker.unpackInt();
-      return new RenderedFeature.Group(group, limit);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
+    var reader = new FeatureValueCodec.Reader(encoded);
+    long group = reader.readSignedVarLong();
+    int limit = (int) reader.readSignedVarLong();
+    return new RenderedFeature.Group(group, limit);
   }
 
   static GeometryType decodeGeomType(byte geomTypeAndScale) {
@@ -150,8 +173,8 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public RenderedFeatureEncoder newRenderedFeatureEncoder() {
     return new RenderedFeatureEncoder() {
       // This method gets called billions of times when generating the planet, so these optimizations make a big difference:
-      // 1) Re-use the same buffer packer to avoid allocating and resizing new byte arrays for every feature.
-      private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      // 1) Re-use the same buffer to avoid allocating and resizing new byte arrays for every feature.
+      private final FeatureValueCodec.Writer writer = new FeatureValueCodec.Writer();
       // 2) Avoid re-encoding values for identical filled geometries (i.e. ocean) by memoizing the encoded values
       // FeatureRenderer ensures that a separate VectorTileEncoder.Feature is used for each zoom level
       private VectorTile.Feature lastFeature = null;
@@ -163,20 +186,21 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
         var thisFeature = feature.vectorTileFeature();
         byte[] encodedValue;
         if (group != null) { // don't bother memoizing if group is present
-          encodedValue = encodeValue(thisFeature, group, packer);
+          encodedValue = encodeValue(thisFeature, group, writer);
         } else if (lastFeature == thisFeature) {
           encodedValue = lastEncodedValue;
         } else { // feature changed, memoize new value
           lastFeature = thisFeature;
-          lastEncodedValue = encodedValue = encodeValue(feature.vectorTileFeature(), null, packer);
+          lastEncodedValue = encodedValue = encodeValue(feature.vectorTileFeature(), null, writer);
         }
 
         return new SortableFeature(encodeKey(feature), encodedValue);
       }
 
       @Override
-      public void close() throws IOException {
-        packer.close();
+      public void close() {
+        lastFeature = null;
+        lastEncodedValue = null;
       }
     };
   }
@@ -184,55 +208,141 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   private long encodeKey(RenderedFeature feature) {
     var vectorTileFeature = feature.vectorTileFeature();
     byte encodedLayer = commonLayerStrings.encode(vectorTileFeature.layer());
+    if ((encodedLayer & 0xff) >>> layerBits != 0) {
+      throw new IllegalArgumentException(
+        "Too many layers: only " + (1 << layerBits) + " fit in the feature sort key at this max zoom level");
+    }
 
     return encodeKey(
       this.tileOrder.encode(feature.tile()),
       encodedLayer,
       feature.sortKey(),
-      feature.group().isPresent()
+      feature.group().isPresent(),
+      layerBits
     );
   }
 
   private byte[] encodeValue(VectorTile.Feature vectorTileFeature, RenderedFeature.Group group,
-    MessageBufferPacker packer) {
-    packer.clear();
-    try {
-      // hasGroup bit in key will tell consumers whether they need to decode group info from value
-      if (group != null) {
-        packer.packLong(group.group());
-        packer.packInt(group.limit());
+    FeatureValueCodec.Writer writer) {
+    writer.clear();
+    // hasGroup bit in key will tell consumers whether they need to decode group info from value
+    if (group != null) {
+      writer.writeSignedVarLong(group.group());
+      writer.writeSignedVarLong(group.limit());
+    }
+    writer.writeSignedVarLong(vectorTileFeature.id());
+    writer.writeByte(encodeGeomTypeAndScale(vectorTileFeature.geometry()));
+    var attrs = vectorTileFeature.tags();
+    if (attrs instanceof AttributeMap map) {
+      // numeric values from profiles are usually unboxed in an AttributeMap, so write them without boxing
+      int count = 0;
+      for (int i = 0; i < map.size(); i++) {
+        if (map.isIntegralAt(i) || map.isFloatingAt(i) || map.valueAt(i) != null) {
+          count++;
+        }
+      }
+      writer.writeVarLong(count);
+      for (int i = 0; i < map.size(); i++) {
+        if (map.isIntegralAt(i)) {
+          writer.writeVarLong(commonValueStrings.encode(map.keyAt(i)));
+          writer.writeLongValue(map.longAt(i));
+        } else if (map.isFloatingAt(i)) {
+          writer.writeVarLong(commonValueStrings.encode(map.keyAt(i)));
+          writer.writeDoubleValue(map.doubleAt(i));
+        } else {
+          Object value = map.valueAt(i);
+          if (value != null) {
+            writer.writeVarLong(commonValueStrings.encode(map.keyAt(i)));
+            writer.writeValue(value);
+          }
+        }
       }
-      packer.packLong(vectorTileFeature.id());
-      packer.packByte(encodeGeomTypeAndScale(vectorTileFeature.geometry()));
-      var attrs = vectorTileFeature.tags();
-      packer.packMapHeader((int) attrs.values().stream().filter(Objects::nonNull).count());
+    } else {
+      writer.writeVarLong(attrs.values().stream().filter(Objects::nonNull).count());
       for (Map.Entry<String, Object> entry : attrs.entrySet()) {
         Object value = entry.getValue();
         if (value != null) {
-          packer.packInt(commonValueStrings.encode(entry.getKey()));
-          packer.packValue(switch (value) {
-            case String string -> ValueFactory.newString(string);
-            case Integer integer -> ValueFactory.newInteger(integer.longValue());
-            case Long longValue -> ValueFactory.newInteger(longValue);
-            case Float floatValue -> ValueFactory.newFloat(floatValue);
-            case Double doubleValue -> ValueFactory.newFloat(doubleValue);
-            case Boolean booleanValue -> ValueFactory.newBoolean(booleanValue);
-            case Object other -> ValueFactory.newString(other.toString());
-          });
+          writer.writeVarLong(commonValueStrings.encode(entry.getKey()));
+          writer.writeValue(value);
         }
       }
-      // Use the same binary format for encoding geometries in output vector tiles. Benchmarking showed
-      // it was faster and smaller for encoding/decoding intermediate geometries than alternatives like WKB.
-      int[] commands = vectorTileFeature.geometry().commands();
-      packer.packArrayHeader(commands.length);
-      for (int command : commands) {
-        packer.packInt(command);
-      }
-      packer.close();
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
     }
-    return packer.toByteArray();
+    // Use the same binary format for encoding geometries in output vector tiles. Benchmarking showed
+    // it was faster and smaller for encoding/decoding intermediate geometries than alternatives like WKB.
+    int[] commands = vectorTileFeature.geometry().commands();
+    writer.writeVarLong(commands.length);
+    for (int command : commands) {
+      writer.writeVarInt(command);
+    }
+    return writer.toByteArray();
+  }
+
+  /**
+   * Returns a string that identifies the tile order and key layout that the keys of features written to this group
+   * depend on.
+   */
+  public String keyLayout() {
+    return tileOrder + "/" + layerBits;
+  }
+
+  /** Returns the layer names that layer IDs in feature keys currently refer to, indexed by ID. */
+  public String[] layerStrings() {
+    return commonLayerStrings.toArray();
+  }
+
+  /** Returns the attribute keys that IDs in feature values currently refer to, indexed by ID. */
+  public String[] valueStrings() {
+    return commonValueStrings.toArray();
+  }
+
+  /**
+   * Returns a function for a single thread to use to re-encode features that were written to another feature group with
+   * the same {@link #keyLayout()} so that they can be written to this group.
+   *
+   * @param layers the other group's {@link #layerStrings()}
+   * @param keys   the other group's {@link #valueStrings()}
+   */
+  public UnaryOperator<SortableFeature> newFeatureImporter(String[] layers, String[] keys) {
+    int[] layerIds = new int[layers.length];
+    int[] keyIds = new int[keys.length];
+    Arrays.fill(layerIds, -1);
+    Arrays.fill(keyIds, -1);
+    var writer = new FeatureValueCodec.Writer();
+    long layerMask = ((1L << layerBits) - 1) << (SORT_KEY_BITS + 1);
+    return feature -> {
+      long key = feature.key();
+      int fromLayer = extractLayerIdFromKey(key, layerBits) & 0xff;
+      int toLayer = layerIds[fromLayer];
+      if (toLayer < 0) {
+        toLayer = layerIds[fromLayer] = commonLayerStrings.encode(layers[fromLayer]) & 0xff;
+        if (toLayer >>> layerBits != 0) {
+          throw new IllegalArgumentException(
+            "Too many layers: only " + (1 << layerBits) + " fit in the feature sort key at this max zoom level");
+        }
+      }
+      writer.clear();
+      var reader = new FeatureValueCodec.Reader(feature.value());
+      if (extractHasGroupFromKey(key)) {
+        writer.writeSignedVarLong(reader.readSignedVarLong());
+        writer.writeSignedVarLong(reader.readSignedVarLong());
+      }
+      writer.writeSignedVarLong(reader.readSignedVarLong());
+      writer.writeByte(reader.readByte());
+      long mapSize = reader.readVarLong();
+      writer.writeVarLong(mapSize);
+      for (long i = 0; i < mapSize; i++) {
+        int fromKey = (int) reader.readVarLong();
+        int toKey = keyIds[fromKey];
+        if (toKey < 0) {
+          toKey = keyIds[fromKey] = commonValueStrings.encode(keys[fromKey]);
+        }
+        writer.writeVarLong(toKey);
+        reader.copyValue(writer);
+      }
+      // geometry commands
+      reader.copyRemaining(writer);
+      return new SortableFeature((key & ~layerMask) | ((long) toLayer << (SORT_KEY_BITS + 1)), writer.toByteArray());
+    };
   }
 
   /** Returns a new feature writer that can be used for a single thread. */
@@ -259,6 +369,42 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     return new Reader(parIter.reader(), () -> groupIntoTiles(parIter.iterator()));
   }
 
+  /**
+   * Returns true if each range from {@link #tileRanges(int)} can be read without scanning the features before it, so
+   * splitting into ranges does not add extra passes over temp storage.
+   */
+  public boolean canReadTileRanges() {
+    return sorter.canSeekToKey();
+  }
+
+  /**
+   * Splits the sorted features into about {@code ranges} disjoint ranges of whole tiles, each of which can be read in a
+   * separate thread.
+   *
+   * @param ranges The desired number of ranges
+   * @return Tile ranges in ascending order that together contain every tile
+   */
+  public List<Iterable<TileFeatures>> tileRanges(int ranges) {
+    prepare();
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(Long.MIN_VALUE);
+    for (long key : sorter.splitKeys(ranges)) {
+      // round down to the first key in the tile so that a tile never spans two ranges
+      long tileStart = encodeKey(extractTileFromKey(key, layerBits), (byte) 0, SORT_KEY_MIN, false, layerBits);
+      if (tileStart > boundaries.getLast()) {
+        boundaries.add(tileStart);
+      }
+    }
+    boundaries.add(Long.MAX_VALUE);
+    List<Iterable<TileFeatures>> result = new ArrayList<>();
+    for (int i = 1; i < boundaries.size(); i++) {
+      long fromKey = boundaries.get(i - 1);
+      long toKey = boundaries.get(i);
+      result.add(() -> groupIntoTiles(sorter.iterator(fromKey, toKey)));
+    }
+    return result;
+  }
+
   private Iterator<TileFeatures> groupIntoTiles(Iterator<SortableFeature> entries) {
     // entries are sorted by tile ID, so group consecutive entries in same tile into tiles
     if (!entries.hasNext()) {
@@ -272,7 +418,7 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     SortableFeature firstFeature = entries.next();
     return new Iterator<>() {
       private SortableFeature lastFeature = firstFeature;
-      private long lastTileId = extractTileFromKey(firstFeature.key());
+      private long lastTileId = extractTileFromKey(firstFeature.key(), layerBits);
 
       @Override
       public boolean hasNext() {
@@ -288,7 +434,7 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
         while (entries.hasNext()) {
           SortableFeature next = entries.next();
           lastFeature = next;
-          lastTileId = extractTileFromKey(lastFeature.key());
+          lastTileId = extractTileFromKey(lastFeature.key(), layerBits);
           if (lastTile != lastTileId) {
             return result;
           }
@@ -387,8 +533,8 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       for (int i = 0; i < entries.size(); i++) {
         SortableFeature a = entries.get(i);
         SortableFeature b = other.entries.get(i);
-        long layerA = extractLayerIdFromKey(a.key());
-        long layerB = extractLayerIdFromKey(b.key());
+        long layerA = extractLayerIdFromKey(a.key(), layerBits);
+        long layerB = extractLayerIdFromKey(b.key(), layerBits);
         if (layerA != layerB || !Arrays.equals(a.value(), b.value())) {
           return false;
         }
@@ -398,49 +544,37 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
 
 
     private VectorTile.Feature decodeVectorTileFeature(SortableFeature entry) {
-      try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(entry.value())) {
-        long group;
-        if (extractHasGroupFromKey(entry.key())) {
-          group = unpacker.unpackLong();
-          unpacker.unpackInt(); // groupLimit - features over the limit were already discarded
-        } else {
-          group = VectorTile.Feature.NO_GROUP;
-        }
-        long id = unpacker.unpackLong();
-        byte geomTypeAndScale = unpacker.unpackByte();
-        GeometryType geomType = decodeGeomType(geomTypeAndScale);
-        int scale = decodeScale(geomTypeAndScale);
-        int mapSize = unpacker.unpackMapHeader();
-        Map<String, Object> attrs = HashMap.newHashMap(mapSize);
-        for (int i = 0; i < mapSize; i++) {
-          String key = commonValueStrings.decode(unpacker.unpackInt());
-          Value v = unpacker.unpackValue();
-          if (v.isStringValue()) {
-            attrs.put(key, v.asStringValue().asString());
-          } else if (v.isIntegerValue()) {
-            attrs.put(key, v.asIntegerValue().toLong());
-          } else if (v.isFloatValue()) {
-            attrs.put(key, v.asFloatValue().toDouble());
-          } else if (v.isBooleanValue()) {
-            attrs.put(key, v.asBooleanValue().getBoolean());
-          }
-        }
-        int commandSize = unpacker.unpackArrayHeader();
-        int[] commands = new int[commandSize];
-        for (int i = 0; i < commandSize; i++) {
-          commands[i] = unpacker.unpackInt();
-        }
-        String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key()));
-        return new VectorTile.Feature(
-          layer,
-          id,
-          new VectorTile.VectorGeometry(commands, geomType, scale),
-          attrs,
-          group
-        );
-      } catch (IOException e) {
-        throw new IllegalStateException(e);
+      var reader = new FeatureValueCodec.Reader(entry.value());
+      long group;
+      if (extractHasGroupFromKey(entry.key())) {
+        group = reader.readSignedVarLong();
+        reader.readSignedVarLong(); // groupLimit - features over the limit were already discarded
+      } else {
+        group = VectorTile.Feature.NO_GROUP;
       }
+      long id = reader.readSignedVarLong();
+      byte geomTypeAndScale = reader.readByte();
+      GeometryType geomType = decodeGeomType(geomTypeAndScale);
+      int scale = decodeScale(geomTypeAndScale);
+      int mapSize = reader.readVarInt();
+      Map<String, Object> attrs = HashMap.newHashMap(mapSize);
+      for (int i = 0; i < mapSize; i++) {
+        String key = commonValueStrings.decode(reader.readVarInt());
+        attrs.put(key, reader.readValue());
+      }
+      int commandSize = reader.readVarInt();
+      int[] commands = new int[commandSize];
+      for (int i = 0; i < commandSize; i++) {
+        commands[i] = reader.readVarInt();
+      }
+      String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key(), layerBits));
+      return new VectorTile.Feature(
+        layer,
+        id,
+        new VectorTile.VectorGeometry(commands, geomType, scale),
+        attrs,
+        group
+      );
     }
 
     public VectorTile getVectorTile() {
@@ -482,20 +616,26 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
         handlePostProcessFailure(e, "entire tile");
       }
       // then let profiles post-process each layer in isolation with postProcessLayerFeatures
+      var layerTimers = stats.layerTimers().forThread();
       for (var entry : layerFeatures.entrySet()) {
-        postProcessAndAddLayerFeatures(tile, entry.getKey(), entry.getValue());
+        postProcessAndAddLayerFeatures(tile, entry.getKey(), entry.getValue(), layerTimers);
       }
       return tile;
     }
 
     private void postProcessAndAddLayerFeatures(VectorTile encoder, String layer,
-      List<VectorTile.Feature> features) {
+      List<VectorTile.Feature> features, LayerTimers.ForThread layerTimers) {
       if (features == null || features.isEmpty()) {
         return;
       }
       try {
-        List<VectorTile.Feature> postProcessed = makeMutable(profile
-          .postProcessLayerFeatures(layer, tileCoord.z(), makeMutable(features)));
+        long start = System.nanoTime();
+        List<VectorTile.Feature> postProcessed;
+        try {
+          postProcessed = makeMutable(profile.postProcessLayerFeatures(layer, tileCoord.z(), makeMutable(features)));
+        } finally {
+          layerTimers.record(LayerTimers.Stage.POST_PROCESS_LAYER_FEATURES, layer, System.nanoTime() - start);
+        }
         features = postProcessed == null ? features : postProcessed;
         // lines are stored using a higher precision so that rounding does not
         // introduce artificial intersections between endpoints to confuse line merging,
@@ -527,7 +667,7 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       numFeaturesProcessed.incrementAndGet();
       long key = entry.key();
       if (extractHasGroupFromKey(key)) {
-        byte thisLayer = extractLayerIdFromKey(key);
+        byte thisLayer = extractLayerIdFromKey(key, layerBits);
         if (counts == null) {
           counts = Hppc.newLongLongHashMap();
           lastLayer = thisLayer;
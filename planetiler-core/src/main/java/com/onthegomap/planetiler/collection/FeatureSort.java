@@ -75,6 +75,25 @@ interface FeatureSort extends Iterable<SortableFeature>, DiskBacked, MemoryEstim
           .iterator();
       }
 
+      @Override
+      public Iterator<SortableFeature> iterator(long fromKey, long toKey) {
+        return list.stream()
+          .filter(d -> d.key() >= fromKey && d.key() < toKey)
+          .iterator();
+      }
+
+      @Override
+      public List<Long> splitKeys(int parts) {
+        List<Long> result = new ArrayList<>();
+        for (int i = 1; i < parts && !list.isEmpty(); i++) {
+          long key = list.get((int) ((long) i * list.size() / parts)).key();
+          if (result.isEmpty() || result.getLast() < key) {
+            result.add(key);
+          }
+        }
+        return result;
+      }
+
       @Override
       public int chunksToRead() {
         return list.size();
@@ -116,6 +135,27 @@ interface FeatureSort extends Iterable<SortableFeature>, DiskBacked, MemoryEstim
    */
   Iterator<SortableFeature> iterator(int shard, int shards);
 
+  /**
+   * Returns an iterator over the features with {@code fromKey <= key < toKey} in sorted order.
+   * <p>
+   * Iterators over disjoint key ranges can be read from separate threads in parallel.
+   */
+  Iterator<SortableFeature> iterator(long fromKey, long toKey);
+
+  /**
+   * Returns up to {@code parts - 1} distinct ascending keys that split the sorted features into roughly equal-sized
+   * ranges to read with {@link #iterator(long, long)}, or an empty list if there is nothing to split.
+   */
+  List<Long> splitKeys(int parts);
+
+  /**
+   * Returns true if {@link #iterator(long, long)} can start reading near {@code fromKey}, or false if it has to scan
+   * every feature before the range so reading many ranges costs more than one full pass.
+   */
+  default boolean canSeekToKey() {
+    return true;
+  }
+
   /**
    * Reads temp features using {@code threads} parallel threads and merges into a sorted list.
    *
@@ -0,0 +1,192 @@
+package com.onthegomap.planetiler.collection;
+
+import com.carrotsearch.hppc.ByteArrayList;
+import com.onthegomap.planetiler.util.VarInt;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Compact binary encoding for the values of features that {@link FeatureGroup} stores between rendering and tile
+ * encoding.
+ * <p>
+ * Integers get written as protobuf-style varints, signed ones zigzag-encoded first, and attribute values are preceded
+ * by a 1-byte type tag. Every rendered feature gets encoded once and decoded once, so this avoids allocating anything
+ * besides the final {@code byte[]} when encoding and the decoded strings when decoding.
+ */
+final class FeatureValueCodec {
+
+  private static final byte STRING = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte TRUE = 3;
+  private static final byte FALSE = 4;
+
+  private FeatureValueCodec() {}
+
+  /** A reusable buffer that a single thread encodes values into. */
+  @NotThreadSafe
+  static final class Writer {
+
+    private final ByteArrayList buffer = new ByteArrayList(256);
+
+    /** Discards everything written so far so the buffer can be used for a new value. */
+    Writer clear() {
+      buffer.elementsCount = 0;
+      return this;
+    }
+
+    void writeVarLong(long value) {
+      VarInt.putVarLong(value, buffer);
+    }
+
+    void writeSignedVarLong(long value) {
+      VarInt.putVarLong((value << 1) ^ (value >> 63), buffer);
+    }
+
+    /** Writes the 32 bits of {@code value} as an unsigned varint, for vector tile geometry commands. */
+    void writeVarInt(int value) {
+      VarInt.putVarLong(value & 0xffffffffL, buffer);
+    }
+
+    void writeByte(byte value) {
+      buffer.add(value);
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+      buffer.add(bytes, offset, length);
+    }
+
+    void writeLongValue(long value) {
+      buffer.add(LONG);
+      writeSignedVarLong(value);
+    }
+
+    void writeDoubleValue(double value) {
+      buffer.add(DOUBLE);
+      long bits = Double.doubleToRawLongBits(value);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer.add((byte) (bits >>> shift));
+      }
+    }
+
+    void writeStringValue(String value) {
+      buffer.add(STRING);
+      int length = value.length();
+      int start = buffer.elementsCount;
+      writeVarLong(length);
+      // most attribute values are ascii, so copy them over directly instead of allocating a byte array
+      buffer.ensureCapacity(buffer.elementsCount + length);
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c >= 0x80) {
+          buffer.elementsCount = start;
+          byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+          writeVarLong(utf8.length);
+          buffer.add(utf8);
+          return;
+        }
+        buffer.add((byte) c);
+      }
+    }
+
+    /** Writes an attribute value of any type, falling back to its string representation. */
+    void writeValue(Object value) {
+      switch (value) {
+        case String string -> writeStringValue(string);
+        case Integer integer -> writeLongValue(integer);
+        case Long longValue -> writeLongValue(longValue);
+        case Float floatValue -> writeDoubleValue(floatValue);
+        case Double doubleValue -> writeDoubleValue(doubleValue);
+        case Boolean booleanValue -> buffer.add(booleanValue ? TRUE : FALSE);
+        case Object other -> writeStringValue(other.toString());
+      }
+    }
+
+    /** Returns a copy of the bytes written since the last {@link #clear()}. */
+    byte[] toByteArray() {
+      return buffer.toArray();
+    }
+  }
+
+  /** Reads values from an encoded byte array in the same order a {@link Writer} wrote them. */
+  @NotThreadSafe
+  static final class Reader {
+
+    private final byte[] bytes;
+    private int position = 0;
+
+    Reader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    long readVarLong() {
+      long result = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = bytes[position++];
+        result |= (long) (b & 0x7f) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+    }
+
+    long readSignedVarLong() {
+      long value = readVarLong();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    byte readByte() {
+      return bytes[position++];
+    }
+
+    /** Reads an attribute value written by {@link Writer#writeValue(Object)} as a String, Long, Double, or Boolean. */
+    Object readValue() {
+      byte type = bytes[position++];
+      return switch (type) {
+        case STRING -> {
+          int length = (int) readVarLong();
+          String result = new String(bytes, position, length, StandardCharsets.UTF_8);
+          position += length;
+          yield result;
+        }
+        case LONG -> readSignedVarLong();
+        case DOUBLE -> {
+          long bits = 0;
+          for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (bytes[position++] & 0xff);
+          }
+          yield Double.longBitsToDouble(bits);
+        }
+        case TRUE -> Boolean.TRUE;
+        case FALSE -> Boolean.FALSE;
+        default -> throw new IllegalStateException("Unrecognized value type: " + type);
+      };
+    }
+
+    /** Copies the next attribute value to {@code writer} without decoding it. */
+    void copyValue(Writer writer) {
+      int start = position;
+      byte type = bytes[position++];
+      switch (type) {
+        case STRING -> position += (int) readVarLong();
+        case LONG -> readVarLong();
+        case DOUBLE -> position += 8;
+        case TRUE, FALSE -> {
+          // no payload
+        }
+        default -> throw new IllegalStateException("Unrecognized value type: " + type);
+      }
+      writer.writeBytes(bytes, start, position - start);
+    }
+
+    /** Copies everything that has not been read yet to {@code writer}. */
+    void copyRemaining(Writer writer) {
+      writer.writeBytes(bytes, position, bytes.length - position);
+      position = bytes.length;
+    }
+  }
+}
@@ -0,0 +1,327 @@
+package com.onthegomap.planetiler.collection;
+
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.stats.ForwardingStats;
+import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.CloseableConsumer;
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * A cache of the features a source rendered into a {@link FeatureGroup} that persists between runs, so that later runs
+ * can splice them into the feature group without reading and rendering the source again.
+ * <p>
+ * The cache is keyed by a checksum of the source files, the profile name and version, the config options that affect
+ * rendering, and the feature group's {@linkplain FeatureGroup#keyLayout() key layout}. Changes to profile logic are not
+ * detected, so the profile version needs to change or the cache directory needs to be cleared when they happen.
+ * <p>
+ * Features get written by {@link #writerForThread(CloseableConsumer)} to a temporary directory as they are rendered, which
+ * {@link #commit()} moves into place along with the layer and attribute key strings they refer to, and the processed and
+ * emitted feature counts that {@link #recordStats(Stats)} saw so {@link #load(Stats)} can report them again.
+ * <p>
+ * Profiles opt sources into caching through {@link Profile#cacheSource(String)}.
+ */
+public class SourceFeatureCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SourceFeatureCache.class);
+  // bump when the file format or feature encoding changes
+  private static final int FORMAT_VERSION = 3;
+  private static final String STRINGS_FILE = "strings";
+  private static final String STATS_FILE = "stats";
+  private static final String PART_PREFIX = "features-";
+
+  private final Path cacheDir;
+  private final String sourceName;
+  private final Path dir;
+  private final Path tmpDir;
+  private final FeatureGroup featureGroup;
+  private final AtomicInteger parts = new AtomicInteger(0);
+  private final Map<ProcessedKey, LongAdder> processed = new ConcurrentHashMap<>();
+  private final Map<EmittedKey, LongAdder> emitted = new ConcurrentHashMap<>();
+
+  private SourceFeatureCache(Path cacheDir, String sourceName, long hash, FeatureGroup featureGroup) {
+    this.cacheDir = cacheDir;
+    this.sourceName = sourceName;
+    this.dir = cacheDir.resolve(sourceName + "-" + Long.toHexString(hash));
+    this.tmpDir = dir.resolveSibling(dir.getFileName() + ".tmp");
+    this.featureGroup = featureGroup;
+  }
+
+  /**
+   * Returns the cache for features that {@code sourceName} renders from {@code sourcePaths} in {@code cacheDir}.
+   * <p>
+   * Checksums every file next to each source path that shares its base name (i.e. {@code .shp}, {@code .dbf},
+   * {@code .shx}, and {@code .prj} files of a shapefile).
+   */
+  public static SourceFeatureCache create(Path cacheDir, String sourceName, List<Path> sourcePaths,
+    FeatureGroup featureGroup, Profile profile, PlanetilerConfig config) {
+    String settings = String.join("\n",
+      Integer.toString(FORMAT_VERSION),
+      sourceName,
+      profile.name(),
+      String.valueOf(profile.version()),
+      featureGroup.keyLayout(),
+      config.bounds().latLon().toString(),
+      Integer.toString(config.minzoom()),
+      Integer.toString(config.maxzoom()),
+      Integer.toString(config.maxzoomForRendering()),
+      Double.toString(config.minFeatureSizeAtMaxZoom()),
+      Double.toString(config.minFeatureSizeBelowMaxZoom()),
+      Double.toString(config.simplifyToleranceAtMaxZoom()),
+      Double.toString(config.simplifyToleranceBelowMaxZoom()),
+      Double.toString(config.maxPointBuffer()),
+      Integer.toString(config.featureSourceIdMultiplier())
+    );
+    long hash = Hashing.fnv1a64(settings.getBytes(StandardCharsets.UTF_8));
+    try {
+      for (var path : sourcePaths) {
+        for (var file : sourceFiles(path)) {
+          hash = Hashing.fnv1a64(hash, file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+          try (InputStream input = Files.newInputStream(file)) {
+            byte[] chunk;
+            while ((chunk = input.readNBytes(1 << 20)).length > 0) {
+              hash = Hashing.fnv1a64(hash, chunk);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new SourceFeatureCache(cacheDir, sourceName, hash, featureGroup);
+  }
+
+  private static List<Path> sourceFiles(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    String fileName = path.getFileName().toString();
+    int dot = fileName.indexOf('.');
+    String prefix = dot < 0 ? fileName : fileName.substring(0, dot + 1);
+    if (parent == null || dot < 0) {
+      return List.of(path);
+    }
+    try (Stream<Path> siblings = Files.list(parent)) {
+      return siblings
+        .filter(sibling -> sibling.getFileName().toString().startsWith(prefix) && Files.isRegularFile(sibling))
+        .sorted()
+        .toList();
+    }
+  }
+
+  /** Returns true if a previous run stored features for the same inputs. */
+  public boolean exists() {
+    return Files.isRegularFile(dir.resolve(STRINGS_FILE));
+  }
+
+  /**
+   * Writes all cached features to the feature group, reports the processed and emitted feature counts recorded while
+   * rendering them to {@code stats}, and returns how many features there were.
+   *
+   * @throws UncheckedIOException if an error occurs reading from the cache
+   */
+  public long load(Stats stats) {
+    long count = 0;
+    try (
+      var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(STRINGS_FILE))));
+      var writer = featureGroup.writerForThread();
+      var files = Files.list(dir)
+    ) {
+      var importer = featureGroup.newFeatureImporter(readStrings(input), readStrings(input));
+      for (var part : files.filter(p -> p.getFileName().toString().startsWith(PART_PREFIX)).sorted().toList()) {
+        try (
+          var features = new DataInputStream(new SnappyInputStream(new BufferedInputStream(Files.newInputStream(part))))
+        ) {
+          int length;
+          while ((length = features.readInt()) >= 0) {
+            long key = features.readLong();
+            byte[] value = new byte[length];
+            features.readFully(value);
+            writer.accept(importer.apply(new SortableFeature(key, value)));
+            count++;
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(STATS_FILE))))) {
+      for (int i = input.readInt(); i > 0; i--) {
+        String elemType = input.readUTF();
+        String layer = input.readUTF();
+        for (long n = input.readLong(); n > 0; n--) {
+          stats.processedElement(elemType, layer);
+        }
+      }
+      for (int i = input.readInt(); i > 0; i--) {
+        int zoom = input.readInt();
+        String layer = input.readUTF();
+        for (long n = input.readLong(); n > 0; n -= Integer.MAX_VALUE) {
+          stats.emittedFeatures(zoom, layer, (int) Math.min(n, Integer.MAX_VALUE));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return count;
+  }
+
+  /**
+   * Returns a wrapper around {@code stats} that also records the processed and emitted feature counts reported while
+   * rendering this source, so that {@link #commit()} can store them with the features.
+   */
+  public Stats recordStats(Stats stats) {
+    return new ForwardingStats(stats) {
+      @Override
+      public void processedElement(String elemType, String layer) {
+        processed.computeIfAbsent(new ProcessedKey(elemType, layer), k -> new LongAdder()).increment();
+        super.processedElement(elemType, layer);
+      }
+
+      @Override
+      public void emittedFeatures(int z, String layer, int numFeatures) {
+        emitted.computeIfAbsent(new EmittedKey(z, layer), k -> new LongAdder()).add(numFeatures);
+        super.emittedFeatures(z, layer, numFeatures);
+      }
+    };
+  }
+
+  /**
+   * Returns a writer for a single thread that stores features in the cache in addition to forwarding them to
+   * {@code next}.
+   */
+  public CloseableConsumer<SortableFeature> writerForThread(CloseableConsumer<SortableFeature> next) {
+    Path file = tmpDir.resolve(PART_PREFIX + parts.getAndIncrement());
+    DataOutputStream output;
+    try {
+      FileUtils.createDirectory(tmpDir);
+      output = new DataOutputStream(new SnappyOutputStream(new BufferedOutputStream(Files.newOutputStream(file))));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new CloseableConsumer<>() {
+      @Override
+      public void accept(SortableFeature feature) {
+        try {
+          output.writeInt(feature.value().length);
+          output.writeLong(feature.key());
+          output.write(feature.value());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        next.accept(feature);
+      }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          output.writeInt(-1);
+          output.close();
+        } finally {
+          next.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Stores the strings that features written through {@link #writerForThread(CloseableConsumer)} refer to, and moves
+   * them into place for future runs, replacing older cached features for the same source.
+   */
+  public void commit() {
+    try {
+      FileUtils.createDirectory(tmpDir);
+      try (
+        var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpDir.resolve(STRINGS_FILE))))
+      ) {
+        writeStrings(output, featureGroup.layerStrings());
+        writeStrings(output, featureGroup.valueStrings());
+      }
+      try (
+        var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpDir.resolve(STATS_FILE))))
+      ) {
+        output.writeInt(processed.size());
+        for (var entry : processed.entrySet()) {
+          output.writeUTF(entry.getKey().elemType());
+          output.writeUTF(entry.getKey().layer());
+          output.writeLong(entry.getValue().sum());
+        }
+        output.writeInt(emitted.size());
+        for (var entry : emitted.entrySet()) {
+          output.writeInt(entry.getKey().zoom());
+          output.writeUTF(entry.getKey().layer());
+          output.writeLong(entry.getValue().sum());
+        }
+      }
+      List<Path> stale = new ArrayList<>();
+      try (var existing = Files.list(cacheDir)) {
+        existing
+          .filter(p -> isCacheFor(p.getFileName().toString(), sourceName) && !p.equals(tmpDir))
+          .forEach(stale::add);
+      }
+      stale.forEach(FileUtils::delete);
+      FileUtils.move(tmpDir, dir);
+      LOGGER.info("Cached features for {} in {}", sourceName, dir);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns true if {@code fileName} is a {@code <sourceName>-<hash>} cache directory, or its {@code .tmp} staging
+   * directory, for exactly {@code sourceName} and not another source whose name starts with it.
+   */
+  static boolean isCacheFor(String fileName, String sourceName) {
+    String name = fileName.endsWith(".tmp") ? fileName.substring(0, fileName.length() - ".tmp".length()) : fileName;
+    int dash = name.lastIndexOf('-');
+    if (dash < 0 || !name.substring(0, dash).equals(sourceName)) {
+      return false;
+    }
+    String hash = name.substring(dash + 1);
+    return !hash.isEmpty() && hash.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+  }
+
+  /** Removes any partially-written features, from this run or one that was interrupted. */
+  public void abort() {
+    FileUtils.delete(tmpDir);
+  }
+
+  private record ProcessedKey(String elemType, String layer) {}
+
+  private record EmittedKey(int zoom, String layer) {}
+
+  private static void writeStrings(DataOutputStream output, String[] strings) throws IOException {
+    output.writeInt(strings.length);
+    for (String string : strings) {
+      output.writeUTF(string == null ? "" : string);
+    }
+  }
+
+  private static String[] readStrings(DataInputStream input) throws IOException {
+    String[] result = new String[input.readInt()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = input.readUTF();
+    }
+    return result;
+  }
+}
@@ -33,6 +33,7 @@ public record PlanetilerConfig(
   boolean mmapTempStorage,
   int sortMaxReaders,
   int sortMaxWriters,
+  boolean sortPacked,
   String nodeMapType,
   String nodeMapStorage,
   boolean nodeMapMadvise,
@@ -50,7 +51,11 @@ public record PlanetilerConfig(
   double simplifyToleranceAtMaxZoom,
   double simplifyToleranceBelowMaxZoom,
   boolean osmLazyReads,
+  boolean osmSkipNodeBlocks,
   boolean skipFilledTiles,
+  boolean tileDedupAll,
+  String tileDedupIndex,
+  long tileDedupMemoryBytes,
   int tileWarningSizeBytes,
   Boolean color,
   boolean keepUnzippedSources,
@@ -59,6 +64,7 @@ public record PlanetilerConfig(
   String debugUrlPattern,
   Path tmpDir,
   Path tileWeights,
+  Path sourceCacheDir,
   double maxPointBuffer,
   boolean logJtsExceptions,
   int featureSourceIdMultiplier
@@ -81,6 +87,9 @@ public record PlanetilerConfig(
     if (httpRetries < 0) {
       throw new IllegalArgumentException("HTTP Retries must be >= 0, was " + httpRetries);
     }
+    if (!"ram".equals(tileDedupIndex) && !"offheap".equals(tileDedupIndex)) {
+      throw new IllegalArgumentException("Tile dedup index must be ram or offheap, was " + tileDedupIndex);
+    }
   }
 
   public static PlanetilerConfig defaults() {
@@ -154,6 +163,8 @@ public record PlanetilerConfig(
         6),
       arguments.getInteger("sort_max_writers", "maximum number of concurrent write threads to use when sorting chunks",
         6),
+      arguments.getBoolean("sort_packed",
+        "sort each temp feature chunk in a single packed buffer instead of allocating an object per feature", true),
       arguments
         .getString("nodemap_type", "type of node location map, one of " + Stream.of(LongLongMap.Type.values()).map(
           t -> t.id()).toList(), LongLongMap.Type.SPARSE_ARRAY.id()),
@@ -189,9 +200,22 @@ public record PlanetilerConfig(
       arguments.getBoolean("osm_lazy_reads",
         "Read OSM blocks from disk in worker threads",
         true),
+      arguments.getBoolean("osm_skip_node_blocks",
+        "Skip blocks of OSM nodes in the second pass when none of their tagged nodes are ones the profile cares about",
+        false),
       arguments.getBoolean("skip_filled_tiles",
         "Skip writing tiles containing only polygon fills to the output",
         false),
+      arguments.getBoolean("tile_dedup_all",
+        "Hash every tile to deduplicate repeated tile contents in the output, not just ones likely to repeat like ocean fills",
+        false),
+      arguments.getString("tile_dedup_index",
+        "How to index tile hashes when deduplicating: ram to keep them on the heap or offheap to keep them in a table " +
+          "outside the heap that spills to disk and only indexes repeated tiles once it outgrows tile_dedup_memory",
+        "ram"),
+      Parse.jvmMemoryStringToBytes(arguments.getString("tile_dedup_memory",
+        "Memory the offheap tile dedup index can use before it spills to disk, like 500m or 2g",
+        "1g")),
       (int) (arguments.getDouble("tile_warning_size_mb",
         "Maximum size in megabytes of a tile to emit a warning about",
         1d) * 1024 * 1024),
@@ -209,6 +233,9 @@ public record PlanetilerConfig(
       tmpDir,
       arguments.file("tile_weights", "tsv.gz file with columns z,x,y,loads to generate weighted average tile size stat",
         tmpDir.resolveSibling("tile_weights.tsv.gz")),
+      arguments.file("source_cache_dir",
+        "directory to keep rendered features from sources the profile opts into caching between runs so unchanged sources can be reused",
+        null),
       arguments.getDouble("max_point_buffer",
         "Max tile pixels to include points outside tile bounds. Set to a lower value to reduce tile size for " +
           "clients that handle label collisions across tiles (most web and native clients). NOTE: Do not reduce if you need to support " +
@@ -94,6 +94,11 @@ public class WriteableFilesArchive implements WriteableTileArchive {
     return tileOrder;
   }
 
+  @Override
+  public boolean acceptsUnorderedWrites() {
+    return true;
+  }
+
   @Override
   public TileWriter newTileWriter() {
     return new TileFilesWriter(basePath, tileSchemeEncoder, bytesWritten.counterForThread());
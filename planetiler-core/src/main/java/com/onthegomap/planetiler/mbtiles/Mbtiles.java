@@ -1,21 +1,23 @@
 package com.onthegomap.planetiler.mbtiles;
 
-import com.carrotsearch.hppc.LongIntHashMap;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.onthegomap.planetiler.archive.ReadableTileArchive;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileArchiveMetadataDeSer;
+import com.onthegomap.planetiler.archive.TileDedupIndex;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.archive.WriteableTileArchive;
 import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.reader.FileFormatException;
+import com.onthegomap.planetiler.stream.StreamArchiveUtils;
 import com.onthegomap.planetiler.util.CloseableIterator;
 import com.onthegomap.planetiler.util.FileUtils;
 import com.onthegomap.planetiler.util.Format;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -33,7 +35,9 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.OptionalLong;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.slf4j.Logger;
@@ -42,6 +46,11 @@ import org.sqlite.SQLiteConfig;
 
 /**
  * Interface into an mbtiles sqlite file containing tiles and metadata about the tileset.
+ * <p>
+ * When writing to a file, each additional tile writer that is requested while another one is still open (i.e. with
+ * {@code --tile_write_threads > 1}) writes into its own shard sqlite file next to the output ({@code output.mbtiles1},
+ * {@code output.mbtiles2}, ...) so that writer threads do not contend on a single connection. {@link #finish} merges
+ * the shards into the main file and deletes them.
  *
  * @see <a href="https://github.com/mapbox/mbtiles-spec/blob/master/1.3/spec.md">MBTiles Specification</a>
  */
@@ -93,15 +102,22 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
   }
 
   private final Connection connection;
+  private final Path path;
+  private final Arguments arguments;
   private final boolean compactDb;
   private final boolean skipIndexCreation;
   private final boolean vacuumAnalyze;
   private PreparedStatement getTileStatement = null;
+  private boolean primaryWriterOpen = false;
+  private final List<Path> shards = new CopyOnWriteArrayList<>();
 
   private final LongSupplier bytesWritten;
+  private Supplier<TileDedupIndex> dedupIndexes = TileDedupIndex::inMemory;
 
-  private Mbtiles(Connection connection, Arguments arguments, LongSupplier bytesWritten) {
+  private Mbtiles(Connection connection, Path path, Arguments arguments, LongSupplier bytesWritten) {
     this.connection = connection;
+    this.path = path;
+    this.arguments = arguments;
     this.compactDb = arguments.getBoolean(
       COMPACT_DB + "|" + LEGACY_COMPACT_DB,
       "mbtiles: reduce the DB size by separating and deduping the tile data",
@@ -129,7 +145,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
   public static Mbtiles newInMemoryDatabase(Arguments options) {
     SQLiteConfig config = new SQLiteConfig();
     config.setApplicationId(MBTILES_APPLICATION_ID);
-    return new Mbtiles(newConnection("jdbc:sqlite::memory:", config, options), options, () -> 0);
+    return new Mbtiles(newConnection("jdbc:sqlite::memory:", config, options), null, options, () -> 0);
   }
 
   /** Alias for {@link #newInMemoryDatabase(boolean)} */
@@ -151,7 +167,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     sqliteConfig.setTempStore(SQLiteConfig.TempStore.MEMORY);
     sqliteConfig.setApplicationId(MBTILES_APPLICATION_ID);
     var connection = newConnection("jdbc:sqlite:" + path.toAbsolutePath(), sqliteConfig, options);
-    return new Mbtiles(connection, options, () -> FileUtils.size(path));
+    return new Mbtiles(connection, path, options, () -> FileUtils.size(path));
   }
 
   /** Returns a new connection to an mbtiles file optimized for reads. */
@@ -173,7 +189,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     // helps with 3 or more threads concurrently accessing:
     // config.setOpenMode(SQLiteOpenMode.NOMUTEX);
     Connection connection = newConnection("jdbc:sqlite:" + path.toAbsolutePath(), config, options);
-    return new Mbtiles(connection, options, () -> 0);
+    return new Mbtiles(connection, null, options, () -> 0);
   }
 
   private static Connection newConnection(String url, SQLiteConfig defaults, Arguments args) {
@@ -205,11 +221,21 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     return compactDb;
   }
 
+  @Override
+  public void setDedupIndex(Supplier<TileDedupIndex> indexFactory) {
+    this.dedupIndexes = indexFactory;
+  }
+
   @Override
   public TileOrder tileOrder() {
     return TileOrder.TMS;
   }
 
+  @Override
+  public boolean acceptsUnorderedWrites() {
+    return true;
+  }
+
   @Override
   public void initialize() {
     if (skipIndexCreation) {
@@ -225,6 +251,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
   @Override
   public void finish(TileArchiveMetadata tileArchiveMetadata) {
+    mergeShards();
     metadataTable().set(tileArchiveMetadata);
     if (vacuumAnalyze) {
       vacuumAnalyze();
@@ -233,7 +260,11 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
   @Override
   public long bytesWritten() {
-    return bytesWritten.getAsLong();
+    long result = bytesWritten.getAsLong();
+    for (Path shard : shards) {
+      result += FileUtils.size(shard);
+    }
+    return result;
   }
 
   @Override
@@ -371,8 +402,71 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     );
   }
 
-  /** Returns a writer that queues up inserts into the tile database(s) into large batches before executing them. */
-  public WriteableTileArchive.TileWriter newTileWriter() {
+  /**
+   * Returns a writer that queues up inserts into the tile database(s) into large batches before executing them.
+   * <p>
+   * If another writer is still open, the new writer inserts into a new shard file that gets merged into this database
+   * on {@link #finish}.
+   */
+  public synchronized WriteableTileArchive.TileWriter newTileWriter() {
+    if (!primaryWriterOpen) {
+      primaryWriterOpen = true;
+      TileWriter writer = newBatchedWriter();
+      return new TileWriter() {
+        @Override
+        public void write(TileEncodingResult encodingResult) {
+          writer.write(encodingResult);
+        }
+
+        @Override
+        public void close() {
+          writer.close();
+          synchronized (Mbtiles.this) {
+            primaryWriterOpen = false;
+          }
+        }
+
+        @Override
+        public void printStats() {
+          writer.printStats();
+        }
+      };
+    }
+    if (path == null) {
+      throw new IllegalStateException("Concurrent tile writers are only supported when writing to a file");
+    }
+    Path shardPath = StreamArchiveUtils.constructIndexedPath(path, shards.size() + 1);
+    LOGGER.debug("Writing mbtiles shard {}", shardPath);
+    FileUtils.deleteFile(shardPath);
+    shards.add(shardPath);
+    Mbtiles shard = newWriteToFileDatabase(shardPath, arguments);
+    shard.dedupIndexes = dedupIndexes;
+    shard.createTablesWithoutIndexes();
+    TileWriter writer = shard.newBatchedWriter();
+    return new TileWriter() {
+      @Override
+      public void write(TileEncodingResult encodingResult) {
+        writer.write(encodingResult);
+      }
+
+      @Override
+      public void close() {
+        writer.close();
+        try {
+          shard.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      @Override
+      public void printStats() {
+        writer.printStats();
+      }
+    };
+  }
+
+  private TileWriter newBatchedWriter() {
     if (compactDb) {
       return new BatchedCompactTileWriter();
     } else {
@@ -380,6 +474,51 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     }
   }
 
+  /** Copies tiles from all shard files written by concurrent tile writers into this database and deletes them. */
+  private void mergeShards() {
+    for (Path shard : shards) {
+      LOGGER.info("Merging mbtiles shard {} into {}", shard, path);
+      try (var attach = connection.prepareStatement("ATTACH DATABASE ? AS shard")) {
+        attach.setString(1, shard.toAbsolutePath().toString());
+        attach.execute();
+      } catch (SQLException throwables) {
+        throw new IllegalStateException("Error attaching shard " + shard, throwables);
+      }
+      if (compactDb) {
+        // tile data IDs are only unique within a shard, so shift them past the ones already in this database
+        long offset;
+        try (
+          var statement = connection.createStatement();
+          var rs = statement.executeQuery(
+            "select coalesce(max(%s), 0) from %s".formatted(TILES_DATA_COL_DATA_ID, TILES_DATA_TABLE))
+        ) {
+          offset = rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException throwables) {
+          throw new IllegalStateException("Error reading max tile data id", throwables);
+        }
+        execute(
+          "insert into %s (%s, %s) select %s + %d, %s from shard.%s".formatted(
+            TILES_DATA_TABLE, TILES_DATA_COL_DATA_ID, TILES_DATA_COL_DATA,
+            TILES_DATA_COL_DATA_ID, offset, TILES_DATA_COL_DATA, TILES_DATA_TABLE),
+          "insert into %s (%s, %s, %s, %s) select %s, %s, %s, %s + %d from shard.%s".formatted(
+            TILES_SHALLOW_TABLE, TILES_SHALLOW_COL_Z, TILES_SHALLOW_COL_X, TILES_SHALLOW_COL_Y,
+            TILES_SHALLOW_COL_DATA_ID,
+            TILES_SHALLOW_COL_Z, TILES_SHALLOW_COL_X, TILES_SHALLOW_COL_Y, TILES_SHALLOW_COL_DATA_ID, offset,
+            TILES_SHALLOW_TABLE)
+        );
+      } else {
+        execute(
+          "insert into %s (%s, %s, %s, %s) select %s, %s, %s, %s from shard.%s".formatted(
+            TILES_TABLE, TILES_COL_Z, TILES_COL_X, TILES_COL_Y, TILES_COL_DATA,
+            TILES_COL_Z, TILES_COL_X, TILES_COL_Y, TILES_COL_DATA, TILES_TABLE)
+        );
+      }
+      execute("DETACH DATABASE shard");
+      FileUtils.deleteFile(shard);
+    }
+    shards.clear();
+  }
+
   // TODO: exists for compatibility purposes
   public WriteableTileArchive.TileWriter newBatchedTileWriter() {
     return newTileWriter();
@@ -735,7 +874,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
     private final BatchedTileShallowTableWriter batchedTileShallowTableWriter = new BatchedTileShallowTableWriter();
     private final BatchedTileDataTableWriter batchedTileDataTableWriter = new BatchedTileDataTableWriter();
-    private final LongIntHashMap tileDataIdByHash = new LongIntHashMap(1_000);
+    private final TileDedupIndex tileDataIdByHash = dedupIndexes.get();
 
     private int tileDataIdCounter = 1;
 
@@ -747,12 +886,14 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
 
       if (tileDataHashOpt.isPresent()) {
         long tileDataHash = tileDataHashOpt.getAsLong();
-        if (tileDataIdByHash.containsKey(tileDataHash)) {
-          tileDataId = tileDataIdByHash.get(tileDataHash);
+        long check = TileDedupIndex.contentCheck(encodingResult.tileData());
+        long existingTileDataId = tileDataIdByHash.get(tileDataHash, check);
+        if (existingTileDataId != TileDedupIndex.MISSING) {
+          tileDataId = (int) existingTileDataId;
           writeData = false;
         } else {
           tileDataId = tileDataIdCounter++;
-          tileDataIdByHash.put(tileDataHash, tileDataId);
+          tileDataIdByHash.put(tileDataHash, check, tileDataId);
           writeData = true;
         }
       } else {
@@ -769,6 +910,7 @@ public final class Mbtiles implements WriteableTileArchive, ReadableTileArchive
     public void close() {
       batchedTileShallowTableWriter.close();
       batchedTileDataTableWriter.close();
+      tileDataIdByHash.close();
     }
 
     @Override
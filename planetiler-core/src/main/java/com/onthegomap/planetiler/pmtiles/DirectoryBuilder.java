@@ -0,0 +1,242 @@
+package com.onthegomap.planetiler.pmtiles;
+
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Gzip;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects PMTiles directory entries as tiles get written, then writes leaf directories from them in a streaming pass
+ * so that memory usage when finishing an archive does not grow with the number of entries.
+ * <p>
+ * Entries get appended to a temporary file (or in-memory buffer) as they are added. When they are added in tile ID
+ * order, {@link #writeDirectories(SeekableByteChannel)} only holds one leaf worth of entries in memory at a time.
+ * Otherwise it falls back to loading and sorting all entries first.
+ */
+@NotThreadSafe
+final class DirectoryBuilder implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryBuilder.class);
+  private static final int MAX_ENTRIES_ROOT_ONLY = 16384;
+  private static final int MAX_ROOT_BYTES = WriteablePmtiles.INIT_SECTION - Pmtiles.HEADER_LEN;
+  private static final int MIN_LEAF_SIZE = 4096;
+
+  private final Path spillFile;
+  private final ByteArrayOutputStream spillBuffer;
+  private final DataOutputStream output;
+  private long numEntries = 0;
+  private long lastTileId = -1;
+  private boolean clustered = true;
+  private boolean sorted = true;
+  private boolean outputClosed = false;
+
+  private DirectoryBuilder(Path spillFile) {
+    this.spillFile = spillFile;
+    try {
+      if (spillFile == null) {
+        spillBuffer = new ByteArrayOutputStream();
+        output = new DataOutputStream(spillBuffer);
+      } else {
+        spillBuffer = null;
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 50_000));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns a builder that spills entries to {@code spillFile}, which gets deleted on {@link #close()}. */
+  static DirectoryBuilder onDisk(Path spillFile) {
+    return new DirectoryBuilder(spillFile);
+  }
+
+  /** Returns a builder that keeps entries in an in-memory buffer, for small archives and tests. */
+  static DirectoryBuilder inMemory() {
+    return new DirectoryBuilder(null);
+  }
+
+  /** Appends {@code entry} to the directory, it can not be modified after this. */
+  void add(Pmtiles.Entry entry) {
+    if (outputClosed) {
+      throw new IllegalStateException("Cannot add entries after writing directories");
+    }
+    if (entry.tileId() < lastTileId) {
+      clustered = false;
+      sorted = false;
+    }
+    lastTileId = entry.tileId();
+    try {
+      write(output, entry);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    numEntries++;
+  }
+
+  /** Returns the number of entries added so far. */
+  long numEntries() {
+    return numEntries;
+  }
+
+  /** Returns true if entries were added in ascending tile ID order. */
+  boolean isClustered() {
+    return clustered;
+  }
+
+  /**
+   * Writes leaf directories for all entries to {@code out} starting at its current position, and returns the root
+   * directory that points to them.
+   * <p>
+   * The number of entries per leaf is estimated up-front so that the header and root directory fit in the initial
+   * section of the archive. In the rare case that the estimate is too small, leaves get rewritten with larger ones.
+   *
+   * @throws IOException if an error occurs reading entries or writing to {@code out}
+   */
+  Result writeDirectories(SeekableByteChannel out) throws IOException {
+    if (!outputClosed) {
+      output.close();
+      outputClosed = true;
+    }
+    if (!sorted) {
+      sortEntries();
+    }
+    if (numEntries < MAX_ENTRIES_ROOT_ONLY) {
+      byte[] rootBytes = Gzip.gzip(Pmtiles.directoryToBytes(readAll()));
+      if (rootBytes.length < MAX_ROOT_BYTES) {
+        return new Result(rootBytes, 0, 0, 0, 1);
+      }
+    }
+    long leavesStart = out.position();
+    int leafSize = (int) Math.max(numEntries / 3_500d, MIN_LEAF_SIZE);
+    for (int attemptNum = 1;; attemptNum++) {
+      out.position(leavesStart);
+      Result result = writeLeaves(out, leafSize, attemptNum);
+      if (result.root.length < MAX_ROOT_BYTES) {
+        out.truncate(out.position());
+        return result;
+      }
+      leafSize *= 1.2;
+    }
+  }
+
+  private Result writeLeaves(SeekableByteChannel out, int leafSize, int attemptNum) throws IOException {
+    LOGGER.info("Building directories with {} entries per leaf, attempt {}...", leafSize, attemptNum);
+    List<Pmtiles.Entry> rootEntries = new ArrayList<>();
+    List<Pmtiles.Entry> leaf = new ArrayList<>(leafSize);
+    long leavesLength = 0;
+    try (var entries = new SpillReader()) {
+      for (long i = 0; i < numEntries; i += leafSize) {
+        leaf.clear();
+        int end = (int) Math.min(leafSize, numEntries - i);
+        for (int j = 0; j < end; j++) {
+          leaf.add(entries.next());
+        }
+        byte[] leafBytes = Gzip.gzip(Pmtiles.directoryToBytes(leaf));
+        rootEntries.add(new Pmtiles.Entry(leaf.getFirst().tileId(), leavesLength, leafBytes.length, 0));
+        out.write(ByteBuffer.wrap(leafBytes));
+        leavesLength += leafBytes.length;
+      }
+    }
+    byte[] rootBytes = Gzip.gzip(Pmtiles.directoryToBytes(rootEntries));
+    LOGGER.info("Built directories with {} leaves, {}B root directory", rootEntries.size(), rootBytes.length);
+    return new Result(rootBytes, leavesLength, rootEntries.size(), leafSize, attemptNum);
+  }
+
+  private List<Pmtiles.Entry> readAll() throws IOException {
+    List<Pmtiles.Entry> result = new ArrayList<>((int) numEntries);
+    try (var entries = new SpillReader()) {
+      for (long i = 0; i < numEntries; i++) {
+        result.add(entries.next());
+      }
+    }
+    return result;
+  }
+
+  /** Rewrites entries that were not added in order sorted by tile ID, which needs to hold them all in memory. */
+  private void sortEntries() throws IOException {
+    LOGGER.info("Tile data was not written in order, sorting {} entries...", numEntries);
+    List<Pmtiles.Entry> all = readAll();
+    Collections.sort(all);
+    OutputStream stream;
+    if (spillFile == null) {
+      spillBuffer.reset();
+      stream = spillBuffer;
+    } else {
+      stream = new BufferedOutputStream(Files.newOutputStream(spillFile), 50_000);
+    }
+    try (var sortedOutput = new DataOutputStream(stream)) {
+      for (var entry : all) {
+        write(sortedOutput, entry);
+      }
+    }
+    sorted = true;
+  }
+
+  private static void write(DataOutputStream output, Pmtiles.Entry entry) throws IOException {
+    output.writeLong(entry.tileId());
+    output.writeLong(entry.offset());
+    output.writeInt(entry.length());
+    output.writeInt(entry.runLength());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!outputClosed) {
+      output.close();
+      outputClosed = true;
+    }
+    if (spillFile != null) {
+      FileUtils.delete(spillFile);
+    }
+  }
+
+  /**
+   * The root directory and where leaf directories were written.
+   *
+   * @param root         gzipped root directory bytes
+   * @param leavesLength number of bytes of gzipped leaf directories written
+   * @param numLeaves    number of leaf directories
+   * @param leafSize     maximum number of entries in each leaf directory
+   * @param numAttempts  number of times leaves had to be written until the root directory fit
+   */
+  record Result(byte[] root, long leavesLength, int numLeaves, int leafSize, int numAttempts) {}
+
+  private class SpillReader implements Closeable {
+
+    private final DataInputStream input;
+
+    SpillReader() throws IOException {
+      InputStream stream = spillFile == null ? new ByteArrayInputStream(spillBuffer.toByteArray()) :
+        new BufferedInputStream(Files.newInputStream(spillFile), 50_000);
+      input = new DataInputStream(stream);
+    }
+
+    Pmtiles.Entry next() throws IOException {
+      return new Pmtiles.Entry(input.readLong(), input.readLong(), input.readInt(), input.readInt());
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+}
@@ -121,7 +121,8 @@ public class ReadablePmtiles implements ReadableTileArchive {
     TileCompression tileCompression = switch (header.tileCompression()) {
       case GZIP -> TileCompression.GZIP;
       case NONE -> TileCompression.NONE;
-      case UNKNOWN -> TileCompression.UNKNOWN;
+      case ZSTD -> TileCompression.ZSTD;
+      case BROTLI, UNKNOWN -> TileCompression.UNKNOWN;
     };
 
     String format = switch (header.tileType()) {
@@ -1,11 +1,9 @@
 package com.onthegomap.planetiler.pmtiles;
 
-import com.carrotsearch.hppc.ByteArrayList;
-import com.carrotsearch.hppc.LongLongHashMap;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
+import com.onthegomap.planetiler.archive.TileDedupIndex;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.archive.WriteableTileArchive;
-import com.onthegomap.planetiler.collection.Hppc;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.TileCoord;
@@ -19,16 +17,16 @@ import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.OptionalLong;
 import java.util.TreeMap;
 import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,51 +39,25 @@ public final class WriteablePmtiles implements WriteableTileArchive {
 
   static final int INIT_SECTION = 16384;
   private static final Logger LOGGER = LoggerFactory.getLogger(WriteablePmtiles.class);
-  final LongLongHashMap hashToOffset = Hppc.newLongLongHashMap();
-  final ArrayList<Pmtiles.Entry> entries = new ArrayList<>();
   private final SeekableByteChannel out;
+  private final DirectoryBuilder directory;
   private long currentOffset = 0;
-  private long numUnhashedTiles = 0;
+  private long numTileContents = 0;
   private long numAddressedTiles = 0;
-  private boolean isClustered = true;
+  // the last entry's run length can still grow, so it only gets handed to the directory once the next one starts
+  private Pmtiles.Entry lastEntry = null;
 
   private final LongSupplier bytesWritten;
+  private Supplier<TileDedupIndex> dedupIndexes = TileDedupIndex::inMemory;
 
-  private WriteablePmtiles(SeekableByteChannel channel, LongSupplier bytesWritten) throws IOException {
+  private WriteablePmtiles(SeekableByteChannel channel, LongSupplier bytesWritten, DirectoryBuilder directory)
+    throws IOException {
     this.out = channel;
+    this.directory = directory;
     out.write(ByteBuffer.allocate(INIT_SECTION));
     this.bytesWritten = bytesWritten;
   }
 
-  private static Directories makeDirectoriesWithLeaves(List<Pmtiles.Entry> subEntries, int leafSize, int attemptNum)
-    throws IOException {
-    LOGGER.info("Building directories with {} entries per leaf, attempt {}...", leafSize, attemptNum);
-    ArrayList<Pmtiles.Entry> rootEntries = new ArrayList<>();
-    ByteArrayList leavesOutputStream = new ByteArrayList();
-    int leavesLength = 0;
-    int numLeaves = 0;
-
-    for (int i = 0; i < subEntries.size(); i += leafSize) {
-      numLeaves++;
-      int end = i + leafSize;
-      if (i + leafSize > subEntries.size()) {
-        end = subEntries.size();
-      }
-      byte[] leafBytes = Pmtiles.directoryToBytes(subEntries, i, end);
-      leafBytes = Gzip.gzip(leafBytes);
-      rootEntries.add(new Pmtiles.Entry(subEntries.get(i).tileId(), leavesLength, leafBytes.length, 0));
-      leavesOutputStream.add(leafBytes);
-      leavesLength += leafBytes.length;
-    }
-
-    byte[] rootBytes = Pmtiles.directoryToBytes(rootEntries);
-    rootBytes = Gzip.gzip(rootBytes);
-
-    LOGGER.info("Built directories with {} leaves, {}B root directory", rootEntries.size(), rootBytes.length);
-
-    return new Directories(rootBytes, leavesOutputStream.toArray(), numLeaves, leafSize, attemptNum);
-  }
-
   /**
    * Serialize all entries into bytes, choosing the # of leaf directories to ensure the header+root fits in 16 KB.
    *
@@ -94,38 +66,41 @@ public final class WriteablePmtiles implements WriteableTileArchive {
    * @throws IOException if compression fails
    */
   static Directories makeDirectories(List<Pmtiles.Entry> entries) throws IOException {
-    int maxEntriesRootOnly = 16384;
-    int attemptNum = 1;
-    if (entries.size() < maxEntriesRootOnly) {
-      byte[] testBytes = Pmtiles.directoryToBytes(entries, 0, entries.size());
-      testBytes = Gzip.gzip(testBytes);
-
-      if (testBytes.length < INIT_SECTION - Pmtiles.HEADER_LEN) {
-        return new Directories(testBytes, new byte[0], 0, 0, attemptNum);
-      }
-    }
-
-    double estimatedLeafSize = entries.size() / 3_500d;
-    int leafSize = (int) Math.max(estimatedLeafSize, 4096);
-
-    while (true) {
-      Directories temp = makeDirectoriesWithLeaves(entries, leafSize, attemptNum++);
-      if (temp.root.length < INIT_SECTION - Pmtiles.HEADER_LEN) {
-        return temp;
-      }
-      leafSize *= 1.2;
+    try (
+      var builder = DirectoryBuilder.inMemory();
+      var leaves = new SeekableInMemoryByteChannel(0)
+    ) {
+      entries.forEach(builder::add);
+      var result = builder.writeDirectories(leaves);
+      return new Directories(result.root(), Arrays.copyOf(leaves.array(), (int) leaves.size()), result.numLeaves(),
+        result.leafSize(), result.numAttempts());
     }
   }
 
+  /**
+   * Returns an archive that writes to {@code path}, keeping directory entries in a temporary file in the system temp
+   * directory until {@link #finish(TileArchiveMetadata)}.
+   */
   public static WriteablePmtiles newWriteToFile(Path path) throws IOException {
+    return newWriteToFile(path, Path.of(System.getProperty("java.io.tmpdir")));
+  }
+
+  /**
+   * Returns an archive that writes to {@code path}, keeping directory entries in a temporary file in {@code tmpDir}
+   * until {@link #finish(TileArchiveMetadata)}.
+   */
+  public static WriteablePmtiles newWriteToFile(Path path, Path tmpDir) throws IOException {
+    FileUtils.createDirectory(tmpDir);
+    Path entries = Files.createTempFile(tmpDir, path.getFileName().toString(), ".entries");
     return new WriteablePmtiles(
       FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
-      () -> FileUtils.size(path)
+      () -> FileUtils.size(path),
+      DirectoryBuilder.onDisk(entries)
     );
   }
 
   public static WriteablePmtiles newWriteToMemory(SeekableInMemoryByteChannel bytes) throws IOException {
-    return new WriteablePmtiles(bytes, () -> 0);
+    return new WriteablePmtiles(bytes, () -> 0, DirectoryBuilder.inMemory());
   }
 
   @Override
@@ -133,6 +108,11 @@ public final class WriteablePmtiles implements WriteableTileArchive {
     return true;
   }
 
+  @Override
+  public void setDedupIndex(Supplier<TileDedupIndex> indexFactory) {
+    this.dedupIndexes = indexFactory;
+  }
+
   @Override
   public TileOrder tileOrder() {
     return TileOrder.HILBERT;
@@ -140,13 +120,11 @@ public final class WriteablePmtiles implements WriteableTileArchive {
 
   @Override
   public void finish(TileArchiveMetadata tileArchiveMetadata) {
-    if (!isClustered) {
-      LOGGER.info("Tile data was not written in order, sorting entries...");
-      Collections.sort(entries);
-      LOGGER.info("Done sorting.");
+    if (lastEntry != null) {
+      directory.add(lastEntry);
+      lastEntry = null;
     }
     try {
-      Directories directories = makeDirectories(entries);
       // use treemap to ensure consistent ouput between runs
       var otherMetadata = new TreeMap<>(tileArchiveMetadata.toMap());
 
@@ -180,23 +158,31 @@ public final class WriteablePmtiles implements WriteableTileArchive {
       Pmtiles.Compression tileCompression = switch (tileArchiveMetadata.tileCompression()) {
         case GZIP -> Pmtiles.Compression.GZIP;
         case NONE -> Pmtiles.Compression.NONE;
+        case ZSTD -> Pmtiles.Compression.ZSTD;
         default -> Pmtiles.Compression.UNKNOWN;
       };
 
+      LOGGER.info("Writing metadata and leaf directories...");
+
+      long jsonOffset = INIT_SECTION + currentOffset;
+      out.position(jsonOffset);
+      out.write(ByteBuffer.wrap(jsonBytes));
+      var directories = directory.writeDirectories(out);
+
       Pmtiles.Header header = new Pmtiles.Header(
         (byte) 3,
         Pmtiles.HEADER_LEN,
-        directories.root.length,
-        INIT_SECTION + currentOffset,
+        directories.root().length,
+        jsonOffset,
         jsonBytes.length,
-        INIT_SECTION + currentOffset + jsonBytes.length,
-        directories.leaves.length,
+        jsonOffset + jsonBytes.length,
+        directories.leavesLength(),
         INIT_SECTION,
         currentOffset,
         numAddressedTiles,
-        entries.size(),
-        hashToOffset.size() + numUnhashedTiles,
-        isClustered,
+        directory.numEntries(),
+        numTileContents,
+        directory.isClustered(),
         Pmtiles.Compression.GZIP,
         tileCompression,
         outputFormat,
@@ -211,34 +197,29 @@ public final class WriteablePmtiles implements WriteableTileArchive {
         (int) (center.y * 10_000_000)
       );
 
-      LOGGER.info("Writing metadata and leaf directories...");
-
-      out.write(ByteBuffer.wrap(jsonBytes));
-      out.write(ByteBuffer.wrap(directories.leaves));
-
       LOGGER.info("Writing header...");
       out.position(0);
       out.write(ByteBuffer.wrap(header.toBytes()));
-      out.write(ByteBuffer.wrap(directories.root));
+      out.write(ByteBuffer.wrap(directories.root()));
 
       Format format = Format.defaultInstance();
 
       if (LOGGER.isInfoEnabled()) {
         LOGGER.info("# addressed tiles: {}", numAddressedTiles);
-        LOGGER.info("# of tile entries: {}", entries.size());
-        LOGGER.info("# of tile contents: {}", (hashToOffset.size() + numUnhashedTiles));
-        LOGGER.info("Root directory: {}B", format.storage(directories.root.length, false));
+        LOGGER.info("# of tile entries: {}", directory.numEntries());
+        LOGGER.info("# of tile contents: {}", numTileContents);
+        LOGGER.info("Root directory: {}B", format.storage(directories.root().length, false));
 
-        LOGGER.info("# leaves: {}", directories.numLeaves);
-        if (directories.numLeaves > 0) {
-          LOGGER.info("Leaf directories: {}B", format.storage(directories.leaves.length, false));
+        LOGGER.info("# leaves: {}", directories.numLeaves());
+        if (directories.numLeaves() > 0) {
+          LOGGER.info("Leaf directories: {}B", format.storage(directories.leavesLength(), false));
           LOGGER
-            .info("Avg leaf size: {}B", format.storage(directories.leaves.length / directories.numLeaves, false));
+            .info("Avg leaf size: {}B", format.storage(directories.leavesLength() / directories.numLeaves(), false));
         }
 
         LOGGER
-          .info("Total dir bytes: {}B", format.storage(directories.root.length + directories.leaves.length, false));
-        double tot = (double) directories.root.length + directories.leaves.length;
+          .info("Total dir bytes: {}B", format.storage(directories.root().length + directories.leavesLength(), false));
+        double tot = (double) directories.root().length + directories.leavesLength();
         LOGGER.info("Average bytes per addressed tile: {}", tot / numAddressedTiles);
       }
     } catch (IOException e) {
@@ -253,7 +234,11 @@ public final class WriteablePmtiles implements WriteableTileArchive {
 
   @Override
   public void close() throws IOException {
-    out.close();
+    try {
+      directory.close();
+    } finally {
+      out.close();
+    }
   }
 
   public WriteableTileArchive.TileWriter newTileWriter() {
@@ -293,7 +278,7 @@ public final class WriteablePmtiles implements WriteableTileArchive {
   }
 
   private class DeduplicatingTileWriter implements TileWriter {
-    Pmtiles.Entry lastEntry = null;
+    private final TileDedupIndex hashToOffset = dedupIndexes.get();
 
     @Override
     public void write(TileEncodingResult encodingResult) {
@@ -306,18 +291,16 @@ public final class WriteablePmtiles implements WriteableTileArchive {
 
       long tileId = coord.hilbertEncoded();
 
-      if (!entries.isEmpty()) {
-        if (tileId < lastEntry.tileId()) {
-          isClustered = false;
-        } else if (tileId == lastEntry.tileId()) {
-          LOGGER.error("Duplicate tile detected in writer");
-        }
+      if (lastEntry != null && tileId == lastEntry.tileId()) {
+        LOGGER.error("Duplicate tile detected in writer");
       }
 
       if (tileDataHashOpt.isPresent()) {
         long tileDataHash = tileDataHashOpt.getAsLong();
-        if (hashToOffset.containsKey(tileDataHash)) {
-          offset = hashToOffset.get(tileDataHash);
+        long check = TileDedupIndex.contentCheck(data);
+        long existingOffset = hashToOffset.get(tileDataHash, check);
+        if (existingOffset != TileDedupIndex.MISSING) {
+          offset = existingOffset;
           writeTileData = false;
           if (lastEntry != null && lastEntry.tileId() + lastEntry.runLength() == tileId &&
             lastEntry.offset() == offset) {
@@ -325,19 +308,19 @@ public final class WriteablePmtiles implements WriteableTileArchive {
             return;
           }
         } else {
-          hashToOffset.put(tileDataHash, currentOffset);
+          hashToOffset.put(tileDataHash, check, currentOffset);
           offset = currentOffset;
           writeTileData = true;
         }
       } else {
-        numUnhashedTiles++;
         offset = currentOffset;
         writeTileData = true;
       }
 
-      var newEntry = new Pmtiles.Entry(tileId, offset, data.length, 1);
-      entries.add(newEntry);
-      lastEntry = newEntry;
+      if (lastEntry != null) {
+        directory.add(lastEntry);
+      }
+      lastEntry = new Pmtiles.Entry(tileId, offset, data.length, 1);
 
       if (writeTileData) {
         try {
@@ -346,12 +329,13 @@ public final class WriteablePmtiles implements WriteableTileArchive {
           throw new UncheckedIOException(e);
         }
         currentOffset += data.length;
+        numTileContents++;
       }
     }
 
     @Override
     public void close() {
-      // no cleanup needed.
+      hashToOffset.close();
     }
   }
 }
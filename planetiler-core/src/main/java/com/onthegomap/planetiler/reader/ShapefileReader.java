@@ -4,9 +4,13 @@ import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.config.Bounds;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.stats.Stats;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
@@ -20,6 +24,9 @@ import org.geotools.api.referencing.operation.MathTransform;
 import org.geotools.api.referencing.operation.OperationNotFoundException;
 import org.geotools.api.referencing.operation.TransformException;
 import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.shapefile.dbf.DbaseFileReader;
+import org.geotools.data.shapefile.files.ShpFiles;
+import org.geotools.data.shapefile.shp.IndexFile;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geometry.jts.JTS;
@@ -34,7 +41,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Utility that reads {@link SourceFeature SourceFeatures} from the geometries contained in an ESRI shapefile.
  * <p>
- * Shapefile processing handled by geotools {@link ShapefileDataStore}.
+ * Shapefile processing handled by geotools {@link ShapefileDataStore}. Unfiltered shapefiles on the local filesystem
+ * can also be {@linkplain #readFeatures(int, int, Consumer) read in parts} by seeking to record ranges using the
+ * {@code .shx} index.
  *
  * @see <a href=
  *      "https://www.esri.com/content/dam/esrisites/sitecore-archive/Files/Pdfs/library/whitepapers/pdfs/shapefile.pdf">ESRI
@@ -47,6 +56,8 @@ public class ShapefileReader extends SimpleReader<SimpleFeature> {
   private final String[] attributeNames;
   private final ShapefileDataStore dataStore;
   private final String layer;
+  private final Path input;
+  private final boolean filtered;
   private MathTransform transformToLatLon;
 
   public ShapefileReader(String sourceProjection, String sourceName, Path input) {
@@ -56,6 +67,8 @@ public class ShapefileReader extends SimpleReader<SimpleFeature> {
   public ShapefileReader(String sourceProjection, String sourceName, Path input, Bounds bounds) {
     super(sourceName);
     this.layer = input.getFileName().toString().replaceAll("\\.shp$", "");
+    this.input = input;
+    this.filtered = !bounds.isWorld();
     dataStore = open(input);
     try {
       String typeName = dataStore.getTypeNames()[0];
@@ -154,10 +167,11 @@ public class ShapefileReader extends SimpleReader<SimpleFeature> {
 
   @Override
   public void readFeatures(Consumer<SimpleFeature> next) throws TransformException {
-    long id = 0;
+    long records = 0;
     try (var iter = inputSource.features()) {
       while (iter.hasNext()) {
         org.geotools.api.feature.simple.SimpleFeature feature = iter.next();
+        long id = recordNumber(feature.getID(), ++records);
         Geometry source = (Geometry) feature.getDefaultGeometry();
         Geometry latLonGeometry = source;
         if (transformToLatLon != null) {
@@ -165,7 +179,7 @@ public class ShapefileReader extends SimpleReader<SimpleFeature> {
         }
         if (latLonGeometry != null) {
           SimpleFeature geom = SimpleFeature.create(latLonGeometry, HashMap.newHashMap(attributeNames.length),
-            sourceName, layer, ++id);
+            sourceName, layer, id);
           for (int i = 1; i < attributeNames.length; i++) {
             geom.setTag(attributeNames[i], feature.getAttribute(i));
           }
@@ -175,6 +189,100 @@ public class ShapefileReader extends SimpleReader<SimpleFeature> {
     }
   }
 
+  /**
+   * Returns the 1-based shapefile record number from a feature ID like {@code layer.123}, or {@code fallback} if it
+   * does not have one. Using the record number keeps IDs the same whether the file is read in parts or filtered.
+   */
+  private static long recordNumber(String fid, long fallback) {
+    if (fid != null) {
+      int dot = fid.lastIndexOf('.');
+      try {
+        return Long.parseLong(fid.substring(dot + 1));
+      } catch (NumberFormatException e) {
+        // not a record number, use the fallback
+      }
+    }
+    return fallback;
+  }
+
+  @Override
+  public boolean canReadInParts() {
+    return !filtered &&
+      input.getFileSystem() == FileSystems.getDefault() &&
+      Files.exists(input.resolveSibling(layer + ".shx")) &&
+      Files.exists(input.resolveSibling(layer + ".dbf"));
+  }
+
+  @Override
+  public void readFeatures(int part, int parts, Consumer<SimpleFeature> next) throws IOException, TransformException {
+    if (parts == 1) {
+      readFeatures(next);
+      return;
+    } else if (!canReadInParts()) {
+      throw new IllegalStateException("Cannot read " + input + " in parts");
+    }
+    var files = new ShpFiles(input.toFile());
+    IndexFile index = null;
+    org.geotools.data.shapefile.shp.ShapefileReader shp = null;
+    DbaseFileReader dbf = null;
+    try {
+      index = new IndexFile(files, false);
+      int count = index.getRecordCount();
+      int from = (int) ((long) count * part / parts);
+      int to = (int) ((long) count * (part + 1) / parts);
+      if (from >= to) {
+        return;
+      }
+      shp = new org.geotools.data.shapefile.shp.ShapefileReader(files, true, true, GeoUtils.JTS_FACTORY);
+      dbf = new DbaseFileReader(files, true, dbfCharset());
+      shp.goTo(index.getOffsetInBytes(from));
+      // dbf record numbers are 1-based
+      dbf.goTo(from + 1);
+      for (int i = from; i < to; i++) {
+        Geometry source = (Geometry) shp.nextRecord().shape();
+        Object[] attributes = dbf.readEntry();
+        Geometry latLonGeometry = source;
+        if (transformToLatLon != null && source != null) {
+          latLonGeometry = JTS.transform(source, transformToLatLon);
+        }
+        if (latLonGeometry != null) {
+          // use the 1-based record number as the ID, like the sequential read does
+          SimpleFeature geom = SimpleFeature.create(latLonGeometry, HashMap.newHashMap(attributeNames.length),
+            sourceName, layer, i + 1L);
+          // attribute 0 is the geometry, the rest come from the dbf file in the same order
+          for (int j = 1; j < attributeNames.length; j++) {
+            geom.setTag(attributeNames[j], attributes[j - 1]);
+          }
+          next.accept(geom);
+        }
+      }
+    } finally {
+      if (dbf != null) {
+        dbf.close();
+      }
+      if (shp != null) {
+        shp.close();
+      }
+      if (index != null) {
+        index.close();
+      }
+      files.dispose();
+    }
+  }
+
+  private Charset dbfCharset() {
+    // mirror ShapefileDataStore#setTryCPGFile
+    Path cpg = input.resolveSibling(layer + ".cpg");
+    if (Files.exists(cpg)) {
+      try {
+        return Charset.forName(Files.readString(cpg).trim());
+      } catch (IOException | IllegalArgumentException e) {
+        LOGGER.warn("Unable to read charset from {}, using {} instead", cpg.getFileName(), dataStore.getCharset(), e);
+      }
+    }
+    return dataStore.getCharset();
+  }
+
   @Override
   public void close() {
     dataStore.dispose();
@@ -26,4 +26,27 @@ public abstract class SimpleReader<F extends SourceFeature> implements Closeable
   /** Reads all features in this data provider, submitting each to {@code next} for further processing. */
   @SuppressWarnings("java:S112")
   public abstract void readFeatures(Consumer<F> next) throws Exception;
+
+  /**
+   * Returns true if {@link #readFeatures(int, int, Consumer)} can read a slice of this input without reading the rest of
+   * it, so that slices of one large input can be read concurrently.
+   */
+  public boolean canReadInParts() {
+    return false;
+  }
+
+  /**
+   * Reads the {@code part}th (0-based) of {@code parts} roughly equal-sized slices of the features in this data provider,
+   * submitting each to {@code next} for further processing.
+   *
+   * @throws IllegalStateException if {@code parts > 1} and this reader does not {@linkplain #canReadInParts() support
+   *                               reading in parts}
+   */
+  @SuppressWarnings("java:S112")
+  public void readFeatures(int part, int parts, Consumer<F> next) throws Exception {
+    if (parts != 1) {
+      throw new IllegalStateException(getClass().getSimpleName() + " cannot be read in parts");
+    }
+    readFeatures(next);
+  }
 }
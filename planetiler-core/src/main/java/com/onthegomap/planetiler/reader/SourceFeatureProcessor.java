@@ -4,14 +4,18 @@ import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.collection.SortableFeature;
+import com.onthegomap.planetiler.collection.SourceFeatureCache;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.render.FeatureRenderer;
 import com.onthegomap.planetiler.stats.ProgressLoggers;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.CloseableConsumer;
+import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.worker.WorkerPipeline;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -25,11 +29,15 @@ import org.slf4j.LoggerFactory;
  * name.
  * <p>
  * The paths will be processed in parallel according to the {@link #profile} using {@link SimpleReader} objects
- * constructed by {@link #readerFactory}.
+ * constructed by {@link #readerFactory}. Large inputs from readers that {@linkplain SimpleReader#canReadInParts() can
+ * read in parts} get split into slices that are read in parallel as well.
  */
 public class SourceFeatureProcessor<F extends SourceFeature> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(SourceFeatureProcessor.class);
+  private static final Format FORMAT = Format.defaultInstance();
+  // don't split an input into slices smaller than this many features
+  private static final long MIN_FEATURES_PER_PART = 1_000;
 
   private final Profile profile;
   private final Stats stats;
@@ -75,27 +83,50 @@ public class SourceFeatureProcessor<F extends SourceFeature> {
    */
   public final void processFiles(List<Path> sourcePaths, FeatureGroup writer, PlanetilerConfig config) {
     var timer = stats.startStage(sourceName);
-    long featureCount = getFeatureCount(sourcePaths);
-    int readThreads = config.featureReadThreads();
+    SourceFeatureCache cache = config.sourceCacheDir() == null || !profile.cacheSource(sourceName) ? null :
+      SourceFeatureCache.create(config.sourceCacheDir(), sourceName, sourcePaths, writer, profile, config);
+    if (cache != null) {
+      if (cache.exists()) {
+        LOGGER.info("Inputs are unchanged, using features cached by a previous run");
+        long cached = cache.load(stats);
+        LOGGER.info("Added {} cached features", FORMAT.integer(cached));
+        timer.stop();
+        return;
+      }
+      cache.abort();
+    }
+    // remember what the renderer reports so a later run that uses the cache can report it too
+    Stats renderStats = cache == null ? stats : cache.recordStats(stats);
+    // open each reader once up front to get the feature count for progress and decide how to split it
+    List<SourceInput> inputs = getInputs(sourcePaths);
+    long featureCount = inputs.stream().mapToLong(SourceInput::featureCount).sum();
     int writeThreads = config.featureWriteThreads();
     int processThreads = config.featureProcessThreads();
+    List<ReadTask> readTasks = getReadTasks(inputs, processThreads);
+    int readThreads = config.featureReadThreads();
+    if (readTasks.size() > sourcePaths.size()) {
+      // a single reader thread can't keep up with the process threads, so read slices of large inputs concurrently
+      readThreads = Math.max(readThreads, Math.min(readTasks.size(), processThreads));
+    }
     Envelope latLonBounds = config.bounds().latLon();
     AtomicLong featuresRead = new AtomicLong(0);
     AtomicLong featuresWritten = new AtomicLong(0);
 
     var pipeline = WorkerPipeline.start(sourceName, stats)
-      .readFromTiny("source_paths", sourcePaths)
+      .readFromTiny("source_paths", readTasks)
       .addWorker("read", readThreads, readPaths())
       .addBuffer("process_queue", 1000, 1)
       .<SortableFeature>addWorker("process", processThreads, (prev, next) -> {
         var featureCollectors = new FeatureCollector.Factory(config, stats);
-        try (FeatureRenderer renderer = newFeatureRenderer(writer, config, next)) {
+        try (FeatureRenderer renderer = newFeatureRenderer(writer, config, renderStats, next)) {
           for (SourceFeature sourceFeature : prev) {
             featuresRead.incrementAndGet();
             FeatureCollector features = featureCollectors.get(sourceFeature);
             if (sourceFeature.latLonGeometry().getEnvelopeInternal().intersects(latLonBounds)) {
               try {
+                long start = System.nanoTime();
                 profile.processFeature(sourceFeature, features);
+                renderer.recordProcessFeature(features, System.nanoTime() - start);
                 for (FeatureCollector.Feature renderable : features) {
                   renderer.accept(renderable);
                 }
@@ -110,7 +141,7 @@ public class SourceFeatureProcessor<F extends SourceFeature> {
       // which turns enqueueing into the bottleneck
       .addBuffer("write_queue", 50_000, 1_000)
       .sinkTo("write", writeThreads, prev -> {
-        try (var threadLocalWriter = writer.writerForThread()) {
+        try (var threadLocalWriter = writerForThread(writer, cache)) {
           for (var item : prev) {
             featuresWritten.incrementAndGet();
             threadLocalWriter.accept(item);
@@ -131,17 +162,25 @@ public class SourceFeatureProcessor<F extends SourceFeature> {
 
     // hook for profile to do any post-processing after this source is read
     try (
-      var threadLocalWriter = writer.writerForThread();
-      var featureRenderer = newFeatureRenderer(writer, config, threadLocalWriter)
+      var threadLocalWriter = writerForThread(writer, cache);
+      var featureRenderer = newFeatureRenderer(writer, config, renderStats, threadLocalWriter)
     ) {
       profile.finish(sourceName, new FeatureCollector.Factory(config, stats), featureRenderer);
     } catch (IOException e) {
       LOGGER.warn("Error closing writer", e);
     }
+    if (cache != null) {
+      cache.commit();
+    }
     timer.stop();
   }
 
-  private FeatureRenderer newFeatureRenderer(FeatureGroup writer, PlanetilerConfig config,
+  private static CloseableConsumer<SortableFeature> writerForThread(FeatureGroup writer, SourceFeatureCache cache) {
+    var threadLocalWriter = writer.writerForThread();
+    return cache == null ? threadLocalWriter : cache.writerForThread(threadLocalWriter);
+  }
+
+  private static FeatureRenderer newFeatureRenderer(FeatureGroup writer, PlanetilerConfig config, Stats stats,
     Consumer<SortableFeature> next) {
     @SuppressWarnings("java:S2095") // closed by FeatureRenderer
     var encoder = writer.newRenderedFeatureEncoder();
@@ -154,24 +193,52 @@ public class SourceFeatureProcessor<F extends SourceFeature> {
   }
 
   protected long getFeatureCount(List<Path> sourcePaths) {
-    long featureCount = 0;
+    return getInputs(sourcePaths).stream().mapToLong(SourceInput::featureCount).sum();
+  }
+
+  /** Feature count of an input path and whether its reader can read it in slices. */
+  record SourceInput(Path path, long featureCount, boolean canReadInParts) {}
+
+  /** Returns the {@link SourceInput} for each of {@code sourcePaths}, opening each reader once. */
+  List<SourceInput> getInputs(List<Path> sourcePaths) {
+    List<SourceInput> result = new ArrayList<>(sourcePaths.size());
     for (var path : sourcePaths) {
       try (var reader = readerFactory.apply(path)) {
-        featureCount += reader.getFeatureCount();
+        result.add(new SourceInput(path, reader.getFeatureCount(), reader.canReadInParts()));
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
     }
+    return result;
+  }
 
-    return featureCount;
+  /** A slice of the features in {@code path} that one reader thread will read. */
+  record ReadTask(Path path, int part, int parts) {}
+
+  /**
+   * Returns the slices to read from {@code inputs}, splitting inputs that can be read in parts into up to
+   * {@code maxParts} slices.
+   */
+  static List<ReadTask> getReadTasks(List<SourceInput> inputs, int maxParts) {
+    List<ReadTask> result = new ArrayList<>();
+    for (var input : inputs) {
+      int parts = 1;
+      if (maxParts > 1 && input.canReadInParts()) {
+        parts = Math.clamp(input.featureCount() / MIN_FEATURES_PER_PART, 1, maxParts);
+      }
+      for (int part = 0; part < parts; part++) {
+        result.add(new ReadTask(input.path(), part, parts));
+      }
+    }
+    return result;
   }
 
   /** Returns a source that initiates a {@link WorkerPipeline} with elements from this data provider. */
-  private WorkerPipeline.WorkerStep<Path, F> readPaths() {
-    return (paths, consumer) -> {
-      for (var path : paths) {
-        try (var reader = readerFactory.apply(path)) {
-          reader.readFeatures(consumer);
+  private WorkerPipeline.WorkerStep<ReadTask, F> readPaths() {
+    return (tasks, consumer) -> {
+      for (var task : tasks) {
+        try (var reader = readerFactory.apply(task.path)) {
+          reader.readFeatures(task.part, task.parts, consumer);
         }
       }
     };
@@ -5,6 +5,7 @@ import static com.onthegomap.planetiler.worker.Worker.joinFutures;
 
 import com.carrotsearch.hppc.IntObjectHashMap;
 import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongLongHashMap;
 import com.carrotsearch.hppc.LongObjectHashMap;
 import com.carrotsearch.hppc.ObjectIntHashMap;
 import com.onthegomap.planetiler.FeatureCollector;
@@ -16,8 +17,10 @@ import com.onthegomap.planetiler.collection.LongLongMultimap;
 import com.onthegomap.planetiler.collection.SortableFeature;
 import com.onthegomap.planetiler.collection.Storage;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.render.FeatureRenderer;
 import com.onthegomap.planetiler.stats.Counter;
@@ -40,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -54,6 +58,7 @@ import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.impl.CoordinateArraySequence;
 import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.roaringbitmap.RoaringBitmap;
 import org.roaringbitmap.longlong.Roaring64Bitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,13 +95,23 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   // ~300mb
   private Roaring64Bitmap waysInMultipolygon = new Roaring64Bitmap();
   private final Object waysInMultipolygonLock = new Object();
+  // node locations (not IDs) for each way in a multipolygon so relations don't need to look them up again
   // ~7GB
   private LongLongMultimap.Replaceable multipolygonWayGeometries;
+  private final Object multipolygonWayGeometriesLock = new Object();
+  // first node without a location in each multipolygon way, since its stored locations no longer carry the node ID
+  private final LongLongHashMap multipolygonWayMissingNodes = new LongLongHashMap();
   // keep track of data needed to encode/decode role strings into a long
   private final ObjectIntHashMap<String> roleIds = new ObjectIntHashMap<>();
   private final IntObjectHashMap<String> roleIdsReverse = new IntObjectHashMap<>();
+  private final Object roleIdsLock = new Object();
   private final AtomicLong roleSizes = new AtomicLong(0);
   private final OsmPhaser pass1Phaser = new OsmPhaser(0);
+  // indexes of blocks that only contain nodes the profile ignores, so pass2 can skip reading them
+  private final RoaringBitmap skippableNodeBlocks = new RoaringBitmap();
+  private final Object skippableNodeBlocksLock = new Object();
+  private boolean findSkippableNodeBlocks = false;
+  private boolean caresAboutUntaggedNodes = true;
 
   /**
    * Constructs a new {@code OsmReader} from an {@code osmSourceProvider} that will use {@code nodeLocationDb} as a
@@ -143,6 +158,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
    * <p>
    * Also stores the result of {@link Profile#preprocessOsmRelation(OsmElement.Relation)} so that pass2 can know the
    * relevant relations that a way belongs to.
+   * <p>
+   * When {@link PlanetilerConfig#osmSkipNodeBlocks()} is set, also records blocks that only contain nodes the profile
+   * does not {@linkplain Profile#caresAbout(Expression.PartialInput) care about} so that pass2 can skip them.
    *
    * @param config user-provided arguments to control the number of threads, and log interval
    */
@@ -162,13 +180,18 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       .addInMemoryObject("hppc", this)
       .newLine();
     int threads = config.threads();
+    findSkippableNodeBlocks = config.osmSkipNodeBlocks();
+    if (findSkippableNodeBlocks) {
+      caresAboutUntaggedNodes = profile.caresAbout(
+        new Expression.PartialInput(Set.of(name), Set.of(), Map.of(), Set.of(GeometryType.POINT)));
+    }
 
     if (nodeLocationDb instanceof LongLongMap.ParallelWrites) {
       // If the node location writer supports parallel writes, then parse, process, and write node locations from worker threads
       int parseThreads = Math.max(1, threads < 8 ? threads : (threads - 1));
       pass1Phaser.registerWorkers(parseThreads);
       var parallelPipeline = pipeline
-        .fromGenerator("read", osmBlockSource::forEachBlock)
+        .fromGenerator("read", this::forEachNumberedBlock)
         .addBuffer("pbf_blocks", parseThreads * 2)
         .sinkTo("process", parseThreads, this::processPass1Blocks);
       loggers.addPipelineStats(parallelPipeline);
@@ -192,7 +215,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       var readBranch = pipeline
         .<BlockWithResult>fromGenerator("read", next -> {
           var parsedBatchEnqueuer = parsedBatches.threadLocalWriter();
-          osmBlockSource.forEachBlock((block) -> {
+          forEachNumberedBlock((block) -> {
             WeightedHandoffQueue<OsmElement> result = new WeightedHandoffQueue<>(handoffQueueBatches, 10_000);
             parsedBatchEnqueuer.accept(result);
             next.accept(new BlockWithResult(block, result));
@@ -201,13 +224,20 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
         })
         .addBuffer("pbf_blocks", pendingBlocks)
         .sinkToConsumer("parse", parseThreads, block -> {
+          boolean needed = !findSkippableNodeBlocks;
           for (var element : block.block.decodeElements()) {
             if (element instanceof OsmElement.Node node) {
               // pre-compute encoded location in worker threads since it is fairly expensive and should be done in parallel
               node.encodedLocation();
+              needed = needed || caresAboutNode(node);
+            } else {
+              needed = true;
             }
             block.result.accept(element, element.cost());
           }
+          if (!needed) {
+            markSkippable(block.block);
+          }
           block.result.close();
         });
 
@@ -229,13 +259,18 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   }
 
   void processPass1Blocks(Iterable<? extends Iterable<? extends OsmElement>> blocks) {
-    // may be called by multiple threads so need to synchronize access to any shared data structures
+    // may be called by multiple threads so relation bookkeeping goes into thread-local buffers that get merged into
+    // the shared data structures once when this worker finishes relations
+    var relationBuffer = new Pass1RelationBuffer();
     try (
       var nodeWriter = nodeLocationDb.newWriter();
       var phases = pass1Phaser.forWorker()
         .whenWorkerFinishes(OsmPhaser.Phase.NODES, nodeWriter::close)
+        .whenWorkerFinishes(OsmPhaser.Phase.RELATIONS, relationBuffer::mergeIntoShared)
     ) {
       for (var block : blocks) {
+        // blocks handed off from parse threads already had this checked there
+        boolean needed = !findSkippableNodeBlocks || !(block instanceof NumberedBlock);
         for (OsmElement element : block) {
           if (element.id() < 0) {
             throw new IllegalArgumentException("Negative OSM element IDs not supported: " + element);
@@ -249,7 +284,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
             }
             // TODO allow limiting node storage to only ones that profile cares about
             nodeWriter.put(node.id(), node.encodedLocation());
+            needed = needed || caresAboutNode(node);
           } else if (element instanceof OsmElement.Way way) {
+            needed = true;
             phases.arriveAndWaitForOthers(OsmPhaser.Phase.WAYS);
             try {
               profile.preprocessOsmWay(way);
@@ -257,20 +294,18 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
               LOGGER.error("Error preprocessing OSM way " + way.id(), e);
             }
           } else if (element instanceof OsmElement.Relation relation) {
+            needed = true;
             phases.arrive(OsmPhaser.Phase.RELATIONS);
             try {
               List<OsmRelationInfo> infos = profile.preprocessOsmRelation(relation);
               if (infos != null) {
-                synchronized (wayToRelationsLock) {
-                  for (OsmRelationInfo info : infos) {
-                    relationInfo.put(relation.id(), info);
-                    relationInfoSizes.addAndGet(info.estimateMemoryUsageBytes());
-                    for (var member : relation.members()) {
-                      var type = member.type();
-                      // TODO handle nodes in relations and super-relations
-                      if (type == OsmElement.Type.WAY) {
-                        wayToRelations.put(member.ref(), encodeRelationMembership(member.role(), relation.id()));
-                      }
+                for (OsmRelationInfo info : infos) {
+                  relationBuffer.addRelationInfo(relation.id(), info);
+                  for (var member : relation.members()) {
+                    var type = member.type();
+                    // TODO handle nodes in relations and super-relations
+                    if (type == OsmElement.Type.WAY) {
+                      relationBuffer.addWayToRelation(member.ref(), member.role(), relation.id());
                     }
                   }
                 }
@@ -280,21 +315,103 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
             }
             // TODO allow limiting multipolygon storage to only ones that profile cares about
             if (isMultipolygon(relation)) {
-              synchronized (waysInMultipolygonLock) {
-                for (var member : relation.members()) {
-                  if (member.type() == OsmElement.Type.WAY) {
-                    waysInMultipolygon.add(member.ref());
-                  }
+              for (var member : relation.members()) {
+                if (member.type() == OsmElement.Type.WAY) {
+                  relationBuffer.addWayInMultipolygon(member.ref());
                 }
               }
             }
           }
         }
+        if (!needed) {
+          markSkippable(block);
+        }
         PASS1_BLOCKS.inc();
       }
     }
   }
 
+  /** An OSM block tagged with its position in the input file, which stays the same between passes. */
+  private record NumberedBlock(int index, OsmBlockSource.Block block) implements OsmBlockSource.Block {
+
+    @Override
+    public Iterable<OsmElement> decodeElements() {
+      return block.decodeElements();
+    }
+  }
+
+  private void forEachNumberedBlock(Consumer<OsmBlockSource.Block> next) {
+    var index = new AtomicInteger(0);
+    osmBlockSource.forEachBlock(block -> next.accept(new NumberedBlock(index.getAndIncrement(), block)));
+  }
+
+  private boolean caresAboutNode(OsmElement.Node node) {
+    var tags = node.tags();
+    return tags.isEmpty() ? caresAboutUntaggedNodes :
+      profile.caresAbout(new Expression.PartialInput(Set.of(name), Set.of(), tags, Set.of(GeometryType.POINT)));
+  }
+
+  private void markSkippable(OsmBlockSource.Block block) {
+    if (block instanceof NumberedBlock numbered) {
+      synchronized (skippableNodeBlocksLock) {
+        skippableNodeBlocks.add(numbered.index);
+      }
+    }
+  }
+
+  /**
+   * Relation info that a single pass-1 worker thread collects without locking, to be added to the shared data
+   * structures all at once by {@link #mergeIntoShared()}.
+   */
+  private class Pass1RelationBuffer {
+
+    private final LongArrayList relationInfoIds = new LongArrayList();
+    private final List<OsmRelationInfo> relationInfos = new ArrayList<>();
+    private final LongArrayList wayToRelationKeys = new LongArrayList();
+    private final LongArrayList wayToRelationValues = new LongArrayList();
+    private final Roaring64Bitmap multipolygonWays = new Roaring64Bitmap();
+    // roles are few and repeated a lot, so only take the lock the first time this thread sees a role
+    private final ObjectIntHashMap<String> localRoleIds = new ObjectIntHashMap<>();
+
+    void addRelationInfo(long relationId, OsmRelationInfo info) {
+      relationInfoIds.add(relationId);
+      relationInfos.add(info);
+      relationInfoSizes.addAndGet(info.estimateMemoryUsageBytes());
+    }
+
+    void addWayToRelation(long wayId, String role, long relationId) {
+      int roleId = localRoleIds.getOrDefault(role, -1);
+      if (roleId == -1) {
+        roleId = getOrCreateRoleId(role);
+        localRoleIds.put(role, roleId);
+      }
+      wayToRelationKeys.add(wayId);
+      wayToRelationValues.add(encodeRelationMembership(roleId, relationId));
+    }
+
+    void addWayInMultipolygon(long wayId) {
+      multipolygonWays.add(wayId);
+    }
+
+    void mergeIntoShared() {
+      if (!relationInfos.isEmpty() || !wayToRelationKeys.isEmpty()) {
+        synchronized (wayToRelationsLock) {
+          for (int i = 0; i < relationInfos.size(); i++) {
+            relationInfo.put(relationInfoIds.get(i), relationInfos.get(i));
+          }
+          for (int i = 0; i < wayToRelationKeys.size(); i++) {
+            wayToRelations.put(wayToRelationKeys.get(i), wayToRelationValues.get(i));
+          }
+        }
+      }
+      if (!multipolygonWays.isEmpty()) {
+        synchronized (waysInMultipolygonLock) {
+          waysInMultipolygon.or(multipolygonWays);
+        }
+      }
+    }
+  }
+
   private static boolean isMultipolygon(OsmElement.Relation relation) {
     return relation.hasTag("type", "multipolygon", "boundary", "land_area") &&
       relation.members().stream().anyMatch(m -> m.type() == OsmElement.Type.WAY);
@@ -325,8 +442,24 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     // items to threads that are done reading blocks
     Distributor<OsmElement.Relation> relationDistributor = Distributor.createWithCapacity(1_000);
 
+    int skippedBlocks = skippableNodeBlocks.getCardinality();
     var pipeline = WorkerPipeline.start("osm_pass2", stats)
-      .fromGenerator("read", osmBlockSource::forEachBlock)
+      .<OsmBlockSource.Block>fromGenerator("read", next -> {
+        if (skippedBlocks == 0) {
+          osmBlockSource.forEachBlock(next);
+        } else {
+          // block indexes line up with pass1 since both passes read blocks from the file in the same order
+          Counter blocks = blocksProcessed.counterForThread();
+          var index = new AtomicInteger(0);
+          osmBlockSource.forEachBlock(block -> {
+            if (skippableNodeBlocks.contains(index.getAndIncrement())) {
+              blocks.inc();
+            } else {
+              next.accept(block);
+            }
+          });
+        }
+      })
       .addBuffer("pbf_blocks", Math.max(10, processThreads / 2))
       .<SortableFeature>addWorker("process", processThreads, (prev, next) -> {
         // avoid contention trying to get the thread-local counters by getting them once when thread starts
@@ -399,6 +532,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     pipeline.awaitAndLog(logger, config.logInterval());
 
     LOGGER.debug("Processed " + FORMAT.integer(blocksProcessed.get()) + " blocks:");
+    if (skippedBlocks > 0) {
+      LOGGER.debug("Skipped " + FORMAT.integer(skippedBlocks) + " blocks of nodes the profile does not care about");
+    }
     pass2Phaser.printSummary();
 
     timer.stop();
@@ -468,7 +604,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     SourceFeature feature) {
     FeatureCollector features = featureCollectors.get(feature);
     try {
+      long start = System.nanoTime();
       profile.processFeature(feature, features);
+      renderer.recordProcessFeature(features, System.nanoTime() - start);
       for (FeatureCollector.Feature renderable : features) {
         renderer.accept(renderable);
       }
@@ -500,10 +638,26 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     // from pass1 to reconstruct the geometry.
     LongArrayList nodes = way.nodes();
     if (waysInMultipolygon.contains(way.id())) {
-      // if this is part of a multipolygon, store the node IDs for this way ID so that when
-      // we get to the multipolygon we can go from way IDs -> node IDs -> node locations.
-      synchronized (this) { // multiple threads may update this concurrently
-        multipolygonWayGeometries.replaceValues(way.id(), nodes);
+      // if this is part of a multipolygon, resolve and store the encoded node locations for this way ID now while
+      // ways are processed in parallel so that when we get to the multipolygon we can go straight from
+      // way IDs -> node locations without a second lookup per node in the relation phase.
+      int num = nodes.size();
+      LongArrayList locations = new LongArrayList(num);
+      long missingNode = 0;
+      boolean missing = false;
+      for (int i = 0; i < num; i++) {
+        long encoded = nodeLocationDb.get(nodes.get(i));
+        if (encoded == LongLongMap.MISSING_VALUE && !missing) {
+          missing = true;
+          missingNode = nodes.get(i);
+        }
+        locations.add(encoded);
+      }
+      synchronized (multipolygonWayGeometriesLock) { // multiple threads may update this concurrently
+        multipolygonWayGeometries.replaceValues(way.id(), locations);
+        if (missing) {
+          multipolygonWayMissingNodes.put(way.id(), missingNode);
+        }
       }
     }
     boolean closed = nodes.size() > 1 && nodes.get(0) == nodes.get(nodes.size() - 1);
@@ -518,7 +672,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     // stored all the node IDs for each way.
     if (isMultipolygon(rel)) {
       List<RelationMember<OsmRelationInfo>> parentRelations = getRelationMembershipForWay(rel.id());
-      return new MultipolygonSourceFeature(rel, nodeLocations, parentRelations);
+      return new MultipolygonSourceFeature(rel, parentRelations);
     } else {
       return null;
     }
@@ -607,18 +761,25 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   }
 
   /** Packs a string role and relation into a compact long for storage. */
-  private long encodeRelationMembership(String role, long relationId) {
-    int roleId = roleIds.getOrDefault(role, -1);
-    if (roleId == -1) {
-      roleSizes.addAndGet(estimateSize(role));
-      roleId = roleIds.size() + 1;
-      roleIds.put(role, roleId);
-      roleIdsReverse.put(roleId, role);
-      if (roleId > MAX_ROLES) {
-        throw new IllegalStateException("Too many roles to encode: " + role);
+  private static long encodeRelationMembership(int roleId, long relationId) {
+    return relationId | ((long) roleId << ROLE_SHIFT);
+  }
+
+  /** Returns the ID that {@code role} is encoded as, assigning a new one if this is the first time it was seen. */
+  private int getOrCreateRoleId(String role) {
+    synchronized (roleIdsLock) {
+      int roleId = roleIds.getOrDefault(role, -1);
+      if (roleId == -1) {
+        roleSizes.addAndGet(estimateSize(role));
+        roleId = roleIds.size() + 1;
+        roleIds.put(role, roleId);
+        roleIdsReverse.put(roleId, role);
+        if (roleId > MAX_ROLES) {
+          throw new IllegalStateException("Too many roles to encode: " + role);
+        }
       }
+      return roleId;
     }
-    return relationId | ((long) roleId << ROLE_SHIFT);
   }
 
   /**
@@ -784,13 +945,11 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   private class MultipolygonSourceFeature extends OsmFeature {
 
     private final OsmElement.Relation relation;
-    private final NodeLocationProvider nodeLocations;
 
-    public MultipolygonSourceFeature(OsmElement.Relation relation, NodeLocationProvider nodeLocations,
+    public MultipolygonSourceFeature(OsmElement.Relation relation,
       List<RelationMember<OsmRelationInfo>> parentRelations) {
       super(relation, false, false, true, parentRelations);
       this.relation = relation;
-      this.nodeLocations = nodeLocations;
     }
 
     @Override
@@ -805,6 +964,11 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
             // ignore duplicate relation members
             stats.dataError("osm_" + relation.getTag("type") + "_duplicate_member");
           } else if (poly != null && !poly.isEmpty()) {
+            // ways are all stored before relations get processed so this doesn't need the lock
+            if (multipolygonWayMissingNodes.containsKey(member.ref())) {
+              throw new GeometryException("osm_invalid_multipolygon", "error building multipolygon " + id() +
+                ": Missing location for node: " + multipolygonWayMissingNodes.get(member.ref()));
+            }
             rings.add(poly);
           } else {
             // boundary and land_area relations might not be complete for extracts, but multipolygons should be
@@ -814,7 +978,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
           }
         }
       }
-      return OsmMultipolygon.build(rings, nodeLocations, id());
+      // member ways hold encoded node locations instead of node IDs, so segments get connected where their endpoints
+      // share a location
+      return OsmMultipolygon.build(rings, ENCODED_LOCATIONS, id());
     }
 
     @Override
@@ -823,6 +989,35 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     }
   }
 
+  /**
+   * Treats each "node ID" as a node location already encoded with {@link GeoUtils#encodeFlatLocation(double, double)},
+   * used for multipolygon member ways that were resolved while processing ways.
+   */
+  private static final NodeLocationProvider ENCODED_LOCATIONS = new NodeLocationProvider() {
+    @Override
+    public Coordinate getCoordinate(long encoded) {
+      if (encoded == LongLongMap.MISSING_VALUE) {
+        throw new IllegalArgumentException("Missing location for node");
+      }
+      return new CoordinateXY(GeoUtils.decodeWorldX(encoded), GeoUtils.decodeWorldY(encoded));
+    }
+
+    @Override
+    public CoordinateSequence getWayGeometry(LongArrayList locations) {
+      int num = locations.size();
+      CoordinateSequence seq = new PackedCoordinateSequence.Double(num, 2, 0);
+      for (int i = 0; i < num; i++) {
+        long encoded = locations.get(i);
+        if (encoded == LongLongMap.MISSING_VALUE) {
+          throw new IllegalArgumentException("Missing location for node");
+        }
+        seq.setOrdinate(i, 0, GeoUtils.decodeWorldX(encoded));
+        seq.setOrdinate(i, 1, GeoUtils.decodeWorldY(encoded));
+      }
+      return seq;
+    }
+  };
+
   /**
    * A thin layer on top of {@link LongLongMap} that decodes node locations stored as {@code long} values.
    */
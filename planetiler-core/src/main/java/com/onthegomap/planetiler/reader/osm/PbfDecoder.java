@@ -4,14 +4,15 @@ package com.onthegomap.planetiler.reader.osm;
 
 import com.carrotsearch.hppc.LongArrayList;
 import com.google.common.collect.Iterators;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.onthegomap.planetiler.reader.FileFormatException;
-import crosby.binary.Fileformat;
 import crosby.binary.Osmformat;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -19,7 +20,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.function.IntUnaryOperator;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import org.locationtech.jts.geom.Envelope;
@@ -27,53 +29,117 @@ import org.locationtech.jts.geom.Envelope;
 /**
  * Converts PBF block data into decoded entities. This class was adapted from Osmosis to expose an iterator over blocks
  * to give more control over the parallelism.
+ * <p>
+ * Blocks are read straight from the protobuf wire format instead of through the generated {@link Osmformat} classes:
+ * elements are decoded one at a time while iterating, packed fields are read in place from the inflated block, strings
+ * are decoded from the string table only the first time an element references them, and tags are returned as compact
+ * maps backed by a single array.
  *
  * @author Brett Henderson
  */
 public class PbfDecoder implements Iterable<OsmElement> {
 
-  private final Osmformat.PrimitiveBlock block;
-  private final PbfFieldDecoder fieldDecoder;
-
-  private PbfDecoder(byte[] rawBlob) throws IOException {
-    byte[] data = readBlobContent(rawBlob);
-    block = Osmformat.PrimitiveBlock.parseFrom(data);
-    fieldDecoder = new PbfFieldDecoder(block);
+  private static final double COORDINATE_SCALING_FACTOR = 0.000000001;
+  private static final int DEFAULT_GRANULARITY = 100;
+  private static final int WIRE_VARINT = 0;
+  private static final int WIRE_FIXED64 = 1;
+  private static final int WIRE_LENGTH_DELIMITED = 2;
+  private static final int WIRE_FIXED32 = 5;
+  // inflaters hold native zlib state, so each thread reuses one instead of allocating a new one for every block
+  private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+  private final byte[] data;
+  private final List<Cursor> groups = new ArrayList<>();
+  private final StringTable strings;
+  private int granularity = DEFAULT_GRANULARITY;
+  private long latOffset = 0;
+  private long lonOffset = 0;
+
+  private PbfDecoder(byte[] data) {
+    this.data = data;
+    Cursor block = new Cursor(data, 0, data.length);
+    Cursor stringTable = Cursor.EMPTY;
+    while (block.hasMore()) {
+      int tag = block.readInt();
+      switch (tag) {
+        case (1 << 3) | WIRE_LENGTH_DELIMITED -> stringTable = block.readMessage();
+        case (2 << 3) | WIRE_LENGTH_DELIMITED -> groups.add(block.readMessage());
+        case (17 << 3) | WIRE_VARINT -> granularity = block.readInt();
+        case (19 << 3) | WIRE_VARINT -> latOffset = block.readVarint();
+        case (20 << 3) | WIRE_VARINT -> lonOffset = block.readVarint();
+        default -> block.skip(tag);
+      }
+    }
+    strings = new StringTable(stringTable);
   }
 
-  private PbfDecoder(ByteBuffer rawBlob) throws IOException {
-    byte[] data = readBlobContent(rawBlob);
-    block = Osmformat.PrimitiveBlock.parseFrom(data);
-    fieldDecoder = new PbfFieldDecoder(block);
+  private static long readVarint(ByteBuffer input) {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = input.get();
+      result |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new FileFormatException("Malformed varint in PBF blob");
   }
 
-  private static byte[] readBlobContent(ByteBuffer input) throws IOException {
-    return readBlobContent(Fileformat.Blob.parseFrom(input));
-
+  private static ByteBuffer readBytes(ByteBuffer input) {
+    int length = (int) readVarint(input);
+    ByteBuffer result = input.slice(input.position(), length);
+    input.position(input.position() + length);
+    return result;
   }
 
-  private static byte[] readBlobContent(byte[] input) throws IOException {
-    return readBlobContent(Fileformat.Blob.parseFrom(input));
-  }
+  private static byte[] readBlobContent(ByteBuffer input) {
+    ByteBuffer raw = null;
+    ByteBuffer zlibData = null;
+    int rawSize = 0;
+    while (input.hasRemaining()) {
+      int tag = (int) readVarint(input);
+      switch (tag) {
+        case (1 << 3) | WIRE_LENGTH_DELIMITED -> raw = readBytes(input);
+        case (2 << 3) | WIRE_VARINT -> rawSize = (int) readVarint(input);
+        case (3 << 3) | WIRE_LENGTH_DELIMITED -> zlibData = readBytes(input);
+        default -> {
+          switch (tag & 7) {
+            case WIRE_VARINT -> readVarint(input);
+            case WIRE_LENGTH_DELIMITED -> readBytes(input);
+            case WIRE_FIXED64 -> input.position(input.position() + 8);
+            case WIRE_FIXED32 -> input.position(input.position() + 4);
+            default -> throw new FileFormatException("Unsupported wire type in PBF blob: " + (tag & 7));
+          }
+        }
+      }
+    }
 
-  private static byte[] readBlobContent(Fileformat.Blob blob) {
     byte[] blobData;
-
-    if (blob.hasRaw()) {
-      blobData = blob.getRaw().toByteArray();
-    } else if (blob.hasZlibData()) {
-      Inflater inflater = new Inflater();
-      inflater.setInput(blob.getZlibData().toByteArray());
-      blobData = new byte[blob.getRawSize()];
+    if (raw != null) {
+      blobData = new byte[raw.remaining()];
+      raw.get(blobData);
+    } else if (zlibData != null) {
+      Inflater inflater = INFLATER.get();
+      blobData = new byte[rawSize];
       try {
-        inflater.inflate(blobData);
+        inflater.setInput(zlibData);
+        int inflated = 0;
+        while (inflated < rawSize && !inflater.finished()) {
+          int n = inflater.inflate(blobData, inflated, rawSize - inflated);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          inflated += n;
+        }
+        if (!inflater.finished()) {
+          throw new FileFormatException("PBF blob contains incomplete compressed data.");
+        }
       } catch (DataFormatException e) {
         throw new FileFormatException("Unable to decompress PBF blob.", e);
+      } finally {
+        // also drops the reference to the input buffer, which may be memory-mapped
+        inflater.reset();
       }
-      if (!inflater.finished()) {
-        throw new FileFormatException("PBF blob contains incomplete compressed data.");
-      }
-      inflater.end();
     } else {
       throw new FileFormatException("PBF blob uses unsupported compression, only raw or zlib may be used.");
     }
@@ -83,26 +149,18 @@ public class PbfDecoder implements Iterable<OsmElement> {
 
   /** Decompresses and parses a block of primitive OSM elements. */
   public static Iterable<OsmElement> decode(byte[] raw) {
-    try {
-      return new PbfDecoder(raw);
-    } catch (IOException e) {
-      throw new UncheckedIOException("Unable to process PBF blob", e);
-    }
+    return decode(ByteBuffer.wrap(raw));
   }
 
   /** Decompresses and parses a block of primitive OSM elements. */
   public static Iterable<OsmElement> decode(ByteBuffer raw) {
-    try {
-      return new PbfDecoder(raw);
-    } catch (IOException e) {
-      throw new UncheckedIOException("Unable to process PBF blob", e);
-    }
+    return new PbfDecoder(readBlobContent(raw));
   }
 
   /** Decompresses and parses a header block of an OSM input file. */
   public static OsmHeader decodeHeader(byte[] raw) {
     try {
-      byte[] data = readBlobContent(raw);
+      byte[] data = readBlobContent(ByteBuffer.wrap(raw));
       Osmformat.HeaderBlock header = Osmformat.HeaderBlock.parseFrom(data);
       Osmformat.HeaderBBox bbox = header.getBbox();
       Envelope bounds = new Envelope(
@@ -131,205 +189,524 @@ public class PbfDecoder implements Iterable<OsmElement> {
     return Iterators.concat(new PrimitiveGroupIterator());
   }
 
-  private Map<String, Object> buildTags(int num, IntUnaryOperator key, IntUnaryOperator value) {
+  private double decodeLatitude(long rawLatitude) {
+    return COORDINATE_SCALING_FACTOR * (latOffset + (granularity * rawLatitude));
+  }
+
+  private double decodeLongitude(long rawLongitude) {
+    return COORDINATE_SCALING_FACTOR * (lonOffset + (granularity * rawLongitude));
+  }
+
+  private Map<String, Object> buildTags(Cursor keys, Cursor values) {
+    int num = keys.countVarints();
     if (num > 0) {
-      Map<String, Object> tags = HashMap.newHashMap(num);
-      for (int i = 0; i < num; i++) {
-        String k = fieldDecoder.decodeString(key.applyAsInt(i));
-        String v = fieldDecoder.decodeString(value.applyAsInt(i));
-        tags.put(k, v);
+      Object[] keysAndValues = new Object[num * 2];
+      int size = 0;
+      while (keys.hasMore()) {
+        if (!values.hasMore()) {
+          throw new FileFormatException("PBF element has more tag keys than values");
+        }
+        size = TagMap.add(keysAndValues, size, strings.get(keys.readInt()), strings.get(values.readInt()));
       }
-      return tags;
+      return new TagMap(keysAndValues, size);
     }
     return Collections.emptyMap();
   }
 
-  private OsmElement.Info parseInfo(Osmformat.Info info) {
-    return info == null ? null : new OsmElement.Info(
-      info.getChangeset(),
-      info.getTimestamp(),
-      info.getUid(),
-      info.getVersion(),
-      fieldDecoder.decodeString(info.getUserSid())
+  private OsmElement.Info decodeInfo(Cursor info) {
+    int version = -1;
+    long timestamp = 0;
+    long changeset = 0;
+    int uid = 0;
+    int userSid = 0;
+    while (info.hasMore()) {
+      int tag = info.readInt();
+      switch (tag) {
+        case (1 << 3) | WIRE_VARINT -> version = info.readInt();
+        case (2 << 3) | WIRE_VARINT -> timestamp = info.readVarint();
+        case (3 << 3) | WIRE_VARINT -> changeset = info.readVarint();
+        case (4 << 3) | WIRE_VARINT -> uid = info.readInt();
+        case (5 << 3) | WIRE_VARINT -> userSid = info.readInt();
+        default -> info.skip(tag);
+      }
+    }
+    return new OsmElement.Info(changeset, timestamp, uid, version, strings.get(userSid));
+  }
+
+  private OsmElement.Node decodeNode(Cursor node) {
+    long id = 0;
+    long lat = 0;
+    long lon = 0;
+    Cursor keys = Cursor.EMPTY;
+    Cursor values = Cursor.EMPTY;
+    Cursor info = Cursor.EMPTY;
+    while (node.hasMore()) {
+      int tag = node.readInt();
+      switch (tag) {
+        case (1 << 3) | WIRE_VARINT -> id = node.readSignedVarint();
+        case (2 << 3) | WIRE_LENGTH_DELIMITED -> keys = node.readMessage();
+        case (3 << 3) | WIRE_LENGTH_DELIMITED -> values = node.readMessage();
+        case (4 << 3) | WIRE_LENGTH_DELIMITED -> info = node.readMessage();
+        case (8 << 3) | WIRE_VARINT -> lat = node.readSignedVarint();
+        case (9 << 3) | WIRE_VARINT -> lon = node.readSignedVarint();
+        default -> node.skip(tag);
+      }
+    }
+    return new OsmElement.Node(
+      id,
+      buildTags(keys, values),
+      decodeLatitude(lat),
+      decodeLongitude(lon),
+      decodeInfo(info)
     );
   }
 
-  private class PrimitiveGroupIterator implements Iterator<Iterator<OsmElement>> {
-    private int i = 0;
+  private OsmElement.Way decodeWay(Cursor way) {
+    long id = 0;
+    Cursor keys = Cursor.EMPTY;
+    Cursor values = Cursor.EMPTY;
+    Cursor info = Cursor.EMPTY;
+    Cursor refs = Cursor.EMPTY;
+    while (way.hasMore()) {
+      int tag = way.readInt();
+      switch (tag) {
+        case (1 << 3) | WIRE_VARINT -> id = way.readVarint();
+        case (2 << 3) | WIRE_LENGTH_DELIMITED -> keys = way.readMessage();
+        case (3 << 3) | WIRE_LENGTH_DELIMITED -> values = way.readMessage();
+        case (4 << 3) | WIRE_LENGTH_DELIMITED -> info = way.readMessage();
+        case (8 << 3) | WIRE_LENGTH_DELIMITED -> refs = way.readMessage();
+        default -> way.skip(tag);
+      }
+    }
+    // Build up the list of way nodes for the way. The node ids are
+    // delta encoded meaning that each id is stored as a delta against
+    // the previous one.
+    int numNodes = refs.countVarints();
+    LongArrayList wayNodesList = new LongArrayList(numNodes);
+    wayNodesList.elementsCount = numNodes;
+    long[] wayNodes = wayNodesList.buffer;
+    long nodeId = 0;
+    for (int j = 0; j < numNodes; j++) {
+      nodeId += refs.readSignedVarint();
+      wayNodes[j] = nodeId;
+    }
+    return new OsmElement.Way(
+      id,
+      buildTags(keys, values),
+      wayNodesList,
+      decodeInfo(info)
+    );
+  }
+
+  private OsmElement.Relation decodeRelation(Cursor relation) {
+    long id = 0;
+    Cursor keys = Cursor.EMPTY;
+    Cursor values = Cursor.EMPTY;
+    Cursor info = Cursor.EMPTY;
+    Cursor roles = Cursor.EMPTY;
+    Cursor memberIds = Cursor.EMPTY;
+    Cursor types = Cursor.EMPTY;
+    while (relation.hasMore()) {
+      int tag = relation.readInt();
+      switch (tag) {
+        case (1 << 3) | WIRE_VARINT -> id = relation.readVarint();
+        case (2 << 3) | WIRE_LENGTH_DELIMITED -> keys = relation.readMessage();
+        case (3 << 3) | WIRE_LENGTH_DELIMITED -> values = relation.readMessage();
+        case (4 << 3) | WIRE_LENGTH_DELIMITED -> info = relation.readMessage();
+        case (8 << 3) | WIRE_LENGTH_DELIMITED -> roles = relation.readMessage();
+        case (9 << 3) | WIRE_LENGTH_DELIMITED -> memberIds = relation.readMessage();
+        case (10 << 3) | WIRE_LENGTH_DELIMITED -> types = relation.readMessage();
+        default -> relation.skip(tag);
+      }
+    }
+
+    int num = memberIds.countVarints();
+    List<OsmElement.Relation.Member> members = new ArrayList<>(num);
+    long memberId = 0;
+    for (int j = 0; j < num; j++) {
+      memberId += memberIds.readSignedVarint();
+      var memberType = switch (types.hasMore() ? types.readInt() : 0) {
+        case 0 -> OsmElement.Type.NODE;
+        case 1 -> OsmElement.Type.WAY;
+        case 2 -> OsmElement.Type.RELATION;
+        default -> throw new FileFormatException("Unrecognized relation member type in relation " + id);
+      };
+      members.add(new OsmElement.Relation.Member(
+        memberType,
+        memberId,
+        strings.get(roles.hasMore() ? roles.readInt() : 0)
+      ));
+    }
+
+    // Add the bound object to the results.
+    return new OsmElement.Relation(
+      id,
+      buildTags(keys, values),
+      members,
+      decodeInfo(info)
+    );
+  }
+
+  /**
+   * A {@link Map} of tags backed by an array of alternating keys and values, which is much smaller than a
+   * {@link HashMap} for the handful of tags on a typical OSM element.
+   * <p>
+   * Lookups scan the array, and the first change copies the tags into a {@link HashMap}.
+   */
+  static final class TagMap extends AbstractMap<String, Object> {
+
+    private final Object[] keysAndValues;
+    private final int size;
+    private Map<String, Object> mutable = null;
+
+    TagMap(Object[] keysAndValues, int size) {
+      this.keysAndValues = keysAndValues;
+      this.size = size;
+    }
+
+    /** Adds a tag to {@code keysAndValues} holding {@code size} entries, and returns the new size. */
+    static int add(Object[] keysAndValues, int size, String key, Object value) {
+      for (int i = 0; i < size; i += 2) {
+        if (keysAndValues[i].equals(key)) {
+          keysAndValues[i + 1] = value;
+          return size;
+        }
+      }
+      keysAndValues[size] = key;
+      keysAndValues[size + 1] = value;
+      return size + 2;
+    }
+
+    private Map<String, Object> mutable() {
+      if (mutable == null) {
+        mutable = HashMap.newHashMap(size / 2);
+        for (int i = 0; i < size; i += 2) {
+          mutable.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+      }
+      return mutable;
+    }
 
     @Override
-    public boolean hasNext() {
-      return i < block.getPrimitivegroupCount();
+    public int size() {
+      return mutable != null ? mutable.size() : size / 2;
     }
 
     @Override
-    public Iterator<OsmElement> next() {
-      if (!hasNext()) {
-        throw new NoSuchElementException();
+    public boolean isEmpty() {
+      return size() == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+      if (mutable != null) {
+        return mutable.get(key);
       }
-      try {
-        var primitiveGroup = Osmformat.PrimitiveGroup.parseFrom(block.getPrimitivegroup(i++));
-        return Iterators.concat(
-          new DenseNodeIterator(primitiveGroup.getDense()),
-          new NodeIterator(primitiveGroup.getNodesList()),
-          new WayIterator(primitiveGroup.getWaysList()),
-          new RelationIterator(primitiveGroup.getRelationsList())
-        );
-      } catch (InvalidProtocolBufferException e) {
-        throw new FileFormatException("Unable to parse primitive group", e);
+      for (int i = 0; i < size; i += 2) {
+        if (keysAndValues[i].equals(key)) {
+          return keysAndValues[i + 1];
+        }
       }
+      return null;
     }
-  }
 
-  private class NodeIterator implements Iterator<OsmElement.Node> {
+    @Override
+    public boolean containsKey(Object key) {
+      if (mutable != null) {
+        return mutable.containsKey(key);
+      }
+      for (int i = 0; i < size; i += 2) {
+        if (keysAndValues[i].equals(key)) {
+          return true;
+        }
+      }
+      return false;
+    }
 
-    private final List<Osmformat.Node> nodes;
-    int i;
+    @Override
+    public Object put(String key, Object value) {
+      return mutable().put(key, value);
+    }
 
-    public NodeIterator(List<Osmformat.Node> nodes) {
-      this.nodes = nodes;
-      i = 0;
+    @Override
+    public Object remove(Object key) {
+      return mutable().remove(key);
     }
 
     @Override
-    public boolean hasNext() {
-      return i < nodes.size();
+    public void clear() {
+      mutable().clear();
     }
 
     @Override
-    public OsmElement.Node next() {
-      if (!hasNext()) {
-        throw new NoSuchElementException();
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+      if (mutable != null) {
+        mutable.forEach(action);
+      } else {
+        for (int i = 0; i < size; i += 2) {
+          action.accept((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
       }
-      var node = nodes.get(i++);
-      return new OsmElement.Node(
-        node.getId(),
-        buildTags(node.getKeysCount(), node::getKeys, node::getVals),
-        fieldDecoder.decodeLatitude(node.getLat()),
-        fieldDecoder.decodeLongitude(node.getLon()),
-        parseInfo(node.getInfo())
-      );
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      if (mutable != null) {
+        return mutable.entrySet();
+      }
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          if (mutable != null) {
+            return mutable.entrySet().iterator();
+          }
+          return new Iterator<>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+              return i < size;
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              var entry = new SimpleImmutableEntry<>((String) keysAndValues[i], keysAndValues[i + 1]);
+              i += 2;
+              return entry;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return TagMap.this.size();
+        }
+      };
     }
   }
 
-  private class RelationIterator implements Iterator<OsmElement.Relation> {
+  /** Reads protobuf wire format values in place from a range of the inflated block. */
+  private static final class Cursor {
 
-    private final List<Osmformat.Relation> relations;
-    int i;
+    private static final Cursor EMPTY = new Cursor(new byte[0], 0, 0);
+    private final byte[] data;
+    private final int end;
+    private int pos;
 
-    public RelationIterator(List<Osmformat.Relation> relations) {
-      this.relations = relations;
-      i = 0;
+    private Cursor(byte[] data, int start, int end) {
+      this.data = data;
+      this.pos = start;
+      this.end = end;
     }
 
-    @Override
-    public boolean hasNext() {
-      return i < relations.size();
+    boolean hasMore() {
+      return pos < end;
     }
 
-    @Override
-    public OsmElement.Relation next() {
-      if (!hasNext()) {
-        throw new NoSuchElementException();
+    long readVarint() {
+      if (pos >= end) {
+        throw new FileFormatException("Unexpected end of PBF message");
       }
-      var relation = relations.get(i++);
-      int num = relation.getMemidsCount();
-
-      List<OsmElement.Relation.Member> members = new ArrayList<>(num);
-
-      long memberId = 0;
-      for (int j = 0; j < num; j++) {
-        memberId += relation.getMemids(j);
-        var memberType = switch (relation.getTypes(j)) {
-          case WAY -> OsmElement.Type.WAY;
-          case NODE -> OsmElement.Type.NODE;
-          case RELATION -> OsmElement.Type.RELATION;
-        };
-        members.add(new OsmElement.Relation.Member(
-          memberType,
-          memberId,
-          fieldDecoder.decodeString(relation.getRolesSid(j))
-        ));
-      }
-
-      // Add the bound object to the results.
-      return new OsmElement.Relation(
-        relation.getId(),
-        buildTags(relation.getKeysCount(), relation::getKeys, relation::getVals),
-        members,
-        parseInfo(relation.getInfo())
-      );
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = data[pos++];
+        result |= (long) (b & 0x7f) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+      throw new FileFormatException("Malformed varint in PBF block");
+    }
+
+    int readInt() {
+      return (int) readVarint();
+    }
+
+    long readSignedVarint() {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readSignedInt() {
+      return (int) readSignedVarint();
+    }
+
+    /** Returns a cursor over the next length-delimited field, and moves this cursor past it. */
+    Cursor readMessage() {
+      int length = readInt();
+      int start = pos;
+      pos += length;
+      if (length < 0 || pos > end) {
+        throw new FileFormatException("PBF field length " + length + " extends past the end of its message");
+      }
+      return new Cursor(data, start, pos);
+    }
+
+    void skip(int tag) {
+      switch (tag & 7) {
+        case WIRE_VARINT -> readVarint();
+        case WIRE_FIXED64 -> pos += 8;
+        case WIRE_LENGTH_DELIMITED -> readMessage();
+        case WIRE_FIXED32 -> pos += 4;
+        default -> throw new FileFormatException("Unsupported wire type in PBF block: " + (tag & 7));
+      }
+    }
+
+    /** Returns the number of varints left in this packed field without consuming them. */
+    int countVarints() {
+      int count = 0;
+      for (int i = pos; i < end; i++) {
+        if (data[i] >= 0) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    /** Returns the number of varints before the next zero value or the end, without consuming them. */
+    int countVarintsUntilZero() {
+      int count = 0;
+      for (int i = pos; i < end && data[i] != 0; i++) {
+        if (data[i] >= 0) {
+          count++;
+        }
+      }
+      return count;
     }
   }
 
-  private class WayIterator implements Iterator<OsmElement.Way> {
+  /** Lazily decodes UTF-8 strings from the block's string table the first time an element references them. */
+  private final class StringTable {
 
-    private final List<Osmformat.Way> ways;
-    int i;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final String[] decoded;
 
-    public WayIterator(List<Osmformat.Way> ways) {
-      this.ways = ways;
-      i = 0;
+    private StringTable(Cursor table) {
+      int count = 0;
+      Cursor counter = new Cursor(data, table.pos, table.end);
+      while (counter.hasMore()) {
+        int tag = counter.readInt();
+        if (tag == ((1 << 3) | WIRE_LENGTH_DELIMITED)) {
+          count++;
+        }
+        counter.skip(tag);
+      }
+      offsets = new int[count];
+      lengths = new int[count];
+      decoded = new String[count];
+      for (int i = 0; table.hasMore();) {
+        int tag = table.readInt();
+        if (tag == ((1 << 3) | WIRE_LENGTH_DELIMITED)) {
+          Cursor string = table.readMessage();
+          offsets[i] = string.pos;
+          lengths[i++] = string.end - string.pos;
+        } else {
+          table.skip(tag);
+        }
+      }
     }
 
+    private String get(int index) {
+      String result = decoded[index];
+      if (result == null) {
+        decoded[index] = result = new String(data, offsets[index], lengths[index], StandardCharsets.UTF_8);
+      }
+      return result;
+    }
+  }
+
+  private class PrimitiveGroupIterator implements Iterator<Iterator<OsmElement>> {
+    private int i = 0;
+
     @Override
     public boolean hasNext() {
-      return i < ways.size();
+      return i < groups.size();
     }
 
     @Override
-    public OsmElement.Way next() {
+    public Iterator<OsmElement> next() {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
-      var way = ways.get(i++);
-      // Build up the list of way nodes for the way. The node ids are
-      // delta encoded meaning that each id is stored as a delta against
-      // the previous one.
-      long nodeId = 0;
-      int numNodes = way.getRefsCount();
-      LongArrayList wayNodesList = new LongArrayList(numNodes);
-      wayNodesList.elementsCount = numNodes;
-      long[] wayNodes = wayNodesList.buffer;
-      for (int j = 0; j < numNodes; j++) {
-        long nodeIdOffset = way.getRefs(j);
-        nodeId += nodeIdOffset;
-        wayNodes[j] = nodeId;
-      }
-
-      return new OsmElement.Way(
-        way.getId(),
-        buildTags(way.getKeysCount(), way::getKeys, way::getVals),
-        wayNodesList,
-        parseInfo(way.getInfo())
+      Cursor group = groups.get(i++);
+      List<Cursor> nodes = new ArrayList<>();
+      List<Cursor> dense = new ArrayList<>(1);
+      List<Cursor> ways = new ArrayList<>();
+      List<Cursor> relations = new ArrayList<>();
+      while (group.hasMore()) {
+        int tag = group.readInt();
+        switch (tag) {
+          case (1 << 3) | WIRE_LENGTH_DELIMITED -> nodes.add(group.readMessage());
+          case (2 << 3) | WIRE_LENGTH_DELIMITED -> dense.add(group.readMessage());
+          case (3 << 3) | WIRE_LENGTH_DELIMITED -> ways.add(group.readMessage());
+          case (4 << 3) | WIRE_LENGTH_DELIMITED -> relations.add(group.readMessage());
+          default -> group.skip(tag);
+        }
+      }
+      return Iterators.concat(
+        Iterators.concat(Iterators.transform(dense.iterator(), DenseNodeIterator::new)),
+        Iterators.transform(nodes.iterator(), PbfDecoder.this::decodeNode),
+        Iterators.transform(ways.iterator(), PbfDecoder.this::decodeWay),
+        Iterators.transform(relations.iterator(), PbfDecoder.this::decodeRelation)
       );
     }
   }
 
   private class DenseNodeIterator implements Iterator<OsmElement.Node> {
 
-    final Osmformat.DenseNodes nodes;
-    final Osmformat.DenseInfo denseInfo;
+    Cursor ids = Cursor.EMPTY;
+    Cursor lats = Cursor.EMPTY;
+    Cursor lons = Cursor.EMPTY;
+    Cursor keysVals = Cursor.EMPTY;
+    // info
+    Cursor versions = Cursor.EMPTY;
+    Cursor timestamps = Cursor.EMPTY;
+    Cursor changesets = Cursor.EMPTY;
+    Cursor uids = Cursor.EMPTY;
+    Cursor userSids = Cursor.EMPTY;
     long nodeId = 0;
     long latitude = 0;
     long longitude = 0;
-    int i = 0;
-    int kvIndex = 0;
-    // info
     long timestamp = 0;
     long changeset = 0;
     int uid = 0;
     int userSid = 0;
 
-    public DenseNodeIterator(Osmformat.DenseNodes nodes) {
-      this.nodes = nodes;
-      this.denseInfo = nodes.getDenseinfo();
+    public DenseNodeIterator(Cursor nodes) {
+      while (nodes.hasMore()) {
+        int tag = nodes.readInt();
+        switch (tag) {
+          case (1 << 3) | WIRE_LENGTH_DELIMITED -> ids = nodes.readMessage();
+          case (5 << 3) | WIRE_LENGTH_DELIMITED -> readDenseInfo(nodes.readMessage());
+          case (8 << 3) | WIRE_LENGTH_DELIMITED -> lats = nodes.readMessage();
+          case (9 << 3) | WIRE_LENGTH_DELIMITED -> lons = nodes.readMessage();
+          case (10 << 3) | WIRE_LENGTH_DELIMITED -> keysVals = nodes.readMessage();
+          default -> nodes.skip(tag);
+        }
+      }
     }
 
+    private void readDenseInfo(Cursor info) {
+      while (info.hasMore()) {
+        int tag = info.readInt();
+        switch (tag) {
+          case (1 << 3) | WIRE_LENGTH_DELIMITED -> versions = info.readMessage();
+          case (2 << 3) | WIRE_LENGTH_DELIMITED -> timestamps = info.readMessage();
+          case (3 << 3) | WIRE_LENGTH_DELIMITED -> changesets = info.readMessage();
+          case (4 << 3) | WIRE_LENGTH_DELIMITED -> uids = info.readMessage();
+          case (5 << 3) | WIRE_LENGTH_DELIMITED -> userSids = info.readMessage();
+          default -> info.skip(tag);
+        }
+      }
+    }
 
     @Override
     public boolean hasNext() {
-      return i < nodes.getIdCount();
+      return ids.hasMore();
     }
 
     @Override
@@ -338,51 +715,47 @@ public class PbfDecoder implements Iterable<OsmElement> {
         throw new NoSuchElementException();
       }
       // Delta decode node fields.
-      nodeId += nodes.getId(i);
-      latitude += nodes.getLat(i);
-      longitude += nodes.getLon(i);
-      int version = 0;
-
-      if (denseInfo != null) {
-        version = denseInfo.getVersionCount() > i ? denseInfo.getVersion(i) : 0;
-        timestamp += denseInfo.getTimestampCount() > i ? denseInfo.getTimestamp(i) : 0;
-        changeset += denseInfo.getChangesetCount() > i ? denseInfo.getChangeset(i) : 0;
-        uid += denseInfo.getUidCount() > i ? denseInfo.getUid(i) : 0;
-        userSid += denseInfo.getUserSidCount() > i ? denseInfo.getUserSid(i) : 0;
-      }
-
-      i++;
+      nodeId += ids.readSignedVarint();
+      latitude += lats.hasMore() ? lats.readSignedVarint() : 0;
+      longitude += lons.hasMore() ? lons.readSignedVarint() : 0;
+      int version = versions.hasMore() ? versions.readInt() : 0;
+      timestamp += timestamps.hasMore() ? timestamps.readSignedVarint() : 0;
+      changeset += changesets.hasMore() ? changesets.readSignedVarint() : 0;
+      uid += uids.hasMore() ? uids.readSignedInt() : 0;
+      userSid += userSids.hasMore() ? userSids.readSignedInt() : 0;
 
       // Build the tags. The key and value string indexes are sequential
       // in the same PBF array. Each set of tags is delimited by an index
       // with a value of 0.
-      Map<String, Object> tags = null;
-      while (kvIndex < nodes.getKeysValsCount()) {
-        int keyIndex = nodes.getKeysVals(kvIndex++);
-        if (keyIndex == 0) {
-          break;
+      Map<String, Object> tags = Collections.emptyMap();
+      int num = keysVals.countVarintsUntilZero();
+      if (num > 0) {
+        Object[] keysAndValues = new Object[num];
+        int size = 0;
+        for (int j = 0; j < num; j += 2) {
+          String key = strings.get(keysVals.readInt());
+          size = TagMap.add(keysAndValues, size, key, strings.get(keysVals.readInt()));
         }
-        int valueIndex = nodes.getKeysVals(kvIndex++);
-
-        if (tags == null) {
-          // divide by 2 as key&value, multiply by 2 because of the better approximation
-          tags = HashMap.newHashMap(Math.max(3, 2 * (nodes.getKeysValsCount() / 2) / nodes.getKeysValsCount()));
-        }
-
-        tags.put(fieldDecoder.decodeString(keyIndex), fieldDecoder.decodeString(valueIndex));
+        tags = new TagMap(keysAndValues, size);
+      }
+      if (keysVals.hasMore()) {
+        // skip the delimiter
+        keysVals.readInt();
       }
 
       return new OsmElement.Node(
         nodeId,
-        tags == null ? Collections.emptyMap() : tags,
-        ((double) latitude) / 10000000,
-        ((double) longitude) / 10000000,
-        denseInfo == null ? null : new OsmElement.Info(
+        tags,
+        granularity == DEFAULT_GRANULARITY && latOffset == 0 ? ((double) latitude) / 10000000 :
+          decodeLatitude(latitude),
+        granularity == DEFAULT_GRANULARITY && lonOffset == 0 ? ((double) longitude) / 10000000 :
+          decodeLongitude(longitude),
+        new OsmElement.Info(
           changeset,
           timestamp,
           uid,
           version,
-          fieldDecoder.decodeString(userSid)
+          strings.get(userSid)
         )
       );
     }
@@ -125,7 +125,9 @@ public class ParquetReader {
           var consumer = distributor.forThread(sourceFeature -> {
             FeatureCollector features = featureCollectors.get(sourceFeature);
             try {
+              long start = System.nanoTime();
               profile.processFeature(sourceFeature, features);
+              renderer.recordProcessFeature(features, System.nanoTime() - start);
               for (FeatureCollector.Feature renderable : features) {
                 renderer.accept(renderable);
               }
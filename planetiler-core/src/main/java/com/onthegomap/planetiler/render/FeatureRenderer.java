@@ -8,11 +8,12 @@ import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileExtents;
+import com.onthegomap.planetiler.stats.LayerTimers;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.AttributeMap;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -51,14 +52,23 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
   private final Consumer<RenderedFeature> consumer;
   private final Stats stats;
   private final Closeable closeable;
+  private final LayerTimers.ForThread layerTimers;
+  // time spent in stages nested inside of the feature currently being rendered, to exclude from its render time
+  private long nestedNanos = 0;
 
-  /** Constructs a new feature render that will send rendered features to {@code consumer}. */
+  /**
+   * Constructs a new feature render that will send rendered features to {@code consumer}.
+   * <p>
+   * Renderers are not thread safe, and record timings into {@link Stats#layerTimers()} for the thread that created
+   * them.
+   */
   public FeatureRenderer(PlanetilerConfig config, Consumer<RenderedFeature> consumer, Stats stats,
     Closeable closeable) {
     this.config = config;
     this.consumer = consumer;
     this.stats = stats;
     this.closeable = closeable;
+    this.layerTimers = stats.layerTimers().forThread();
   }
 
   public FeatureRenderer(PlanetilerConfig config, Consumer<RenderedFeature> consumer, Stats stats) {
@@ -67,7 +77,24 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
 
   @Override
   public void accept(FeatureCollector.Feature feature) {
+    long start = System.nanoTime();
+    nestedNanos = 0;
     renderGeometry(feature.getGeometry(), feature);
+    layerTimers.record(LayerTimers.Stage.RENDER, feature.getLayer(), System.nanoTime() - start - nestedNanos);
+  }
+
+  /**
+   * Records that {@link com.onthegomap.planetiler.Profile#processFeature} took {@code nanos} to emit {@code features}.
+   */
+  public void recordProcessFeature(FeatureCollector features, long nanos) {
+    layerTimers.recordSplit(LayerTimers.Stage.PROCESS_FEATURE, features.layers(), nanos);
+  }
+
+  /** Records time spent in a stage nested inside of {@link #accept(FeatureCollector.Feature)}. */
+  private void recordNested(LayerTimers.Stage stage, FeatureCollector.Feature feature, long start) {
+    long elapsed = System.nanoTime() - start;
+    nestedNanos += elapsed;
+    layerTimers.record(stage, feature.getLayer(), elapsed);
   }
 
   private void renderGeometry(Geometry geom, FeatureCollector.Feature feature) {
@@ -130,7 +157,9 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
 
       // compute the tile coordinate of every tile these points should show up in at the given buffer size
       TileExtents.ForZoom extents = config.bounds().tileExtents().getForZoom(zoom);
+      long sliceStart = System.nanoTime();
       TiledGeometry tiled = TiledGeometry.slicePointsIntoTiles(extents, buffer, zoom, coords);
+      recordNested(LayerTimers.Stage.SLICE, feature, sliceStart);
       int emitted = 0;
       for (var entry : tiled.getTileData().entrySet()) {
         TileCoord tile = entry.getKey();
@@ -222,6 +251,7 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
     Geometry geom = scaled;
     //Geometry geom = DouglasPeuckerSimplifier.simplify(scaled, tolerance);
     List<List<CoordinateSequence>> groups = GeometryCoordinateSequences.extractGroups(geom, minSize);
+    long sliceStart = System.nanoTime();
     try {
       sliced = TiledGeometry.sliceIntoTiles(groups, buffer, area, z, extents);
     } catch (GeometryException e) {
@@ -234,12 +264,15 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
         // omit from this zoom level, but maybe the next will be better
         return;
       }
+    } finally {
+      recordNested(LayerTimers.Stage.SLICE, feature, sliceStart);
     }
     String numPointsAttr = feature.getNumPointsAttr();
     if (numPointsAttr != null) {
       // if profile wants the original number off points that the simplified but untiled geometry started with
-      attrs = new HashMap<>(attrs);
-      attrs.put(numPointsAttr, geom.getNumPoints());
+      AttributeMap withNumPoints = AttributeMap.copyOf(attrs);
+      withNumPoints.putInt(numPointsAttr, geom.getNumPoints());
+      attrs = withNumPoints;
     }
     writeTileFeatures(z, feature.getId(), feature, sliced, attrs);
   }
@@ -264,7 +297,12 @@ public class FeatureRenderer implements Consumer<FeatureCollector.Feature>, Clos
            * See https://docs.mapbox.com/vector-tiles/specification/#simplification for issues that can arise from naive
            * coordinate rounding.
            */
-          geom = GeoUtils.snapAndFixPolygon(geom, stats, "render");
+          long snapStart = System.nanoTime();
+          try {
+            geom = GeoUtils.snapAndFixPolygon(geom, stats, "render");
+          } finally {
+            recordNested(LayerTimers.Stage.SNAP_AND_FIX_POLYGON, feature, snapStart);
+          }
           // JTS utilities "fix" the geometry to be clockwise outer/CCW inner but vector tiles flip Y coordinate,
           // so we need outer CCW/inner clockwise
           geom = geom.reverse();
@@ -0,0 +1,104 @@
+package com.onthegomap.planetiler.stats;
+
+import com.onthegomap.planetiler.util.MemoryEstimator;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Stats} implementation that passes every call through to another instance, so subclasses can observe or
+ * adjust individual stats.
+ */
+public class ForwardingStats implements Stats {
+
+  private final Stats delegate;
+
+  public ForwardingStats(Stats delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void printSummary() {
+    delegate.printSummary();
+  }
+
+  @Override
+  public Timers.Finishable startStage(String name, boolean log) {
+    return delegate.startStage(name, log);
+  }
+
+  @Override
+  public void emittedFeatures(int z, String layer, int numFeatures) {
+    delegate.emittedFeatures(z, layer, numFeatures);
+  }
+
+  @Override
+  public void processedElement(String elemType, String layer) {
+    delegate.processedElement(elemType, layer);
+  }
+
+  @Override
+  public void wroteTile(int zoom, int bytes) {
+    delegate.wroteTile(zoom, bytes);
+  }
+
+  @Override
+  public Timers timers() {
+    return delegate.timers();
+  }
+
+  @Override
+  public LayerTimers layerTimers() {
+    return delegate.layerTimers();
+  }
+
+  @Override
+  public Map<String, MonitoredFile> monitoredFiles() {
+    return delegate.monitoredFiles();
+  }
+
+  @Override
+  public void monitorInMemoryObject(String name, MemoryEstimator.HasEstimate object) {
+    delegate.monitorInMemoryObject(name, object);
+  }
+
+  @Override
+  public void gauge(String name, Supplier<Number> value) {
+    delegate.gauge(name, value);
+  }
+
+  @Override
+  public void counter(String name, Supplier<Number> supplier) {
+    delegate.counter(name, supplier);
+  }
+
+  @Override
+  public Counter.MultiThreadCounter longCounter(String name) {
+    return delegate.longCounter(name);
+  }
+
+  @Override
+  public Counter.MultiThreadCounter nanoCounter(String name) {
+    return delegate.nanoCounter(name);
+  }
+
+  @Override
+  public void counter(String name, String label, Supplier<Map<String, LongSupplier>> values) {
+    delegate.counter(name, label, values);
+  }
+
+  @Override
+  public Map<String, Long> dataErrors() {
+    return delegate.dataErrors();
+  }
+
+  @Override
+  public void dataError(String errorCode) {
+    delegate.dataError(errorCode);
+  }
+
+  @Override
+  public void close() throws Exception {
+    delegate.close();
+  }
+}
@@ -0,0 +1,244 @@
+package com.onthegomap.planetiler.stats;
+
+import com.onthegomap.planetiler.util.Format;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A registry of the time spent in each hot-path {@link Stage} of map generation, broken down by output layer, to tell
+ * which layers drive the overall runtime without attaching a profiler.
+ * <p>
+ * Each thread records into its own accumulators from {@link #forThread()} so timing a call only costs two
+ * {@link System#nanoTime()} calls and a few uncontended writes. Times are elapsed wall time on the thread doing the
+ * work, which is close to CPU time since these stages do not block.
+ */
+@ThreadSafe
+public class LayerTimers {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LayerTimers.class);
+
+  /** Layer that time is attributed to when a stage does not produce any features. */
+  public static final String NO_LAYER = "<none>";
+
+  /** Upper bounds in nanoseconds of the histogram buckets that each call is counted in. */
+  static final long[] BUCKET_NANOS = {
+    1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000
+  };
+
+  // each timing array holds the count, then total nanos, then a count for each bucket and one more for overflow
+  private static final int COUNT = 0;
+  private static final int NANOS = 1;
+  private static final int FIRST_BUCKET = 2;
+  private static final int LENGTH = FIRST_BUCKET + BUCKET_NANOS.length + 1;
+  private static final Stage[] STAGES = Stage.values();
+  private static final int COLUMN_WIDTH = 8;
+
+  private final List<ForThread> threads = new CopyOnWriteArrayList<>();
+  // Ignore warnings about not removing thread local values since planetiler uses dedicated worker threads that release
+  // values when a task is finished and are not re-used.
+  @SuppressWarnings("java:S5164")
+  private final ThreadLocal<ForThread> threadLocal = ThreadLocal.withInitial(() -> {
+    ForThread result = new ForThread();
+    threads.add(result);
+    return result;
+  });
+
+  /** A part of the map generation process that gets timed separately for each layer. */
+  public enum Stage {
+    /** Time spent in {@code Profile#processFeature}, split between layers of the features it emitted. */
+    PROCESS_FEATURE("processFeature"),
+    /** Time spent rendering features into tiles and encoding them for sorting, excluding slicing and polygon repair. */
+    RENDER("render"),
+    /** Time spent slicing geometries into tiles. */
+    SLICE("slice"),
+    /** Time spent snapping polygons to the tile grid and repairing them. */
+    SNAP_AND_FIX_POLYGON("snapAndFixPolygon"),
+    /** Time spent in {@code Profile#postProcessLayerFeatures}. */
+    POST_PROCESS_LAYER_FEATURES("postProcessLayerFeatures"),
+    /** Time spent encoding tiles, split between layers by encoded size. */
+    ENCODE("encode"),
+    /** Time spent compressing tiles, split between layers by encoded size. */
+    COMPRESS("compress");
+
+    private final String id;
+
+    Stage(String id) {
+      this.id = id;
+    }
+
+    /** Returns the name of this stage used in metrics and logs. */
+    public String id() {
+      return id;
+    }
+  }
+
+  /**
+   * Totals for one stage of one layer.
+   *
+   * @param count   number of timed calls
+   * @param nanos   total elapsed time of those calls
+   * @param buckets number of calls that took at most the corresponding entry in {@link #BUCKET_NANOS}, but more than
+   *                the entry before it, with a final entry for calls that took longer than the last bucket
+   */
+  public record Timing(long count, long nanos, long[] buckets) {
+
+    public Duration elapsed() {
+      return Duration.ofNanos(nanos);
+    }
+  }
+
+  /**
+   * Returns the accumulators for the current thread.
+   * <p>
+   * Worker threads should get this once before a loop and record into that instead of looking it up on every call.
+   */
+  public ForThread forThread() {
+    return threadLocal.get();
+  }
+
+  /** Returns the totals from all threads by layer name, then by stage. */
+  public Map<String, Map<Stage, Timing>> snapshot() {
+    Map<String, long[][]> sums = new TreeMap<>();
+    for (ForThread thread : threads) {
+      for (var entry : thread.layers.entrySet()) {
+        long[][] sum = sums.computeIfAbsent(entry.getKey(), k -> new long[STAGES.length][LENGTH]);
+        AtomicLongArray[] timings = entry.getValue();
+        for (int stage = 0; stage < STAGES.length; stage++) {
+          for (int i = 0; i < LENGTH; i++) {
+            sum[stage][i] += timings[stage].get(i);
+          }
+        }
+      }
+    }
+    Map<String, Map<Stage, Timing>> result = new TreeMap<>();
+    for (var entry : sums.entrySet()) {
+      Map<Stage, Timing> byStage = new EnumMap<>(Stage.class);
+      long[][] sum = entry.getValue();
+      for (Stage stage : STAGES) {
+        long[] values = sum[stage.ordinal()];
+        if (values[COUNT] > 0) {
+          long[] buckets = new long[LENGTH - FIRST_BUCKET];
+          System.arraycopy(values, FIRST_BUCKET, buckets, 0, buckets.length);
+          byStage.put(stage, new Timing(values[COUNT], values[NANOS], buckets));
+        }
+      }
+      result.put(entry.getKey(), byStage);
+    }
+    return result;
+  }
+
+  /** Logs a table of the time spent in each stage for each layer, layers that took the most time first. */
+  public void printSummary() {
+    var snapshot = snapshot();
+    if (snapshot.isEmpty()) {
+      return;
+    }
+    List<Map.Entry<String, Map<Stage, Timing>>> layers = new ArrayList<>(snapshot.entrySet());
+    layers.sort(Comparator.comparingLong((Map.Entry<String, Map<Stage, Timing>> e) -> totalNanos(e.getValue()))
+      .reversed());
+    Format format = Format.defaultInstance();
+    int layerWidth = Math.max(5, layers.stream().mapToInt(e -> e.getKey().length()).max().orElse(0));
+    StringBuilder header = new StringBuilder(Format.padRight("layer", layerWidth));
+    for (Stage stage : STAGES) {
+      header.append(' ').append(Format.padLeft(stage.id(), columnWidth(stage)));
+    }
+    header.append(' ').append(Format.padLeft("total", COLUMN_WIDTH));
+    LOGGER.info("time by layer:");
+    LOGGER.info("\t{}", header);
+    for (var layer : layers) {
+      StringBuilder row = new StringBuilder(Format.padRight(layer.getKey(), layerWidth));
+      for (Stage stage : STAGES) {
+        Timing timing = layer.getValue().get(stage);
+        String value = timing == null ? "-" : format.duration(timing.elapsed());
+        row.append(' ').append(Format.padLeft(value, columnWidth(stage)));
+      }
+      row.append(' ').append(Format.padLeft(format.duration(Duration.ofNanos(totalNanos(layer.getValue()))),
+        COLUMN_WIDTH));
+      LOGGER.info("\t{}", row);
+    }
+  }
+
+  private static int columnWidth(Stage stage) {
+    return Math.max(COLUMN_WIDTH, stage.id().length());
+  }
+
+  private static long totalNanos(Map<Stage, Timing> byStage) {
+    return byStage.values().stream().mapToLong(Timing::nanos).sum();
+  }
+
+  /** Accumulators that must only be updated from the thread that they were returned to. */
+  public static final class ForThread {
+
+    private final Map<String, AtomicLongArray[]> layers = new ConcurrentHashMap<>();
+    private String lastLayer = null;
+    private AtomicLongArray[] lastTimings = null;
+
+    private ForThread() {}
+
+    /** Adds a call to {@code stage} for {@code layer} that took {@code nanos}. */
+    public void record(Stage stage, String layer, long nanos) {
+      if (layer == null) {
+        layer = NO_LAYER;
+      }
+      AtomicLongArray[] timings;
+      // consecutive calls are usually for the same layer
+      if (layer.equals(lastLayer)) {
+        timings = lastTimings;
+      } else {
+        timings = layers.computeIfAbsent(layer, k -> {
+          AtomicLongArray[] result = new AtomicLongArray[STAGES.length];
+          for (int i = 0; i < result.length; i++) {
+            result[i] = new AtomicLongArray(LENGTH);
+          }
+          return result;
+        });
+        lastLayer = layer;
+        lastTimings = timings;
+      }
+      AtomicLongArray timing = timings[stage.ordinal()];
+      int bucket = 0;
+      while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+        bucket++;
+      }
+      // only this thread writes, so avoid the cost of atomic increments and just publish the new values
+      increment(timing, COUNT, 1);
+      increment(timing, NANOS, nanos);
+      increment(timing, FIRST_BUCKET + bucket, 1);
+    }
+
+    /**
+     * Splits {@code nanos} between {@code layers} in proportion to how many times each one appears, or attributes it
+     * to {@link #NO_LAYER} if {@code layers} is empty.
+     */
+    public void recordSplit(Stage stage, List<String> layers, long nanos) {
+      int size = layers.size();
+      if (size == 0) {
+        record(stage, NO_LAYER, nanos);
+      } else {
+        // record one call for each distinct layer, with a share of the time based on how many entries it has
+        for (int i = 0; i < size; i++) {
+          String layer = layers.get(i);
+          if (layers.indexOf(layer) == i) {
+            record(stage, layer, nanos * Collections.frequency(layers, layer) / size);
+          }
+        }
+      }
+    }
+
+    private static void increment(AtomicLongArray array, int index, long value) {
+      array.setRelease(index, array.getPlain(index) + value);
+    }
+  }
+}
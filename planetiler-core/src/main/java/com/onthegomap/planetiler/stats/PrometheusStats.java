@@ -44,6 +44,7 @@ class PrometheusStats implements Stats {
 
   private final CollectorRegistry registry = new CollectorRegistry();
   private final Timers timers = new Timers();
+  private final LayerTimers layerTimers = new LayerTimers();
   private static final String BASE = "planetiler_";
   private PushGateway pg;
   private ScheduledExecutorService executor;
@@ -58,6 +59,7 @@ class PrometheusStats implements Stats {
     DefaultExports.register(registry);
     new ThreadDetailsExports().register(registry);
     new InProgressTasks().register(registry);
+    new LayerTimersCollector().register(registry);
     new FileSizeCollector().register(registry);
     new HeapObjectSizeCollector().register(registry);
     new PostGcMemoryCollector().register(registry);
@@ -169,6 +171,11 @@ class PrometheusStats implements Stats {
     return timers;
   }
 
+  @Override
+  public LayerTimers layerTimers() {
+    return layerTimers;
+  }
+
   @Override
   public Map<String, MonitoredFile> monitoredFiles() {
     return filesToMonitor;
@@ -239,6 +246,38 @@ class PrometheusStats implements Stats {
     }
   }
 
+  /** Reports time spent in each stage by layer from {@link #layerTimers()} as a histogram. */
+  private class LayerTimersCollector extends Collector {
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      String name = BASE + "layer_stage_seconds";
+      List<String> labels = List.of("layer", "stage");
+      List<String> bucketLabels = List.of("layer", "stage", "le");
+      List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+      for (var layer : layerTimers.snapshot().entrySet()) {
+        for (var stage : layer.getValue().entrySet()) {
+          LayerTimers.Timing timing = stage.getValue();
+          List<String> values = List.of(layer.getKey(), stage.getKey().id());
+          long[] buckets = timing.buckets();
+          long cumulative = 0;
+          for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i];
+            double le = i < LayerTimers.BUCKET_NANOS.length ?
+              LayerTimers.BUCKET_NANOS[i] / NANOSECONDS_PER_SECOND : Double.POSITIVE_INFINITY;
+            samples.add(new MetricFamilySamples.Sample(name + "_bucket", bucketLabels,
+              List.of(layer.getKey(), stage.getKey().id(), doubleToGoString(le)), cumulative));
+          }
+          samples.add(new MetricFamilySamples.Sample(name + "_count", labels, values, timing.count()));
+          samples.add(
+            new MetricFamilySamples.Sample(name + "_sum", labels, values, timing.nanos() / NANOSECONDS_PER_SECOND));
+        }
+      }
+      return List.of(new MetricFamilySamples(name, Type.HISTOGRAM,
+        "Time spent in each hot-path stage by output layer", samples));
+    }
+  }
+
   /** Reports stats on all file sizes being monitored through {@link #monitorFile(String, Path)}. */
   private class FileSizeCollector extends Collector {
 
@@ -59,6 +59,8 @@ public interface Stats extends AutoCloseable {
       logger.info("-".repeat(40));
       timers().printSummary();
       logger.info("-".repeat(40));
+      layerTimers().printSummary();
+      logger.info("-".repeat(40));
       for (var entry : monitoredFiles().entrySet()) {
         long size = entry.getValue().sizeProvider().getAsLong();
         if (size > 0) {
@@ -122,6 +124,9 @@ public interface Stats extends AutoCloseable {
   /** Returns the timers for all stages started with {@link #startStage(String)}. */
   Timers timers();
 
+  /** Returns the time spent in each hot-path stage broken down by output layer. */
+  LayerTimers layerTimers();
+
   /** Returns all the files being monitored. */
   Map<String, MonitoredFile> monitoredFiles();
 
@@ -198,6 +203,7 @@ public interface Stats extends AutoCloseable {
     private InMemory() {}
 
     private final Timers timers = new Timers();
+    private final LayerTimers layerTimers = new LayerTimers();
     private final Map<String, MonitoredFile> monitoredFiles = new ConcurrentSkipListMap<>();
     private final Map<String, Long> dataErrors = new ConcurrentHashMap<>();
 
@@ -209,6 +215,11 @@ public interface Stats extends AutoCloseable {
       return timers;
     }
 
+    @Override
+    public LayerTimers layerTimers() {
+      return layerTimers;
+    }
+
     @Override
     public Map<String, MonitoredFile> monitoredFiles() {
       return monitoredFiles;
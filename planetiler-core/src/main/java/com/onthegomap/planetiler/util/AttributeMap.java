@@ -0,0 +1,275 @@
+package com.onthegomap.planetiler.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A compact map from attribute key to value for output features that stores numeric values in unboxed slots.
+ * <p>
+ * Keys are kept in sorted order like a {@link java.util.TreeMap}, but in parallel arrays instead of a node per entry,
+ * which is faster and smaller for the handful of attributes a typical feature has. Values set through
+ * {@link #putInt(String, int)}, {@link #putLong(String, long)}, {@link #putFloat(String, float)} and
+ * {@link #putDouble(String, double)} stay unboxed until something reads them through the {@link Map} interface, so
+ * encoders that use {@link #longAt(int)} and {@link #doubleAt(int)} never allocate a wrapper object for them.
+ * <p>
+ * Numbers read back through the {@link Map} interface are boxed to the same type they were stored as.
+ */
+@NotThreadSafe
+public final class AttributeMap extends AbstractMap<String, Object> {
+
+  private static final byte OBJECT = 0;
+  private static final byte INT = 1;
+  private static final byte LONG = 2;
+  private static final byte FLOAT = 3;
+  private static final byte DOUBLE = 4;
+
+  private String[] keys;
+  private byte[] types;
+  private long[] numbers;
+  private Object[] objects;
+  private int size = 0;
+  private EntrySet entrySet = null;
+
+  public AttributeMap() {
+    this(8);
+  }
+
+  public AttributeMap(int capacity) {
+    capacity = Math.max(capacity, 1);
+    keys = new String[capacity];
+    types = new byte[capacity];
+    numbers = new long[capacity];
+    objects = new Object[capacity];
+  }
+
+  /** Returns a new map with all the entries from {@code other}, copying unboxed values without boxing them. */
+  public static AttributeMap copyOf(Map<String, ?> other) {
+    if (other instanceof AttributeMap map) {
+      AttributeMap result = new AttributeMap(map.size + 1);
+      result.size = map.size;
+      System.arraycopy(map.keys, 0, result.keys, 0, map.size);
+      System.arraycopy(map.types, 0, result.types, 0, map.size);
+      System.arraycopy(map.numbers, 0, result.numbers, 0, map.size);
+      System.arraycopy(map.objects, 0, result.objects, 0, map.size);
+      return result;
+    }
+    AttributeMap result = new AttributeMap(other.size() + 1);
+    for (var entry : other.entrySet()) {
+      result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  private int indexOf(Object key) {
+    return key instanceof String string ? Arrays.binarySearch(keys, 0, size, string) : -1;
+  }
+
+  /** Returns the slot for {@code key}, inserting an empty one if it is not present yet. */
+  private int slot(String key) {
+    int idx = Arrays.binarySearch(keys, 0, size, key);
+    if (idx >= 0) {
+      return idx;
+    }
+    idx = -idx - 1;
+    if (size == keys.length) {
+      int newLength = keys.length * 2;
+      keys = Arrays.copyOf(keys, newLength);
+      types = Arrays.copyOf(types, newLength);
+      numbers = Arrays.copyOf(numbers, newLength);
+      objects = Arrays.copyOf(objects, newLength);
+    }
+    int moved = size - idx;
+    if (moved > 0) {
+      System.arraycopy(keys, idx, keys, idx + 1, moved);
+      System.arraycopy(types, idx, types, idx + 1, moved);
+      System.arraycopy(numbers, idx, numbers, idx + 1, moved);
+      System.arraycopy(objects, idx, objects, idx + 1, moved);
+    }
+    keys[idx] = key;
+    size++;
+    return idx;
+  }
+
+  private void setNumber(String key, byte type, long bits) {
+    int idx = slot(key);
+    types[idx] = type;
+    numbers[idx] = bits;
+    objects[idx] = null;
+  }
+
+  public void putInt(String key, int value) {
+    setNumber(key, INT, value);
+  }
+
+  public void putLong(String key, long value) {
+    setNumber(key, LONG, value);
+  }
+
+  public void putFloat(String key, float value) {
+    setNumber(key, FLOAT, Double.doubleToRawLongBits(value));
+  }
+
+  public void putDouble(String key, double value) {
+    setNumber(key, DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  /** Copies the entry at index {@code i} of {@code other} into this map without boxing it. */
+  public void putFrom(AttributeMap other, int i) {
+    int idx = slot(other.keys[i]);
+    types[idx] = other.types[i];
+    numbers[idx] = other.numbers[i];
+    objects[idx] = other.objects[i];
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    int idx = slot(key);
+    Object previous = valueAt(idx);
+    types[idx] = OBJECT;
+    numbers[idx] = 0;
+    objects[idx] = value;
+    return previous;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int idx = indexOf(key);
+    return idx < 0 ? null : valueAt(idx);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int idx = indexOf(key);
+    if (idx < 0) {
+      return null;
+    }
+    Object previous = valueAt(idx);
+    removeAt(idx);
+    return previous;
+  }
+
+  private void removeAt(int idx) {
+    int moved = size - idx - 1;
+    if (moved > 0) {
+      System.arraycopy(keys, idx + 1, keys, idx, moved);
+      System.arraycopy(types, idx + 1, types, idx, moved);
+      System.arraycopy(numbers, idx + 1, numbers, idx, moved);
+      System.arraycopy(objects, idx + 1, objects, idx, moved);
+    }
+    size--;
+    keys[size] = null;
+    objects[size] = null;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(keys, 0, size, null);
+    Arrays.fill(objects, 0, size, null);
+    size = 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Returns the key at index {@code i} in sorted order. */
+  public String keyAt(int i) {
+    return keys[i];
+  }
+
+  /** Returns true if the value at index {@code i} was stored as an unboxed int or long. */
+  public boolean isIntegralAt(int i) {
+    return types[i] == INT || types[i] == LONG;
+  }
+
+  /** Returns true if the value at index {@code i} was stored as an unboxed float or double. */
+  public boolean isFloatingAt(int i) {
+    return types[i] == FLOAT || types[i] == DOUBLE;
+  }
+
+  /** Returns the unboxed integral value at index {@code i}, only valid if {@link #isIntegralAt(int)} is true. */
+  public long longAt(int i) {
+    return numbers[i];
+  }
+
+  /** Returns the unboxed floating-point value at index {@code i}, only valid if {@link #isFloatingAt(int)} is true. */
+  public double doubleAt(int i) {
+    return Double.longBitsToDouble(numbers[i]);
+  }
+
+  /** Returns the value at index {@code i}, boxing it if it was stored unboxed. */
+  public Object valueAt(int i) {
+    return switch (types[i]) {
+      case INT -> (int) numbers[i];
+      case LONG -> numbers[i];
+      case FLOAT -> (float) Double.longBitsToDouble(numbers[i]);
+      case DOUBLE -> Double.longBitsToDouble(numbers[i]);
+      default -> objects[i];
+    };
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+    @Override
+    public Iterator<Entry<String, Object>> iterator() {
+      return new Iterator<>() {
+        int next = 0;
+        boolean canRemove = false;
+
+        @Override
+        public boolean hasNext() {
+          return next < size;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+          if (next >= size) {
+            throw new NoSuchElementException();
+          }
+          canRemove = true;
+          int i = next++;
+          return new SimpleImmutableEntry<>(keys[i], valueAt(i));
+        }
+
+        @Override
+        public void remove() {
+          if (!canRemove) {
+            throw new IllegalStateException();
+          }
+          canRemove = false;
+          removeAt(--next);
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      AttributeMap.this.clear();
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.onthegomap.planetiler.util;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -7,20 +8,34 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * A utility for compressing commonly-used strings (i.e. layer name, tag attributes).
+ * <p>
+ * Strings get assigned sequential IDs as they are first seen, so IDs stay small and encode compactly as varints. The
+ * ID-to-string table grows in fixed-size chunks, so {@link #decode(int)} is a plain array lookup without any locks and
+ * the dictionary does not need to be sized up-front. {@link #encode(String)} only takes a lock the first time it sees
+ * a string.
  */
 @ThreadSafe
 public class CommonStringEncoder {
 
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
   private final int maxStrings;
 
-  private final Map<String, Integer> stringToId;
-  private final String[] idToString;
+  private final Map<String, Integer> stringToId = new ConcurrentHashMap<>();
+  // replaced with a larger copy when a new chunk is needed, existing chunks never move
+  private volatile String[][] idToString = new String[1][CHUNK_SIZE];
   private final AtomicInteger stringId = new AtomicInteger(0);
 
+  /** Returns an encoder that accepts any number of unique strings. */
+  public CommonStringEncoder() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /** Returns an encoder that fails after {@code maxStrings} unique strings. */
   public CommonStringEncoder(int maxStrings) {
     this.maxStrings = maxStrings;
-    stringToId = new ConcurrentHashMap<>(maxStrings);
-    idToString = new String[maxStrings];
   }
 
   /**
@@ -29,7 +44,9 @@ public class CommonStringEncoder {
    * @throws IllegalArgumentException if there is no value for {@code id}.
    */
   public String decode(int id) {
-    String str = idToString[id];
+    String[][] chunks = idToString;
+    int chunk = id >>> CHUNK_BITS;
+    String str = chunk < chunks.length ? chunks[chunk][id & CHUNK_MASK] : null;
     if (str == null) {
       throw new IllegalArgumentException("No string for " + id);
     }
@@ -50,16 +67,50 @@ public class CommonStringEncoder {
     if (result == null) {
       result = stringToId.computeIfAbsent(string, s -> {
         int id = stringId.getAndIncrement();
-        if (id >= maxStrings) {
+        if (id < 0 || id >= maxStrings) {
           throw new IllegalArgumentException("Too many strings");
         }
-        idToString[id] = string;
+        chunkFor(id)[id & CHUNK_MASK] = string;
         return id;
       });
     }
     return result;
   }
 
+  private String[] chunkFor(int id) {
+    int chunk = id >>> CHUNK_BITS;
+    String[][] chunks = idToString;
+    if (chunk >= chunks.length) {
+      synchronized (this) {
+        chunks = idToString;
+        if (chunk >= chunks.length) {
+          int oldLength = chunks.length;
+          chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, oldLength * 2));
+          for (int i = oldLength; i < chunks.length; i++) {
+            chunks[i] = new String[CHUNK_SIZE];
+          }
+          idToString = chunks;
+        }
+      }
+    }
+    return chunks[chunk];
+  }
+
+  /** Returns the number of unique strings encoded so far. */
+  public int size() {
+    return Math.min(stringId.get(), maxStrings);
+  }
+
+  /** Returns a copy of all strings encoded so far, indexed by their ID. */
+  public String[] toArray() {
+    String[][] chunks = idToString;
+    String[] result = new String[Math.min(size(), chunks.length * CHUNK_SIZE)];
+    for (int i = 0; i < result.length; i += CHUNK_SIZE) {
+      System.arraycopy(chunks[i >>> CHUNK_BITS], 0, result, i, Math.min(CHUNK_SIZE, result.length - i));
+    }
+    return result;
+  }
+
   /**
    * Variant of CommonStringEncoder based on byte rather than int for string indexing.
    */
@@ -73,5 +124,10 @@ public class CommonStringEncoder {
     public byte encode(String string) {
       return (byte) encoder.encode(string);
     }
+
+    /** Returns a copy of all strings encoded so far, indexed by their ID. */
+    public String[] toArray() {
+      return encoder.toArray();
+    }
   }
 }
@@ -426,11 +426,10 @@ public class CompareArchives {
   }
 
   private byte[] decompress(byte[] bytes, TileCompression tileCompression) throws IOException {
-    return switch (tileCompression) {
-      case GZIP -> Gzip.gunzip(bytes);
-      case NONE -> bytes;
-      case UNKNOWN -> throw new FatalComparisonFailure("Unknown compression");
-    };
+    if (tileCompression == TileCompression.UNKNOWN) {
+      throw new FatalComparisonFailure("Unknown compression");
+    }
+    return tileCompression.decompress(bytes);
   }
 
   private VectorTileProto.Tile decode(byte[] decompressedTile) throws IOException {
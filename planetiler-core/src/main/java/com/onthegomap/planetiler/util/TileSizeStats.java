@@ -12,6 +12,7 @@ import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveConfig;
 import com.onthegomap.planetiler.archive.TileArchives;
+import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
@@ -63,7 +64,7 @@ public class TileSizeStats {
     return archive.resolveSibling(archive.getFileName() + ".layerstats.tsv.gz");
   }
 
-  public static void main(String... args) {
+  public static void main(String... args) throws IOException {
     var arguments = Arguments.fromArgsOrConfigFile(args);
     var config = PlanetilerConfig.from(arguments);
     var stats = Stats.inMemory();
@@ -78,6 +79,12 @@ public class TileSizeStats {
     var output = localPath == null ?
       arguments.file("output", "output file") :
       arguments.file("output", "output file", getDefaultLayerstatsPath(localPath));
+    TileCompression compression;
+    try (var reader = TileArchives.newReader(input, config)) {
+      var metadata = reader.metadata();
+      compression = metadata == null || metadata.tileCompression() == TileCompression.UNKNOWN ?
+        TileCompression.GZIP : metadata.tileCompression();
+    }
     var counter = new AtomicLong(0);
     var timer = stats.startStage("tilestats");
     record Batch(List<Tile> tiles, CompletableFuture<List<String>> stats) {}
@@ -124,7 +131,7 @@ public class TileSizeStats {
           for (var tile : batch.tiles) {
             if (!Arrays.equals(zipped, tile.bytes())) {
               zipped = tile.bytes();
-              unzipped = Gzip.gunzip(tile.bytes());
+              unzipped = compression.decompress(tile.bytes());
               decoded = VectorTileProto.Tile.parseFrom(unzipped);
               layerStats = computeTileStats(decoded);
             }
@@ -766,6 +766,31 @@ class FeatureCollectorTest {
     ), feature.getAttrsAtZoom(14));
   }
 
+  @Test
+  void testSetPrimitiveAttrs() {
+    var collector = factory.get(newReaderFeature(newPoint(0, 0), Map.of()));
+    collector.point("layername")
+      .setAttr("int", 1)
+      .setAttr("long", 2L)
+      .setAttr("float", 3f)
+      .setAttr("double", 4d)
+      .setAttrWithMinzoom("minzoom", 5, 9);
+    var feature = collector.iterator().next();
+    assertEquals(Map.of(
+      "int", 1,
+      "long", 2L,
+      "float", 3f,
+      "double", 4d,
+      "minzoom", 5
+    ), feature.getAttrsAtZoom(14));
+    assertEquals(Map.of(
+      "int", 1,
+      "long", 2L,
+      "float", 3f,
+      "double", 4d
+    ), feature.getAttrsAtZoom(8));
+  }
+
   @Test
   void testSetAttrPartial() {
     var collector = factory.get(newReaderFeature(newLineString(0, 0, 1, 1), Map.of()));
@@ -775,6 +775,51 @@ class FeatureMergeTest {
     );
   }
 
+  @Test
+  void removeCoveredPolygonsWithoutCovers() {
+    List<VectorTile.Feature> features = List.of(
+      feature(1, rectangle(10, 20), Map.of("part", false)),
+      feature(2, newPoint(10, 10), Map.of("part", false))
+    );
+    assertEquals(
+      features,
+      FeatureMerge.removeCoveredPolygons(features, f -> (boolean) f.tags().get("part"), 0.1)
+    );
+  }
+
+  @Test
+  void removeCoveredPolygons() {
+    var covered = feature(1, rectangle(10, 20), Map.of("part", false));
+    var partlyCovered = feature(2, rectangle(30, 40), Map.of("part", false));
+    var notCovered = feature(3, rectangle(50, 60), Map.of("part", false));
+    var point = feature(4, newPoint(10, 10), Map.of("part", false));
+    var part1 = feature(5, rectangle(10, 10, 20, 15), Map.of("part", true));
+    var part2 = feature(6, rectangle(10, 15, 20, 20), Map.of("part", true));
+    var part3 = feature(7, rectangle(30, 30, 40, 35), Map.of("part", true));
+    assertEquals(
+      List.of(partlyCovered, notCovered, point, part1, part2, part3),
+      FeatureMerge.removeCoveredPolygons(
+        List.of(covered, partlyCovered, notCovered, point, part1, part2, part3),
+        f -> (boolean) f.tags().get("part"),
+        0.1
+      )
+    );
+  }
+
+  @Test
+  void removeCoveredPolygonsThreshold() {
+    var outline = feature(1, rectangle(10, 20), Map.of("part", false));
+    var part = feature(2, rectangle(10, 10, 20, 19.5), Map.of("part", true));
+    assertEquals(
+      List.of(part),
+      FeatureMerge.removeCoveredPolygons(List.of(outline, part), f -> (boolean) f.tags().get("part"), 0.1)
+    );
+    assertEquals(
+      List.of(outline, part),
+      FeatureMerge.removeCoveredPolygons(List.of(outline, part), f -> (boolean) f.tags().get("part"), 0.01)
+    );
+  }
+
   @Test
   void removePointsOutsideBufferEmpty() {
     assertEquals(
@@ -2063,6 +2063,8 @@ class PlanetilerTests {
       return TileCompression.NONE;
     } else if (args.contains("tile-compression=gzip")) {
       return TileCompression.GZIP;
+    } else if (args.contains("tile-compression=zstd")) {
+      return TileCompression.ZSTD;
     } else if (args.contains("tile-compression=")) {
       throw new IllegalArgumentException("unhandled tile compression");
     } else {
@@ -2086,6 +2088,7 @@ class PlanetilerTests {
     "--output-format=files",
     "--tile-compression=none",
     "--tile-compression=gzip",
+    "--tile-compression=zstd",
     "--output-layerstats",
     "--max-point-buffer=1"
   })
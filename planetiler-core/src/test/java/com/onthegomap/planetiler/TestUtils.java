@@ -278,11 +278,7 @@ public class TestUtils {
     throws IOException {
     Map<TileCoord, List<ComparableFeature>> tiles = new TreeMap<>();
     for (var tile : getTiles(db)) {
-      var bytes = switch (tileCompression) {
-        case GZIP -> gunzip(tile.bytes());
-        case NONE -> tile.bytes();
-        case UNKNOWN -> throw new IllegalArgumentException("cannot decompress \"UNKNOWN\"");
-      };
+      var bytes = tileCompression.decompress(tile.bytes());
       var decoded = VectorTile.decode(bytes).stream()
         .map(
           feature -> feature(decodeSilently(feature.geometry()), feature.layer(), feature.tags(), feature.id()))
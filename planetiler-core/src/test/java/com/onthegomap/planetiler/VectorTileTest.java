@@ -24,15 +24,21 @@ import static com.onthegomap.planetiler.geo.GeoUtils.JTS_FACTORY;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
 import com.google.common.primitives.Ints;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.util.TileSizeStats;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.DynamicTest;
@@ -42,6 +48,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateXY;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
 import org.locationtech.jts.geom.LinearRing;
@@ -692,6 +699,133 @@ class VectorTileTest {
     }
   }
 
+  @ParameterizedTest
+  @CsvSource({
+    "0,0",
+    "1,1",
+    "-10,-1",
+    "300.25,200.75",
+  })
+  void envelopeOfPolygon(double x, double y) throws GeometryException {
+    for (int scale = 0; scale < 10; scale++) {
+      var encoded = VectorTile.encodeGeometry(newPolygon(x, y, x + 1, y, x + 2, y + 3, x, y + 1, x, y), scale);
+      assertEquals(new Envelope(x, x + 2, y, y + 3), encoded.envelope(), "scale=" + scale);
+      assertEquals(encoded.decode().getEnvelopeInternal(), encoded.envelope(), "scale=" + scale);
+    }
+  }
+
+  @Test
+  void envelopeOfMultiLineString() {
+    var encoded = VectorTile.encodeGeometry(newMultiLineString(
+      newLineString(-4, 1, 2, 3),
+      newLineString(10, 20, 30, 5)
+    ));
+    assertEquals(new Envelope(-4, 30, 1, 20), encoded.envelope());
+  }
+
+  @Test
+  void envelopeOfEmptyGeometry() {
+    assertTrue(new VectorTile.VectorGeometry(new int[0], GeometryType.POLYGON, 0).envelope().isNull());
+  }
+
+  @Test
+  void decodeIsMemoized() throws GeometryException {
+    var encoded = VectorTile.encodeGeometry(rectangle(10, 20));
+    assertSame(encoded.decode(), encoded.decode());
+    assertSameGeometry(rectangle(10, 20), encoded.decode());
+  }
+
+  @Test
+  void encodeMatchesProtobufForEmptyTile() {
+    var tile = new VectorTile();
+    assertEncodesLikeProtobuf(tile);
+  }
+
+  @Test
+  void encodeMatchesProtobufForAllValueTypes() {
+    var tile = new VectorTile();
+    tile.addLayerFeatures("layer", List.of(
+      new VectorTile.Feature("layer", 1, VectorTile.encodeGeometry(newPoint(3, 6)), Map.of(
+        "string", "value",
+        "unicode \u00e9\u4e2d", "\u00e9\u4e2d\uD83D\uDE00",
+        "int", 1,
+        "negative int", -123456,
+        "long", Long.MAX_VALUE,
+        "negative long", Long.MIN_VALUE,
+        "float", 1.5f,
+        "double", -2.25,
+        "true", true,
+        "false", false
+      )),
+      new VectorTile.Feature("layer", 2, VectorTile.encodeGeometry(newPoint(3, 6)), Map.of(
+        "other", new StringBuilder("to string"),
+        "nan", Double.NaN,
+        "empty", ""
+      ))
+    ));
+    assertEncodesLikeProtobuf(tile);
+  }
+
+  @Test
+  void encodeMatchesProtobufForIdsAndGeometries() {
+    var tile = new VectorTile();
+    tile.addLayerFeatures("b", List.of(
+      new VectorTile.Feature("b", VectorTile.NO_FEATURE_ID, VectorTile.encodeGeometry(rectangle(10, 20)), Map.of()),
+      new VectorTile.Feature("b", -1, VectorTile.encodeGeometry(newLineString(0, 0, 1e6, 1e6)), Map.of("a", 1)),
+      new VectorTile.Feature("b", Long.MAX_VALUE,
+        new VectorTile.VectorGeometry(new int[]{9, Integer.MIN_VALUE, -1}, GeometryType.POINT, 0), Map.of())
+    ));
+    tile.addLayerFeatures("a", List.of(
+      new VectorTile.Feature("a", 127, VectorTile.encodeGeometry(newPolygon(
+        rectangleCoordList(0, 100),
+        List.of(rectangleCoordList(10, 20), rectangleCoordList(30, 40))
+      )), Map.of("a", 2))
+    ));
+    assertEncodesLikeProtobuf(tile);
+  }
+
+  @Test
+  void encodeMatchesProtobufForRandomTiles() {
+    var random = new Random(0);
+    for (int t = 0; t < 20; t++) {
+      var tile = new VectorTile();
+      int numLayers = random.nextInt(5);
+      for (int l = 0; l < numLayers; l++) {
+        String layer = "layer" + l;
+        List<VectorTile.Feature> features = new ArrayList<>();
+        int numFeatures = random.nextInt(200);
+        for (int f = 0; f < numFeatures; f++) {
+          Map<String, Object> attrs = new HashMap<>();
+          int numAttrs = random.nextInt(20);
+          for (int a = 0; a < numAttrs; a++) {
+            attrs.put("key" + random.nextInt(30), switch (random.nextInt(5)) {
+              case 0 -> random.nextInt();
+              case 1 -> random.nextLong();
+              case 2 -> random.nextDouble();
+              case 3 -> random.nextBoolean();
+              default -> "value" + random.nextInt(100);
+            });
+          }
+          double x = random.nextDouble() * 256, y = random.nextDouble() * 256;
+          features.add(new VectorTile.Feature(layer, random.nextLong(),
+            VectorTile.encodeGeometry(random.nextBoolean() ? newPoint(x, y) : rectangle(x, y, x + 10, y + 10)),
+            attrs));
+        }
+        tile.addLayerFeatures(layer, features);
+      }
+      assertEncodesLikeProtobuf(tile);
+    }
+  }
+
+  private static void assertEncodesLikeProtobuf(VectorTile tile) {
+    var proto = tile.toProto();
+    String expected = HexFormat.of().formatHex(proto.toByteArray());
+    assertEquals(expected, HexFormat.of().formatHex(tile.encode()));
+    List<TileSizeStats.LayerStats> stats = new ArrayList<>();
+    assertEquals(expected, HexFormat.of().formatHex(tile.encode(stats)));
+    assertEquals(TileSizeStats.computeTileStats(proto), stats);
+  }
+
   private static void assertArrayEquals(int[] a, int[] b) {
     assertEquals(
       IntStream.of(a).boxed().toList(),
@@ -0,0 +1,68 @@
+package com.onthegomap.planetiler.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.onthegomap.planetiler.util.Gzip;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TileCompressorTest {
+
+  private static byte[] randomBytes(Random random, int length) {
+    byte[] result = new byte[length];
+    // mix of compressible and random content
+    for (int i = 0; i < length; i++) {
+      result[i] = random.nextInt(4) == 0 ? (byte) random.nextInt() : (byte) (i % 7);
+    }
+    return result;
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1, 100, 70_000, 1_000_000})
+  void testGzipMatchesGzipOutputStream(int length) throws IOException {
+    Random random = new Random(length);
+    try (var compressor = TileCompressor.create(TileCompression.GZIP)) {
+      // run multiple times to make sure reusing the deflater and buffer does not change the output
+      for (int i = 0; i < 3; i++) {
+        byte[] input = randomBytes(random, length);
+        byte[] compressed = compressor.compress(input);
+        assertArrayEquals(Gzip.gzip(input), compressed);
+        assertArrayEquals(input, TileCompression.GZIP.decompress(compressed));
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1, 100, 70_000, 1_000_000})
+  void testZstdRoundTrip(int length) throws IOException {
+    Random random = new Random(length);
+    try (var compressor = TileCompressor.create(TileCompression.ZSTD)) {
+      for (int i = 0; i < 3; i++) {
+        byte[] input = randomBytes(random, length);
+        assertArrayEquals(input, TileCompression.ZSTD.decompress(compressor.compress(input)));
+      }
+    }
+  }
+
+  @Test
+  void testNone() throws IOException {
+    byte[] input = {1, 2, 3};
+    try (var compressor = TileCompressor.create(TileCompression.NONE)) {
+      assertSame(input, compressor.compress(input));
+    }
+    assertSame(input, TileCompression.NONE.decompress(input));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = TileCompression.class, names = "UNKNOWN")
+  void testUnknown(TileCompression compression) {
+    assertThrows(IllegalArgumentException.class, () -> TileCompressor.create(compression));
+    assertThrows(IllegalArgumentException.class, () -> compression.decompress(new byte[0]));
+  }
+}
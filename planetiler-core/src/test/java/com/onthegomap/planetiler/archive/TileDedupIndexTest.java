@@ -0,0 +1,98 @@
+package com.onthegomap.planetiler.archive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.stats.Counter;
+import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TileDedupIndexTest {
+
+  private static long hash(int i) {
+    return i * 0x9E3779B97F4A7C15L;
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"ram", "offheap"})
+  void testPutGet(String type, @TempDir Path tmpDir) {
+    var config = PlanetilerConfig.from(Arguments.of("tile_dedup_index", type, "tmpdir", tmpDir.toString()));
+    try (var index = TileDedupIndex.factory(config, Stats.inMemory()).get()) {
+      assertEquals(TileDedupIndex.MISSING, index.get(1, 7));
+      index.put(1, 7, 0);
+      index.put(-5, 8, 10);
+      index.put(0, 9, Long.MAX_VALUE - 1);
+      assertEquals(0, index.get(1, 7));
+      assertEquals(10, index.get(-5, 8));
+      assertEquals(Long.MAX_VALUE - 1, index.get(0, 9));
+      assertEquals(TileDedupIndex.MISSING, index.get(2, 7));
+      index.put(1, 7, 3);
+      assertEquals(3, index.get(1, 7));
+      assertEquals(3, index.size());
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"ram", "offheap"})
+  void testHashCollisionIsNotAHit(String type, @TempDir Path tmpDir) {
+    var config = PlanetilerConfig.from(Arguments.of("tile_dedup_index", type, "tmpdir", tmpDir.toString()));
+    try (var index = TileDedupIndex.factory(config, Stats.inMemory()).get()) {
+      byte[] a = {1, 2, 3};
+      byte[] b = {1, 2, 4};
+      // pretend both contents got the same 64-bit hash
+      index.put(1, TileDedupIndex.contentCheck(a), 10);
+      assertEquals(10, index.get(1, TileDedupIndex.contentCheck(a.clone())));
+      assertEquals(TileDedupIndex.MISSING, index.get(1, TileDedupIndex.contentCheck(b)));
+    }
+  }
+
+  @Test
+  void testRejectsNegativeValues(@TempDir Path tmpDir) {
+    try (var index = TileDedupIndex.offHeap(tmpDir, 1 << 20)) {
+      assertThrows(IllegalArgumentException.class, () -> index.put(1, 0, -1));
+    }
+  }
+
+  @Test
+  void testOffHeapSpillsAndOnlyIndexesRepeatedHashes(@TempDir Path tmpDir) throws IOException {
+    var prefilterSkips = Counter.newSingleThreadCounter();
+    var spilledBytes = Counter.newSingleThreadCounter();
+    int count = 20_000;
+    // 768kb for the table fits 32k 24-byte slots (16k hashes) before it needs to spill to disk
+    try (var index = new OffHeapTileDedupIndex(tmpDir, 1 << 20, 16, prefilterSkips, spilledBytes)) {
+      for (int i = 0; i < count; i++) {
+        index.put(hash(i), i, i);
+      }
+      assertTrue(spilledBytes.get() > 0, "spilled");
+      assertTrue(prefilterSkips.get() > 0, "skipped");
+      assertEquals(count, index.size() + prefilterSkips.get());
+      for (int i = 0; i <= count / 2; i++) {
+        assertEquals(i, index.get(hash(i), i));
+      }
+
+      // the second time a hash gets put, the prefilter has seen it so it makes it into the table
+      for (int i = 0; i < count; i++) {
+        if (index.get(hash(i), i) == TileDedupIndex.MISSING) {
+          index.put(hash(i), i, i);
+        }
+      }
+      assertEquals(count, index.size());
+      for (int i = 0; i < count; i++) {
+        assertEquals(i, index.get(hash(i), i));
+      }
+      assertEquals(TileDedupIndex.MISSING, index.get(hash(count), count));
+    }
+    try (var files = Files.list(tmpDir)) {
+      assertEquals(0, files.count(), "spill files are deleted on close");
+    }
+  }
+}
@@ -5,6 +5,7 @@ import static com.onthegomap.planetiler.TestUtils.newPoint;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
@@ -17,6 +18,7 @@ import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.render.RenderedFeature;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.AttributeMap;
 import com.onthegomap.planetiler.util.CloseableConsumer;
 import com.onthegomap.planetiler.util.Gzip;
 import java.io.IOException;
@@ -177,6 +179,29 @@ class FeatureGroupTest {
       )))), getFeaturesParallel());
   }
 
+  @Test
+  void testTileRanges() {
+    put(3, "layer3", Map.of("a", 1.5d, "b", "string"), newPoint(5, 6));
+    put(3, "layer4", Map.of("a", 1.5d, "b", "string"), newPoint(5, 6));
+    put(2, "layer", Map.of("a", 1.5d, "b", "string"), newPoint(5, 6));
+    put(1, "layer", Map.of("a", 1, "b", 2L), newPoint(1, 2));
+    put(1, "layer2", Map.of("c", 3d, "d", true), newPoint(3, 4));
+    sorter.sort();
+    var ranges = features.tileRanges(5);
+    assertTrue(ranges.size() > 1);
+    List<Integer> tiles = new ArrayList<>();
+    List<Long> featuresPerTile = new ArrayList<>();
+    for (var range : ranges) {
+      for (FeatureGroup.TileFeatures tile : range) {
+        tiles.add((int) tile.tileCoord().encoded());
+        featuresPerTile.add(tile.getNumFeaturesToEmit());
+      }
+    }
+    // each tile is read from exactly one range, with all of its features
+    assertEquals(List.of(1, 2, 3), tiles);
+    assertEquals(List.of(2L, 1L, 2L), featuresPerTile);
+  }
+
   @Test
   void testPutPointsWithSortKey() {
     putWithSortKey(
@@ -383,20 +408,24 @@ class FeatureGroupTest {
       TileCoord.ofXYZ((1 << 14) - 1, (1 << 14) - 1, 14),
       TileCoord.ofXYZ(0, 0, 0),
       TileCoord.ofXYZ(0, 0, 7),
-      TileCoord.ofXYZ((1 << 7) - 1, (1 << 7) - 1, 7)
+      TileCoord.ofXYZ((1 << 7) - 1, (1 << 7) - 1, 7),
+      TileCoord.ofXYZ((1 << 16) - 1, (1 << 16) - 1, 16)
     );
     List<Byte> layers = List.of((byte) 0, (byte) 1, (byte) 255);
     List<Integer> sortKeys = List.of(-(1 << 22), 0, (1 << 22) - 1);
     List<Boolean> hasGroups = List.of(false, true);
     List<DynamicTest> result = new ArrayList<>();
     for (TileCoord tile : tiles) {
+      int layerBits = FeatureGroup.layerBitsForMaxZoom(tile.z());
       for (byte layer : layers) {
+        byte expectedLayer = (byte) (layer & ((1 << layerBits) - 1));
         for (int sortKey : sortKeys) {
           for (boolean hasGroup : hasGroups) {
-            long key = FeatureGroup.encodeKey((int)tile.encoded(), layer, sortKey, hasGroup);
+            long key = FeatureGroup.encodeKey(tile.encoded(), expectedLayer, sortKey, hasGroup, layerBits);
             result.add(dynamicTest(tile + " " + layer + " " + sortKey + " " + hasGroup, () -> {
-              assertEquals(tile.encoded(), FeatureGroup.extractTileFromKey(key), "tile");
-              assertEquals(layer, FeatureGroup.extractLayerIdFromKey(key), "layer");
+              assertTrue(key >= 0, "key");
+              assertEquals(tile.encoded(), FeatureGroup.extractTileFromKey(key, layerBits), "tile");
+              assertEquals(expectedLayer, FeatureGroup.extractLayerIdFromKey(key, layerBits), "layer");
               assertEquals(sortKey, FeatureGroup.extractSortKeyFromKey(key), "sortKey");
               assertEquals(hasGroup, FeatureGroup.extractHasGroupFromKey(key), "hasGroup");
             }));
@@ -407,6 +436,23 @@ class FeatureGroupTest {
     return result;
   }
 
+  @ParameterizedTest
+  @CsvSource({
+    "14, 8",
+    "15, 8",
+    "16, 6",
+    "17, 4",
+    "18, 2"
+  })
+  void testLayerBitsForMaxZoom(int maxzoom, int expected) {
+    assertEquals(expected, FeatureGroup.layerBitsForMaxZoom(maxzoom));
+  }
+
+  @Test
+  void testLayerBitsForMaxZoomTooHigh() {
+    assertThrows(IllegalArgumentException.class, () -> FeatureGroup.layerBitsForMaxZoom(19));
+  }
+
   @ParameterizedTest
   @CsvSource({
     "0,0,-2,true,   0,0,-1,false",
@@ -416,18 +462,51 @@ class FeatureGroupTest {
     "-1,0,1,false,  -1,0,2,false",
     "-1,0,-1,false, -1,0,1,false",
     "-1,0,-1,false, -1,0,-1,true",
-    "1,0,1,false,   1,0,1,true"
+    "1,0,1,false,   1,0,1,true",
+    "0,5,1,false,   0,6,1,false",
+    "0,63,1,false,  1,0,1,false"
   })
   void testEncodeLongKeyOrdering(
     int tileA, byte layerA, int sortKeyA, boolean hasGroupA,
     int tileB, byte layerB, int sortKeyB, boolean hasGroupB
   ) {
+    int layerBits = FeatureGroup.layerBitsForMaxZoom(16);
     assertTrue(
-      FeatureGroup.encodeKey(tileA, layerA, sortKeyA, hasGroupA) < FeatureGroup.encodeKey(tileB, layerB, sortKeyB,
-        hasGroupB)
+      FeatureGroup.encodeKey(tileA, layerA, sortKeyA, hasGroupA, layerBits) <
+        FeatureGroup.encodeKey(tileB, layerB, sortKeyB, hasGroupB, layerBits)
     );
   }
 
+  @Test
+  void testImportFeaturesFromOtherGroup() throws IOException {
+    putWithGroup(1, "layer1", Map.of("a", 1, "b", "two"), newPoint(1, 2), 1, 3, 4);
+    put(2, "layer2", Map.of("c", 1.5, "d", true), newPoint(2, 3));
+    sorter.sort();
+    var expected = getFeatures();
+
+    var otherSorter = FeatureSort.newInMemory();
+    var other = new FeatureGroup(otherSorter, TileOrder.TMS, new Profile.NullProfile(), config, Stats.inMemory());
+    var importer = other.newFeatureImporter(features.layerStrings(), features.valueStrings());
+    try (var otherWriter = other.writerForThread()) {
+      // use up the first layer and key IDs so that imported features need different ones
+      otherWriter.accept(other.newRenderedFeatureEncoder().apply(new RenderedFeature(
+        TileCoord.decode(3),
+        new VectorTile.Feature("other", 1, VectorTile.encodeGeometry(newPoint(1, 2)), Map.of("z", 1)),
+        0,
+        Optional.empty()
+      )));
+      for (var feature : sorter) {
+        otherWriter.accept(importer.apply(feature));
+      }
+    }
+    otherSorter.sort();
+    features = other;
+    var actual = getFeatures();
+
+    assertEquals(Map.of("other", List.of(new Feature(Map.of("z", 1L), newPoint(1, 2)))), actual.remove(3));
+    assertEquals(expected, actual);
+  }
+
   @ParameterizedTest(name = "{0}")
   @ArgumentsSource(SameFeatureGroupTestArgs.class)
   void testHasSameContents(String testName, boolean expectSame, PuTileArgs args0, PuTileArgs args1) {
@@ -440,6 +519,25 @@ class FeatureGroupTest {
     assertEquals(expectSame, tile0.hasSameContents(tile1));
   }
 
+  @Test
+  void testUnboxedAttrsEncodeSameAsBoxed() {
+    AttributeMap unboxed = new AttributeMap();
+    unboxed.putInt("a", 1);
+    unboxed.putLong("b", 2);
+    unboxed.putFloat("c", 3.5f);
+    unboxed.putDouble("d", 4.5);
+    unboxed.put("e", "string");
+    unboxed.put("f", null);
+    putWithIdGroupAndSortKey(1, 1, "layer", unboxed, newPoint(1, 2), 0, false, 0, 0);
+    putWithIdGroupAndSortKey(1, 2, "layer", new TreeMap<>(Map.of("a", 1, "b", 2L, "c", 3.5f, "d", 4.5d, "e", "string")),
+      newPoint(1, 2), 0, false, 0, 0);
+    sorter.sort();
+    var iter = features.iterator();
+    var tile0 = iter.next();
+    var tile1 = iter.next();
+    assertTrue(tile0.hasSameContents(tile1));
+  }
+
   @ParameterizedTest(name = "{0}")
   @ArgumentsSource(SameFeatureGroupTestArgs.class)
   void testGenerateContentHash(String testName, boolean expectSame, PuTileArgs args0, PuTileArgs args1)
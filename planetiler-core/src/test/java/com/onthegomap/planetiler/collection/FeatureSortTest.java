@@ -1,6 +1,7 @@
 package com.onthegomap.planetiler.collection;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.stats.Stats;
@@ -28,7 +29,11 @@ class FeatureSortTest {
 
 
   private FeatureSort newSorter(int workers, int chunkSizeLimit, boolean gzip, boolean mmap) {
-    return new ExternalMergeSort(tmpDir, workers, chunkSizeLimit, gzip, mmap, true, true, config,
+    return newSorter(workers, chunkSizeLimit, gzip, mmap, false);
+  }
+
+  private FeatureSort newSorter(int workers, int chunkSizeLimit, boolean gzip, boolean mmap, boolean packed) {
+    return new ExternalMergeSort(tmpDir, workers, chunkSizeLimit, gzip, mmap, true, packed, true, config,
       Stats.inMemory());
   }
 
@@ -112,12 +117,15 @@ class FeatureSortTest {
 
   @ParameterizedTest
   @CsvSource({
-    "false,false",
-    "false,true",
-    "true,false",
-    "true,true",
+    "false,false,false",
+    "false,true,false",
+    "true,false,false",
+    "true,true,false",
+    "false,false,true",
+    "false,true,true",
+    "true,false,true",
   })
-  void testManyItems(boolean gzip, boolean mmap) {
+  void testManyItems(boolean gzip, boolean mmap, boolean packed) {
     List<SortableFeature> sorted = new ArrayList<>();
     List<SortableFeature> shuffled = new ArrayList<>();
     for (int i = 0; i < 10_000; i++) {
@@ -125,10 +133,89 @@ class FeatureSortTest {
       sorted.add(newEntry(i));
     }
     Collections.shuffle(shuffled, new Random(0));
-    FeatureSort sorter = newSorter(2, 20_000, gzip, mmap);
+    FeatureSort sorter = newSorter(2, 20_000, gzip, mmap, packed);
     var writer = sorter.writerForThread();
     shuffled.forEach(writer);
     sorter.sort();
     assertEquals(sorted, sorter.toList());
   }
+
+  @ParameterizedTest
+  @CsvSource({
+    "false,false,false",
+    "false,true,false",
+    "true,false,false",
+    "false,true,true",
+  })
+  void testReadKeyRanges(boolean gzip, boolean mmap, boolean packed) {
+    List<SortableFeature> sorted = new ArrayList<>();
+    List<SortableFeature> shuffled = new ArrayList<>();
+    for (int i = 0; i < 30_000; i++) {
+      shuffled.add(newEntry(i));
+      sorted.add(newEntry(i));
+    }
+    Collections.shuffle(shuffled, new Random(0));
+    FeatureSort sorter = newSorter(2, 700_000, gzip, mmap, packed);
+    var writer = sorter.writerForThread();
+    shuffled.forEach(writer);
+    sorter.sort();
+
+    List<Long> splits = sorter.splitKeys(4);
+    assertEquals(3, splits.size());
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(Long.MIN_VALUE);
+    boundaries.addAll(splits);
+    boundaries.add(Long.MAX_VALUE);
+    List<SortableFeature> concatenated = new ArrayList<>();
+    for (int i = 1; i < boundaries.size(); i++) {
+      List<SortableFeature> range = new ArrayList<>();
+      sorter.iterator(boundaries.get(i - 1), boundaries.get(i)).forEachRemaining(range::add);
+      assertFalse(range.isEmpty());
+      concatenated.addAll(range);
+    }
+    assertEquals(sorted, concatenated);
+
+    List<SortableFeature> middle = new ArrayList<>();
+    sorter.iterator(newEntry(12_345).key(), newEntry(23_456).key()).forEachRemaining(middle::add);
+    assertEquals(sorted.subList(12_345, 23_456), middle);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "false,false,true",
+    "false,true,true",
+    "true,false,false",
+  })
+  void testCanSeekToKey(boolean gzip, boolean mmap, boolean expected) {
+    assertEquals(expected, newSorter(2, 700_000, gzip, mmap).canSeekToKey());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "false,false",
+    "false,true",
+    "true,false",
+  })
+  void testPackedSortMatchesObjectSort(boolean gzip, boolean mmap) {
+    Random random = new Random(0);
+    List<SortableFeature> items = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      // few distinct keys spanning negative and positive values so most features need a tie-break on value bytes
+      long key = (random.nextInt(20) - 10) * 0x0101_0101_0101_0101L;
+      byte[] value = new byte[random.nextInt(4)];
+      random.nextBytes(value);
+      items.add(new SortableFeature(key, value));
+    }
+    List<SortableFeature> expected = new ArrayList<>(items);
+    Collections.sort(expected);
+
+    FeatureSort sorter = newSorter(2, 50_000, gzip, mmap, true);
+    var writer1 = sorter.writerForThread();
+    var writer2 = sorter.writerForThread();
+    for (int i = 0; i < items.size(); i++) {
+      (i % 2 == 0 ? writer1 : writer2).accept(items.get(i));
+    }
+    sorter.sort();
+    assertEquals(expected, sorter.toList());
+  }
 }
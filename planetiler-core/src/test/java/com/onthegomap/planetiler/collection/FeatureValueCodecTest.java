@@ -0,0 +1,63 @@
+package com.onthegomap.planetiler.collection;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FeatureValueCodecTest {
+
+  @ParameterizedTest
+  @ValueSource(longs = {0, 1, -1, 63, -64, 64, 1 << 20, Long.MAX_VALUE, Long.MIN_VALUE})
+  void testRoundTripVarLongs(long value) {
+    var writer = new FeatureValueCodec.Writer();
+    writer.writeSignedVarLong(value);
+    writer.writeVarLong(value);
+    writer.writeVarInt((int) value);
+    var reader = new FeatureValueCodec.Reader(writer.toByteArray());
+    assertEquals(value, reader.readSignedVarLong());
+    assertEquals(value, reader.readVarLong());
+    assertEquals((int) value, reader.readVarInt());
+  }
+
+  @Test
+  void testRoundTripValues() {
+    var writer = new FeatureValueCodec.Writer();
+    List<Object> values = List.of("", "ascii", "ünïcødé 🗺", 1, -2L, 1.5f, -2.25, true, false, new StringBuilder("sb"));
+    values.forEach(writer::writeValue);
+    var reader = new FeatureValueCodec.Reader(writer.toByteArray());
+    assertEquals(List.of("", "ascii", "ünïcødé 🗺", 1L, -2L, 1.5, -2.25, true, false, "sb"),
+      values.stream().map(v -> reader.readValue()).toList());
+  }
+
+  @Test
+  void testClearReusesBuffer() {
+    var writer = new FeatureValueCodec.Writer();
+    writer.writeValue("first value");
+    writer.clear().writeValue(2);
+    var expected = new FeatureValueCodec.Writer();
+    expected.writeValue(2);
+    assertArrayEquals(expected.toByteArray(), writer.toByteArray());
+  }
+
+  @Test
+  void testCopyValues() {
+    var writer = new FeatureValueCodec.Writer();
+    writer.writeValue("ü");
+    writer.writeValue(-5);
+    writer.writeValue(1.5);
+    writer.writeValue(true);
+    writer.writeVarInt(99);
+    byte[] original = writer.toByteArray();
+    var reader = new FeatureValueCodec.Reader(original);
+    var copy = new FeatureValueCodec.Writer();
+    for (int i = 0; i < 4; i++) {
+      reader.copyValue(copy);
+    }
+    reader.copyRemaining(copy);
+    assertArrayEquals(original, copy.toByteArray());
+  }
+}
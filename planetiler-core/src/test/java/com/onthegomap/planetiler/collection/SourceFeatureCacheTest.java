@@ -0,0 +1,25 @@
+package com.onthegomap.planetiler.collection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class SourceFeatureCacheTest {
+
+  @ParameterizedTest
+  @CsvSource({
+    "water-1a2b3c, water, true",
+    "water-1a2b3c.tmp, water, true",
+    "water-polygons-1a2b3c, water, false",
+    "water-polygons-1a2b3c, water-polygons, true",
+    "water-polygons-1a2b3c.tmp, water, false",
+    "water-, water, false",
+    "water-notahash, water, false",
+    "water, water, false",
+    "lakes-1a2b3c, water, false",
+  })
+  void testIsCacheFor(String fileName, String sourceName, boolean expected) {
+    assertEquals(expected, SourceFeatureCache.isCacheFor(fileName, sourceName));
+  }
+}
@@ -4,16 +4,19 @@ import static com.onthegomap.planetiler.TestUtils.assertSameJson;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.google.common.math.IntMath;
+import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.TestUtils;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.util.LayerAttrStats;
 import java.io.IOException;
 import java.math.RoundingMode;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -116,6 +119,52 @@ class MbtilesTest {
     testWriteTiles(tmpDir.resolve("archive.mbtiles"), 10, false, false, true);
   }
 
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void testConcurrentWritersMergeShards(boolean compactDb, @TempDir Path tmpDir) throws IOException, SQLException {
+    Path path = tmpDir.resolve("archive.mbtiles");
+    Set<Tile> expected = new TreeSet<>();
+    try (Mbtiles db = Mbtiles.newWriteToFileDatabase(path, Arguments.of("compact", Boolean.toString(compactDb)))) {
+      db.initialize();
+      var writer1 = db.newTileWriter();
+      var writer2 = db.newTileWriter();
+      var writer3 = db.newTileWriter();
+      assertTrue(Files.exists(tmpDir.resolve("archive.mbtiles1")));
+      assertTrue(Files.exists(tmpDir.resolve("archive.mbtiles2")));
+      var writers = List.of(writer1, writer2, writer3);
+      for (int i = 0; i < 100; i++) {
+        // same data in every shard to make sure tile data ids don't collide after merging
+        var entry = new Tile(TileCoord.ofXYZ(i, i + 1, 14), new byte[]{(byte) (i % 10)});
+        writers.get(i % 3).write(new TileEncodingResult(entry.coord(), entry.bytes(), OptionalLong.of(i % 10)));
+        expected.add(entry);
+      }
+      for (var writer : writers) {
+        writer.close();
+      }
+      db.finish(new TileArchiveMetadata(new Profile.NullProfile(), PlanetilerConfig.defaults()));
+
+      assertEquals(expected, TestUtils.getTiles(db));
+      assertFalse(Files.exists(tmpDir.resolve("archive.mbtiles1")));
+      assertFalse(Files.exists(tmpDir.resolve("archive.mbtiles2")));
+      if (compactDb) {
+        assertEquals(30, TestUtils.getTilesDataCount(db));
+      }
+    }
+  }
+
+  @Test
+  void testReuseWriterAfterClose() throws IOException {
+    try (Mbtiles db = Mbtiles.newInMemoryDatabase()) {
+      db.createTablesWithIndexes();
+      db.newTileWriter().close();
+      // no shards for in-memory databases, but sequential writers use the main connection
+      assertDoesNotThrow(() -> db.newTileWriter().close());
+      try (var writer = db.newTileWriter()) {
+        assertThrows(IllegalStateException.class, db::newTileWriter);
+      }
+    }
+  }
+
   @Test
   void testCustomPragma() throws IOException, SQLException {
     try (
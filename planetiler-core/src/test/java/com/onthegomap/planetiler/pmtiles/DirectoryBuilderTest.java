@@ -0,0 +1,89 @@
+package com.onthegomap.planetiler.pmtiles;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.util.Gzip;
+import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryBuilderTest {
+
+  private static List<Pmtiles.Entry> entries(int count) {
+    List<Pmtiles.Entry> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      result.add(new Pmtiles.Entry(i * 2L, i * 100L, 100, 1 + i % 2));
+    }
+    return result;
+  }
+
+  private static List<Pmtiles.Entry> readLeaves(DirectoryBuilder.Result result, byte[] leaves) throws IOException {
+    List<Pmtiles.Entry> actual = new ArrayList<>();
+    for (var leaf : Pmtiles.directoryFromBytes(Gzip.gunzip(result.root()))) {
+      byte[] leafBytes = Arrays.copyOfRange(leaves, (int) leaf.offset(), (int) leaf.offset() + leaf.length());
+      actual.addAll(Pmtiles.directoryFromBytes(Gzip.gunzip(leafBytes)));
+    }
+    return actual;
+  }
+
+  @Test
+  void testStreamLeavesFromDisk(@TempDir Path tmpDir) throws IOException {
+    var expected = entries(100_000);
+    Path spill = tmpDir.resolve("entries");
+    try (
+      var builder = DirectoryBuilder.onDisk(spill);
+      var out = new SeekableInMemoryByteChannel(0)
+    ) {
+      expected.forEach(builder::add);
+      assertTrue(builder.isClustered());
+      assertEquals(expected.size(), builder.numEntries());
+      var result = builder.writeDirectories(out);
+      assertEquals(1, result.numAttempts());
+      assertTrue(result.numLeaves() > 1);
+      assertEquals(out.size(), result.leavesLength());
+      assertEquals(expected, readLeaves(result, Arrays.copyOf(out.array(), (int) out.size())));
+    }
+    assertFalse(Files.exists(spill));
+  }
+
+  @Test
+  void testSortsEntriesAddedOutOfOrder() throws IOException {
+    var expected = entries(50_000);
+    var shuffled = new ArrayList<>(expected);
+    Collections.reverse(shuffled);
+    try (
+      var builder = DirectoryBuilder.inMemory();
+      var out = new SeekableInMemoryByteChannel(0)
+    ) {
+      shuffled.forEach(builder::add);
+      assertFalse(builder.isClustered());
+      var result = builder.writeDirectories(out);
+      assertEquals(expected, readLeaves(result, Arrays.copyOf(out.array(), (int) out.size())));
+    }
+  }
+
+  @Test
+  void testRootOnly() throws IOException {
+    try (
+      var builder = DirectoryBuilder.inMemory();
+      var out = new SeekableInMemoryByteChannel(0)
+    ) {
+      var expected = entries(10);
+      expected.forEach(builder::add);
+      var result = builder.writeDirectories(out);
+      assertEquals(0, result.numLeaves());
+      assertEquals(0, out.size());
+      assertArrayEquals(Gzip.gzip(Pmtiles.directoryToBytes(expected)), result.root());
+    }
+  }
+}
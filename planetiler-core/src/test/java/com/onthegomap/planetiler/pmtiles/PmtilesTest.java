@@ -17,6 +17,8 @@ import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -26,6 +28,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.locationtech.jts.geom.Coordinate;
@@ -211,6 +214,30 @@ class PmtilesTest {
     }
   }
 
+  @Test
+  void testWritePmtilesFileSpillsEntriesToTmpDir(@TempDir Path dir) throws IOException {
+    Path output = dir.resolve("output.pmtiles");
+    Path tmpDir = dir.resolve("tmp");
+    try (var in = WriteablePmtiles.newWriteToFile(output, tmpDir)) {
+      in.initialize();
+      var writer = in.newTileWriter();
+      writer.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 1), new byte[]{0xa, 0x2}, OptionalLong.empty()));
+      try (var files = Files.list(tmpDir)) {
+        assertEquals(1, files.filter(p -> p.getFileName().toString().endsWith(".entries")).count());
+      }
+      in.finish(new TileArchiveMetadata(new Profile.NullProfile(), PlanetilerConfig.defaults()));
+    }
+    try (var files = Files.list(dir)) {
+      assertEquals(Set.of(output, tmpDir), files.collect(Collectors.toSet()));
+    }
+    try (var files = Files.list(tmpDir)) {
+      assertEquals(0, files.count());
+    }
+    try (var reader = ReadablePmtiles.newReadFromFile(output)) {
+      assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(0, 0, 1));
+    }
+  }
+
   @Test
   void testRoundtripMetadata() throws IOException {
     roundTripMetadata(new TileArchiveMetadata(
@@ -2,6 +2,7 @@ package com.onthegomap.planetiler.reader;
 
 import static com.onthegomap.planetiler.TestUtils.newPoint;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.onthegomap.planetiler.TestUtils;
@@ -13,6 +14,7 @@ import com.onthegomap.planetiler.worker.WorkerPipeline;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -92,6 +94,70 @@ class ShapefileReaderTest {
     }
   }
 
+  @Test
+  @Timeout(30)
+  void testReadShapefileInParts() throws IOException, TransformException {
+    var dest = tempDir.resolve("shapefile.zip");
+    FileUtils.unzipResource("/shapefile.zip", dest);
+    var path = dest.resolve("shapefile").resolve("stations.shp");
+    try (
+      var reader = new ShapefileReader(null, "test", path);
+      var filtered = new ShapefileReader(null, "test", path, new Bounds(env))
+    ) {
+      assertTrue(reader.canReadInParts());
+      assertFalse(filtered.canReadInParts());
+      List<SimpleFeature> expected = new ArrayList<>();
+      reader.readFeatures(expected::add);
+      List<SimpleFeature> actual = new ArrayList<>();
+      for (int part = 0; part < 3; part++) {
+        reader.readFeatures(part, 3, actual::add);
+      }
+      assertEquals(86, actual.size());
+      assertEquals(expected, actual);
+      assertEquals(expected.stream().map(SimpleFeature::id).toList(), actual.stream().map(SimpleFeature::id).toList());
+    }
+  }
+
+  @Test
+  void testRecordNumberIdsMatchWhenReadInParts(@TempDir Path dir) throws IOException, TransformException {
+    var shpPath = dir.resolve("nulls.shp");
+    var dataStore =
+      (ShapefileDataStore) new ShapefileDataStoreFactory().createNewDataStore(Map.of("url", shpPath.toUri().toURL()));
+    var builder = new SimpleFeatureTypeBuilder();
+    builder.setName("nulls");
+    builder.add("the_geom", Point.class);
+    builder.add("value", Integer.class);
+    builder.setDefaultGeometry("the_geom");
+    var type = builder.buildFeatureType();
+    dataStore.createSchema(type);
+    try (var transaction = new DefaultTransaction("create")) {
+      var featureStore = (SimpleFeatureStore) dataStore.getFeatureSource(dataStore.getTypeNames()[0]);
+      featureStore.setTransaction(transaction);
+      var collection = new DefaultFeatureCollection();
+      var featureBuilder = new SimpleFeatureBuilder(type);
+      for (int i = 1; i <= 4; i++) {
+        featureBuilder.add(i == 2 ? null : newPoint(i, i));
+        featureBuilder.add(i);
+        collection.add(featureBuilder.buildFeature(null));
+      }
+      featureStore.addFeatures(collection);
+      transaction.commit();
+    }
+    dataStore.dispose();
+
+    try (var reader = new ShapefileReader(null, "test", shpPath)) {
+      List<SimpleFeature> sequential = new ArrayList<>();
+      reader.readFeatures(sequential::add);
+      List<SimpleFeature> parts = new ArrayList<>();
+      for (int part = 0; part < 2; part++) {
+        reader.readFeatures(part, 2, parts::add);
+      }
+      assertEquals(List.of(1L, 3L, 4L), sequential.stream().map(SimpleFeature::id).toList());
+      assertEquals(List.of(1L, 3L, 4L), parts.stream().map(SimpleFeature::id).toList());
+      assertEquals(List.of(1, 3, 4), parts.stream().map(f -> f.getTag("value")).toList());
+    }
+  }
+
   @Test
   void testReadShapefileLeniently(@TempDir Path dir) throws IOException, TransformException, FactoryException {
     var shpPath = dir.resolve("test.shp");
@@ -2,20 +2,32 @@ package com.onthegomap.planetiler.reader;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.TestUtils;
 import com.onthegomap.planetiler.collection.FeatureGroup;
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.TileOrder;
+import com.onthegomap.planetiler.stats.ForwardingStats;
 import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 class SourceFeatureProcessorTest {
 
@@ -93,4 +105,105 @@ class SourceFeatureProcessorTest {
       Set.of("a", "b", "c"),
       emittedFeatures.stream().map(SourceFeature::getSourceLayer).collect(Collectors.toSet()));
   }
+
+  @Test
+  void testSplitLargeInputsIntoParts() {
+    AtomicInteger opened = new AtomicInteger();
+    var processor = new SourceFeatureProcessor<>(
+      "sourceName",
+      path -> {
+        opened.incrementAndGet();
+        return new MockReader(new ArrayList<>(), path, "sourceName") {
+          @Override
+          public long getFeatureCount() {
+            return Long.parseLong(path.toString());
+          }
+
+          @Override
+          public boolean canReadInParts() {
+            return true;
+          }
+        };
+      },
+      new Profile.NullProfile(),
+      Stats.inMemory()
+    );
+
+    var small = Path.of("10");
+    var large = Path.of("2500");
+    var huge = Path.of("1000000");
+    var inputs = processor.getInputs(List.of(small, large, huge));
+    assertEquals(3, opened.get());
+    assertEquals(List.of(
+      new SourceFeatureProcessor.ReadTask(small, 0, 1),
+      new SourceFeatureProcessor.ReadTask(large, 0, 2),
+      new SourceFeatureProcessor.ReadTask(large, 1, 2),
+      new SourceFeatureProcessor.ReadTask(huge, 0, 3),
+      new SourceFeatureProcessor.ReadTask(huge, 1, 3),
+      new SourceFeatureProcessor.ReadTask(huge, 2, 3)
+    ), SourceFeatureProcessor.getReadTasks(inputs, 3));
+    assertEquals(List.of(new SourceFeatureProcessor.ReadTask(huge, 0, 1)),
+      SourceFeatureProcessor.getReadTasks(inputs.subList(2, 3), 1));
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void testReuseCachedFeatures(boolean cacheSource, @TempDir Path tempDir) throws IOException {
+    Path input = tempDir.resolve("input.txt");
+    Files.writeString(input, "contents");
+    var config = PlanetilerConfig.from(Arguments.of(Map.of("source_cache_dir", tempDir.resolve("cache").toString())));
+    var profile = new Profile.NullProfile() {
+      @Override
+      public void processFeature(SourceFeature sourceFeature, FeatureCollector features) {
+        features.point("layer").setAttr("name", sourceFeature.getSourceLayer());
+      }
+
+      @Override
+      public boolean cacheSource(String name) {
+        return cacheSource;
+      }
+    };
+    AtomicInteger reads = new AtomicInteger(0);
+    AtomicInteger processed = new AtomicInteger(0);
+    var countingStats = new ForwardingStats(Stats.inMemory()) {
+      @Override
+      public void processedElement(String elemType, String layer) {
+        processed.incrementAndGet();
+      }
+    };
+    Function<FeatureGroup, List<String>> process = featureGroup -> {
+      new SourceFeatureProcessor<>(
+        "sourceName",
+        path -> new MockReader(new ArrayList<>(), path, "sourceName") {
+          @Override
+          public void readFeatures(Consumer<SimpleFeature> next) {
+            reads.incrementAndGet();
+            next.accept(SimpleFeature.create(TestUtils.newPoint(1, 2), Map.of(), sourceName, "input", 1));
+          }
+        },
+        profile,
+        countingStats
+      ).processFiles(List.of(input), featureGroup, config);
+      List<String> tiles = new ArrayList<>();
+      for (var tile : featureGroup) {
+        tiles.add(tile.tileCoord() + " " + Arrays.toString(tile.getVectorTile().encode()));
+      }
+      return tiles;
+    };
+
+    var stats = Stats.inMemory();
+    var first = process.apply(FeatureGroup.newInMemoryFeatureGroup(TileOrder.TMS, profile, config, stats));
+    assertEquals(1, reads.get());
+    assertEquals(1, processed.get());
+    assertEquals(config.maxzoom() + 1, first.size());
+
+    var second = process.apply(FeatureGroup.newInMemoryFeatureGroup(TileOrder.TMS, profile, config, stats));
+    assertEquals(cacheSource ? 1 : 2, reads.get());
+    assertEquals(2, processed.get());
+    assertEquals(first, second);
+
+    Files.writeString(input, "changed");
+    process.apply(FeatureGroup.newInMemoryFeatureGroup(TileOrder.TMS, profile, config, stats));
+    assertEquals(cacheSource ? 2 : 3, reads.get());
+  }
 }
@@ -3,20 +3,32 @@ package com.onthegomap.planetiler.reader.osm;
 import static com.onthegomap.planetiler.TestUtils.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.TestUtils;
+import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.collection.LongLongMap;
 import com.onthegomap.planetiler.collection.LongLongMultimap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 class OsmReaderTest {
@@ -585,6 +597,47 @@ class OsmReaderTest {
     assertNull(feature);
   }
 
+  @Test
+  void testMultiPolygonConnectsSegmentsByStoredLocation() throws GeometryException {
+    OsmReader reader = newOsmReader();
+    var way1 = new OsmElement.Way(9);
+    way1.nodes().add(1, 2, 3);
+    // node 5 is a duplicate of node 3 and node 6 a duplicate of node 1
+    var way2 = new OsmElement.Way(10);
+    way2.nodes().add(5, 4, 6);
+
+    var relation = new OsmElement.Relation(11);
+    relation.setTag("type", "multipolygon");
+    relation.members().add(new OsmElement.Relation.Member(OsmElement.Type.WAY, way1.id(), "outer"));
+    relation.members().add(new OsmElement.Relation.Member(OsmElement.Type.WAY, way2.id(), "outer"));
+
+    List<OsmElement> elements = List.of(
+      node(1, 0.1, 0.1),
+      node(2, 0.9, 0.1),
+      node(3, 0.9, 0.9),
+      node(4, 0.1, 0.9),
+      node(5, 0.9, 0.9),
+      node(6, 0.1, 0.1),
+
+      way1,
+      way2,
+
+      relation
+    );
+
+    processPass1Block(reader, elements);
+    elements.stream().flatMap(nodes).forEach(reader::processNodePass2);
+    var nodeCache = reader.newNodeLocationProvider();
+    elements.stream().flatMap(ways).forEach(way -> reader.processWayPass2(way, nodeCache));
+
+    var feature = reader.processRelationPass2(relation, nodeCache);
+
+    assertSameNormalizedFeature(
+      rectangle(0.1, 0.9),
+      round(feature.worldGeometry())
+    );
+  }
+
   @Test
   void testMultiPolygonRefersToNonexistentNode() {
     OsmReader reader = newOsmReader();
@@ -613,7 +666,8 @@ class OsmReaderTest {
 
     var feature = reader.processRelationPass2(relation, nodeCache);
 
-    assertThrows(GeometryException.class, feature::worldGeometry);
+    var error = assertThrows(GeometryException.class, feature::worldGeometry);
+    assertTrue(error.getMessage().contains("Missing location for node: 2"), error.getMessage());
     assertThrows(GeometryException.class, feature::polygon);
     assertThrows(GeometryException.class, feature::validatedPolygon);
   }
@@ -703,6 +757,54 @@ class OsmReaderTest {
     assertEquals(List.of(), feature.relationInfo(TestRelInfo.class));
   }
 
+  @ParameterizedTest
+  @CsvSource({
+    "false, false",
+    "false, true",
+    "true, false",
+    "true, true",
+  })
+  void testSkipNodeBlocksProfileDoesNotCareAbout(boolean parallelWrites, boolean skipNodeBlocks) throws IOException {
+    Set<Long> processed = new ConcurrentSkipListSet<>();
+    Profile nodeProfile = new Profile.NullProfile() {
+      @Override
+      public void processFeature(SourceFeature sourceFeature, FeatureCollector features) {
+        processed.add(sourceFeature.id());
+      }
+
+      @Override
+      public boolean caresAbout(Expression.PartialInput input) {
+        return input.hasTag("amenity");
+      }
+    };
+    var amenity = node(3, 0.5, 0.5);
+    amenity.setTag("amenity", "bench");
+    var other = node(5, 0.5, 0.5);
+    other.setTag("other", "value");
+    var way = new OsmElement.Way(10);
+    way.nodes().add(1, 2);
+    way.setTag("highway", "path");
+    List<OsmBlockSource.Block> blocks = List.of(
+      OsmBlockSource.Block.of(List.of(node(1, 0.5, 0.5), node(2, 0.75, 0.75))),
+      OsmBlockSource.Block.of(List.of(amenity, node(4, 0.5, 0.5))),
+      OsmBlockSource.Block.of(List.of(other)),
+      OsmBlockSource.Block.of(List.of(way))
+    );
+    var config = PlanetilerConfig.from(Arguments.of(Map.of(
+      "osm_skip_node_blocks", Boolean.toString(skipNodeBlocks),
+      "threads", "2"
+    )));
+    var locations = parallelWrites ?
+      LongLongMap.from(LongLongMap.Type.ARRAY, Storage.RAM, new Storage.Params(Path.of("."), false)) :
+      LongLongMap.newInMemorySortedTable();
+    var featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.TMS, nodeProfile, config, stats);
+    try (var reader = new OsmReader("osm", () -> blocks::forEach, locations, multipolygons, nodeProfile, stats)) {
+      reader.pass1(config);
+      reader.pass2(featureGroup, config);
+    }
+    assertEquals(skipNodeBlocks ? Set.of(3L, 4L, 10L) : Set.of(1L, 2L, 3L, 4L, 5L, 10L), processed);
+  }
+
   private OsmReader newOsmReader() {
     return new OsmReader("osm", () -> osmSource, nodeMap, multipolygons, profile, stats);
   }
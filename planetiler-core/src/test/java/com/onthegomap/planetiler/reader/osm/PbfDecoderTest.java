@@ -0,0 +1,121 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+import com.onthegomap.planetiler.reader.FileFormatException;
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class PbfDecoderTest {
+
+  private static final List<String> STRINGS = List.of(
+    "", "highway", "primary", "name", "Main St", "outer", "type", "multipolygon", "user"
+  );
+
+  private static Osmformat.PrimitiveBlock block() {
+    return Osmformat.PrimitiveBlock.newBuilder()
+      .setStringtable(Osmformat.StringTable.newBuilder()
+        .addAllS(STRINGS.stream().map(ByteString::copyFromUtf8).toList()))
+      .addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder()
+        .setDense(Osmformat.DenseNodes.newBuilder()
+          .addAllId(List.of(1L, 1L))
+          .addAllLat(List.of(437409723L, 1L))
+          .addAllLon(List.of(74303278L, -1L))
+          .addAllKeysVals(List.of(1, 2, 3, 4, 0, 0))
+          .setDenseinfo(Osmformat.DenseInfo.newBuilder()
+            .addAllVersion(List.of(1, 2))
+            .addAllTimestamp(List.of(10L, 5L))
+            .addAllChangeset(List.of(100L, 1L))
+            .addAllUid(List.of(7, -7))
+            .addAllUserSid(List.of(8, -8)))))
+      .addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder()
+        .addWays(Osmformat.Way.newBuilder()
+          .setId(10)
+          .addAllKeys(List.of(1, 3))
+          .addAllVals(List.of(2, 4))
+          .addAllRefs(List.of(1L, 1L))
+          .setInfo(Osmformat.Info.newBuilder()
+            .setVersion(3)
+            .setTimestamp(20)
+            .setChangeset(30)
+            .setUid(7)
+            .setUserSid(8))))
+      .addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder()
+        .addRelations(Osmformat.Relation.newBuilder()
+          .setId(20)
+          .addKeys(6)
+          .addVals(7)
+          .addAllRolesSid(List.of(5, 0))
+          .addAllMemids(List.of(10L, -9L))
+          .addAllTypes(List.of(Osmformat.Relation.MemberType.WAY, Osmformat.Relation.MemberType.NODE))))
+      .build();
+  }
+
+  private static byte[] blob(Osmformat.PrimitiveBlock block, boolean compress) {
+    byte[] raw = block.toByteArray();
+    var builder = Fileformat.Blob.newBuilder().setRawSize(raw.length);
+    if (compress) {
+      Deflater deflater = new Deflater();
+      deflater.setInput(raw);
+      deflater.finish();
+      byte[] buffer = new byte[raw.length + 100];
+      int length = deflater.deflate(buffer);
+      deflater.end();
+      builder.setZlibData(ByteString.copyFrom(buffer, 0, length));
+    } else {
+      builder.setRaw(ByteString.copyFrom(raw));
+    }
+    return builder.build().toByteArray();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void testDecodeBlock(boolean compress) {
+    byte[] blob = blob(block(), compress);
+    List<OsmElement> expected = List.of(
+      new OsmElement.Node(1, Map.of("highway", "primary", "name", "Main St"), 43.7409723, 7.4303278,
+        new OsmElement.Info(100, 10, 7, 1, "user")),
+      new OsmElement.Node(2, Map.of(), 43.7409724, 7.4303277,
+        new OsmElement.Info(101, 15, 0, 2, "")),
+      new OsmElement.Way(10, Map.of("highway", "primary", "name", "Main St"), LongArrayList.from(1, 2),
+        new OsmElement.Info(30, 20, 7, 3, "user")),
+      new OsmElement.Relation(20, Map.of("type", "multipolygon"), List.of(
+        new OsmElement.Relation.Member(OsmElement.Type.WAY, 10, "outer"),
+        new OsmElement.Relation.Member(OsmElement.Type.NODE, 1, "")
+      ), new OsmElement.Info(0, 0, 0, -1, ""))
+    );
+    assertEquals(expected, Lists.newArrayList(PbfDecoder.decode(blob)));
+    assertEquals(expected, Lists.newArrayList(PbfDecoder.decode(ByteBuffer.wrap(blob))));
+  }
+
+  @Test
+  void testTagsAreMutable() {
+    var way = (OsmElement.Way) Lists.newArrayList(PbfDecoder.decode(blob(block(), true))).get(2);
+    way.setTag("oneway", "yes");
+    way.tags().remove("name");
+    assertEquals(Map.of("highway", "primary", "oneway", "yes"), way.tags());
+    assertEquals(new HashMap<>(Map.of("highway", "primary", "oneway", "yes")).hashCode(), way.tags().hashCode());
+  }
+
+  @Test
+  void testUnsupportedCompression() {
+    byte[] blob = Fileformat.Blob.newBuilder()
+      .setRawSize(10)
+      .setLzmaData(ByteString.copyFromUtf8("not supported"))
+      .build()
+      .toByteArray();
+    assertThrows(FileFormatException.class, () -> PbfDecoder.decode(blob));
+  }
+}
@@ -0,0 +1,72 @@
+package com.onthegomap.planetiler.stats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class LayerTimersTest {
+
+  private final LayerTimers layerTimers = new LayerTimers();
+
+  @Test
+  void testEmpty() {
+    assertTrue(layerTimers.snapshot().isEmpty());
+    layerTimers.printSummary();
+  }
+
+  @Test
+  void testRecord() {
+    var timers = layerTimers.forThread();
+    timers.record(LayerTimers.Stage.RENDER, "a", 1_000);
+    timers.record(LayerTimers.Stage.RENDER, "a", 50_000);
+    timers.record(LayerTimers.Stage.SLICE, "a", 2_000_000_000);
+    timers.record(LayerTimers.Stage.RENDER, null, 5);
+
+    var snapshot = layerTimers.snapshot();
+    assertEquals(Set.of("a", LayerTimers.NO_LAYER), snapshot.keySet());
+    var render = snapshot.get("a").get(LayerTimers.Stage.RENDER);
+    assertEquals(2, render.count());
+    assertEquals(51_000, render.nanos());
+    assertArrayEquals(new long[]{1, 0, 1, 0, 0, 0, 0, 0}, render.buckets());
+    var slice = snapshot.get("a").get(LayerTimers.Stage.SLICE);
+    assertArrayEquals(new long[]{0, 0, 0, 0, 0, 0, 0, 1}, slice.buckets());
+    assertEquals(Set.of(LayerTimers.Stage.RENDER, LayerTimers.Stage.SLICE), snapshot.get("a").keySet());
+    layerTimers.printSummary();
+  }
+
+  @Test
+  void testRecordSplit() {
+    var timers = layerTimers.forThread();
+    timers.recordSplit(LayerTimers.Stage.PROCESS_FEATURE, List.of("a", "b", "a", "a"), 400);
+    timers.recordSplit(LayerTimers.Stage.PROCESS_FEATURE, List.of(), 10);
+
+    var snapshot = layerTimers.snapshot();
+    assertEquals(300, snapshot.get("a").get(LayerTimers.Stage.PROCESS_FEATURE).nanos());
+    assertEquals(1, snapshot.get("a").get(LayerTimers.Stage.PROCESS_FEATURE).count());
+    assertEquals(100, snapshot.get("b").get(LayerTimers.Stage.PROCESS_FEATURE).nanos());
+    assertEquals(10, snapshot.get(LayerTimers.NO_LAYER).get(LayerTimers.Stage.PROCESS_FEATURE).nanos());
+  }
+
+  @Test
+  void testCombinesThreads() throws InterruptedException {
+    layerTimers.forThread().record(LayerTimers.Stage.ENCODE, "a", 10);
+    Thread thread = new Thread(() -> {
+      var timers = layerTimers.forThread();
+      timers.record(LayerTimers.Stage.ENCODE, "a", 20);
+      timers.record(LayerTimers.Stage.COMPRESS, "b", 30);
+    });
+    thread.start();
+    thread.join();
+
+    var snapshot = layerTimers.snapshot();
+    var encode = snapshot.get("a").get(LayerTimers.Stage.ENCODE);
+    assertEquals(2, encode.count());
+    assertEquals(30, encode.nanos());
+    assertEquals(Set.of(LayerTimers.Stage.COMPRESS), snapshot.get("b").keySet());
+    assertEquals(30, snapshot.get("b").get(LayerTimers.Stage.COMPRESS).nanos());
+  }
+}
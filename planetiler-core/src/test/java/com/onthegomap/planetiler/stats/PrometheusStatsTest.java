@@ -95,6 +95,18 @@ class PrometheusStatsTest {
     assertContainsStat("^planetiler_archive_tile_written_bytes_bucket\\{.*le=\"10000\\..* 2", stats);
   }
 
+  @Test
+  void testLayerTimers() {
+    PrometheusStats stats = new PrometheusStats("job");
+    var timers = stats.layerTimers().forThread();
+    timers.record(LayerTimers.Stage.RENDER, "layer1", 500);
+    timers.record(LayerTimers.Stage.RENDER, "layer1", 2_000_000);
+    assertContainsStat("^planetiler_layer_stage_seconds_bucket\\{.*layer1.*render.*le=\"1\\.0E-6\".* 1", stats);
+    assertContainsStat("^planetiler_layer_stage_seconds_bucket\\{.*layer1.*render.*le=\"\\+Inf\".* 2", stats);
+    assertContainsStat("^planetiler_layer_stage_seconds_count\\{.*layer1.*render.* 2", stats);
+    assertContainsStat("^planetiler_layer_stage_seconds_sum\\{.*layer1.*render.* 0\\.0020005", stats);
+  }
+
   @Test
   void testMonitorFile(@TempDir Path path) throws IOException {
     PrometheusStats stats = new PrometheusStats("job");
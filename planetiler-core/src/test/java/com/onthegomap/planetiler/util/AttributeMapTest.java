@@ -0,0 +1,116 @@
+package com.onthegomap.planetiler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class AttributeMapTest {
+
+  @Test
+  void testEmpty() {
+    var map = new AttributeMap();
+    assertEquals(Map.of(), map);
+    assertNull(map.get("a"));
+    assertFalse(map.containsKey("a"));
+  }
+
+  @Test
+  void testKeepsBoxedTypes() {
+    var map = new AttributeMap(1);
+    map.putInt("int", 1);
+    map.putLong("long", 2);
+    map.putFloat("float", 3.5f);
+    map.putDouble("double", 4.5);
+    map.put("string", "value");
+    map.put("boolean", true);
+    assertEquals(Map.of(
+      "int", 1,
+      "long", 2L,
+      "float", 3.5f,
+      "double", 4.5,
+      "string", "value",
+      "boolean", true
+    ), map);
+    assertEquals(Map.of(
+      "int", 1,
+      "long", 2L,
+      "float", 3.5f,
+      "double", 4.5,
+      "string", "value",
+      "boolean", true
+    ).hashCode(), map.hashCode());
+  }
+
+  @Test
+  void testSortedLikeTreeMap() {
+    var map = new AttributeMap(2);
+    var expected = new TreeMap<String, Object>();
+    for (String key : List.of("c", "a", "e", "b", "d", "a", "f")) {
+      map.putInt(key, key.charAt(0));
+      expected.put(key, (int) key.charAt(0));
+    }
+    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+    assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(map.values()));
+    for (int i = 0; i < map.size(); i++) {
+      assertTrue(map.isIntegralAt(i));
+      assertEquals((long) map.keyAt(i).charAt(0), map.longAt(i));
+    }
+  }
+
+  @Test
+  void testReplaceChangesType() {
+    var map = new AttributeMap();
+    map.putDouble("a", 1.5);
+    assertTrue(map.isFloatingAt(0));
+    assertEquals(1.5, map.doubleAt(0));
+    assertEquals(1.5, map.put("a", "x"));
+    assertFalse(map.isFloatingAt(0));
+    assertEquals("x", map.get("a"));
+    map.putLong("a", 3);
+    assertEquals(Map.of("a", 3L), map);
+  }
+
+  @Test
+  void testRemove() {
+    var map = new AttributeMap();
+    map.putInt("a", 1);
+    map.put("b", "2");
+    map.putDouble("c", 3);
+    assertEquals("2", map.remove("b"));
+    assertNull(map.remove("b"));
+    assertEquals(Map.of("a", 1, "c", 3d), map);
+    map.entrySet().removeIf(e -> e.getKey().equals("a"));
+    assertEquals(Map.of("c", 3d), map);
+    map.clear();
+    assertEquals(Map.of(), map);
+  }
+
+  @Test
+  void testNullValue() {
+    var map = new AttributeMap();
+    map.put("a", null);
+    assertTrue(map.containsKey("a"));
+    assertNull(map.get("a"));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  void testCopyOf() {
+    var map = new AttributeMap();
+    map.putInt("a", 1);
+    map.put("b", "2");
+    var copy = AttributeMap.copyOf(map);
+    copy.putDouble("c", 3);
+    assertEquals(Map.of("a", 1, "b", "2"), map);
+    assertEquals(Map.of("a", 1, "b", "2", "c", 3d), copy);
+    assertTrue(copy.isIntegralAt(0));
+    assertEquals(Map.of("x", 1, "y", "z"), AttributeMap.copyOf(Map.of("y", "z", "x", 1)));
+  }
+}
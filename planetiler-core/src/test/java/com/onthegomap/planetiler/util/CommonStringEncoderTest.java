@@ -1,8 +1,13 @@
 package com.onthegomap.planetiler.util;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 
 class CommonStringEncoderTest {
@@ -51,4 +56,38 @@ class CommonStringEncoderTest {
     }
     assertThrows(IllegalArgumentException.class, () -> commonStringEncoderInteger.encode("too many"));
   }
+
+  @Test
+  void testUnboundedGrowsPastInitialChunk() {
+    var encoder = new CommonStringEncoder();
+    for (int i = 0; i < 300_000; i++) {
+      assertEquals(i, encoder.encode(Integer.toString(i)));
+    }
+    assertEquals("299999", encoder.decode(299_999));
+    assertThrows(IllegalArgumentException.class, () -> encoder.decode(300_000));
+    assertThrows(IllegalArgumentException.class, () -> encoder.decode(10_000_000));
+    String[] strings = encoder.toArray();
+    assertEquals(300_000, strings.length);
+    assertEquals(300_000, encoder.size());
+    assertEquals("1234", strings[1234]);
+    assertEquals("299999", strings[299_999]);
+  }
+
+  @Test
+  void testConcurrentEncodesAgreeOnIds() {
+    var encoder = new CommonStringEncoder();
+    List<CompletableFuture<int[]>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 4; thread++) {
+      futures.add(CompletableFuture.supplyAsync(
+        () -> IntStream.range(0, 20_000).map(i -> encoder.encode("key" + i)).toArray()));
+    }
+    int[] expected = futures.getFirst().join();
+    for (var future : futures) {
+      assertArrayEquals(expected, future.join());
+    }
+    assertEquals(20_000, encoder.size());
+    for (int i = 0; i < 20_000; i++) {
+      assertEquals("key" + i, encoder.decode(expected[i]));
+    }
+  }
 }
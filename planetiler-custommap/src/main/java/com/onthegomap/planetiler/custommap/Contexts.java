@@ -195,6 +195,7 @@ public class Contexts {
       argumentValues.put("mmap_temp", config.mmapTempStorage());
       argumentValues.put("sort_max_readers", config.sortMaxReaders());
       argumentValues.put("sort_max_writers", config.sortMaxWriters());
+      argumentValues.put("sort_packed", config.sortPacked());
       argumentValues.put("nodemap_type", config.nodeMapType());
       argumentValues.put("nodemap_storage", config.nodeMapStorage());
       argumentValues.put("nodemap_madvise", config.nodeMapMadvise());
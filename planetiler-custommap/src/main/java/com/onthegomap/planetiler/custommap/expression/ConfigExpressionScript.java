@@ -14,6 +14,9 @@ import org.projectnessie.cel.tools.ScriptHost;
 
 /**
  * An expression that returns the result of evaluating a user-defined string script on the input environment context.
+ * <p>
+ * Scripts that only use the subset of CEL handled by {@link ScriptCompiler} run as plain java code, and only go through
+ * the CEL interpreter for inputs that the compiled version can not handle.
  *
  * @param <I> Type of the context that the script is expecting
  * @param <O> Result type of the script
@@ -24,6 +27,7 @@ public class ConfigExpressionScript<I extends ScriptContext, O> implements Confi
   private static final Memoized<ConfigExpressionScript<?, ?>, ?> staticEvaluationCache =
     Memoized.memoize(ConfigExpressionScript::doStaticEvaluate);
   private final Script script;
+  private final ScriptCompiler.Compiled compiled;
   private final Class<O> returnType;
   private final String scriptText;
   private final ScriptEnvironment<I> descriptor;
@@ -32,6 +36,7 @@ public class ConfigExpressionScript<I extends ScriptContext, O> implements Confi
     Class<O> returnType) {
     this.scriptText = scriptText;
     this.script = script;
+    this.compiled = ScriptCompiler.compile(scriptText, descriptor);
     this.returnType = returnType;
     this.descriptor = descriptor;
   }
@@ -115,8 +120,24 @@ public class ConfigExpressionScript<I extends ScriptContext, O> implements Confi
     }
   }
 
+  /** Returns true if this script can be evaluated without the CEL interpreter for at least some inputs. */
+  boolean isCompiled() {
+    return compiled != null;
+  }
+
   @Override
   public O apply(I input) {
+    if (compiled != null) {
+      Object result = compiled.apply(input);
+      if (result != ScriptCompiler.FALLBACK) {
+        return TypeConversion.convert(result, returnType);
+      }
+    }
+    return interpret(input);
+  }
+
+  /** Returns the result of evaluating this script with the CEL interpreter, even if it has been compiled. */
+  O interpret(I input) {
     try {
       return TypeConversion.convert(script.execute(Object.class, input), returnType);
     } catch (ScriptException e) {
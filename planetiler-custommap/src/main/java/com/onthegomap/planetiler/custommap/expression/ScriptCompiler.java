@@ -0,0 +1,437 @@
+package com.onthegomap.planetiler.custommap.expression;
+
+import com.google.api.expr.v1alpha1.Constant;
+import com.google.api.expr.v1alpha1.Expr;
+import com.google.protobuf.NullValue;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import org.projectnessie.cel.Env;
+import org.projectnessie.cel.common.types.NullT;
+
+/**
+ * Lowers the common subset of CEL scripts to a tree of java lambdas so they can be evaluated without going through the
+ * CEL interpreter.
+ * <p>
+ * Supports literals, variables, tag lookups ({@code feature.tags.key}, {@code feature.tags["key"]},
+ * {@code feature.tags.get("key")} and {@code feature.tags.has("key", "value"...)}), comparisons, boolean logic,
+ * ternaries, {@code +}/{@code -}, {@code coalesce}, {@code nullif}, {@code int}/{@code double}/{@code string}
+ * conversions and a few string functions. Tag lookups read the value for a single key through
+ * {@link ScriptContext#tagValueProducer()} instead of building a map of every tag on the feature.
+ * <p>
+ * Compiled scripts only handle the inputs where their result is certain to be the same as the interpreter's: when a
+ * value has an unexpected type, or the interpreter would raise an error, they return {@link #FALLBACK} and the caller
+ * evaluates the script with the interpreter instead.
+ */
+class ScriptCompiler {
+
+  /** Returned by a compiled script when the input needs to be evaluated by the CEL interpreter. */
+  static final Object FALLBACK = new Object() {
+    @Override
+    public String toString() {
+      return "FALLBACK";
+    }
+  };
+
+  private static final String FEATURE_TAGS = "feature.tags";
+  private static final Pattern INT_PATTERN = Pattern.compile("^-?\\d{1,18}$");
+  private static final Pattern DOUBLE_PATTERN = Pattern.compile("^[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?$");
+
+  /** A compiled script that returns a {@link String}, {@link Long}, {@link Double}, {@link Boolean}, or null. */
+  @FunctionalInterface
+  interface Compiled {
+
+    /** Returns the result of the script on {@code context} or {@link #FALLBACK} if it could not be evaluated. */
+    Object apply(ScriptContext context);
+  }
+
+  private ScriptCompiler() {}
+
+  /**
+   * Returns {@code script} compiled against variables from {@code environment}, or {@code null} if it uses anything
+   * outside of the supported subset.
+   * <p>
+   * {@code script} should already have been type-checked by the interpreter.
+   */
+  static Compiled compile(String script, ScriptEnvironment<?> environment) {
+    var parsed = Env.newEnv().parse(script);
+    if (parsed.hasIssues()) {
+      return null;
+    }
+    Compiled compiled = new ScriptCompiler.Builder(environment).compile(parsed.getAst().getExpr());
+    return compiled == null ? null : context -> {
+      Object result = compiled.apply(context);
+      return result instanceof Map<?, ?> ? FALLBACK : result;
+    };
+  }
+
+  /** Converts a value from a context or map to the type that the interpreter would return for it. */
+  static Object normalize(Object value) {
+    return switch (value) {
+      case null -> null;
+      case NullT ignored -> null;
+      case NullValue ignored -> null;
+      case String ignored -> value;
+      case Long ignored -> value;
+      case Double ignored -> value;
+      case Boolean ignored -> value;
+      case Integer i -> i.longValue();
+      case Short s -> s.longValue();
+      case Byte b -> b.longValue();
+      case Float f -> f.doubleValue();
+      case Map<?, ?> ignored -> value;
+      default -> FALLBACK;
+    };
+  }
+
+  private static boolean sameKind(Object a, Object b) {
+    return a == null ? b == null : b != null && a.getClass() == b.getClass();
+  }
+
+  private static Object equal(Object a, Object b) {
+    if (a == FALLBACK || b == FALLBACK || !sameKind(a, b) || a instanceof Map<?, ?>) {
+      return FALLBACK;
+    } else if (a instanceof Double da) {
+      return da.doubleValue() == (Double) b;
+    }
+    return a == null || a.equals(b);
+  }
+
+  private static Object compare(Object a, Object b, int sign, boolean orEqual) {
+    int result;
+    if (a instanceof Long la && b instanceof Long lb) {
+      result = Long.compare(la, lb);
+    } else if (a instanceof String sa && b instanceof String sb) {
+      result = Integer.signum(sa.compareTo(sb));
+    } else if (a instanceof Double da && b instanceof Double db) {
+      double x = da, y = db;
+      if (Double.isNaN(x) || Double.isNaN(y)) {
+        return false;
+      }
+      result = x < y ? -1 : x > y ? 1 : 0;
+    } else {
+      return FALLBACK;
+    }
+    return result == sign || (orEqual && result == 0);
+  }
+
+  private static Object add(Object a, Object b) {
+    return switch (a) {
+      case String sa when b instanceof String sb -> sa + sb;
+      case Long la when b instanceof Long lb -> {
+        long sum = la + lb;
+        // the interpreter raises an error on overflow
+        yield ((la ^ sum) & (lb ^ sum)) < 0 ? FALLBACK : sum;
+      }
+      case Double da when b instanceof Double db -> da + db;
+      case null, default -> FALLBACK;
+    };
+  }
+
+  private static Object subtract(Object a, Object b) {
+    return switch (a) {
+      case Long la when b instanceof Long lb -> {
+        long diff = la - lb;
+        yield ((la ^ lb) & (la ^ diff)) < 0 ? FALLBACK : diff;
+      }
+      case Double da when b instanceof Double db -> da - db;
+      case null, default -> FALLBACK;
+    };
+  }
+
+  private static Object toInt(Object value) {
+    return switch (value) {
+      case Long ignored -> value;
+      case String s when INT_PATTERN.matcher(s).matches() -> Long.parseLong(s);
+      case null, default -> FALLBACK;
+    };
+  }
+
+  private static Object toDouble(Object value) {
+    return switch (value) {
+      case Double ignored -> value;
+      case Long l -> l.doubleValue();
+      case String s when DOUBLE_PATTERN.matcher(s).matches() -> Double.parseDouble(s);
+      case null, default -> FALLBACK;
+    };
+  }
+
+  private static Object toStringValue(Object value) {
+    return switch (value) {
+      case String ignored -> value;
+      case Long ignored -> value.toString();
+      case Boolean ignored -> value.toString();
+      case null, default -> FALLBACK;
+    };
+  }
+
+  private static Object size(Object value) {
+    return value instanceof String s ? (Object) (long) s.codePointCount(0, s.length()) : FALLBACK;
+  }
+
+  private record Builder(ScriptEnvironment<?> environment) {
+
+    Compiled compile(Expr expr) {
+      return switch (expr.getExprKindCase()) {
+        case CONST_EXPR -> constant(expr.getConstExpr());
+        case IDENT_EXPR -> variable(expr.getIdentExpr().getName());
+        case SELECT_EXPR -> select(expr);
+        case CALL_EXPR -> call(expr.getCallExpr());
+        default -> null;
+      };
+    }
+
+    private Compiled[] compileAll(List<Expr> exprs) {
+      Compiled[] result = new Compiled[exprs.size()];
+      for (int i = 0; i < result.length; i++) {
+        if ((result[i] = compile(exprs.get(i))) == null) {
+          return null;
+        }
+      }
+      return result;
+    }
+
+    private static Compiled constant(Constant constant) {
+      Object value = switch (constant.getConstantKindCase()) {
+        case NULL_VALUE -> null;
+        case BOOL_VALUE -> constant.getBoolValue();
+        case INT64_VALUE -> constant.getInt64Value();
+        case DOUBLE_VALUE -> constant.getDoubleValue();
+        case STRING_VALUE -> constant.getStringValue();
+        default -> FALLBACK;
+      };
+      return value == FALLBACK ? null : context -> value;
+    }
+
+    private Compiled variable(String name) {
+      return environment.containsVariable(name) ? context -> normalize(context.apply(name)) : null;
+    }
+
+    /** Returns the dotted name that a chain of field selections refers to, like {@code feature.tags}. */
+    private static String qualifiedName(Expr expr) {
+      if (expr.hasIdentExpr()) {
+        return expr.getIdentExpr().getName();
+      } else if (expr.hasSelectExpr() && !expr.getSelectExpr().getTestOnly()) {
+        String operand = qualifiedName(expr.getSelectExpr().getOperand());
+        return operand == null ? null : operand + "." + expr.getSelectExpr().getField();
+      }
+      return null;
+    }
+
+    private boolean isFeatureTags(Expr expr) {
+      return FEATURE_TAGS.equals(qualifiedName(expr)) && environment.containsVariable(FEATURE_TAGS);
+    }
+
+    private static String stringConstant(Expr expr) {
+      return expr.getConstExpr().getConstantKindCase() == Constant.ConstantKindCase.STRING_VALUE ?
+        expr.getConstExpr().getStringValue() : null;
+    }
+
+    private Compiled select(Expr expr) {
+      var select = expr.getSelectExpr();
+      String name = qualifiedName(expr);
+      if (select.getTestOnly()) {
+        return null;
+      } else if (name != null && environment.containsVariable(name)) {
+        return variable(name);
+      } else if (isFeatureTags(select.getOperand())) {
+        return tag(select.getField());
+      }
+      return lookup(compile(select.getOperand()), context -> select.getField());
+    }
+
+    /** Returns the value of a tag, transformed by the tag value producer, or null if it is missing. */
+    private static Compiled tag(String key) {
+      return context -> normalize(context.tagValueProducer().valueForKey(context, key));
+    }
+
+    /** Returns the value of a key that must be in a map, otherwise the interpreter raises an error. */
+    private static Compiled lookup(Compiled map, Compiled key) {
+      if (map == null || key == null) {
+        return null;
+      }
+      return context -> {
+        if (map.apply(context) instanceof Map<?, ?> m) {
+          Object k = key.apply(context);
+          if (k instanceof String || k instanceof Long) {
+            Object value = m.get(k);
+            return value == null ? FALLBACK : normalize(value);
+          }
+        }
+        return FALLBACK;
+      };
+    }
+
+    private Compiled call(Expr.Call call) {
+      List<Expr> argExprs = call.getArgsList();
+      if (call.hasTarget()) {
+        return method(call.getFunction(), call.getTarget(), argExprs);
+      }
+      if (call.getFunction().equals("_[_]") && argExprs.size() == 2) {
+        String key = stringConstant(argExprs.get(1));
+        if (key != null && isFeatureTags(argExprs.get(0))) {
+          return tag(key);
+        }
+        return lookup(compile(argExprs.get(0)), compile(argExprs.get(1)));
+      }
+      Compiled[] args = compileAll(argExprs);
+      if (args == null) {
+        return null;
+      }
+      return switch (call.getFunction()) {
+        case "_==_" -> binary(args, ScriptCompiler::equal);
+        case "_!=_" -> binary(args, (a, b) -> equal(a, b) instanceof Boolean eq ? !eq : FALLBACK);
+        case "_<_" -> binary(args, (a, b) -> compare(a, b, -1, false));
+        case "_<=_" -> binary(args, (a, b) -> compare(a, b, -1, true));
+        case "_>_" -> binary(args, (a, b) -> compare(a, b, 1, false));
+        case "_>=_" -> binary(args, (a, b) -> compare(a, b, 1, true));
+        case "_+_" -> binary(args, ScriptCompiler::add);
+        case "_-_" -> binary(args, ScriptCompiler::subtract);
+        case "_&&_" -> args.length == 2 ? logical(args[0], args[1], false) : null;
+        case "_||_" -> args.length == 2 ? logical(args[0], args[1], true) : null;
+        case "!_" -> unary(args, a -> a instanceof Boolean b ? !b : FALLBACK);
+        case "_?_:_" -> args.length == 3 ? ternary(args[0], args[1], args[2]) : null;
+        case "int" -> unary(args, ScriptCompiler::toInt);
+        case "double" -> unary(args, ScriptCompiler::toDouble);
+        case "string" -> unary(args, ScriptCompiler::toStringValue);
+        case "size" -> unary(args, ScriptCompiler::size);
+        case "coalesce" -> coalesce(args);
+        case "nullif" -> binary(args, (a, b) -> {
+          if (a instanceof Double || b instanceof Double || a instanceof Map || b instanceof Map) {
+            return FALLBACK;
+          }
+          return sameKind(a, b) && (a == null || a.equals(b)) ? null : a;
+        });
+        default -> null;
+      };
+    }
+
+    private Compiled method(String function, Expr targetExpr, List<Expr> argExprs) {
+      if (isFeatureTags(targetExpr) && !argExprs.isEmpty()) {
+        String key = stringConstant(argExprs.getFirst());
+        if (key != null && function.equals("get") && argExprs.size() == 1) {
+          return tag(key);
+        } else if (key != null && function.equals("has") && argExprs.size() > 1) {
+          Compiled[] values = compileAll(argExprs.subList(1, argExprs.size()));
+          return values == null ? null : hasTag(tag(key), values);
+        }
+      }
+      Compiled target = compile(targetExpr);
+      Compiled[] args = compileAll(argExprs);
+      if (target == null || args == null) {
+        return null;
+      }
+      return switch (function) {
+        case "startsWith" -> stringMethod(target, args, (s, a) -> s.startsWith(a));
+        case "endsWith" -> stringMethod(target, args, (s, a) -> s.endsWith(a));
+        case "contains" -> stringMethod(target, args, (s, a) -> s.contains(a));
+        case "size" -> args.length == 0 ? context -> size(target.apply(context)) : null;
+        case "replace" -> args.length == 2 ? context -> {
+          if (target.apply(context) instanceof String s &&
+            args[0].apply(context) instanceof String from &&
+            args[1].apply(context) instanceof String to) {
+            return s.replace(from, to);
+          }
+          return FALLBACK;
+        } : null;
+        default -> null;
+      };
+    }
+
+    private static Compiled hasTag(Compiled tag, Compiled[] values) {
+      return context -> {
+        Object value = tag.apply(context);
+        if (value == FALLBACK || value instanceof Double) {
+          return FALLBACK;
+        }
+        for (Compiled candidate : values) {
+          Object expected = candidate.apply(context);
+          if (expected == null || expected == FALLBACK || expected instanceof Double || expected instanceof Map) {
+            return FALLBACK;
+          } else if (expected.equals(value)) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+
+    private static Compiled stringMethod(Compiled target, Compiled[] args, BiPredicate<String, String> fn) {
+      if (args.length != 1) {
+        return null;
+      }
+      Compiled arg = args[0];
+      return context -> target.apply(context) instanceof String s && arg.apply(context) instanceof String a ?
+        (Object) fn.test(s, a) : FALLBACK;
+    }
+
+    private static Compiled unary(Compiled[] args, UnaryOperator<Object> fn) {
+      if (args.length != 1) {
+        return null;
+      }
+      Compiled arg = args[0];
+      return context -> {
+        Object value = arg.apply(context);
+        return value == FALLBACK ? FALLBACK : fn.apply(value);
+      };
+    }
+
+    private static Compiled binary(Compiled[] args, BinaryOperator<Object> fn) {
+      if (args.length != 2) {
+        return null;
+      }
+      Compiled left = args[0];
+      Compiled right = args[1];
+      return context -> {
+        Object a = left.apply(context);
+        if (a == FALLBACK) {
+          return FALLBACK;
+        }
+        Object b = right.apply(context);
+        return b == FALLBACK ? FALLBACK : fn.apply(a, b);
+      };
+    }
+
+    /**
+     * CEL {@code &&} and {@code ||} are commutative: a side that short-circuits wins even if the other side has an
+     * error, so only fall back when neither side decides the result.
+     */
+    private static Compiled logical(Compiled left, Compiled right, boolean shortCircuit) {
+      return context -> {
+        Object a = left.apply(context);
+        if (a instanceof Boolean value && value == shortCircuit) {
+          return shortCircuit;
+        }
+        Object b = right.apply(context);
+        if (b instanceof Boolean value && value == shortCircuit) {
+          return shortCircuit;
+        }
+        return a instanceof Boolean && b instanceof Boolean ? !shortCircuit : FALLBACK;
+      };
+    }
+
+    private static Compiled ternary(Compiled condition, Compiled ifTrue, Compiled ifFalse) {
+      return context -> condition.apply(context) instanceof Boolean b ?
+        (b ? ifTrue : ifFalse).apply(context) : FALLBACK;
+    }
+
+    private static Compiled coalesce(Compiled[] args) {
+      return context -> {
+        // the interpreter evaluates every argument, and fails if any of them fail
+        Object result = null;
+        for (Compiled arg : args) {
+          Object value = arg.apply(context);
+          if (value == FALLBACK) {
+            return FALLBACK;
+          } else if (result == null) {
+            result = value;
+          }
+        }
+        return result;
+      };
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.onthegomap.planetiler.custommap.expression;
+
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static com.onthegomap.planetiler.custommap.TestContexts.PROCESS_FEATURE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.custommap.Contexts;
+import com.onthegomap.planetiler.custommap.TagValueProducer;
+import com.onthegomap.planetiler.custommap.TestContexts;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ScriptCompilerTest {
+
+  private static final Contexts.ProcessFeature CONTEXT = TestContexts.ROOT.createProcessFeatureContext(
+    SimpleFeature.create(newPoint(0, 0), Map.of(
+      "name", "Main St",
+      "highway", "primary",
+      "lanes", "2",
+      "width", "3.5"
+    ), "osm", null, 1),
+    new TagValueProducer(Map.of("lanes", "integer"))
+  );
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+    "feature.tags.name",
+    "feature.tags['highway'] == 'primary'",
+    "feature.tags.get('missing')",
+    "coalesce(feature.tags.missing, feature.tags.name)",
+    "feature.tags.has('highway', 'primary', 'secondary')",
+    "feature.tags.has('highway', 'secondary')",
+    "feature.tags.lanes + 1",
+    "feature.tags.lanes - 3",
+    "double(feature.tags.width) >= 3.0",
+    "feature.tags.highway == 'primary' ? 'main' : 'minor'",
+    "feature.id > 0 && feature.source == 'osm'",
+    "feature.id < 0 || feature.tags.name != 'Main St'",
+    "!feature.tags.name.startsWith('Main')",
+    "feature.tags.name.endsWith('St') && feature.tags.name.contains('n S')",
+    "feature.tags.name.replace(' St', ' Street')",
+    "string(feature.id) + '-' + feature.tags.highway",
+    "nullif(feature.tags.highway, 'primary')",
+    "nullif(feature.tags.highway, 'secondary')",
+    "feature.tags.name.size()",
+    "size(feature.tags.name)",
+    "int(feature.tags.lanes) <= 2",
+    "1.5 + 2.0",
+  })
+  void testCompiledMatchesInterpreter(String script) {
+    var expression = ConfigExpressionScript.parse(script, PROCESS_FEATURE);
+    assertTrue(expression.isCompiled(), script);
+    assertEquals(expression.interpret(CONTEXT), expression.apply(CONTEXT), script);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+    "feature.tags.has('name')",
+    "has(feature.tags.name)",
+    "max([1, 2])",
+    "feature.tags.name.matches('M.*')",
+    "feature.tags.name.split(' ').map(s, size(s))",
+  })
+  void testUnsupportedScriptsUseInterpreter(String script) {
+    var expression = ConfigExpressionScript.parse(script, PROCESS_FEATURE);
+    assertFalse(expression.isCompiled(), script);
+  }
+
+  @Test
+  void testTypedTagAccess() {
+    var compiled = ScriptCompiler.compile("feature.tags.lanes", PROCESS_FEATURE);
+    assertEquals(2L, compiled.apply(CONTEXT));
+    assertEquals("3.5", ScriptCompiler.compile("feature.tags['width']", PROCESS_FEATURE).apply(CONTEXT));
+  }
+
+  @Test
+  void testFallsBackWhenInterpreterWouldFail() {
+    assertSame(ScriptCompiler.FALLBACK,
+      ScriptCompiler.compile("feature.tags.lanes + 9223372036854775807", PROCESS_FEATURE).apply(CONTEXT));
+    assertSame(ScriptCompiler.FALLBACK,
+      ScriptCompiler.compile("double(feature.tags.name)", PROCESS_FEATURE).apply(CONTEXT));
+    assertSame(ScriptCompiler.FALLBACK,
+      ScriptCompiler.compile("feature.tags.lanes == 'two'", PROCESS_FEATURE).apply(CONTEXT));
+    assertSame(ScriptCompiler.FALLBACK,
+      ScriptCompiler.compile("feature.tags", PROCESS_FEATURE).apply(CONTEXT));
+  }
+
+  @Test
+  void testLogicalOperatorsIgnoreErrorsOnTheDecidingSide() {
+    assertEquals(false,
+      ScriptCompiler.compile("double(feature.tags.name) > 1.0 && false", PROCESS_FEATURE).apply(CONTEXT));
+    assertEquals(true,
+      ScriptCompiler.compile("double(feature.tags.name) > 1.0 || true", PROCESS_FEATURE).apply(CONTEXT));
+    assertSame(ScriptCompiler.FALLBACK,
+      ScriptCompiler.compile("double(feature.tags.name) > 1.0 || false", PROCESS_FEATURE).apply(CONTEXT));
+  }
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -12,6 +14,12 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 public class ColorParser {
+  private static final Pattern HEX_PATTERN = Pattern.compile(
+    "^#?([a-f\\d]{2})([a-f\\d]{2})([a-f\\d]{2})$",
+    Pattern.CASE_INSENSITIVE
+  );
+  private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[ _-]");
+
   private final HashMap<String, Integer> colorList = new HashMap<>();
 
   ColorParser() {
@@ -58,11 +66,7 @@ public class ColorParser {
   }
 
   private int[] hexToRgb(String hex) {
-    java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
-      "^#?([a-f\\d]{2})([a-f\\d]{2})([a-f\\d]{2})$",
-      java.util.regex.Pattern.CASE_INSENSITIVE
-    );
-    java.util.regex.Matcher matcher = pattern.matcher(hex);
+    Matcher matcher = HEX_PATTERN.matcher(hex);
 
     if (matcher.find()) {
       int r = Integer.parseInt(matcher.group(1), 16);
@@ -79,7 +83,7 @@ public class ColorParser {
       return null;
     }
 
-    String noSpacesLowerCase = str.replaceAll("[ _-]", "").toLowerCase();
+    String noSpacesLowerCase = SEPARATOR_PATTERN.matcher(str).replaceAll("").toLowerCase();
     Integer colorListValue = colorList.get(noSpacesLowerCase);
 
     if (colorListValue != null) {
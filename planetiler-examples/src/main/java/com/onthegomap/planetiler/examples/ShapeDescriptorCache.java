@@ -0,0 +1,257 @@
+package com.onthegomap.planetiler.examples;
+
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.reader.osm.OsmElement;
+import com.onthegomap.planetiler.reader.osm.OsmSourceFeature;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * A sqlite-backed cache of {@link ShapeDescriptors} keyed by OSM element type and ID that persists between runs, so
+ * reruns and other profiles reading the same file don't need to recompute expensive descriptors for large polygons.
+ * <p>
+ * Entries also store the element version and a hash of the input geometry, and are only used when both match, since
+ * a way or relation keeps the same version when one of its nodes moves.
+ * <p>
+ * Only geometries with at least {@link #MIN_CACHED_POINTS} vertices are cached since smaller ones like most buildings
+ * are cheaper to compute than to look up.
+ */
+public class ShapeDescriptorCache implements Closeable {
+  static final int MIN_CACHED_POINTS = 64;
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShapeDescriptorCache.class);
+  private static final int BATCH_SIZE = 10_000;
+
+  private final String url;
+  private final Connection writer;
+  private final PreparedStatement insert;
+  private final ExecutorService writeExecutor;
+  private final List<Reader> readers = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Reader> reader = ThreadLocal.withInitial(this::newReader);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private ShapeDescriptorCache(String url, Connection writer) throws SQLException {
+    this.url = url;
+    this.writer = writer;
+    if (writer != null) {
+      try (Statement statement = writer.createStatement()) {
+        statement.execute("""
+          create table if not exists shapes (
+            key integer primary key,
+            version integer,
+            hash integer,
+            value blob
+          )
+          """);
+      }
+      insert = writer.prepareStatement("insert or replace into shapes (key, version, hash, value) values (?,?,?,?)");
+      writeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shape-cache-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else {
+      insert = null;
+      writeExecutor = null;
+    }
+  }
+
+  /** Returns a cache that always recomputes descriptors. */
+  public static ShapeDescriptorCache disabled() {
+    try {
+      return new ShapeDescriptorCache(null, null);
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns a cache that reads and writes entries to the sqlite file at {@code path}.
+   * <p>
+   * The file uses a write-ahead log so each render thread can look up entries through its own read-only connection
+   * while a single background thread writes new entries in batches.
+   */
+  public static ShapeDescriptorCache open(Path path) {
+    SQLiteConfig config = new SQLiteConfig();
+    config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+    config.setSynchronous(SQLiteConfig.SynchronousMode.OFF);
+    String url = "jdbc:sqlite:" + path.toAbsolutePath();
+    try {
+      return new ShapeDescriptorCache(url, DriverManager.getConnection(url, config.toProperties()));
+    } catch (SQLException e) {
+      throw new IllegalArgumentException("Unable to open " + url, e);
+    }
+  }
+
+  private Reader newReader() {
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    try {
+      Connection connection = DriverManager.getConnection(url, config.toProperties());
+      Reader result = new Reader(connection,
+        connection.prepareStatement("select version, hash, value from shapes where key=?"), new ArrayList<>());
+      readers.add(result);
+      return result;
+    } catch (SQLException e) {
+      throw new IllegalStateException("Unable to open " + url, e);
+    }
+  }
+
+  /** Kinds of descriptors, stored under different keys for the same element. */
+  public enum Kind {
+    OMBB,
+    POLE_OF_INACCESSIBILITY
+  }
+
+  /**
+   * Returns the cached {@code kind} descriptor of {@code geometry} from {@code source} or computes it with
+   * {@code compute} and stores the result.
+   */
+  public double[] computeIfAbsent(SourceFeature source, Kind kind, Geometry geometry,
+    Function<Geometry, double[]> compute) {
+    if (writer == null || geometry.getNumPoints() < MIN_CACHED_POINTS ||
+      !(source instanceof OsmSourceFeature osmFeature)) {
+      return compute.apply(geometry);
+    }
+    OsmElement element = osmFeature.originalElement();
+    long key = key(element, kind);
+    int version = element.info() == null ? 0 : element.info().version();
+    long hash = hash(geometry);
+    Reader threadReader = reader.get();
+    try {
+      threadReader.select.setLong(1, key);
+      try (var rs = threadReader.select.executeQuery()) {
+        if (rs.next() && rs.getInt(1) == version && rs.getLong(2) == hash) {
+          hits.increment();
+          byte[] bytes = rs.getBytes(3);
+          return bytes == null ? null : decode(bytes);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+    double[] result = compute.apply(geometry);
+    misses.increment();
+    // only contended when close() drains what other threads left behind
+    synchronized (threadReader) {
+      threadReader.pending.add(new Entry(key, version, hash, result == null ? null : encode(result)));
+      if (threadReader.pending.size() >= BATCH_SIZE) {
+        submit(threadReader);
+      }
+    }
+    return result;
+  }
+
+  private static long key(OsmElement element, Kind kind) {
+    int type = switch (element) {
+      case OsmElement.Node ignored -> 0;
+      case OsmElement.Way ignored -> 1;
+      case OsmElement.Relation ignored -> 2;
+      default -> 3;
+    };
+    return (element.id() << 4) | ((long) type << 2) | kind.ordinal();
+  }
+
+  private static long hash(Geometry geometry) {
+    long hash = 1;
+    for (Coordinate coord : geometry.getCoordinates()) {
+      hash = 31 * hash + Double.doubleToLongBits(coord.x);
+      hash = 31 * hash + Double.doubleToLongBits(coord.y);
+    }
+    return hash;
+  }
+
+  private static byte[] encode(double[] values) {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES);
+    for (double value : values) {
+      buffer.putDouble(value);
+    }
+    return buffer.array();
+  }
+
+  private static double[] decode(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    double[] result = new double[bytes.length / Double.BYTES];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = buffer.getDouble();
+    }
+    return result;
+  }
+
+  private void submit(Reader threadReader) {
+    if (!threadReader.pending.isEmpty()) {
+      List<Entry> batch = new ArrayList<>(threadReader.pending);
+      threadReader.pending.clear();
+      writeExecutor.execute(() -> write(batch));
+    }
+  }
+
+  private void write(List<Entry> batch) {
+    try {
+      writer.setAutoCommit(false);
+      for (Entry entry : batch) {
+        insert.setLong(1, entry.key);
+        insert.setInt(2, entry.version);
+        insert.setLong(3, entry.hash);
+        insert.setBytes(4, entry.value);
+        insert.addBatch();
+      }
+      insert.executeBatch();
+      writer.commit();
+    } catch (SQLException e) {
+      // entries just get recomputed on the next run
+      LOGGER.warn("Error writing {} entries to shape descriptor cache", batch.size(), e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (writer != null) {
+      for (Reader threadReader : readers) {
+        synchronized (threadReader) {
+          submit(threadReader);
+        }
+      }
+      writeExecutor.shutdown();
+      try {
+        if (!writeExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOGGER.warn("Timed out waiting for shape descriptor cache writes");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      LOGGER.info("Shape descriptor cache hits: {} misses: {}", hits.sum(), misses.sum());
+      try {
+        for (Reader threadReader : readers) {
+          threadReader.connection.close();
+        }
+        writer.close();
+      } catch (SQLException e) {
+        LOGGER.warn("Error closing shape descriptor cache", e);
+      }
+    }
+  }
+
+  private record Reader(Connection connection, PreparedStatement select, List<Entry> pending) {}
+
+  private record Entry(long key, int version, long hash, byte[] value) {}
+}
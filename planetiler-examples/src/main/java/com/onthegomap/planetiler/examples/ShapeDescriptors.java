@@ -0,0 +1,119 @@
+package com.onthegomap.planetiler.examples;
+
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.algorithm.construct.MaximumInscribedCircle;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Shape descriptors that {@link StreetsProfile} attaches to polygons so clients can orient and label them without
+ * re-computing them from the tile geometry.
+ */
+public class ShapeDescriptors {
+  // never go coarser than the old fixed tolerance for small features like buildings
+  private static final double MIN_POI_TOLERANCE = 1e-9;
+  private static final double RELATIVE_POI_TOLERANCE = 1e-3;
+
+  private ShapeDescriptors() {}
+
+  /**
+   * Returns the 4 corners {@code [x0, y0, x1, y1, x2, y2, x3, y3]} of the minimum-area rectangle enclosing
+   * {@code geometry} in ring order, or {@code null} if the geometry is degenerate.
+   * <p>
+   * Corners come in the same order as JTS {@code MinimumAreaRectangle} so {@code @ombb} attributes stay compatible:
+   * clockwise, starting with the two corners on the hull edge the rectangle is aligned to.
+   * <p>
+   * Uses rotating calipers over the convex hull, so after the hull is built each edge is visited once and the three
+   * other extreme points only ever advance forward around the hull.
+   */
+  public static double[] orientedMinimumBoundingBox(Geometry geometry) {
+    if (!(new ConvexHull(geometry).getConvexHull() instanceof Polygon hull)) {
+      return null;
+    }
+    CoordinateSequence seq = hull.getExteriorRing().getCoordinateSequence();
+    int n = seq.size() - 1;
+    if (n < 3) {
+      return null;
+    }
+    double[] xs = new double[n];
+    double[] ys = new double[n];
+    // walk the hull clockwise from its first vertex, like MinimumAreaRectangle does
+    boolean ccw = Orientation.isCCW(seq);
+    for (int i = 0; i < n; i++) {
+      int j = ccw ? (n - i) % n : i;
+      xs[i] = seq.getX(j);
+      ys[i] = seq.getY(j);
+    }
+
+    double[] result = null;
+    double bestArea = Double.POSITIVE_INFINITY;
+    int maxU = 1, maxV = 1, minU = 1;
+    for (int i = 0; i < n; i++) {
+      int next = (i + 1) % n;
+      double x = xs[i], y = ys[i];
+      double dx = xs[next] - x, dy = ys[next] - y;
+      double length = Math.hypot(dx, dy);
+      if (length == 0) {
+        continue;
+      }
+      // u runs along the edge, v points into the hull which is on the right of a clockwise ring
+      double ux = dx / length, uy = dy / length;
+      double vx = uy, vy = -ux;
+      if (i == 0) {
+        maxU = next;
+      }
+      while (dot(xs, ys, (maxU + 1) % n, x, y, ux, uy) > dot(xs, ys, maxU, x, y, ux, uy)) {
+        maxU = (maxU + 1) % n;
+      }
+      if (i == 0) {
+        maxV = maxU;
+      }
+      while (dot(xs, ys, (maxV + 1) % n, x, y, vx, vy) > dot(xs, ys, maxV, x, y, vx, vy)) {
+        maxV = (maxV + 1) % n;
+      }
+      if (i == 0) {
+        minU = maxV;
+      }
+      while (dot(xs, ys, (minU + 1) % n, x, y, ux, uy) < dot(xs, ys, minU, x, y, ux, uy)) {
+        minU = (minU + 1) % n;
+      }
+      double u0 = dot(xs, ys, minU, x, y, ux, uy);
+      double u1 = dot(xs, ys, maxU, x, y, ux, uy);
+      double v1 = dot(xs, ys, maxV, x, y, vx, vy);
+      double area = (u1 - u0) * v1;
+      if (area < bestArea) {
+        bestArea = area;
+        result = new double[]{
+          x + ux * u0, y + uy * u0,
+          x + ux * u1, y + uy * u1,
+          x + ux * u1 + vx * v1, y + uy * u1 + vy * v1,
+          x + ux * u0 + vx * v1, y + uy * u0 + vy * v1
+        };
+      }
+    }
+    return result;
+  }
+
+  private static double dot(double[] xs, double[] ys, int i, double x, double y, double dx, double dy) {
+    return (xs[i] - x) * dx + (ys[i] - y) * dy;
+  }
+
+  /**
+   * Returns the pole of inaccessibility {@code [x, y, radius]} of {@code geometry}.
+   * <p>
+   * The tolerance scales with the size of the feature since large landuse areas don't need the same absolute precision
+   * as buildings, and a fixed tiny tolerance makes the search on them very slow.
+   */
+  public static double[] poleOfInaccessibility(Geometry geometry) {
+    Envelope envelope = geometry.getEnvelopeInternal();
+    double size = Math.min(envelope.getWidth(), envelope.getHeight());
+    double tolerance = Math.max(MIN_POI_TOLERANCE, size * RELATIVE_POI_TOLERANCE);
+    LineString radiusLine = MaximumInscribedCircle.getRadiusLine(geometry, tolerance);
+    CoordinateSequence seq = radiusLine.getCoordinateSequence();
+    return new double[]{seq.getX(0), seq.getY(0), radiusLine.getLength()};
+  }
+}
@@ -1,5 +1,10 @@
 package com.onthegomap.planetiler.examples;
 
+import static com.onthegomap.planetiler.expression.Expression.and;
+import static com.onthegomap.planetiler.expression.Expression.matchAny;
+import static com.onthegomap.planetiler.expression.Expression.matchField;
+import static com.onthegomap.planetiler.expression.Expression.not;
+import static com.onthegomap.planetiler.expression.Expression.or;
 import static com.onthegomap.planetiler.util.MemoryEstimator.CLASS_HEADER_BYTES;
 
 import com.onthegomap.planetiler.FeatureCollector;
@@ -8,6 +13,8 @@ import com.onthegomap.planetiler.Planetiler;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.expression.Expression;
+import com.onthegomap.planetiler.expression.MultiExpression;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.reader.osm.OsmElement;
@@ -16,607 +23,578 @@ import com.onthegomap.planetiler.reader.osm.OsmSourceFeature;
 import com.onthegomap.planetiler.util.MemoryEstimator;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.algorithm.MinimumAreaRectangle;
-import org.locationtech.jts.algorithm.construct.MaximumInscribedCircle;
-import org.locationtech.jts.geom.LineString;
 
+/**
+ * Profile for the Streets GL 3D map style.
+ * <p>
+ * Each kind of geometry is classified by an ordered list of rules, the first one that matches (after any fall-through
+ * rules before it) decides what gets emitted. Rules are compiled into a {@link MultiExpression.Index} so each element
+ * only evaluates the rules that refer to one of its tag keys instead of running through every check in order.
+ */
 public class StreetsProfile implements Profile {
-  @Override
-  public String name() {
-    return "Streets GL Profile";
+  private static final Envelope TILE_BOUNDS_ENVELOPE = new Envelope(-4, 260, -4, 260);
+  private static final Expression IS_AREA = or(matchAny("area", "yes"), matchAny("type", "multipolygon"));
+  private static final Expression BUILDING = or(
+    and(matchField("building:part"), not(matchAny("building:part", "no"))),
+    and(matchField("building"), not(matchAny("building", "no")))
+  );
+
+  private final ShapeDescriptorCache shapeCache;
+  private final MultiExpression<Rule> pointRules = pointRules();
+  private final MultiExpression<Rule> lineRules = lineRules();
+  private final MultiExpression<Rule> areaRules = areaRules();
+  private final MultiExpression.Index<Rule> pointIndex = pointRules.index();
+  private final MultiExpression.Index<Rule> lineIndex = lineRules.index();
+  private final MultiExpression.Index<Rule> areaIndex = areaRules.index();
+
+  public StreetsProfile() {
+    this(ShapeDescriptorCache.disabled());
   }
 
-  private static void processPoint(SourceFeature sourceFeature, FeatureCollector features) {
-    if (sourceFeature.hasTag("natural", "tree")) {
-      var feature = features.point("point")
-        .setAttr("type", "tree")
-        .setAttr("leafType", StreetsUtils.getLeafType(sourceFeature))
-        .setAttr("genus", StreetsUtils.getGenus(sourceFeature))
-        .setAttr("height", StreetsUtils.getTreeHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (StreetsUtils.isFireHydrant(sourceFeature)) {
-      var feature = features.point("point")
-        .setAttr("type", "fireHydrant")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (sourceFeature.hasTag("advertising", "column")) {
-      var feature = features.point("point")
-        .setAttr("type", "adColumn")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (StreetsUtils.isMemorial(sourceFeature)) {
-      var feature = features.point("point")
-        .setAttr("type", "memorial")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (StreetsUtils.isStatue(sourceFeature)) {
-      var feature = features.point("point")
-        .setAttr("type", "statue")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (StreetsUtils.isSculpture(sourceFeature)) {
-      var feature = features.point("point")
-        .setAttr("type", "sculpture")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (StreetsUtils.isWindTurbine(sourceFeature)) {
-      var feature = features.point("point")
-        .setAttr("type", "windTurbine")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (sourceFeature.hasTag("amenity", "bench")) {
-      var feature = features.point("point")
-        .setAttr("type", "bench")
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (sourceFeature.hasTag("leisure", "picnic_table")) {
-      var feature = features.point("point")
-        .setAttr("type", "picnicTable")
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (sourceFeature.hasTag("highway", "turning_circle")) {
-      var feature = features.point("point")
-        .setAttr("type", "roundabout")
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
-
-    if (sourceFeature.hasTag("highway", "bus_stop")) {
-      var feature = features.point("point")
-        .setAttr("type", "busStop")
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+  public StreetsProfile(ShapeDescriptorCache shapeCache) {
+    this.shapeCache = shapeCache;
+  }
 
-    if (sourceFeature.hasTag("aeroway", "helipad")) {
-      var feature = features.point("point")
-        .setAttr("type", "helipad")
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+  /**
+   * A classification rule.
+   *
+   * @param name     identifies the rule in {@link #classificationRules()}
+   * @param terminal {@code false} if rules after this one should still be considered when it matches
+   * @param handler  emits features for a matching element
+   */
+  private record Rule(String name, boolean terminal, BiConsumer<SourceFeature, FeatureCollector> handler) {}
+
+  private static MultiExpression.Entry<Rule> rule(String name, Expression expression,
+    BiConsumer<SourceFeature, FeatureCollector> handler) {
+    return MultiExpression.entry(new Rule(name, true, handler), expression);
+  }
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+  private static MultiExpression.Entry<Rule> fallThroughRule(String name, Expression expression,
+    BiConsumer<SourceFeature, FeatureCollector> handler) {
+    return MultiExpression.entry(new Rule(name, false, handler), expression);
+  }
 
-    if (sourceFeature.hasTag("natural", "rock")) {
-      var feature = features.point("point").setAttr("type", "rock")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
+  /**
+   * Returns the names of the rules used to classify points, lines, and areas in the order they take precedence, for
+   * benchmarks and debugging.
+   */
+  public Map<String, MultiExpression<String>> classificationRules() {
+    return Map.of(
+      "point", pointRules.mapResults(Rule::name),
+      "line", lineRules.mapResults(Rule::name),
+      "area", areaRules.mapResults(Rule::name)
+    );
+  }
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
+  /** Runs the handlers of matching rules in order until a terminal one, returns true if a terminal rule matched. */
+  private static boolean dispatch(MultiExpression.Index<Rule> index, SourceFeature sourceFeature,
+    FeatureCollector features) {
+    for (var match : index.getMatchesWithTriggers(sourceFeature)) {
+      Rule rule = match.match();
+      rule.handler.accept(sourceFeature, features);
+      if (rule.terminal) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    if (sourceFeature.hasTag("power", "pole")) {
-      var feature = features.point("point")
-        .setAttr("type", "utilityPole")
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+  @Override
+  public String name() {
+    return "Streets GL Profile";
+  }
 
-    if (sourceFeature.hasTag("power", "tower")) {
-      var feature = features.point("point")
-        .setAttr("type", "transmissionTower")
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
+  private void setPolygonOMBB(FeatureCollector.Feature feature, SourceFeature sourceFeature) {
+    double[] ombb = shapeCache.computeIfAbsent(sourceFeature, ShapeDescriptorCache.Kind.OMBB, feature.getGeometry(),
+      ShapeDescriptors::orientedMinimumBoundingBox);
 
-      setCommonFeatureParams(feature, sourceFeature);
+    if (ombb == null) {
       return;
     }
 
-    if (sourceFeature.hasTag("amenity", "fountain")) {
-      var feature = features.point("point")
-        .setAttr("type", "fountain");
+    feature.setAttr("@ombb00", ombb[0]);
+    feature.setAttr("@ombb01", ombb[1]);
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+    feature.setAttr("@ombb10", ombb[2]);
+    feature.setAttr("@ombb11", ombb[3]);
 
-    if (sourceFeature.hasTag("man_made", "flagpole")) {
-      var feature = features.point("point")
-        .setAttr("type", "flagpole")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("wikidata", StreetsUtils.getFlagWikidata(sourceFeature))
-        .setAttr("country", StreetsUtils.getFlagCountry(sourceFeature));
+    feature.setAttr("@ombb20", ombb[4]);
+    feature.setAttr("@ombb21", ombb[5]);
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+    feature.setAttr("@ombb30", ombb[6]);
+    feature.setAttr("@ombb31", ombb[7]);
+  }
 
-    if (sourceFeature.hasTag("highway", "street_lamp")) {
-      var feature = features.point("point")
-        .setAttr("type", "streetLamp")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("direction", StreetsUtils.getDirection(sourceFeature))
-        .setAttr("lampSupport", StreetsUtils.getLampSupport(sourceFeature));
+  private void setPolygonPoleOfInaccessibility(FeatureCollector.Feature feature, SourceFeature sourceFeature) {
+    double[] poi = shapeCache.computeIfAbsent(sourceFeature, ShapeDescriptorCache.Kind.POLE_OF_INACCESSIBILITY,
+      feature.getGeometry(), ShapeDescriptors::poleOfInaccessibility);
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+    feature.setAttr("@poiX", poi[0]);
+    feature.setAttr("@poiY", poi[1]);
+    feature.setAttr("@poiR", poi[2]);
   }
 
-  private static void processLine(SourceFeature sourceFeature, FeatureCollector features) {
-    if (sourceFeature.hasTag("highway")) {
-      var lanes = StreetsUtils.getRoadwayLanes(sourceFeature);
-
-      var feature = features.line("highways")
-        .setAttr("type", "path")
-        .setAttr("pathType", sourceFeature.getTag("highway"))
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature))
-        .setAttr("width", StreetsUtils.getWidth(sourceFeature))
-        .setAttr("laneMarkings", StreetsUtils.getLaneMarkings(sourceFeature))
-        .setAttr("sidewalkSide", StreetsUtils.convertRoadwayExtensionSideToInteger(StreetsUtils.getSidewalkSide(sourceFeature)))
-        .setAttr("cyclewaySide", StreetsUtils.convertRoadwayExtensionSideToInteger(StreetsUtils.getCyclewaySide(sourceFeature)))
-        .setAttr("oneway", StreetsUtils.isRoadwayOneway(sourceFeature))
-        .setAttr("lanes", lanes.both)
-        .setAttr("lanesForward", lanes.forward)
-        .setAttr("lanesBackward", lanes.backward);
-
-      setCommonFeatureParams(feature, sourceFeature);
-      feature.setBufferPixels(24);
-      return;
-    }
+  private static MultiExpression<Rule> pointRules() {
+    return MultiExpression.of(List.of(
+      rule("tree", matchAny("natural", "tree"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "tree")
+          .setAttr("leafType", StreetsUtils.getLeafType(sourceFeature))
+          .setAttr("genus", StreetsUtils.getGenus(sourceFeature))
+          .setAttr("height", StreetsUtils.getTreeHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    if (sourceFeature.hasTag("aeroway", "runway", "taxiway")) {
-      var feature = features.line("highways")
-        .setAttr("type", "path")
-        .setAttr("pathType", sourceFeature.getTag("aeroway"))
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature))
-        .setAttr("width", StreetsUtils.getWidth(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("fireHydrant", StreetsUtils.FIRE_HYDRANT, (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "fireHydrant")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      feature.setBufferPixels(24);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("adColumn", matchAny("advertising", "column"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "adColumn")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    if (StreetsUtils.isRailway(sourceFeature)) {
-      var feature = features.line("highways")
-        .setAttr("type", "railway")
-        .setAttr("railwayType", StreetsUtils.getRailwayType(sourceFeature))
-        .setAttr("gauge", StreetsUtils.getGauge(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("memorial", StreetsUtils.MEMORIAL, (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "memorial")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("statue", StreetsUtils.STATUE, (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "statue")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
 
-    if (sourceFeature.hasTag("barrier", "fence")) {
-      var feature = features.line("barriers")
-        .setAttr("type", "fence")
-        .setAttr("fenceType", StreetsUtils.getFenceType(sourceFeature))
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("sculpture", StreetsUtils.SCULPTURE, (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "sculpture")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("windTurbine", StreetsUtils.WIND_TURBINE, (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "windTurbine")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    if (sourceFeature.hasTag("barrier", "hedge")) {
-      var feature = features.line("barriers")
-        .setAttr("type", "wall")
-        .setAttr("wallType", "hedge")
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("bench", matchAny("amenity", "bench"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "bench")
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("picnicTable", matchAny("leisure", "picnic_table"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "picnicTable")
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("direction", StreetsUtils.getDirection(sourceFeature));
 
-    if (sourceFeature.hasTag("barrier", "wall")) {
-      var feature = features.line("barriers")
-        .setAttr("type", "wall")
-        .setAttr("wallType", StreetsUtils.getWallType(sourceFeature))
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("roundabout", matchAny("highway", "turning_circle"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "roundabout")
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("busStop", matchAny("highway", "bus_stop"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "busStop")
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    if (sourceFeature.hasTag("power", "line", "minor_line")) {
-      var feature = features.line("powerLines")
-        .setAttr("type", "powerLine");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("helipad", matchAny("aeroway", "helipad"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "helipad")
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("rock", matchAny("natural", "rock"), (sourceFeature, features) -> {
+        var feature = features.point("point").setAttr("type", "rock")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    if (sourceFeature.hasTag("natural", "tree_row")) {
-      var feature = features.line("natural")
-        .setAttr("type", "treeRow")
-        .setAttr("leafType", StreetsUtils.getLeafType(sourceFeature))
-        .setAttr("genus", StreetsUtils.getGenus(sourceFeature))
-        .setAttr("height", StreetsUtils.getTreeHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("utilityPole", matchAny("power", "pole"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "utilityPole")
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("transmissionTower", matchAny("power", "tower"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "transmissionTower")
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    if (sourceFeature.hasTag("waterway")) {
-      var feature = features.line("water")
-        .setAttr("type", "waterway")
-        .setAttr("waterwayType", StreetsUtils.getWaterwayType(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("fountain", matchAny("amenity", "fountain"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "fountain");
 
-      setCommonFeatureParams(feature, sourceFeature);
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("flagpole", matchAny("man_made", "flagpole"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "flagpole")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("wikidata", StreetsUtils.getFlagWikidata(sourceFeature))
+          .setAttr("country", StreetsUtils.getFlagCountry(sourceFeature));
 
-    if (sourceFeature.hasTag("leisure", "track")) {
-      var feature = features.line("common")
-        .setAttr("type", "track")
-        .setAttr("sport", sourceFeature.getTag("sport"))
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("streetLamp", matchAny("highway", "street_lamp"), (sourceFeature, features) -> {
+        var feature = features.point("point")
+          .setAttr("type", "streetLamp")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+          .setAttr("direction", StreetsUtils.getDirection(sourceFeature))
+          .setAttr("lampSupport", StreetsUtils.getLampSupport(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      })
+    ));
   }
 
-  private void setPolygonOMBB(FeatureCollector.Feature feature) {
-    Geometry geometry = feature.getGeometry();
-    Geometry ombb = MinimumAreaRectangle.getMinimumRectangle(geometry);
+  private static MultiExpression<Rule> lineRules() {
+    return MultiExpression.of(List.of(
+      rule("highway", matchField("highway"), (sourceFeature, features) -> {
+        var lanes = StreetsUtils.getRoadwayLanes(sourceFeature);
 
-    var coords = ombb.getCoordinates();
-
-    if (coords.length != 5) {
-      return;
-    }
+        var feature = features.line("highways")
+          .setAttr("type", "path")
+          .setAttr("pathType", sourceFeature.getTag("highway"))
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature))
+          .setAttr("width", StreetsUtils.getWidth(sourceFeature))
+          .setAttr("laneMarkings", StreetsUtils.getLaneMarkings(sourceFeature))
+          .setAttr("sidewalkSide", StreetsUtils.convertRoadwayExtensionSideToInteger(StreetsUtils.getSidewalkSide(sourceFeature)))
+          .setAttr("cyclewaySide", StreetsUtils.convertRoadwayExtensionSideToInteger(StreetsUtils.getCyclewaySide(sourceFeature)))
+          .setAttr("oneway", StreetsUtils.isRoadwayOneway(sourceFeature))
+          .setAttr("lanes", lanes.both)
+          .setAttr("lanesForward", lanes.forward)
+          .setAttr("lanesBackward", lanes.backward);
 
-    feature.setAttr("@ombb00", coords[0].x);
-    feature.setAttr("@ombb01", coords[0].y);
+        setCommonFeatureParams(feature, sourceFeature);
+        feature.setBufferPixels(24);
+      }),
+      rule("aeroway", matchAny("aeroway", "runway", "taxiway"), (sourceFeature, features) -> {
+        var feature = features.line("highways")
+          .setAttr("type", "path")
+          .setAttr("pathType", sourceFeature.getTag("aeroway"))
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature))
+          .setAttr("width", StreetsUtils.getWidth(sourceFeature));
 
-    feature.setAttr("@ombb10", coords[1].x);
-    feature.setAttr("@ombb11", coords[1].y);
+        setCommonFeatureParams(feature, sourceFeature);
+        feature.setBufferPixels(24);
+      }),
+      rule("railway", StreetsUtils.RAILWAY, (sourceFeature, features) -> {
+        var feature = features.line("highways")
+          .setAttr("type", "railway")
+          .setAttr("railwayType", StreetsUtils.getRailwayType(sourceFeature))
+          .setAttr("gauge", StreetsUtils.getGauge(sourceFeature));
 
-    feature.setAttr("@ombb20", coords[2].x);
-    feature.setAttr("@ombb21", coords[2].y);
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("fence", matchAny("barrier", "fence"), (sourceFeature, features) -> {
+        var feature = features.line("barriers")
+          .setAttr("type", "fence")
+          .setAttr("fenceType", StreetsUtils.getFenceType(sourceFeature))
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    feature.setAttr("@ombb30", coords[3].x);
-    feature.setAttr("@ombb31", coords[3].y);
-  }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("hedge", matchAny("barrier", "hedge"), (sourceFeature, features) -> {
+        var feature = features.line("barriers")
+          .setAttr("type", "wall")
+          .setAttr("wallType", "hedge")
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-  private void setPolygonPoleOfInaccessibility(FeatureCollector.Feature feature) {
-    Geometry geometry = feature.getGeometry();
-    LineString poi = MaximumInscribedCircle.getRadiusLine(geometry, 1e-9);
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("wall", matchAny("barrier", "wall"), (sourceFeature, features) -> {
+        var feature = features.line("barriers")
+          .setAttr("type", "wall")
+          .setAttr("wallType", StreetsUtils.getWallType(sourceFeature))
+          .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-    var coords = poi.getCoordinates();
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("powerLine", matchAny("power", "line", "minor_line"), (sourceFeature, features) -> {
+        var feature = features.line("powerLines")
+          .setAttr("type", "powerLine");
 
-    feature.setAttr("@poiX", coords[0].x);
-    feature.setAttr("@poiY", coords[0].y);
-    feature.setAttr("@poiR", poi.getLength());
-  }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("treeRow", matchAny("natural", "tree_row"), (sourceFeature, features) -> {
+        var feature = features.line("natural")
+          .setAttr("type", "treeRow")
+          .setAttr("leafType", StreetsUtils.getLeafType(sourceFeature))
+          .setAttr("genus", StreetsUtils.getGenus(sourceFeature))
+          .setAttr("height", StreetsUtils.getTreeHeight(sourceFeature))
+          .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature));
 
-  private boolean processArea(SourceFeature sourceFeature, FeatureCollector features) {
-    if (StreetsUtils.isWater(sourceFeature)) {
-      var feature = features.polygon("water")
-        .setAttr("type", "water");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      fallThroughRule("waterway", matchField("waterway"), (sourceFeature, features) -> {
+        var feature = features.line("water")
+          .setAttr("type", "waterway")
+          .setAttr("waterwayType", StreetsUtils.getWaterwayType(sourceFeature));
 
-      setWaterFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      fallThroughRule("track", matchAny("leisure", "track"), (sourceFeature, features) -> {
+        var feature = features.line("common")
+          .setAttr("type", "track")
+          .setAttr("sport", sourceFeature.getTag("sport"))
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-    if (
-      (
-        sourceFeature.hasTag("building:part") &&
-          !sourceFeature.getTag("building:part").equals("no")
-      ) || (
-        sourceFeature.hasTag("building") &&
-          !sourceFeature.getTag("building").equals("no") &&
-          !this.isBuildingOutline(sourceFeature)
-      )
-    ) {
-      Boolean isPart = sourceFeature.hasTag("building:part");
-      String buildingType = isPart ? (String) sourceFeature.getTag("building:part") : (String) sourceFeature.getTag("building");
-
-      var feature = features.polygon("buildings")
-        .setAttr("type", "building")
-        .setAttr("isPart", isPart)
-        .setAttr("buildingType", buildingType)
-        .setAttr("name", sourceFeature.getTag("name"))
-        .setAttr("height", StreetsUtils.getHeight(sourceFeature))
-        .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
-        .setAttr("levels", StreetsUtils.getBuildingLevels(sourceFeature))
-        .setAttr("minLevel", StreetsUtils.getBuildingMinLevel(sourceFeature))
-        .setAttr("material", StreetsUtils.getBuildingMaterial(sourceFeature))
-        .setAttr("roofHeight", StreetsUtils.getRoofHeight(sourceFeature))
-        .setAttr("roofLevels", StreetsUtils.getRoofLevels(sourceFeature))
-        .setAttr("roofMaterial", StreetsUtils.getRoofMaterial(sourceFeature))
-        .setAttr("roofMaterial", StreetsUtils.getRoofMaterial(sourceFeature))
-        .setAttr("roofType", StreetsUtils.getRoofShape(sourceFeature))
-        .setAttr("roofOrientation", StreetsUtils.getRoofOrientation(sourceFeature))
-        .setAttr("roofDirection", StreetsUtils.getRoofDirection(sourceFeature))
-        .setAttr("roofAngle", StreetsUtils.getAngle(sourceFeature))
-        .setAttr("roofColor", StreetsUtils.getRoofColor(sourceFeature))
-        .setAttr("color", StreetsUtils.getBuildingColor(sourceFeature))
-        .setAttr("windows", StreetsUtils.getBuildingWindows(sourceFeature))
-        .setAttr("defaultRoof", StreetsUtils.getBuildingDefaultRoof(sourceFeature));
-
-      setPolygonOMBB(feature);
-      setCommonFeatureParams(feature, sourceFeature);
-
-      feature.setBufferPixels(isPart ? 512 : 256);
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      })
+    ));
+  }
 
-    if (isArea(sourceFeature)) {
-      if (sourceFeature.hasTag("highway")) {
+  private MultiExpression<Rule> areaRules() {
+    return MultiExpression.of(List.of(
+      rule("water", StreetsUtils.WATER, this::processWater),
+      fallThroughRule("building", BUILDING, this::processBuilding),
+      rule("highwayPolygon", and(IS_AREA, matchField("highway")), (sourceFeature, features) -> {
         var feature = features.polygon("highways")
           .setAttr("type", "path")
           .setAttr("pathType", sourceFeature.getTag("highway"));
 
         setCommonFeatureParams(feature, sourceFeature);
-        return true;
-      }
-
-      if (sourceFeature.hasTag("man_made", "pier")) {
+      }),
+      rule("pier", and(IS_AREA, matchAny("man_made", "pier")), (sourceFeature, features) -> {
         var feature = features.polygon("common")
           .setAttr("type", "pier")
           .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
         setCommonFeatureParams(feature, sourceFeature);
-        return true;
-      }
-    }
-
-    if (sourceFeature.hasTag("area:highway")) {
-      var feature = features.polygon("highways")
-        .setAttr("type", "path")
-        .setAttr("pathType", sourceFeature.getTag("area:highway"));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
-
-    if (sourceFeature.hasTag("landuse", "brownfield")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "brownfield");
-
-      setCommonFeatureParams(feature, sourceFeature);
-      setPolygonPoleOfInaccessibility(feature);
-      return true;
-    }
-
-    if (sourceFeature.hasTag("landuse", "construction")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "construction");
-
-      setCommonFeatureParams(feature, sourceFeature);
-      setPolygonPoleOfInaccessibility(feature);
-      return true;
-    }
-
-    if (sourceFeature.hasTag("landuse", "grass")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "grass");
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
-
-    if (sourceFeature.hasTag("landuse", "farmland")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "farmland")
-        .setAttr("crop", StreetsUtils.getCrop(sourceFeature));
-
-      setPolygonOMBB(feature);
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
-
-    if (sourceFeature.hasTag("natural", "scrub")) {
-      var feature = features.polygon("natural")
-        .setAttr("type", "scrub");
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
-
-    if (
-      sourceFeature.hasTag("natural", "wood") ||
-        sourceFeature.hasTag("landuse", "forest") ||
-        sourceFeature.hasTag("landcover", "trees")
-    ) {
-      var feature = features.polygon("natural")
-        .setAttr("type", "forest")
-        .setAttr("leafType", StreetsUtils.getLeafType(sourceFeature))
-        .setAttr("genus", StreetsUtils.getGenus(sourceFeature));
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
-
-    if (sourceFeature.hasTag("natural", "sand", "beach")) {
-      var feature = features.polygon("natural")
-        .setAttr("type", "sand");
-
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+      }),
+      rule("areaHighway", matchField("area:highway"), (sourceFeature, features) -> {
+        var feature = features.polygon("highways")
+          .setAttr("type", "path")
+          .setAttr("pathType", sourceFeature.getTag("area:highway"));
 
-    if (sourceFeature.hasTag("natural", "rock", "bare_rock")) {
-      var feature = features.polygon("natural")
-        .setAttr("type", "rock");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("brownfield", matchAny("landuse", "brownfield"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "brownfield");
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+        setPolygonPoleOfInaccessibility(feature, sourceFeature);
+      }),
+      rule("construction", matchAny("landuse", "construction"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "construction");
 
-    if (sourceFeature.hasTag("leisure", "pitch")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "pitch")
-        .setAttr("sport", sourceFeature.getTag("sport"))
-        .setAttr("hoops", StreetsUtils.parseUnsignedInt((String) sourceFeature.getTag("hoops")))
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+        setPolygonPoleOfInaccessibility(feature, sourceFeature);
+      }),
+      rule("grass", matchAny("landuse", "grass"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "grass");
 
-      setPolygonOMBB(feature);
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("farmland", matchAny("landuse", "farmland"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "farmland")
+          .setAttr("crop", StreetsUtils.getCrop(sourceFeature));
 
-    if (sourceFeature.hasTag("leisure", "track")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "track")
-        .setAttr("sport", sourceFeature.getTag("sport"))
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+        setPolygonOMBB(feature, sourceFeature);
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("scrub", matchAny("natural", "scrub"), (sourceFeature, features) -> {
+        var feature = features.polygon("natural")
+          .setAttr("type", "scrub");
 
-      setPolygonOMBB(feature);
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("forest", or(
+        matchAny("natural", "wood"),
+        matchAny("landuse", "forest"),
+        matchAny("landcover", "trees")
+      ), (sourceFeature, features) -> {
+        var feature = features.polygon("natural")
+          .setAttr("type", "forest")
+          .setAttr("leafType", StreetsUtils.getLeafType(sourceFeature))
+          .setAttr("genus", StreetsUtils.getGenus(sourceFeature));
 
-    if (sourceFeature.hasTag("leisure", "playground")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "playground");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("sand", matchAny("natural", "sand", "beach"), (sourceFeature, features) -> {
+        var feature = features.polygon("natural")
+          .setAttr("type", "sand");
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("rock", matchAny("natural", "rock", "bare_rock"), (sourceFeature, features) -> {
+        var feature = features.polygon("natural")
+          .setAttr("type", "rock");
 
-    if (sourceFeature.hasTag("leisure", "dog_park")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "dogPark");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("pitch", matchAny("leisure", "pitch"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "pitch")
+          .setAttr("sport", sourceFeature.getTag("sport"))
+          .setAttr("hoops", StreetsUtils.parseUnsignedInt((String) sourceFeature.getTag("hoops")))
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setPolygonOMBB(feature, sourceFeature);
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("track", matchAny("leisure", "track"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "track")
+          .setAttr("sport", sourceFeature.getTag("sport"))
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-    if (
-      sourceFeature.hasTag("leisure", "garden") ||
-        sourceFeature.hasTag("landuse", "flowerbed")
-    ) {
-      var feature = features.polygon("common")
-        .setAttr("type", "garden");
+        setPolygonOMBB(feature, sourceFeature);
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("playground", matchAny("leisure", "playground"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "playground");
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("dogPark", matchAny("leisure", "dog_park"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "dogPark");
 
-    if (sourceFeature.hasTag("golf", "fairway")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "fairway");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("garden", or(matchAny("leisure", "garden"), matchAny("landuse", "flowerbed")), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "garden");
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("fairway", matchAny("golf", "fairway"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "fairway");
 
-    if (
-      sourceFeature.hasTag("amenity", "parking", "bicycle_parking") &&
-        (sourceFeature.hasTag("parking", "surface") || sourceFeature.getTag("parking") == null)
-    ) {
-      var feature = features.polygon("common")
-        .setAttr("type", "parking")
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("parking", and(
+        matchAny("amenity", "parking", "bicycle_parking"),
+        matchAny("parking", "surface", "")
+      ), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "parking")
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("bridge", matchAny("man_made", "bridge"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "bridge");
 
-    if (sourceFeature.hasTag("man_made", "bridge")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "bridge");
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("helipad", matchAny("aeroway", "helipad"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "helipad")
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+        setPolygonOMBB(feature, sourceFeature);
+        setCommonFeatureParams(feature, sourceFeature);
+      }),
+      rule("apron", matchAny("aeroway", "apron"), (sourceFeature, features) -> {
+        var feature = features.polygon("common")
+          .setAttr("type", "apron")
+          .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
 
-    if (sourceFeature.hasTag("aeroway", "helipad")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "helipad")
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+        setCommonFeatureParams(feature, sourceFeature);
+      })
+    ));
+  }
 
-      setPolygonOMBB(feature);
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
-    }
+  private void processWater(SourceFeature sourceFeature, FeatureCollector features) {
+    var feature = features.polygon("water")
+      .setAttr("type", "water");
 
-    if (sourceFeature.hasTag("aeroway", "apron")) {
-      var feature = features.polygon("common")
-        .setAttr("type", "apron")
-        .setAttr("surface", StreetsUtils.getSurface(sourceFeature));
+    setWaterFeatureParams(feature, sourceFeature);
+  }
 
-      setCommonFeatureParams(feature, sourceFeature);
-      return true;
+  private void processBuilding(SourceFeature sourceFeature, FeatureCollector features) {
+    // BUILDING only looks at tags, outlines of building relations are left to their parts
+    boolean isPartTag = sourceFeature.hasTag("building:part") && !sourceFeature.hasTag("building:part", "no");
+    if (!isPartTag && this.isBuildingOutline(sourceFeature)) {
+      return;
     }
 
-    return false;
+    Boolean isPart = sourceFeature.hasTag("building:part");
+    String buildingType = isPart ? (String) sourceFeature.getTag("building:part") : (String) sourceFeature.getTag("building");
+
+    var feature = features.polygon("buildings")
+      .setAttr("type", "building")
+      .setAttr("isPart", isPart)
+      .setAttr("buildingType", buildingType)
+      .setAttr("name", sourceFeature.getTag("name"))
+      .setAttr("height", StreetsUtils.getHeight(sourceFeature))
+      .setAttr("minHeight", StreetsUtils.getMinHeight(sourceFeature))
+      .setAttr("levels", StreetsUtils.getBuildingLevels(sourceFeature))
+      .setAttr("minLevel", StreetsUtils.getBuildingMinLevel(sourceFeature))
+      .setAttr("material", StreetsUtils.getBuildingMaterial(sourceFeature))
+      .setAttr("roofHeight", StreetsUtils.getRoofHeight(sourceFeature))
+      .setAttr("roofLevels", StreetsUtils.getRoofLevels(sourceFeature))
+      .setAttr("roofMaterial", StreetsUtils.getRoofMaterial(sourceFeature))
+      .setAttr("roofMaterial", StreetsUtils.getRoofMaterial(sourceFeature))
+      .setAttr("roofType", StreetsUtils.getRoofShape(sourceFeature))
+      .setAttr("roofOrientation", StreetsUtils.getRoofOrientation(sourceFeature))
+      .setAttr("roofDirection", StreetsUtils.getRoofDirection(sourceFeature))
+      .setAttr("roofAngle", StreetsUtils.getAngle(sourceFeature))
+      .setAttr("roofColor", StreetsUtils.getRoofColor(sourceFeature))
+      .setAttr("color", StreetsUtils.getBuildingColor(sourceFeature))
+      .setAttr("windows", StreetsUtils.getBuildingWindows(sourceFeature))
+      .setAttr("defaultRoof", StreetsUtils.getBuildingDefaultRoof(sourceFeature));
+
+    setPolygonOMBB(feature, sourceFeature);
+    setCommonFeatureParams(feature, sourceFeature);
+
+    feature.setBufferPixels(isPart ? 512 : 256);
   }
 
   @Override
@@ -626,7 +604,13 @@ public class StreetsProfile implements Profile {
     }
 
     if (sourceFeature.canBePolygon()) {
-      boolean wasProcessed = processArea(sourceFeature, features);
+      // everything from the water source is water, it has no tags to dispatch on
+      if ("water".equals(sourceFeature.getSource())) {
+        processWater(sourceFeature, features);
+        return;
+      }
+
+      boolean wasProcessed = dispatch(areaIndex, sourceFeature, features);
 
       if (wasProcessed) {
         return;
@@ -634,12 +618,12 @@ public class StreetsProfile implements Profile {
     }
 
     if (sourceFeature.canBeLine()) {
-      processLine(sourceFeature, features);
+      dispatch(lineIndex, sourceFeature, features);
       return;
     }
 
     if (sourceFeature.isPoint()) {
-      processPoint(sourceFeature, features);
+      dispatch(pointIndex, sourceFeature, features);
     }
   }
 
@@ -678,14 +662,31 @@ public class StreetsProfile implements Profile {
   }
 
   public static void run(Arguments args) throws Exception {
-    Planetiler.create(args)
-      .setProfile(new StreetsProfile())
+    String shapeCachePath = args.getString("shape_cache",
+      "sqlite file to cache polygon OMBB and pole of inaccessibility attributes in between runs", "");
+    var shapeCache = shapeCachePath.isBlank() ? ShapeDescriptorCache.disabled() :
+      ShapeDescriptorCache.open(Path.of(shapeCachePath));
+    var planetiler = Planetiler.create(args);
+    StreetsUtils.registerStats(planetiler.stats());
+    planetiler
+      .setProfile(new StreetsProfile(shapeCache))
       .addOsmSource("osm", Path.of("data", "sources", "planet.osm.pbf"))
       .addShapefileSource("water", Path.of("data", "sources", "water-polygons-split-3857", "water_polygons.shp"))
       .overwriteOutput(Path.of("data", "data.mbtiles"))
       .run();
   }
 
+  @Override
+  public void release() {
+    shapeCache.close();
+  }
+
+  @Override
+  public boolean cacheSource(String name) {
+    // water polygons only depend on the shapefile itself, so reruns can reuse them with --source_cache_dir
+    return "water".equals(name);
+  }
+
   @Override
   public void finish(String name, FeatureCollector.Factory featureCollectors, Consumer<FeatureCollector.Feature> next) {
     System.out.println("Finished");
@@ -701,51 +702,15 @@ public class StreetsProfile implements Profile {
       boolean hasParts = false;
 
       for (VectorTile.Feature item : items) {
-        if ((boolean) item.tags().get("isPart")) {
+        if (isBuildingPart(item)) {
           hasParts = true;
           break;
         }
       }
 
       if (hasParts) {
-        var parts = new ArrayList<BuildingPartWithEnvelope>();
-        var outlines = new ArrayList<BuildingOutlineWithEnvelope>();
-
-        for (VectorTile.Feature item : items) {
-          Geometry geometry = item.geometry().decode();
-          Envelope bbox = geometry.getEnvelopeInternal();
-
-          boolean isPart = (boolean) item.tags().get("isPart");
-
-          if (isPart) {
-            parts.add(new BuildingPartWithEnvelope(item, geometry, bbox));
-          } else {
-            outlines.add(new BuildingOutlineWithEnvelope(item, geometry, bbox));
-          }
-        }
-
-        for (BuildingOutlineWithEnvelope outline : outlines) {
-          for (BuildingPartWithEnvelope part : parts) {
-            if (!outline.envelope.intersects(part.envelope)) {
-              continue;
-            }
-
-            outline.geometryCopy = outline.geometryCopy.difference(part.geometry);
-          }
-
-          var initialOutlineArea = outline.geometry.getArea();
-          var newOutlineArea = outline.geometryCopy.getArea();
-
-          if (newOutlineArea / initialOutlineArea < 0.1) {
-            items.remove(outline.feature);
-          }
-        }
-
-        for (BuildingPartWithEnvelope part : parts) {
-          if (!part.envelope.intersects(BuildingPartWithEnvelope.TileBoundsEnvelope)) {
-            items.remove(part.feature);
-          }
-        }
+        items = FeatureMerge.removeCoveredPolygons(items, StreetsProfile::isBuildingPart, 0.1);
+        items.removeIf(item -> isBuildingPart(item) && !intersectsTileBounds(item));
       }
 
       for (VectorTile.Feature item : items) {
@@ -784,35 +749,11 @@ public class StreetsProfile implements Profile {
     return false;
   }
 
-  private boolean isArea(SourceFeature sourceFeature) {
-    return sourceFeature.hasTag("area", "yes") || sourceFeature.hasTag("type", "multipolygon");
+  private static boolean isBuildingPart(VectorTile.Feature item) {
+    return (boolean) item.tags().get("isPart");
   }
 
-  private static class BuildingPartWithEnvelope {
-    static final Envelope TileBoundsEnvelope = new Envelope(-4, 260, -4, 260);
-
-    VectorTile.Feature feature;
-    Geometry geometry;
-    Envelope envelope;
-
-    public BuildingPartWithEnvelope(VectorTile.Feature feature, Geometry geometry, Envelope envelope) {
-      this.feature = feature;
-      this.geometry = geometry;
-      this.envelope = envelope;
-    }
-  }
-
-  private static class BuildingOutlineWithEnvelope {
-    VectorTile.Feature feature;
-    Geometry geometry;
-    Geometry geometryCopy;
-    Envelope envelope;
-
-    public BuildingOutlineWithEnvelope(VectorTile.Feature feature, Geometry geometry, Envelope envelope) {
-      this.feature = feature;
-      this.geometry = geometry;
-      this.envelope = envelope;
-      this.geometryCopy = geometry.copy();
-    }
+  private static boolean intersectsTileBounds(VectorTile.Feature item) {
+    return item.geometry().envelope().intersects(TILE_BOUNDS_ENVELOPE);
   }
 }
@@ -1,8 +1,16 @@
 package com.onthegomap.planetiler.examples;
 
+import static com.onthegomap.planetiler.expression.Expression.and;
+import static com.onthegomap.planetiler.expression.Expression.matchAny;
+import static com.onthegomap.planetiler.expression.Expression.not;
+import static com.onthegomap.planetiler.expression.Expression.or;
+
+import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.reader.SourceFeature;
-import java.util.Arrays;
-import java.util.List;
+import com.onthegomap.planetiler.stats.Stats;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
 
 class RoadwayLanes {
   Integer both = null;
@@ -19,55 +27,101 @@ enum RoadwayExtensionSide {
 public class StreetsUtils {
   private static ColorParser colorParser = new ColorParser();
 
-  private static final List<String> memorialTypes = Arrays.asList(
-    "war_memorial", "stele", "obelisk", "memorial", "stone"
+  // parsed values of the tags that most buildings and roads have, kept per thread
+  private static final int CACHE_SIZE = 4096;
+  private static final TagValueCache<Double> METERS = new TagValueCache<>(StreetsUtils::parseMeters, CACHE_SIZE);
+  private static final TagValueCache<Double> DOUBLES = new TagValueCache<>(StreetsUtils::parseDouble, CACHE_SIZE);
+  private static final TagValueCache<Integer> UNSIGNED_INTS =
+    new TagValueCache<>(StreetsUtils::parseUnsignedInt, CACHE_SIZE);
+  private static final TagValueCache<String> FIRST_VALUES =
+    new TagValueCache<>(StreetsUtils::getFirstTagValue, CACHE_SIZE);
+  private static final TagValueCache<Integer> COLORS =
+    new TagValueCache<>(value -> colorParser.parseColor(getFirstTagValue(value)), CACHE_SIZE);
+  private static final TagValueCache<Double> DIRECTIONS = new TagValueCache<>(DirectionParser::parse, CACHE_SIZE);
+
+  // "" matches a missing tag, these are shared with the rules StreetsProfile dispatches on
+  static final Expression MEMORIAL = and(
+    matchAny("historic", "memorial"),
+    matchAny("memorial", "war_memorial", "stele", "obelisk", "memorial", "stone", "")
+  );
+  static final Expression FIRE_HYDRANT = and(
+    matchAny("emergency", "fire_hydrant"),
+    matchAny("fire_hydrant:type", "pillar", "")
+  );
+  static final Expression STATUE = or(
+    and(matchAny("historic", "memorial"), matchAny("memorial", "statue")),
+    and(matchAny("tourism", "artwork"), matchAny("artwork_type", "statue"))
+  );
+  static final Expression SCULPTURE = or(
+    and(matchAny("tourism", "artwork"), matchAny("artwork_type", "sculpture")),
+    and(matchAny("historic", "memorial"), matchAny("memorial", "sculpture"))
+  );
+  static final Expression WIND_TURBINE = and(
+    matchAny("power", "generator"),
+    matchAny("generator:source", "wind")
+  );
+  static final Expression RAILWAY = matchAny("railway",
+    "rail",
+    "light_rail",
+    "subway",
+    "disused",
+    "narrow_gauge",
+    "tram"
+  );
+  /** Water tagged on OSM elements, everything from the "water" source is water too. */
+  static final Expression WATER = or(
+    matchAny("natural", "water"),
+    and(
+      matchAny("leisure", "swimming_pool"),
+      not(matchAny("location", "indoor", "roof"))
+    )
   );
 
-  public static boolean isMemorial(SourceFeature sourceFeature) {
-    String memorialType = (String) sourceFeature.getTag("memorial");
+  /** Reports how often parsed tag values were found in the per-thread caches to {@code stats}. */
+  public static void registerStats(Stats stats) {
+    Map<String, TagValueCache<?>> caches = new LinkedHashMap<>();
+    caches.put("meters", METERS);
+    caches.put("doubles", DOUBLES);
+    caches.put("unsigned_ints", UNSIGNED_INTS);
+    caches.put("first_values", FIRST_VALUES);
+    caches.put("colors", COLORS);
+    caches.put("directions", DIRECTIONS);
+    Map<String, LongSupplier> hits = new LinkedHashMap<>();
+    Map<String, LongSupplier> misses = new LinkedHashMap<>();
+    caches.forEach((name, cache) -> {
+      hits.put(name, cache::hits);
+      misses.put(name, cache::misses);
+    });
+    stats.counter("streets_tag_cache_hits", "parser", () -> hits);
+    stats.counter("streets_tag_cache_misses", "parser", () -> misses);
+  }
 
-    return sourceFeature.hasTag("historic", "memorial") && (
-      memorialTypes.contains(memorialType) || memorialType == null
-    );
+  public static boolean isMemorial(SourceFeature sourceFeature) {
+    return MEMORIAL.evaluate(sourceFeature);
   }
 
   public static boolean isFireHydrant(SourceFeature sourceFeature) {
-    return sourceFeature.hasTag("emergency", "fire_hydrant") &&
-      (sourceFeature.hasTag("fire_hydrant:type", "pillar") || sourceFeature.getTag("fire_hydrant:type") == null);
+    return FIRE_HYDRANT.evaluate(sourceFeature);
   }
 
   public static boolean isStatue(SourceFeature sourceFeature) {
-    return sourceFeature.hasTag("historic", "memorial") && sourceFeature.hasTag("memorial", "statue") ||
-      sourceFeature.hasTag("tourism", "artwork") && sourceFeature.hasTag("artwork_type", "statue");
+    return STATUE.evaluate(sourceFeature);
   }
 
   public static boolean isSculpture(SourceFeature sourceFeature) {
-    return sourceFeature.hasTag("tourism", "artwork") && sourceFeature.hasTag("artwork_type", "sculpture") ||
-      sourceFeature.hasTag("historic", "memorial") && sourceFeature.hasTag("memorial", "sculpture");
+    return SCULPTURE.evaluate(sourceFeature);
   }
 
   public static boolean isWindTurbine(SourceFeature sourceFeature) {
-    return sourceFeature.hasTag("power", "generator") && sourceFeature.hasTag("generator:source", "wind");
+    return WIND_TURBINE.evaluate(sourceFeature);
   }
 
   public static boolean isRailway(SourceFeature sourceFeature) {
-    return sourceFeature.hasTag("railway",
-      "rail",
-      "light_rail",
-      "subway",
-      "disused",
-      "narrow_gauge",
-      "tram"
-    );
+    return RAILWAY.evaluate(sourceFeature);
   }
 
   public static boolean isWater(SourceFeature sourceFeature) {
-    return sourceFeature.getSource().equals("water") ||
-      sourceFeature.hasTag("natural", "water") ||
-      (
-        sourceFeature.hasTag("leisure", "swimming_pool") &&
-        !sourceFeature.hasTag("location", "indoor", "roof")
-      );
+    return "water".equals(sourceFeature.getSource()) || WATER.evaluate(sourceFeature);
   }
 
   public static Boolean isRoadwayOneway(SourceFeature sourceFeature) {
@@ -85,9 +139,9 @@ public class StreetsUtils {
   }
 
   public static RoadwayLanes getRoadwayLanes(SourceFeature sourceFeature) {
-    Integer lanes = parseUnsignedInt((String) sourceFeature.getTag("lanes"));
-    Integer lanesForward = parseUnsignedInt((String) sourceFeature.getTag("lanes:forward"));
-    Integer lanesBackward = parseUnsignedInt((String) sourceFeature.getTag("lanes:backward"));
+    Integer lanes = UNSIGNED_INTS.get((String) sourceFeature.getTag("lanes"));
+    Integer lanesForward = UNSIGNED_INTS.get((String) sourceFeature.getTag("lanes:forward"));
+    Integer lanesBackward = UNSIGNED_INTS.get((String) sourceFeature.getTag("lanes:backward"));
 
     return new RoadwayLanes() {{
       both = lanes;
@@ -97,19 +151,19 @@ public class StreetsUtils {
   }
 
   public static String getFenceType(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("fence_type"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("fence_type"));
   }
 
   public static String getWallType(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("wall"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("wall"));
   }
 
   public static String getRailwayType(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("railway"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("railway"));
   }
 
   public static String getWaterwayType(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("waterway"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("waterway"));
   }
 
   public static Double getTreeHeight(SourceFeature sourceFeature) {
@@ -152,52 +206,50 @@ public class StreetsUtils {
     String estHeight = (String) sourceFeature.getTag("est_height");
 
     if (height != null) {
-      return parseMeters(height);
+      return METERS.get(height);
     }
 
-    return parseMeters(estHeight);
+    return METERS.get(estHeight);
   }
 
   public static Double getMinHeight(SourceFeature sourceFeature) {
-    return parseMeters((String) sourceFeature.getTag("min_height"));
+    return METERS.get((String) sourceFeature.getTag("min_height"));
   }
 
   public static Double getRoofHeight(SourceFeature sourceFeature) {
-    return parseMeters((String) sourceFeature.getTag("roof:height"));
+    return METERS.get((String) sourceFeature.getTag("roof:height"));
   }
 
   public static Integer getRoofLevels(SourceFeature sourceFeature) {
-    return parseUnsignedInt((String) sourceFeature.getTag("roof:levels"));
+    return UNSIGNED_INTS.get((String) sourceFeature.getTag("roof:levels"));
   }
 
   public static String getRoofMaterial(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("roof:material"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("roof:material"));
   }
 
   public static String getRoofShape(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("roof:shape"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("roof:shape"));
   }
 
   public static String getBuildingMaterial(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("building:material"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("building:material"));
   }
 
   public static Integer getBuildingLevels(SourceFeature sourceFeature) {
-    return parseUnsignedInt((String) sourceFeature.getTag("building:levels"));
+    return UNSIGNED_INTS.get((String) sourceFeature.getTag("building:levels"));
   }
 
   public static Integer getBuildingMinLevel(SourceFeature sourceFeature) {
-    return parseUnsignedInt((String) sourceFeature.getTag("building:min_level"));
+    return UNSIGNED_INTS.get((String) sourceFeature.getTag("building:min_level"));
   }
 
   public static Integer getBuildingColor(SourceFeature sourceFeature) {
-    String color = getFirstTagValue((String) sourceFeature.getTag("building:colour"));
-    return colorParser.parseColor(color);
+    return COLORS.get((String) sourceFeature.getTag("building:colour"));
   }
 
   public static Integer getRoofColor(SourceFeature sourceFeature) {
-    String color = getFirstTagValue((String) sourceFeature.getTag("roof:colour"));
-    return colorParser.parseColor(color);
+    return COLORS.get((String) sourceFeature.getTag("roof:colour"));
   }
 
   public static String getRoofOrientation(SourceFeature sourceFeature) {
@@ -211,36 +263,36 @@ public class StreetsUtils {
   }
 
   public static Double getWidth(SourceFeature sourceFeature) {
-    return parseDouble((String) sourceFeature.getTag("width"));
+    return DOUBLES.get((String) sourceFeature.getTag("width"));
   }
 
   public static Double getDirection(SourceFeature sourceFeature) {
-    return DirectionParser.parse((String) sourceFeature.getTag("direction"));
+    return DIRECTIONS.get((String) sourceFeature.getTag("direction"));
   }
 
   public static Double getRoofDirection(SourceFeature sourceFeature) {
-    return DirectionParser.parse((String) sourceFeature.getTag("roof:direction"));
+    return DIRECTIONS.get((String) sourceFeature.getTag("roof:direction"));
   }
 
   public static Double getAngle(SourceFeature sourceFeature) {
-    return parseDouble((String) sourceFeature.getTag("angle"));
+    return DOUBLES.get((String) sourceFeature.getTag("angle"));
   }
 
   public static String getLeafType(SourceFeature sourceFeature) {
     String leafType = (String) sourceFeature.getTag("leaf_type");
 
-    return getFirstTagValue(leafType);
+    return FIRST_VALUES.get(leafType);
   }
 
   public static String getGenus(SourceFeature sourceFeature) {
-    String genusValue = getFirstTagValue((String) sourceFeature.getTag("genus"));
-    String genusEngValue = getFirstTagValue((String) sourceFeature.getTag("genus:en"));
+    String genusValue = FIRST_VALUES.get((String) sourceFeature.getTag("genus"));
+    String genusEngValue = FIRST_VALUES.get((String) sourceFeature.getTag("genus:en"));
 
     return genusValue != null ? genusValue : genusEngValue;
   }
 
   public static String getSurface(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("surface"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("surface"));
   }
 
   public static String getGauge(SourceFeature sourceFeature) {
@@ -248,18 +300,18 @@ public class StreetsUtils {
   }
 
   public static String getFlagWikidata(SourceFeature sourceFeature) {
-    String wikidata0 = getFirstTagValue((String) sourceFeature.getTag("flag:wikidata"));
-    String wikidata1 = getFirstTagValue((String) sourceFeature.getTag("subject:wikidata"));
+    String wikidata0 = FIRST_VALUES.get((String) sourceFeature.getTag("flag:wikidata"));
+    String wikidata1 = FIRST_VALUES.get((String) sourceFeature.getTag("subject:wikidata"));
 
     return wikidata0 != null ? wikidata0 : wikidata1;
   }
 
   public static String getFlagCountry(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("country"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("country"));
   }
 
   public static String getLampSupport(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("support"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("support"));
   }
 
   public static Boolean getLaneMarkings(SourceFeature sourceFeature) {
@@ -277,7 +329,7 @@ public class StreetsUtils {
   }
 
   public static String getCrop(SourceFeature sourceFeature) {
-    return getFirstTagValue((String) sourceFeature.getTag("crop"));
+    return FIRST_VALUES.get((String) sourceFeature.getTag("crop"));
   }
 
   public static Double parseDouble(String value) {
@@ -304,10 +356,10 @@ public class StreetsUtils {
     if (str == null) return null;
 
     str = str
-      .replaceAll(",", ".")
-      .replaceAll(" ", "")
-      .replaceAll("ft", "'")
-      .replaceAll("feet", "'");
+      .replace(",", ".")
+      .replace(" ", "")
+      .replace("ft", "'")
+      .replace("feet", "'");
 
     if (str.contains("cm")) {
       Double cms = parseDouble(str.replace("cm", ""));
@@ -437,7 +489,7 @@ public class StreetsUtils {
   }
 
   public static boolean isUnderground(SourceFeature sourceFeature) {
-    Double layer = parseDouble((String) sourceFeature.getTag("layer"));
+    Double layer = DOUBLES.get((String) sourceFeature.getTag("layer"));
 
     if (layer != null && layer < 0) {
       return true;
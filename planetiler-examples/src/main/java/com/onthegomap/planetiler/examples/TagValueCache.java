@@ -0,0 +1,87 @@
+package com.onthegomap.planetiler.examples;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.onthegomap.planetiler.stats.Counter;
+import java.util.function.Function;
+
+/**
+ * Memoizes a function that parses tag values, since most elements repeat a handful of values like {@code "3"},
+ * {@code "10 m"} or {@code "red"}.
+ * <p>
+ * Safe to use from multiple threads: each thread gets its own direct-mapped table of {@code size} entries, so lookups
+ * never synchronize and memory stays bounded since a value that hashes to an occupied slot replaces the old entry. Hits
+ * return the same result instance that was computed the first time, so they do not allocate.
+ *
+ * @param <T> type of the parsed result, {@code null} results are cached too
+ */
+public class TagValueCache<T> {
+
+  private final Function<String, T> parser;
+  private final int mask;
+  private final Counter.MultiThreadCounter hits = Counter.newMultiThreadCounter();
+  private final Counter.MultiThreadCounter misses = Counter.newMultiThreadCounter();
+  // Ignore warnings about not removing thread local values since planetiler uses dedicated worker threads that release
+  // values when a task is finished and are not re-used.
+  @SuppressWarnings("java:S5164")
+  private final ThreadLocal<Table<T>> tables;
+
+  /**
+   * Returns a cache for {@code parser} with {@code size} entries per thread, rounded up to a power of 2.
+   *
+   * @throws IllegalArgumentException if {@code size} is not positive
+   */
+  public TagValueCache(Function<String, T> parser, int size) {
+    if (size <= 0 || size > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid size: " + size);
+    }
+    this.parser = parser;
+    int slots = Math.max(1, Integer.highestOneBit(size - 1) << 1);
+    this.mask = slots - 1;
+    this.tables = ThreadLocal.withInitial(() -> new Table<>(slots, hits.counterForThread(), misses.counterForThread()));
+  }
+
+  /** Returns the result of parsing {@code value}, from this thread's table if it was parsed recently. */
+  public T get(String value) {
+    if (value == null) {
+      return parser.apply(null);
+    }
+    Table<T> table = tables.get();
+    int slot = BitMixer.mix32(value.hashCode()) & mask;
+    String key = table.keys[slot];
+    if (key == value || value.equals(key)) {
+      table.hits.inc();
+      return table.values[slot];
+    }
+    T result = parser.apply(value);
+    table.keys[slot] = value;
+    table.values[slot] = result;
+    table.misses.inc();
+    return result;
+  }
+
+  /** Returns the number of lookups from all threads that were found in the cache. */
+  public long hits() {
+    return hits.get();
+  }
+
+  /** Returns the number of lookups from all threads that had to call the parser. */
+  public long misses() {
+    return misses.get();
+  }
+
+  private static class Table<T> {
+
+    private final String[] keys;
+    private final T[] values;
+    private final Counter hits;
+    private final Counter misses;
+
+    @SuppressWarnings("unchecked")
+    Table(int size, Counter hits, Counter misses) {
+      this.keys = new String[size];
+      this.values = (T[]) new Object[size];
+      this.hits = hits;
+      this.misses = misses;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.onthegomap.planetiler.examples;
+
+import static com.onthegomap.planetiler.TestUtils.newPolygon;
+import static com.onthegomap.planetiler.TestUtils.rectangle;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.osm.OsmElement;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.algorithm.MinimumAreaRectangle;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.util.GeometricShapeFactory;
+
+class ShapeDescriptorsTest {
+
+  private static double area(double[] corners) {
+    List<Coordinate> coords = new ArrayList<>();
+    for (int i = 0; i < 8; i += 2) {
+      coords.add(new Coordinate(corners[i], corners[i + 1]));
+    }
+    coords.add(coords.getFirst());
+    return newPolygon(coords).getArea();
+  }
+
+  private static Geometry circle(double x, double y, double size, int points) {
+    var factory = new GeometricShapeFactory(GeoUtils.JTS_FACTORY);
+    factory.setCentre(new Coordinate(x, y));
+    factory.setSize(size);
+    factory.setNumPoints(points);
+    return factory.createCircle();
+  }
+
+  @Test
+  void testOmbbOfRectangle() {
+    double[] ombb = ShapeDescriptors.orientedMinimumBoundingBox(rectangle(1, 2, 4, 3));
+    assertEquals(3, area(ombb), 1e-9);
+  }
+
+  @Test
+  void testOmbbMatchesJts() {
+    List<Geometry> geometries = List.of(
+      newPolygon(0, 0, 4, 1, 3, 5, -1, 4, 0, 0),
+      newPolygon(0, 0, 10, 0, 10, 1, 1, 1, 1, 10, 0, 10, 0, 0),
+      AffineTransformation.rotationInstance(0.3).transform(rectangle(0, 1)),
+      circle(5, 5, 3, 37)
+    );
+    for (Geometry geometry : geometries) {
+      double expected = MinimumAreaRectangle.getMinimumRectangle(geometry).getArea();
+      assertEquals(expected, area(ShapeDescriptors.orientedMinimumBoundingBox(geometry)), 1e-9, geometry.toText());
+    }
+  }
+
+  @Test
+  void testOmbbCornerOrderMatchesJts() {
+    // @ombb attributes used to come straight from MinimumAreaRectangle, so clients depend on its corner order
+    List<Geometry> geometries = List.of(
+      newPolygon(0, 0, 7, 1, 2, 5, 0, 0),
+      newPolygon(0, 0, 6, -1, 9, 3, 4, 8, -1, 5, 0, 0),
+      newPolygon(0, 0, -1, 5, 4, 8, 9, 3, 6, -1, 0, 0),
+      newPolygon(1, 1, 5, 0, 11, 2, 12, 6, 7, 9, 2, 7, 1, 1)
+    );
+    for (Geometry geometry : geometries) {
+      Coordinate[] expected = MinimumAreaRectangle.getMinimumRectangle(geometry).getCoordinates();
+      double[] actual = ShapeDescriptors.orientedMinimumBoundingBox(geometry);
+      for (int i = 0; i < 4; i++) {
+        assertEquals(expected[i].x, actual[i * 2], 1e-9, geometry.toText() + " corner " + i);
+        assertEquals(expected[i].y, actual[i * 2 + 1], 1e-9, geometry.toText() + " corner " + i);
+      }
+    }
+  }
+
+  @Test
+  void testOmbbOfDegenerateGeometry() {
+    assertNull(ShapeDescriptors.orientedMinimumBoundingBox(newPolygon(0, 0, 1, 1, 2, 2, 0, 0)));
+  }
+
+  @Test
+  void testPoleOfInaccessibilityOfSquare() {
+    double[] poi = ShapeDescriptors.poleOfInaccessibility(rectangle(0, 2));
+    assertEquals(1, poi[0], 1e-2);
+    assertEquals(1, poi[1], 1e-2);
+    assertEquals(1, poi[2], 1e-2);
+  }
+
+  @Test
+  void testCacheRoundTrip(@TempDir Path tmpDir) {
+    Path path = tmpDir.resolve("shapes.db");
+    Geometry geometry = circle(0.5, 0.5, 0.1, ShapeDescriptorCache.MIN_CACHED_POINTS * 2);
+    var source = SimpleFeature.createFakeOsmFeature(geometry, Map.of(), "osm", null, 1, List.of(),
+      new OsmElement.Info(0, 0, 0, 3, ""));
+    AtomicInteger computed = new AtomicInteger();
+    double[] expected;
+    try (var cache = ShapeDescriptorCache.open(path)) {
+      expected = cache.computeIfAbsent(source, ShapeDescriptorCache.Kind.OMBB, geometry, g -> {
+        computed.incrementAndGet();
+        return ShapeDescriptors.orientedMinimumBoundingBox(g);
+      });
+    }
+    try (var cache = ShapeDescriptorCache.open(path)) {
+      double[] actual = cache.computeIfAbsent(source, ShapeDescriptorCache.Kind.OMBB, geometry, g -> {
+        computed.incrementAndGet();
+        return ShapeDescriptors.orientedMinimumBoundingBox(g);
+      });
+      assertArrayEquals(expected, actual);
+      assertEquals(1, computed.get());
+
+      // same element, different geometry
+      Geometry moved = circle(0.6, 0.5, 0.1, ShapeDescriptorCache.MIN_CACHED_POINTS * 2);
+      cache.computeIfAbsent(source, ShapeDescriptorCache.Kind.OMBB, moved, g -> {
+        computed.incrementAndGet();
+        return ShapeDescriptors.orientedMinimumBoundingBox(g);
+      });
+      assertEquals(2, computed.get());
+
+      // small geometries are never cached
+      Geometry small = rectangle(0, 1);
+      cache.computeIfAbsent(source, ShapeDescriptorCache.Kind.POLE_OF_INACCESSIBILITY, small, g -> {
+        computed.incrementAndGet();
+        return ShapeDescriptors.poleOfInaccessibility(g);
+      });
+      cache.computeIfAbsent(source, ShapeDescriptorCache.Kind.POLE_OF_INACCESSIBILITY, small, g -> {
+        computed.incrementAndGet();
+        return ShapeDescriptors.poleOfInaccessibility(g);
+      });
+      assertEquals(4, computed.get());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.onthegomap.planetiler.examples;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.onthegomap.planetiler.FeatureCollector;
+import com.onthegomap.planetiler.TestUtils;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+
+class StreetsProfileTest {
+
+  private final StreetsProfile profile = new StreetsProfile();
+
+  private List<String> process(Geometry geometry, Map<String, Object> tags) {
+    return process(geometry, tags, "osm");
+  }
+
+  private List<String> process(Geometry geometry, Map<String, Object> tags, String source) {
+    var feature = SimpleFeature.create(geometry, tags, source, null, 1);
+    return TestUtils.processSourceFeature(feature, profile).stream()
+      .map(StreetsProfileTest::describe)
+      .toList();
+  }
+
+  private static String describe(FeatureCollector.Feature feature) {
+    return feature.getLayer() + ":" + feature.getAttrsAtZoom(16).get("type");
+  }
+
+  private static Geometry point() {
+    return TestUtils.newPoint(1, 2);
+  }
+
+  private static Geometry line() {
+    return TestUtils.newLineString(1, 2, 1.001, 2.001);
+  }
+
+  private static Geometry area() {
+    return TestUtils.newPolygon(1, 2, 1.001, 2, 1.001, 2.001, 1, 2.001, 1, 2);
+  }
+
+  @Test
+  void testPointRulesTakeFirstMatch() {
+    assertEquals(List.of("point:tree"), process(point(), Map.of("natural", "tree", "amenity", "bench")));
+    assertEquals(List.of("point:memorial"), process(point(), Map.of("historic", "memorial")));
+    assertEquals(List.of("point:statue"), process(point(), Map.of("historic", "memorial", "memorial", "statue")));
+    assertEquals(List.of("point:fireHydrant"), process(point(), Map.of("emergency", "fire_hydrant")));
+    assertEquals(List.of(),
+      process(point(), Map.of("emergency", "fire_hydrant", "fire_hydrant:type", "underground")));
+    assertEquals(List.of(), process(point(), Map.of("name", "nothing to see")));
+  }
+
+  @Test
+  void testLineFallThroughRules() {
+    assertEquals(List.of("highways:path"), process(line(), Map.of("highway", "residential", "barrier", "fence")));
+    assertEquals(List.of("water:waterway", "common:track"),
+      process(line(), Map.of("waterway", "ditch", "leisure", "track")));
+    assertEquals(List.of(), process(line(), Map.of("tunnel", "yes", "highway", "residential")));
+  }
+
+  @Test
+  void testAreaRules() {
+    assertEquals(List.of("buildings:building", "common:grass"),
+      process(area(), Map.of("building", "yes", "landuse", "grass")));
+    assertEquals(List.of("highways:path"), process(area(), Map.of("highway", "pedestrian", "area", "yes")));
+    assertEquals(List.of("common:parking"), process(area(), Map.of("amenity", "parking")));
+    assertEquals(List.of(), process(area(), Map.of("amenity", "parking", "parking", "multi-storey")));
+    assertEquals(List.of("water:water"), process(area(), Map.of(), "water"));
+    assertEquals(List.of("water:water"), process(area(), Map.of("natural", "water")));
+  }
+
+  @Test
+  void testClassificationRulesKeepOrder() {
+    var rules = profile.classificationRules();
+    assertEquals("tree", rules.get("point").expressions().getFirst().result());
+    assertEquals("water", rules.get("area").expressions().getFirst().result());
+    assertEquals("building", rules.get("area").expressions().get(1).result());
+  }
+}
@@ -0,0 +1,70 @@
+package com.onthegomap.planetiler.examples;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class TagValueCacheTest {
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final TagValueCache<Double> cache = new TagValueCache<>(value -> {
+    calls.incrementAndGet();
+    return StreetsUtils.parseMeters(value);
+  }, 16);
+
+  @Test
+  void testReturnsSameInstanceOnHit() {
+    Double first = cache.get("10 m");
+    assertEquals(10d, first);
+    assertSame(first, cache.get(new String("10 m")));
+    assertEquals(1, calls.get());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void testCachesNullResults() {
+    assertNull(cache.get("tall"));
+    assertNull(cache.get("tall"));
+    assertEquals(1, calls.get());
+    assertNull(cache.get(null));
+    assertEquals(2, calls.get(), "null values go straight to the parser");
+  }
+
+  @Test
+  void testReplacesEntriesOnCollision() {
+    TagValueCache<Double> tiny = new TagValueCache<>(StreetsUtils::parseMeters, 1);
+    assertEquals(3d, tiny.get("3"));
+    assertEquals(4d, tiny.get("4"));
+    assertEquals(3d, tiny.get("3"));
+    assertEquals(0, tiny.hits());
+    assertEquals(3, tiny.misses());
+  }
+
+  @Test
+  void testEachThreadHasItsOwnTable() {
+    cache.get("5");
+    CompletableFuture.runAsync(() -> assertEquals(5d, cache.get("5"))).join();
+    assertEquals(2, cache.misses());
+    assertEquals(5d, cache.get("5"));
+    assertEquals(1, cache.hits());
+  }
+
+  @Test
+  void testInvalidSize() {
+    assertThrows(IllegalArgumentException.class, () -> new TagValueCache<>(StreetsUtils::parseMeters, 0));
+  }
+
+  @Test
+  void testParseUnits() {
+    assertEquals(0.5, StreetsUtils.parseMeters("50 cm"), 1e-9);
+    assertEquals(3.5, StreetsUtils.parseMeters("3,5"), 1e-9);
+    assertEquals(3.048, StreetsUtils.parseMeters("10 ft"), 1e-9);
+    assertEquals(0.254, StreetsUtils.parseMeters("10\""), 1e-9);
+  }
+}